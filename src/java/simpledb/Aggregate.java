@@ -0,0 +1,274 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
+ * min). Note that we only support aggregates over a single column, grouped by
+ * a single column.
+ * <p>
+ * By default aggregation is hash based: the child is consumed into a
+ * {@link HashAggregator} when the operator is opened, and groups that do not
+ * fit in memory are spilled to disk and aggregated partition by partition.
+ * <p>
+ * If the child is known to be sorted (or at least clustered) on the group-by
+ * field, the operator can instead run in streaming mode. Each group is then
+ * emitted as soon as the group key changes, only one group is held at a
+ * time, and the first result is available without draining the child.
+ */
+public class Aggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+    private int maxGroups;
+    private boolean streaming;
+    private HashAggregator aggregator = null;
+    private DbIterator aggIt = null;
+
+    // streaming mode: the first tuple of the next group, if already read
+    private Tuple pending = null;
+    private TupleDesc resultTd = null;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            The DbIterator that is feeding us tuples.
+     * @param afield
+     *            The column over which we are computing an aggregate.
+     * @param gfield
+     *            The column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            The aggregation operator to use
+     * @param maxGroups
+     *            the number of groups held in memory before spilling
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, int maxGroups) {
+        this.child = child;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.maxGroups = maxGroups;
+        this.streaming = false;
+    }
+
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield, aop, HashAggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Constructor for an aggregate that may stream over sorted input.
+     *
+     * @param sortedInput
+     *            true if the child returns all tuples of a group
+     *            consecutively (e.g. it is sorted on gfield). In that case
+     *            groups are emitted as soon as the group key changes and no
+     *            hash table is built. If the child is not actually grouped,
+     *            a group may be reported more than once.
+     */
+    public Aggregate(DbIterator child, int afield, int gfield, Aggregator.Op aop, boolean sortedInput) {
+        this(child, afield, gfield, aop, HashAggregator.DEFAULT_MAX_GROUPS);
+        if (sortedInput && aop != Aggregator.Op.COUNT
+                && child.getTupleDesc().getFieldType(afield) == Type.STRING_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields, got " + aop);
+        this.streaming = sortedInput;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a groupby, return the groupby
+     *         field index in the <b>INPUT</b> tuples. If not, return
+     *         {@link simpledb.Aggregator#NO_GROUPING}
+     * */
+    public int groupField() {
+        return this.gfield;
+    }
+
+    /**
+     * @return If this aggregate is accompanied by a group by, return the name
+     *         of the groupby field in the <b>OUTPUT</b> tuples If not, return
+     *         null;
+     * */
+    public String groupFieldName() {
+        if (this.gfield == Aggregator.NO_GROUPING)
+            return null;
+        return this.child.getTupleDesc().getFieldName(this.gfield);
+    }
+
+    /**
+     * @return the aggregate field
+     * */
+    public int aggregateField() {
+        return this.afield;
+    }
+
+    /**
+     * @return return the name of the aggregate field in the <b>OUTPUT</b>
+     *         tuples
+     * */
+    public String aggregateFieldName() {
+        return nameOfAggregatorOp(this.aop) + "("
+                + this.child.getTupleDesc().getFieldName(this.afield) + ")";
+    }
+
+    /**
+     * @return return the aggregate operator
+     * */
+    public Aggregator.Op aggregateOp() {
+        return this.aop;
+    }
+
+    /**
+     * @return true if this aggregate streams over input that is grouped on
+     *         the group-by field instead of building a hash table
+     */
+    public boolean isStreaming() {
+        return this.streaming;
+    }
+
+    public static String nameOfAggregatorOp(Aggregator.Op aop) {
+        return aop.toString();
+    }
+
+    public void open() throws NoSuchElementException, DbException,
+            TransactionAbortedException {
+        if (streaming) {
+            child.open();
+            pending = null;
+            resultTd = getTupleDesc();
+            super.open();
+            return;
+        }
+
+        TupleDesc childTd = child.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : childTd.getFieldType(gfield);
+        aggregator = new HashAggregator(gfield, gtype, afield,
+                childTd.getFieldType(afield), aop, maxGroups);
+
+        child.open();
+        while (child.hasNext())
+            aggregator.mergeTupleIntoGroup(child.next());
+
+        aggIt = aggregator.iterator();
+        aggIt.open();
+        super.open();
+    }
+
+    /**
+     * Returns the next tuple. If there is a group by field, then the first
+     * field is the field by which we are grouping, and the second field is the
+     * result of computing the aggregate, If there is no group by field, then
+     * the result tuple should contain one field representing the result of the
+     * aggregate. Should return null if there are no more tuples.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (streaming)
+            return fetchNextGroup();
+
+        if (aggIt != null && aggIt.hasNext())
+            return aggIt.next();
+        return null;
+    }
+
+    /**
+     * Streaming mode: folds consecutive child tuples with the same group key
+     * into a single accumulator and returns the result once a tuple with a
+     * different key (or the end of the child) is seen.
+     */
+    private Tuple fetchNextGroup() throws TransactionAbortedException, DbException {
+        Tuple first = pending;
+        pending = null;
+        if (first == null) {
+            if (!child.hasNext())
+                return null;
+            first = child.next();
+        }
+
+        boolean intAgg = child.getTupleDesc().getFieldType(afield) == Type.INT_TYPE;
+        Field key = gfield == Aggregator.NO_GROUPING ? null : first.getField(gfield);
+        long acc = 0;
+        long count = 0;
+        Tuple t = first;
+        while (true) {
+            int value = intAgg ? ((IntField) t.getField(afield)).getValue() : 0;
+            acc = HashAggregator.accumulate(aop, acc, count, value);
+            count++;
+
+            if (!child.hasNext())
+                break;
+            t = child.next();
+            if (key != null && !key.equals(t.getField(gfield))) {
+                pending = t;
+                break;
+            }
+        }
+
+        Tuple result = new Tuple(resultTd);
+        IntField aggVal = new IntField(HashAggregator.result(aop, acc, count));
+        if (key == null) {
+            result.setField(0, aggVal);
+        } else {
+            result.setField(0, key);
+            result.setField(1, aggVal);
+        }
+        return result;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        if (streaming) {
+            child.rewind();
+            pending = null;
+            return;
+        }
+        aggIt.rewind();
+    }
+
+    /**
+     * Returns the TupleDesc of this Aggregate. If there is no group by field,
+     * this will have one field - the aggregate column. If there is a group by
+     * field, the first field will be the group by field, and the second will be
+     * the aggregate value column.
+     *
+     * The name of an aggregate column should be informative. For example:
+     * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
+     * given in the constructor, and child_td is the TupleDesc of the child
+     * iterator.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc childTd = child.getTupleDesc();
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[] { Type.INT_TYPE },
+                    new String[] { aggregateFieldName() });
+
+        return new TupleDesc(new Type[] { childTd.getFieldType(gfield), Type.INT_TYPE },
+                new String[] { groupFieldName(), aggregateFieldName() });
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        pending = null;
+        if (aggIt != null) {
+            aggIt.close();
+            aggIt = null;
+        }
+        if (aggregator != null) {
+            aggregator.discardSpill();
+            aggregator = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
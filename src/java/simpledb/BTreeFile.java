@@ -0,0 +1,633 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFile is a DbFile that stores its tuples in a B+ tree, sorted on one
+ * key field. The tuples themselves live in the leaves; internal pages hold
+ * only keys and child pointers, so a lookup by key reads O(log n) pages
+ * instead of the whole file.
+ * <p>
+ * The file is made of four kinds of pages, told apart by the category of
+ * their {@link BTreePageId}:
+ * <ul>
+ * <li>page 0 is the {@link BTreeRootPtrPage}, which points to the root and
+ * to the first header page;</li>
+ * <li>{@link BTreeInternalPage}s and {@link BTreeLeafPage}s make up the
+ * tree;</li>
+ * <li>{@link BTreeHeaderPage}s record which pages were freed by merges, so
+ * that later splits can reuse them.</li>
+ * </ul>
+ * Inserting into a full leaf splits it and pushes a key into its parent,
+ * splitting internal pages up to the root as needed. A delete that leaves
+ * a page less than half full either steals entries from a sibling or merges
+ * with it, which may in turn cascade up to the root.
+ * <p>
+ * Inserts and deletes are serialized on the file. While one is running,
+ * every page it modifies is kept in a local map of dirty pages, so that an
+ * eviction by the BufferPool in the middle of a split or merge cannot
+ * separate it from its up-to-date copy; the map is returned to the
+ * BufferPool, which marks the pages dirty and caches them.
+ */
+public class BTreeFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a B+ tree file backed by the specified file. An empty or
+     * missing file is initialized as an empty tree on first use.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param key the field on which the file is sorted
+     * @param td the tuple descriptor of the tuples in the file
+     */
+    public BTreeFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("key field " + key + " is out of range");
+        if (BTreeLeafPage.maxTuples(td) < 2 || BTreeInternalPage.maxKeys(td.getFieldType(key)) < 3)
+            throw new IllegalArgumentException("tuples of " + td + " are too large for a B+ tree");
+        this.f = f;
+        this.td = td;
+        this.keyField = key;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this BTreeFile: the hash code of
+     * the absolute path of the underlying file, as for HeapFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the file is sorted on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the number of pages in the file, including the root pointer
+     *         and header pages
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Reads the layout recorded in the root pointer page from disk. The
+     * layout is set when the file is bulk-loaded and never changes after.
+     *
+     * @return the layout, or 0 if the file is empty or has none
+     * @see BTreeRootPtrPage#getLayout
+     */
+    public int getLayout() throws IOException {
+        if (f.length() < BufferPool.PAGE_SIZE)
+            return 0;
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), data).getLayout();
+    }
+
+    /**
+     * Writes the root pointer page and an empty root leaf to an empty file.
+     */
+    private synchronized void ensureInitialized() throws IOException {
+        if (f.length() > 0)
+            return;
+        byte[] rootPtr = new byte[BufferPool.PAGE_SIZE];
+        rootPtr[3] = 1; // the root is page 1
+        rootPtr[4] = (byte) BTreePageId.LEAF;
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(rootPtr);
+            out.write(BTreeLeafPage.createEmptyPageData());
+        } finally {
+            out.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof BTreePageId) || pid.getTableId() != tableid)
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        BTreePageId id = (BTreePageId) pid;
+        try {
+            ensureInitialized();
+            if (id.pageNumber() >= numPages())
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                raf.seek((long) id.pageNumber() * BufferPool.PAGE_SIZE);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+
+            switch (id.pgcateg()) {
+            case BTreePageId.ROOT_PTR:
+                return new BTreeRootPtrPage(id, data);
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(id, data, td, keyField);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(id, data, td, keyField);
+            default:
+                return new BTreeHeaderPage(id, data);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        synchronized (this) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+                raf.write(page.getPageData());
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Fetches a page, looking first in the dirty pages of the running
+     * operation. Pages fetched READ_WRITE are added to dirtypages.
+     *
+     * @param dirtypages the pages modified by the running operation, or
+     *        null for a read-only caller
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (dirtypages != null) {
+            Page p = dirtypages.get(pid);
+            if (p != null)
+                return p;
+        }
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (dirtypages != null && perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    private BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (BTreeRootPtrPage) getPage(tid, dirtypages, BTreeRootPtrPage.getId(tableid), perm);
+    }
+
+    /**
+     * Descends from pid to the leftmost leaf that may contain key f: at each
+     * internal page, the first child whose key is greater than or equal to
+     * f. Internal pages are read READ_ONLY; the leaf is read with perm.
+     *
+     * @param f the key to search for, or null for the leftmost leaf
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId pid,
+            Permissions perm, Field f) throws DbException, TransactionAbortedException {
+        while (pid.pgcateg() == BTreePageId.INTERNAL) {
+            BTreeInternalPage page = (BTreeInternalPage) getPage(tid, dirtypages, pid, Permissions.READ_ONLY);
+            int lo = 0;
+            if (f != null) {
+                int hi = page.getNumKeys();
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (BTreePage.compareKeys(page.getKey(mid), f) < 0)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+            }
+            pid = page.getChildId(lo);
+        }
+        return (BTreeLeafPage) getPage(tid, dirtypages, pid, perm);
+    }
+
+    /**
+     * @return the leftmost leaf that may contain key f, read READ_ONLY
+     */
+    BTreeLeafPage findLeafPage(TransactionId tid, Field f) throws DbException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, null, Permissions.READ_ONLY);
+        return findLeafPage(tid, null, rootPtr.getRootId(), Permissions.READ_ONLY, f);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple schema does not match the file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        Field key = t.getField(keyField);
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreeLeafPage leaf = findLeafPage(tid, dirtypages, rootPtr.getRootId(), Permissions.READ_WRITE, key);
+        if (leaf.getNumEmptySlots() == 0)
+            leaf = splitLeafPage(tid, dirtypages, leaf, key);
+        leaf.insertTuple(t);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Splits a full leaf, moving its upper half to a new right sibling and
+     * inserting the first key of the new page into the parent.
+     *
+     * @param field the key about to be inserted
+     * @return the half that the key belongs in
+     */
+    private BTreeLeafPage splitLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page, Field field) throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage) getEmptyPage(tid, dirtypages, BTreePageId.LEAF);
+        int keep = page.getNumTuples() - page.getNumTuples() / 2;
+        while (page.getNumTuples() > keep)
+            right.addFirst(page.removeLast());
+
+        BTreePageId oldRightId = page.getRightSiblingId();
+        if (oldRightId != null) {
+            BTreeLeafPage oldRight = (BTreeLeafPage) getPage(tid, dirtypages, oldRightId, Permissions.READ_WRITE);
+            oldRight.setLeftSiblingId(right.getId());
+        }
+        right.setRightSiblingId(oldRightId);
+        right.setLeftSiblingId(page.getId());
+        page.setRightSiblingId(right.getId());
+
+        Field sep = right.getKey(0);
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page);
+        parent.insertEntry(parent.indexOfChild(page.getId().pageNumber()), sep, right.getId());
+        right.setParentId(parent.getId());
+
+        return BTreePage.compareKeys(field, sep) >= 0 ? right : page;
+    }
+
+    /**
+     * Splits a full internal page. The upper half of its entries move to a
+     * new right sibling and the middle key moves up into the parent.
+     *
+     * @param childPgNo a child of page that the caller is about to split
+     * @return the half that now holds childPgNo
+     */
+    private BTreeInternalPage splitInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page, int childPgNo) throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage right = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+        int keep = page.getNumKeys() / 2;
+        right.setOnlyChild(new BTreePageId(tableid, page.removeLastChild(), page.getChildCategory()));
+        while (page.getNumKeys() > keep + 1) {
+            Field key = page.removeLastKey();
+            right.addFirst(page.removeLastChild(), key);
+        }
+        Field pushed = page.removeLastKey();
+        for (int i = 0; i < right.getNumChildren(); i++)
+            setParent(tid, dirtypages, right.getChildId(i), right.getId());
+
+        BTreeInternalPage parent = getParentWithEmptySlots(tid, dirtypages, page);
+        parent.insertEntry(parent.indexOfChild(page.getId().pageNumber()), pushed, right.getId());
+        right.setParentId(parent.getId());
+
+        return right.indexOfChild(childPgNo) >= 0 ? right : page;
+    }
+
+    /**
+     * Returns the parent of page, with room for one more entry. A full
+     * parent is split first, and a root gets a new parent that becomes the
+     * root of the tree.
+     */
+    private BTreeInternalPage getParentWithEmptySlots(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreePage page) throws DbException, IOException, TransactionAbortedException {
+        BTreePageId parentId = page.getParentId();
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            BTreeInternalPage root = (BTreeInternalPage) getEmptyPage(tid, dirtypages, BTreePageId.INTERNAL);
+            root.setOnlyChild(page.getId());
+            BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE);
+            rootPtr.setRootId(root.getId());
+            page.setParentId(root.getId());
+            return root;
+        }
+
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        if (parent.getNumEmptySlots() == 0)
+            parent = splitInternalPage(tid, dirtypages, parent, page.getId().pageNumber());
+        return parent;
+    }
+
+    private void setParent(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreePageId child,
+            BTreePageId parent) throws DbException, TransactionAbortedException {
+        BTreePage page = (BTreePage) getPage(tid, dirtypages, child, Permissions.READ_WRITE);
+        page.setParentId(parent);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof BTreePageId) || rid.getPageId().getTableId() != tableid
+                || ((BTreePageId) rid.getPageId()).pgcateg() != BTreePageId.LEAF)
+            throw new DbException("tuple is not a member of this file");
+
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        BTreeLeafPage leaf = (BTreeLeafPage) getPage(tid, dirtypages, (BTreePageId) rid.getPageId(),
+                Permissions.READ_WRITE);
+        leaf.deleteTuple(t);
+        if (leaf.getNumTuples() < leaf.getMaxTuples() / 2)
+            handleMinOccupancyLeafPage(tid, dirtypages, leaf);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Restores the occupancy of a leaf that is less than half full by
+     * stealing tuples from a sibling under the same parent, or by merging
+     * with it if both fit on one page. The root leaf may be underfull.
+     */
+    private void handleMinOccupancyLeafPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeLeafPage page) throws DbException, TransactionAbortedException {
+        BTreePageId parentId = page.getParentId();
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR)
+            return;
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId().pageNumber());
+        BTreeLeafPage left, right;
+        int keyIndex;
+        if (i > 0) {
+            keyIndex = i - 1;
+            left = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(keyIndex), Permissions.READ_WRITE);
+            right = page;
+        } else {
+            keyIndex = 0;
+            left = page;
+            right = (BTreeLeafPage) getPage(tid, dirtypages, parent.getChildId(1), Permissions.READ_WRITE);
+        }
+
+        if (left.getNumTuples() + right.getNumTuples() <= left.getMaxTuples())
+            mergeLeafPages(tid, dirtypages, left, right, parent, keyIndex);
+        else
+            balanceLeafPages(left, right, parent, keyIndex);
+    }
+
+    private void balanceLeafPages(BTreeLeafPage left, BTreeLeafPage right, BTreeInternalPage parent,
+            int keyIndex) {
+        int targetLeft = (left.getNumTuples() + right.getNumTuples()) / 2;
+        while (left.getNumTuples() > targetLeft)
+            right.addFirst(left.removeLast());
+        while (left.getNumTuples() < targetLeft)
+            left.addLast(right.removeFirst());
+        parent.setKey(keyIndex, right.getKey(0));
+    }
+
+    private void mergeLeafPages(TransactionId tid, HashMap<PageId, Page> dirtypages, BTreeLeafPage left,
+            BTreeLeafPage right, BTreeInternalPage parent, int keyIndex)
+            throws DbException, TransactionAbortedException {
+        while (right.getNumTuples() > 0)
+            left.addLast(right.removeFirst());
+        BTreePageId rightRightId = right.getRightSiblingId();
+        left.setRightSiblingId(rightRightId);
+        if (rightRightId != null) {
+            BTreeLeafPage rightRight = (BTreeLeafPage) getPage(tid, dirtypages, rightRightId,
+                    Permissions.READ_WRITE);
+            rightRight.setLeftSiblingId(left.getId());
+        }
+        parent.deleteKeyAndRightChild(keyIndex);
+        setEmptyPage(tid, dirtypages, right.getId().pageNumber());
+        handleMinOccupancyInternalPage(tid, dirtypages, parent);
+    }
+
+    /**
+     * Restores the occupancy of an internal page after an entry was removed
+     * from it. A root left with a single child is removed and the child
+     * becomes the root.
+     */
+    private void handleMinOccupancyInternalPage(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage page) throws DbException, TransactionAbortedException {
+        BTreePageId parentId = page.getParentId();
+        if (parentId.pgcateg() == BTreePageId.ROOT_PTR) {
+            if (page.getNumKeys() == 0) {
+                BTreePageId childId = page.getChildId(0);
+                setParent(tid, dirtypages, childId, parentId);
+                getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setRootId(childId);
+                setEmptyPage(tid, dirtypages, page.getId().pageNumber());
+            }
+            return;
+        }
+        if (page.getNumKeys() >= page.getMaxKeys() / 2)
+            return;
+
+        BTreeInternalPage parent = (BTreeInternalPage) getPage(tid, dirtypages, parentId, Permissions.READ_WRITE);
+        int i = parent.indexOfChild(page.getId().pageNumber());
+        BTreeInternalPage left, right;
+        int keyIndex;
+        if (i > 0) {
+            keyIndex = i - 1;
+            left = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(keyIndex),
+                    Permissions.READ_WRITE);
+            right = page;
+        } else {
+            keyIndex = 0;
+            left = page;
+            right = (BTreeInternalPage) getPage(tid, dirtypages, parent.getChildId(1), Permissions.READ_WRITE);
+        }
+
+        if (left.getNumKeys() + right.getNumKeys() + 1 <= left.getMaxKeys())
+            mergeInternalPages(tid, dirtypages, left, right, parent, keyIndex);
+        else
+            balanceInternalPages(tid, dirtypages, left, right, parent, keyIndex);
+    }
+
+    /**
+     * Evens out the keys of two sibling internal pages by rotating entries
+     * through their separator key in the parent.
+     */
+    private void balanceInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage left, BTreeInternalPage right, BTreeInternalPage parent, int keyIndex)
+            throws DbException, TransactionAbortedException {
+        int targetLeft = (left.getNumKeys() + right.getNumKeys()) / 2;
+        while (left.getNumKeys() < targetLeft) {
+            int child = right.removeFirstChild();
+            Field sep = right.removeFirstKey();
+            left.addLast(parent.getKey(keyIndex), child);
+            parent.setKey(keyIndex, sep);
+            setParent(tid, dirtypages, new BTreePageId(tableid, child, left.getChildCategory()), left.getId());
+        }
+        while (left.getNumKeys() > targetLeft) {
+            int child = left.removeLastChild();
+            Field sep = left.removeLastKey();
+            right.addFirst(child, parent.getKey(keyIndex));
+            parent.setKey(keyIndex, sep);
+            setParent(tid, dirtypages, new BTreePageId(tableid, child, right.getChildCategory()), right.getId());
+        }
+    }
+
+    /**
+     * Merges right into left, pulling their separator key down from the
+     * parent.
+     */
+    private void mergeInternalPages(TransactionId tid, HashMap<PageId, Page> dirtypages,
+            BTreeInternalPage left, BTreeInternalPage right, BTreeInternalPage parent, int keyIndex)
+            throws DbException, TransactionAbortedException {
+        int first = left.getNumChildren();
+        left.addLast(parent.getKey(keyIndex), right.removeFirstChild());
+        while (right.getNumKeys() > 0) {
+            Field key = right.removeFirstKey();
+            left.addLast(key, right.removeFirstChild());
+        }
+        for (int i = first; i < left.getNumChildren(); i++)
+            setParent(tid, dirtypages, left.getChildId(i), left.getId());
+        parent.deleteKeyAndRightChild(keyIndex);
+        setEmptyPage(tid, dirtypages, right.getId().pageNumber());
+        handleMinOccupancyInternalPage(tid, dirtypages, parent);
+    }
+
+    /**
+     * Returns a new, empty page of the given category: a page freed by an
+     * earlier merge if there is one, otherwise a page appended to the file.
+     */
+    private Page getEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        return newPage(dirtypages, getEmptyPageNo(tid, dirtypages), category);
+    }
+
+    /**
+     * Creates an empty page of the given category at pgNo and adds it to
+     * dirtypages, replacing whatever the page held before.
+     */
+    private Page newPage(HashMap<PageId, Page> dirtypages, int pgNo, int category) throws IOException {
+        discardStalePages(dirtypages, pgNo);
+        BTreePageId pid = new BTreePageId(tableid, pgNo, category);
+        byte[] empty = BTreeLeafPage.createEmptyPageData();
+        Page page;
+        if (category == BTreePageId.LEAF)
+            page = new BTreeLeafPage(pid, empty, td, keyField);
+        else if (category == BTreePageId.INTERNAL)
+            page = new BTreeInternalPage(pid, empty, td, keyField);
+        else
+            page = new BTreeHeaderPage(pid, empty);
+        dirtypages.put(pid, page);
+        return page;
+    }
+
+    /**
+     * Drops any cached copy of a page that is being freed or reused; it may
+     * be cached under a different category than its next use.
+     */
+    private void discardStalePages(HashMap<PageId, Page> dirtypages, int pgNo) {
+        for (int c = BTreePageId.INTERNAL; c <= BTreePageId.HEADER; c++) {
+            BTreePageId pid = new BTreePageId(tableid, pgNo, c);
+            Database.getBufferPool().discardPage(pid);
+            dirtypages.remove(pid);
+        }
+    }
+
+    private int getEmptyPageNo(TransactionId tid, HashMap<PageId, Page> dirtypages)
+            throws DbException, IOException, TransactionAbortedException {
+        int numPages = numPages();
+        BTreePageId headerId = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY).getHeaderId();
+        for (int base = 0; headerId != null; base += BTreeHeaderPage.getNumSlots()) {
+            BTreeHeaderPage header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_ONLY);
+            int slot = header.getEmptySlot(numPages - base);
+            if (slot >= 0) {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+                header.markSlotUsed(slot, true);
+                return base + slot;
+            }
+            headerId = header.getNextPageId();
+        }
+
+        int pgNo = appendEmptyPage();
+        BTreeHeaderPage header = getHeaderPage(tid, dirtypages, pgNo / BTreeHeaderPage.getNumSlots(), false);
+        if (header != null)
+            header.markSlotUsed(pgNo % BTreeHeaderPage.getNumSlots(), true);
+        return pgNo;
+    }
+
+    /** Extends the file by one zeroed page and returns its number. */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pgNo = numPages();
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength((long) (pgNo + 1) * BufferPool.PAGE_SIZE);
+        } finally {
+            raf.close();
+        }
+        return pgNo;
+    }
+
+    /**
+     * Marks a page as free for reuse, creating header pages as needed.
+     */
+    private void setEmptyPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgNo)
+            throws DbException, TransactionAbortedException {
+        try {
+            BTreeHeaderPage header = getHeaderPage(tid, dirtypages, pgNo / BTreeHeaderPage.getNumSlots(), true);
+            header.markSlotUsed(pgNo % BTreeHeaderPage.getNumSlots(), false);
+        } catch (IOException e) {
+            throw new DbException("cannot free page " + pgNo + ": " + e.getMessage());
+        }
+        discardStalePages(dirtypages, pgNo);
+    }
+
+    /**
+     * Returns the index-th header page in the chain, read READ_WRITE. When
+     * create is set, missing header pages are appended to the file with
+     * every existing page marked as in use.
+     *
+     * @return the header page, or null if it does not exist and create is
+     *         not set
+     */
+    private BTreeHeaderPage getHeaderPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int index,
+            boolean create) throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = getRootPtrPage(tid, dirtypages, Permissions.READ_ONLY);
+        BTreePageId headerId = rootPtr.getHeaderId();
+        BTreeHeaderPage prev = null;
+        for (int k = 0; k <= index; k++) {
+            BTreeHeaderPage header;
+            if (headerId == null) {
+                if (!create)
+                    return null;
+                int pgNo = appendEmptyPage();
+                header = (BTreeHeaderPage) newPage(dirtypages, pgNo, BTreePageId.HEADER);
+                int base = k * BTreeHeaderPage.getNumSlots();
+                int used = Math.min(numPages() - base, BTreeHeaderPage.getNumSlots());
+                for (int i = 0; i < used; i++)
+                    header.markSlotUsed(i, true);
+                if (prev == null)
+                    getRootPtrPage(tid, dirtypages, Permissions.READ_WRITE).setHeaderId(header.getId());
+                else
+                    prev.setNextPageId(header.getId());
+            } else {
+                header = (BTreeHeaderPage) getPage(tid, dirtypages, headerId, Permissions.READ_WRITE);
+            }
+            prev = header;
+            headerId = header.getNextPageId();
+        }
+        return prev;
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new BTreeFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key satisfies ipred, in key
+     * order. EQUALS and lower-bounded predicates start at the leaf holding
+     * the first match; a scan stops as soon as no further key can match.
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        return new BTreeFileIterator(tid, this, ipred);
+    }
+}
@@ -0,0 +1,384 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * BTreeFileEncoder bulk-loads a BTreeFile. Tuples are added in any order;
+ * they are sorted on the key field, in memory or, when there are more than
+ * fit in one run, as an external merge sort over temporary run files. The
+ * sorted tuples are then written bottom-up, strictly sequentially: the root
+ * pointer page, every leaf from left to right, and then each level of
+ * internal pages up to the root.
+ * <p>
+ * Because the number of tuples is known once they are sorted, the shape of
+ * the whole tree, and so the page number of every page and of its parent,
+ * is fixed before the first page is written. Pages are filled to the given
+ * fill factor, with tuples and children spread evenly so that no page is
+ * left nearly empty; a fill factor below 1 leaves room for later inserts
+ * without immediate splits.
+ */
+public class BTreeFileEncoder {
+
+    /** Default fraction of each page filled by a bulk load. */
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+    /** Default number of tuples sorted in memory per run. */
+    public static final int DEFAULT_RUN_SIZE = 1 << 17;
+
+    private final TupleDesc td;
+    private final int keyField;
+    private final double fillFactor;
+    private final int runSize;
+    private final Comparator<Tuple> byKey;
+
+    private ArrayList<Tuple> run = new ArrayList<Tuple>();
+    private ArrayList<File> runFiles = new ArrayList<File>();
+    private ArrayList<Integer> runSizes = new ArrayList<Integer>();
+    private long count = 0;
+
+    /**
+     * @param td the schema of the tuples
+     * @param keyField the field the file is sorted on
+     * @param fillFactor the fraction of each page to fill, in (0, 1]
+     * @param runSize the number of tuples sorted in memory before a run is
+     *        written to disk
+     */
+    public BTreeFileEncoder(TupleDesc td, int keyField, double fillFactor, int runSize) {
+        if (fillFactor <= 0 || fillFactor > 1)
+            throw new IllegalArgumentException("fill factor must be in (0, 1], got " + fillFactor);
+        if (runSize < 1)
+            throw new IllegalArgumentException("run size must be positive");
+        this.td = td;
+        this.keyField = keyField;
+        this.fillFactor = fillFactor;
+        this.runSize = runSize;
+        final int key = keyField;
+        this.byKey = new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreePage.compareKeys(a.getField(key), b.getField(key));
+            }
+        };
+    }
+
+    public BTreeFileEncoder(TupleDesc td, int keyField) {
+        this(td, keyField, DEFAULT_FILL_FACTOR, DEFAULT_RUN_SIZE);
+    }
+
+    /** Adds a tuple to the file being built. */
+    public void add(Tuple t) throws IOException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new IllegalArgumentException("tuple schema does not match " + td);
+        run.add(t);
+        count++;
+        if (run.size() >= runSize)
+            spillRun();
+    }
+
+    /** Sorts the current run and writes it to a temporary file. */
+    private void spillRun() throws IOException {
+        Collections.sort(run, byKey);
+        File f = File.createTempFile("btreerun", ".tmp");
+        f.deleteOnExit();
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            for (Tuple t : run) {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.getField(i).serialize(dos);
+            }
+        } finally {
+            dos.close();
+        }
+        runFiles.add(f);
+        runSizes.add(run.size());
+        run.clear();
+    }
+
+    /** One sorted run being merged, with its next tuple. */
+    private class RunReader {
+        final int index;
+        final DataInputStream in;
+        long remaining;
+        Tuple head;
+
+        RunReader(int index, File f, long size) throws IOException {
+            this.index = index;
+            this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+            this.remaining = size;
+            advance();
+        }
+
+        void advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                in.close();
+                return;
+            }
+            remaining--;
+            Tuple t = new Tuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++)
+                    t.setField(i, td.getFieldType(i).parse(in));
+            } catch (java.text.ParseException e) {
+                throw new IOException("corrupt sort run: " + e.getMessage());
+            }
+            head = t;
+        }
+    }
+
+    /**
+     * @return the added tuples in key order; ties keep the order in which
+     *         the tuples were added
+     */
+    private Iterator<Tuple> sorted() throws IOException {
+        if (runFiles.isEmpty()) {
+            Collections.sort(run, byKey);
+            return run.iterator();
+        }
+        if (!run.isEmpty())
+            spillRun();
+
+        final PriorityQueue<RunReader> heads = new PriorityQueue<RunReader>(runFiles.size(),
+                new Comparator<RunReader>() {
+                    public int compare(RunReader a, RunReader b) {
+                        int c = byKey.compare(a.head, b.head);
+                        return c != 0 ? c : a.index - b.index;
+                    }
+                });
+        for (int i = 0; i < runFiles.size(); i++) {
+            RunReader r = new RunReader(i, runFiles.get(i), runSizes.get(i));
+            if (r.head != null)
+                heads.add(r);
+        }
+        return new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return !heads.isEmpty();
+            }
+
+            public Tuple next() {
+                RunReader r = heads.poll();
+                Tuple t = r.head;
+                try {
+                    r.advance();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                if (r.head != null)
+                    heads.add(r);
+                return t;
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Splits n items into the fewest groups of at most max items each, with
+     * sizes differing by at most one.
+     *
+     * @return the size of each group
+     */
+    private static int[] spread(long n, int max) {
+        int groups = (int) Math.max(1, (n + max - 1) / max);
+        int[] sizes = new int[groups];
+        for (int i = 0; i < groups; i++)
+            sizes[i] = (int) (n / groups + (i < n % groups ? 1 : 0));
+        return sizes;
+    }
+
+    /**
+     * Sorts the added tuples and writes them to outFile as a BTreeFile,
+     * replacing any previous contents. The tree is written to a temporary
+     * file that replaces outFile only once it is complete. The run files
+     * are deleted.
+     */
+    public void write(File outFile) throws IOException {
+        write(outFile, 0);
+    }
+
+    /**
+     * Writes the file as {@link #write(File)} does, recording the given
+     * layout in its root pointer page.
+     *
+     * @see BTreeRootPtrPage#getLayout
+     */
+    public void write(File outFile, int layout) throws IOException {
+        int perLeaf = Math.max(2, (int) (BTreeLeafPage.maxTuples(td) * fillFactor));
+        int fanout = Math.max(3, (int) (BTreeInternalPage.maxKeys(td.getFieldType(keyField)) * fillFactor) + 1);
+
+        // lay out the tree: the leaves are pages 1..L, then each internal
+        // level in turn, ending with the root
+        ArrayList<int[]> levels = new ArrayList<int[]>();
+        levels.add(spread(count, perLeaf));
+        while (levels.get(levels.size() - 1).length > 1)
+            levels.add(spread(levels.get(levels.size() - 1).length, fanout));
+        int[] firstPage = new int[levels.size()];
+        firstPage[0] = 1;
+        for (int l = 1; l < levels.size(); l++)
+            firstPage[l] = firstPage[l - 1] + levels.get(l - 1).length;
+        int rootLevel = levels.size() - 1;
+
+        int tableid = outFile.getAbsoluteFile().hashCode();
+        // the tree is written next to outFile and renamed over it once
+        // complete, so a failed load never leaves a partial tree behind
+        File tmp = new File(outFile.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 1 << 16));
+        boolean replaced = false;
+        try {
+            byte[] empty = BTreeLeafPage.createEmptyPageData();
+            BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(BTreeRootPtrPage.getId(tableid), empty);
+            rootPtr.setRootId(new BTreePageId(tableid, firstPage[rootLevel],
+                    rootLevel == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL));
+            rootPtr.setLayout(layout);
+            out.write(rootPtr.getPageData());
+
+            // leaves, remembering the first key of each for the level above
+            int[] leafSizes = levels.get(0);
+            Field[] minKeys = new Field[leafSizes.length];
+            Iterator<Tuple> it = sorted();
+            for (int i = 0; i < leafSizes.length; i++) {
+                int pgNo = firstPage[0] + i;
+                BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(tableid, pgNo, BTreePageId.LEAF),
+                        empty, td, keyField);
+                leaf.setParentId(parentOf(tableid, levels, firstPage, 0, i));
+                if (i > 0)
+                    leaf.setLeftSiblingId(new BTreePageId(tableid, pgNo - 1, BTreePageId.LEAF));
+                if (i < leafSizes.length - 1)
+                    leaf.setRightSiblingId(new BTreePageId(tableid, pgNo + 1, BTreePageId.LEAF));
+                for (int j = 0; j < leafSizes[i]; j++)
+                    leaf.addLast(it.next());
+                if (leafSizes[i] > 0)
+                    minKeys[i] = leaf.getKey(0);
+                out.write(leaf.getPageData());
+            }
+
+            // internal levels, bottom-up
+            for (int l = 1; l < levels.size(); l++) {
+                int[] sizes = levels.get(l);
+                Field[] levelMinKeys = new Field[sizes.length];
+                int child = 0;
+                int childCategory = l == 1 ? BTreePageId.LEAF : BTreePageId.INTERNAL;
+                for (int i = 0; i < sizes.length; i++) {
+                    BTreePageId pid = new BTreePageId(tableid, firstPage[l] + i, BTreePageId.INTERNAL);
+                    BTreeInternalPage page = new BTreeInternalPage(pid, empty, td, keyField);
+                    page.setParentId(parentOf(tableid, levels, firstPage, l, i));
+                    page.setOnlyChild(new BTreePageId(tableid, firstPage[l - 1] + child, childCategory));
+                    levelMinKeys[i] = minKeys[child];
+                    for (int j = 1; j < sizes[i]; j++)
+                        page.addLast(minKeys[child + j], firstPage[l - 1] + child + j);
+                    child += sizes[i];
+                    out.write(page.getPageData());
+                }
+                minKeys = levelMinKeys;
+            }
+            out.flush();
+            Utility.replaceFile(fos, tmp, outFile);
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                out.close();
+                tmp.delete();
+            }
+            for (File f : runFiles)
+                f.delete();
+            runFiles.clear();
+            runSizes.clear();
+            run.clear();
+            count = 0;
+        }
+    }
+
+    /**
+     * @return the parent of the i-th page of level l: the root pointer page
+     *         for the root, otherwise the page of level l + 1 whose
+     *         children include it
+     */
+    private static BTreePageId parentOf(int tableid, ArrayList<int[]> levels, int[] firstPage, int l, int i) {
+        if (l == levels.size() - 1)
+            return BTreeRootPtrPage.getId(tableid);
+        int[] parents = levels.get(l + 1);
+        int p = 0;
+        while (i >= parents[p]) {
+            i -= parents[p];
+            p++;
+        }
+        return new BTreePageId(tableid, firstPage[l + 1] + p, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Builds a BTreeFile from a list of tuples with only integer fields, as
+     * HeapFileEncoder does for heap files.
+     *
+     * @param tuples the tuples, each a list of its integer field values
+     * @param outFile the file to write
+     * @param numFields the number of fields in each tuple
+     * @param keyField the field the file is sorted on
+     * @return the new file; it is not added to the Catalog
+     */
+    public static BTreeFile convert(ArrayList<ArrayList<Integer>> tuples, File outFile, int numFields,
+            int keyField) throws IOException {
+        Type[] types = new Type[numFields];
+        Arrays.fill(types, Type.INT_TYPE);
+        TupleDesc td = new TupleDesc(types);
+        BTreeFileEncoder encoder = new BTreeFileEncoder(td, keyField);
+        for (ArrayList<Integer> values : tuples) {
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < numFields; i++)
+                t.setField(i, new IntField(values.get(i)));
+            encoder.add(t);
+        }
+        encoder.write(outFile);
+        return new BTreeFile(outFile, keyField, td);
+    }
+
+    /**
+     * Builds a BTreeFile from a delimited text file with one tuple per line,
+     * in the format read by HeapFileEncoder.
+     *
+     * @param inFile the input text file
+     * @param outFile the file to write
+     * @param typeAr the type of each field
+     * @param fieldSeparator the character between fields
+     * @param keyField the field the file is sorted on
+     * @param fillFactor the fraction of each page to fill
+     * @throws IOException if a file can't be read or written, or a line is
+     *         malformed
+     */
+    public static void convert(File inFile, File outFile, Type[] typeAr, char fieldSeparator, int keyField,
+            double fillFactor) throws IOException {
+        TupleDesc td = new TupleDesc(typeAr);
+        BTreeFileEncoder encoder = new BTreeFileEncoder(td, keyField, fillFactor, DEFAULT_RUN_SIZE);
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        try {
+            String line;
+            int lineNo = 0;
+            while ((line = br.readLine()) != null) {
+                lineNo++;
+                if (line.trim().isEmpty())
+                    continue;
+                String[] values = line.split(java.util.regex.Pattern.quote(String.valueOf(fieldSeparator)), -1);
+                if (values.length != typeAr.length)
+                    throw new IOException("line " + lineNo + " has " + values.length + " fields, expected "
+                            + typeAr.length);
+                Tuple t = new Tuple(td);
+                for (int i = 0; i < typeAr.length; i++) {
+                    String v = values[i].trim();
+                    try {
+                        if (typeAr[i] == Type.INT_TYPE)
+                            t.setField(i, new IntField(Integer.parseInt(v)));
+                        else
+                            t.setField(i, new StringField(v, Type.STRING_LEN));
+                    } catch (NumberFormatException e) {
+                        throw new IOException("line " + lineNo + ": bad int field \"" + v + "\"");
+                    }
+                }
+                encoder.add(t);
+            }
+        } finally {
+            br.close();
+        }
+        encoder.write(outFile);
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Iterates over the tuples of a BTreeFile in key order, optionally only
+ * those whose key satisfies an IndexPredicate. The iterator descends the
+ * tree once to the first leaf that can hold a match and then follows the
+ * right sibling pointers, fetching each leaf through the BufferPool only
+ * when it is reached. A scan stops as soon as the predicate can no longer
+ * match, so an equality or range lookup reads O(log n) pages plus the
+ * leaves that hold the result.
+ */
+public class BTreeFileIterator implements DbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private BTreeFile file;
+    private IndexPredicate ipred;
+
+    private Iterator<Tuple> it = null;
+    private BTreePageId nextLeaf = null;
+    private Tuple next = null;
+    private boolean done = true;
+
+    /**
+     * @param ipred the predicate on the key, or null to return every tuple
+     */
+    public BTreeFileIterator(TransactionId tid, BTreeFile file, IndexPredicate ipred) {
+        this.tid = tid;
+        this.file = file;
+        this.ipred = ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        Field start = null;
+        if (ipred != null) {
+            switch (ipred.getOp()) {
+            case EQUALS:
+            case GREATER_THAN:
+            case GREATER_THAN_OR_EQ:
+                start = ipred.getField();
+                break;
+            default:
+                break;
+            }
+        }
+        BTreeLeafPage leaf = file.findLeafPage(tid, start);
+        it = leaf.iterator();
+        nextLeaf = leaf.getRightSiblingId();
+        next = null;
+        done = false;
+    }
+
+    private Tuple readNext() throws DbException, TransactionAbortedException {
+        while (!done) {
+            while (!it.hasNext()) {
+                if (nextLeaf == null) {
+                    done = true;
+                    return null;
+                }
+                BTreeLeafPage leaf = (BTreeLeafPage) Database.getBufferPool().getPage(tid, nextLeaf,
+                        Permissions.READ_ONLY);
+                it = leaf.iterator();
+                nextLeaf = leaf.getRightSiblingId();
+            }
+            Tuple t = it.next();
+            if (ipred == null)
+                return t;
+            Field key = t.getField(file.keyField());
+            if (ipred.matches(key))
+                return t;
+            if (ipred.isPastEnd(key))
+                done = true;
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return false;
+        if (next == null)
+            next = readNext();
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        it = null;
+        next = null;
+        done = true;
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A header page of a BTreeFile. Header pages form a chain starting at the
+ * root pointer page; the k-th header page in the chain holds one bit for
+ * each of the pages k * getNumSlots() to (k + 1) * getNumSlots() - 1 of the
+ * file, set when the page is in use and clear when it has been freed and
+ * may be reused.
+ * <p>
+ * On disk a header page is the page number of the next header page (0 at
+ * the end of the chain) followed by the bitmap.
+ */
+public class BTreeHeaderPage implements Page {
+
+    private static final int HEADER_SIZE = 4;
+
+    private final BTreePageId pid;
+    private int next;
+    private byte[] bitmap;
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+
+    public BTreeHeaderPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        next = dis.readInt();
+        bitmap = new byte[BufferPool.PAGE_SIZE - HEADER_SIZE];
+        dis.readFully(bitmap);
+        setBeforeImage();
+    }
+
+    /** @return the number of pages tracked by one header page */
+    public static int getNumSlots() {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) * 8;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the next header page in the chain, or null */
+    public BTreePageId getNextPageId() {
+        return next == 0 ? null : new BTreePageId(pid.getTableId(), next, BTreePageId.HEADER);
+    }
+
+    public void setNextPageId(BTreePageId id) {
+        next = id == null ? 0 : id.pageNumber();
+    }
+
+    public boolean isSlotUsed(int i) {
+        return ((bitmap[i >> 3] >> (i & 7)) & 1) == 1;
+    }
+
+    public void markSlotUsed(int i, boolean used) {
+        if (used)
+            bitmap[i >> 3] |= (byte) (1 << (i & 7));
+        else
+            bitmap[i >> 3] &= (byte) ~(1 << (i & 7));
+    }
+
+    /**
+     * @return the first slot below limit that is not in use, or -1
+     */
+    public int getEmptySlot(int limit) {
+        limit = Math.min(limit, getNumSlots());
+        for (int b = 0; b * 8 < limit; b++) {
+            if (bitmap[b] == (byte) 0xff)
+                continue;
+            for (int i = b * 8; i < b * 8 + 8 && i < limit; i++) {
+                if (!isSlotUsed(i))
+                    return i;
+            }
+        }
+        return -1;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        byte[] data = new byte[BufferPool.PAGE_SIZE];
+        data[0] = (byte) (next >>> 24);
+        data[1] = (byte) (next >>> 16);
+        data[2] = (byte) (next >>> 8);
+        data[3] = (byte) next;
+        System.arraycopy(bitmap, 0, data, HEADER_SIZE, bitmap.length);
+        return data;
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        try {
+            return new BTreeHeaderPage(pid, oldData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
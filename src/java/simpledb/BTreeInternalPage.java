@@ -0,0 +1,207 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * An internal page of a BTreeFile. An internal page with n keys has n + 1
+ * children, all of the same category (all INTERNAL or all LEAF). Every key
+ * in the subtree of child i is less than or equal to key i, and every key
+ * in the subtree of child i + 1 is greater than or equal to it.
+ * <p>
+ * On disk an internal page is the page number of its parent, the number of
+ * keys, the category of the children, then the keys and then the child page
+ * numbers.
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 9;
+
+    private int childCategory;
+    private ArrayList<Field> keys = new ArrayList<Field>();
+    private ArrayList<Integer> children = new ArrayList<Integer>();
+
+    /**
+     * Creates an internal page from its on-disk representation. A page of
+     * all zeros is an empty internal page, with no keys and no children.
+     *
+     * @param id the id of this page
+     * @param data the raw bytes of the page
+     * @param td the schema of the tuples of the file
+     * @param keyField the index of the key field in td
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        parent = dis.readInt();
+        int n = dis.readInt();
+        childCategory = dis.readByte();
+        if (n < 0 || n > getMaxKeys())
+            throw new IOException("corrupt internal page " + id + ": " + n + " keys");
+        if (childCategory == 0)
+            childCategory = BTreePageId.LEAF;
+        Type keyType = td.getFieldType(keyField);
+        try {
+            for (int i = 0; i < n; i++)
+                keys.add(keyType.parse(dis));
+        } catch (java.text.ParseException e) {
+            throw new IOException("corrupt internal page " + id + ": " + e.getMessage());
+        }
+        // a page with no keys has a child only while it is a new root
+        int first = dis.readInt();
+        if (n > 0 || first != 0) {
+            children.add(first);
+            for (int i = 0; i < n; i++)
+                children.add(dis.readInt());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of keys that fit on an internal page for this key
+     *         type
+     */
+    public int getMaxKeys() {
+        return maxKeys(td.getFieldType(keyField));
+    }
+
+    static int maxKeys(Type keyType) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE - 4) / (keyType.getLen() + 4);
+    }
+
+    public int getNumKeys() {
+        return keys.size();
+    }
+
+    public int getNumChildren() {
+        return children.size();
+    }
+
+    public int getNumEmptySlots() {
+        return getMaxKeys() - keys.size();
+    }
+
+    /** @return the category of the children of this page */
+    public int getChildCategory() {
+        return childCategory;
+    }
+
+    public void setChildCategory(int category) {
+        if (category != BTreePageId.INTERNAL && category != BTreePageId.LEAF)
+            throw new IllegalArgumentException("children must be internal or leaf pages");
+        childCategory = category;
+    }
+
+    public Field getKey(int i) {
+        return keys.get(i);
+    }
+
+    public void setKey(int i, Field key) {
+        keys.set(i, key);
+    }
+
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(pid.getTableId(), children.get(i), childCategory);
+    }
+
+    /**
+     * @return the position of the child with the given page number, or -1
+     */
+    public int indexOfChild(int pgNo) {
+        return children.indexOf(pgNo);
+    }
+
+    /**
+     * Makes this page a root with a single child and no keys.
+     */
+    void setOnlyChild(BTreePageId child) {
+        keys.clear();
+        children.clear();
+        children.add(child.pageNumber());
+        childCategory = child.pgcateg();
+    }
+
+    /**
+     * Inserts key at position i and the child to its right at position
+     * i + 1.
+     *
+     * @throws DbException if the page is full
+     */
+    public void insertEntry(int i, Field key, BTreePageId rightChild) throws DbException {
+        if (keys.size() >= getMaxKeys())
+            throw new DbException("internal page " + pid + " is full");
+        if (rightChild.pgcateg() != childCategory)
+            throw new DbException("child " + rightChild + " does not match page " + pid);
+        keys.add(i, key);
+        children.add(i + 1, rightChild.pageNumber());
+    }
+
+    /** Removes key i and the child to its right. */
+    public void deleteKeyAndRightChild(int i) {
+        keys.remove(i);
+        children.remove(i + 1);
+    }
+
+    /** Removes key i and the child to its left. */
+    public void deleteKeyAndLeftChild(int i) {
+        keys.remove(i);
+        children.remove(i);
+    }
+
+    /** Appends a key and the child to its right. */
+    void addLast(Field key, int childPgNo) {
+        keys.add(key);
+        children.add(childPgNo);
+    }
+
+    /** Prepends a key and the child to its left. */
+    void addFirst(int childPgNo, Field key) {
+        keys.add(0, key);
+        children.add(0, childPgNo);
+    }
+
+    /** Removes the first key; the first child must be removed separately. */
+    Field removeFirstKey() {
+        return keys.remove(0);
+    }
+
+    Field removeLastKey() {
+        return keys.remove(keys.size() - 1);
+    }
+
+    int removeFirstChild() {
+        return children.remove(0);
+    }
+
+    int removeLastChild() {
+        return children.remove(children.size() - 1);
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeInt(keys.size());
+            dos.writeByte(childCategory);
+            for (Field key : keys)
+                key.serialize(dos);
+            if (children.isEmpty())
+                dos.writeInt(0);
+            for (int child : children)
+                dos.writeInt(child);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        try {
+            return new BTreeInternalPage(pid, oldData, td, keyField);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
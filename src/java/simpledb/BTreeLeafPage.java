@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A leaf page of a BTreeFile. Leaf pages hold the tuples of the file,
+ * sorted by the key field; tuples with equal keys are kept in the order
+ * they were inserted. Leaves are linked to their left and right siblings so
+ * that range scans can move from leaf to leaf without going back through
+ * the internal pages.
+ * <p>
+ * On disk a leaf page is the page number of its parent, left sibling and
+ * right sibling (0 when there is none), the number of tuples, and then the
+ * tuples themselves, packed in key order. The tuple number of a tuple's
+ * RecordId is its position on the page, so it changes when tuples before it
+ * are inserted or deleted; the page keeps the RecordIds of its tuples up to
+ * date.
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 16;
+
+    private int leftSibling;
+    private int rightSibling;
+    private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    /**
+     * Creates a leaf page from its on-disk representation. A page of all
+     * zeros is an empty leaf with no parent and no siblings.
+     *
+     * @param id the id of this page
+     * @param data the raw bytes of the page
+     * @param td the schema of the tuples of the file
+     * @param keyField the index of the key field in td
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data, TupleDesc td, int keyField) throws IOException {
+        super(id, td, keyField);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        parent = dis.readInt();
+        leftSibling = dis.readInt();
+        rightSibling = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > getMaxTuples())
+            throw new IOException("corrupt leaf page " + id + ": " + n + " tuples");
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("corrupt leaf page " + id + ": " + e.getMessage());
+        }
+        setBeforeImage();
+    }
+
+    /**
+     * @return the number of tuples that fit on a leaf page of this schema
+     */
+    public int getMaxTuples() {
+        return maxTuples(td);
+    }
+
+    static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public int getNumEmptySlots() {
+        return getMaxTuples() - tuples.size();
+    }
+
+    /**
+     * @return the i-th tuple of this page in key order
+     */
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /**
+     * @return the key of the i-th tuple of this page
+     */
+    public Field getKey(int i) {
+        return tuples.get(i).getField(keyField);
+    }
+
+    /** @return the left sibling of this leaf, or null if it is the leftmost */
+    public BTreePageId getLeftSiblingId() {
+        return leftSibling == 0 ? null : new BTreePageId(pid.getTableId(), leftSibling, BTreePageId.LEAF);
+    }
+
+    /** @return the right sibling of this leaf, or null if it is the rightmost */
+    public BTreePageId getRightSiblingId() {
+        return rightSibling == 0 ? null : new BTreePageId(pid.getTableId(), rightSibling, BTreePageId.LEAF);
+    }
+
+    /** @param id the new left sibling, or null */
+    public void setLeftSiblingId(BTreePageId id) {
+        leftSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /** @param id the new right sibling, or null */
+    public void setRightSiblingId(BTreePageId id) {
+        rightSibling = id == null ? 0 : id.pageNumber();
+    }
+
+    /**
+     * Adds a tuple to this page after any tuples with an equal key, and sets
+     * its RecordId.
+     *
+     * @throws DbException if the page is full or the tuple has the wrong
+     *         schema
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tuple schema does not match the page");
+        if (tuples.size() >= getMaxTuples())
+            throw new DbException("leaf page " + pid + " is full");
+        Field key = t.getField(keyField);
+        int lo = 0, hi = tuples.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compareKeys(getKey(mid), key) <= 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        tuples.add(lo, t);
+        renumber(lo);
+    }
+
+    /**
+     * Removes a tuple from this page. The tuple is found through its
+     * RecordId, or by comparing field values if the RecordId is stale.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int i = rid.tupleno();
+        if (i < 0 || i >= tuples.size() || !sameTuple(tuples.get(i), t)) {
+            i = -1;
+            for (int j = 0; j < tuples.size(); j++) {
+                if (sameTuple(tuples.get(j), t)) {
+                    i = j;
+                    break;
+                }
+            }
+            if (i < 0)
+                throw new DbException("tuple is not on page " + pid);
+        }
+        tuples.remove(i);
+        t.setRecordId(null);
+        renumber(i);
+    }
+
+    /** Removes and returns the first tuple on this page. */
+    Tuple removeFirst() {
+        Tuple t = tuples.remove(0);
+        renumber(0);
+        return t;
+    }
+
+    /** Removes and returns the last tuple on this page. */
+    Tuple removeLast() {
+        return tuples.remove(tuples.size() - 1);
+    }
+
+    /**
+     * Adds a tuple before all others. Used when moving tuples between
+     * siblings, where the caller knows the key order is kept.
+     */
+    void addFirst(Tuple t) {
+        tuples.add(0, t);
+        renumber(0);
+    }
+
+    /** Adds a tuple after all others; see {@link #addFirst}. */
+    void addLast(Tuple t) {
+        tuples.add(t);
+        renumber(tuples.size() - 1);
+    }
+
+    private static boolean sameTuple(Tuple a, Tuple b) {
+        if (a == b)
+            return true;
+        int n = a.getTupleDesc().numFields();
+        if (n != b.getTupleDesc().numFields())
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    private void renumber(int from) {
+        for (int i = from; i < tuples.size(); i++)
+            tuples.get(i).setRecordId(new RecordId(pid, i));
+    }
+
+    /**
+     * @return an iterator over the tuples of this page in key order
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(new ArrayList<Tuple>(tuples)).iterator();
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(parent);
+            dos.writeInt(leftSibling);
+            dos.writeInt(rightSibling);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        try {
+            return new BTreeLeafPage(pid, oldData, td, keyField);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return an all-zero page, which parses as an empty leaf */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.PAGE_SIZE];
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+/**
+ * Common state of the internal and leaf pages of a BTreeFile: the page id,
+ * the schema and key field of the file, the pointer to the parent page and
+ * the dirty flag.
+ * <p>
+ * A parent pointer of 0 means the page is the root; page 0 of every
+ * BTreeFile is its root pointer page.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+    protected final TupleDesc td;
+    protected final int keyField;
+    protected int parent;
+
+    private volatile TransactionId dirtier = null;
+    protected byte[] oldData;
+
+    protected BTreePage(BTreePageId id, TupleDesc td, int keyField) {
+        this.pid = id;
+        this.td = td;
+        this.keyField = keyField;
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the id of the parent of this page: an INTERNAL page, or the
+     *         ROOT_PTR page if this page is the root
+     */
+    public BTreePageId getParentId() {
+        if (parent == 0)
+            return new BTreePageId(pid.getTableId(), 0, BTreePageId.ROOT_PTR);
+        return new BTreePageId(pid.getTableId(), parent, BTreePageId.INTERNAL);
+    }
+
+    /**
+     * Sets the parent of this page.
+     *
+     * @param id an INTERNAL page id, or the ROOT_PTR page id to make this
+     *        page the root
+     */
+    public void setParentId(BTreePageId id) {
+        if (id.pgcateg() == BTreePageId.ROOT_PTR)
+            parent = 0;
+        else if (id.pgcateg() == BTreePageId.INTERNAL)
+            parent = id.pageNumber();
+        else
+            throw new IllegalArgumentException("parent must be an internal or root pointer page: " + id);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+
+    /**
+     * Compares two keys of the same type.
+     *
+     * @return a negative number, zero or a positive number as a is less
+     *         than, equal to or greater than b
+     */
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b))
+            return -1;
+        if (a.compare(Predicate.Op.GREATER_THAN, b))
+            return 1;
+        return 0;
+    }
+}
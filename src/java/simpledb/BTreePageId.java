@@ -0,0 +1,100 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a BTreeFile. Besides the table and page
+ * number, a BTreePageId records the category of the page, which tells
+ * BTreeFile how to parse the page when it is read from disk.
+ */
+public class BTreePageId implements PageId {
+
+    public final static int ROOT_PTR = 0;
+    public final static int INTERNAL = 1;
+    public final static int LEAF = 2;
+    public final static int HEADER = 3;
+
+    private int tableId;
+    private int pgNo;
+    private int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param pgNo The page number in that table.
+     * @param category which kind of page it is: ROOT_PTR, INTERNAL, LEAF or
+     *        HEADER
+     */
+    public BTreePageId(int tableId, int pgNo, int category) {
+        if (category < ROOT_PTR || category > HEADER)
+            throw new IllegalArgumentException("unknown page category " + category);
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return tableId;
+    }
+
+    /**
+     * @return the page number in the table getTableId() associated with
+     *   this PageId
+     */
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    /**
+     * @return the category of this page
+     */
+    public int pgcateg() {
+        return category;
+    }
+
+    /** @return a short name of the category, for messages */
+    static String categToString(int category) {
+        switch (category) {
+        case ROOT_PTR:
+            return "ROOT_PTR";
+        case INTERNAL:
+            return "INTERNAL";
+        case LEAF:
+            return "LEAF";
+        default:
+            return "HEADER";
+        }
+    }
+
+    public int hashCode() {
+        return (tableId * 31 + pgNo) * 4 + category;
+    }
+
+    /**
+     * Compares one PageId to another. BTreePageIds are equal when the table,
+     * page number and category all match.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof BTreePageId))
+            return false;
+        BTreePageId other = (BTreePageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo && other.category == category;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ", " + categToString(category) + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[3];
+        data[0] = tableId;
+        data[1] = pgNo;
+        data[2] = category;
+        return data;
+    }
+}
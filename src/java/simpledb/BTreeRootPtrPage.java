@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Page 0 of every BTreeFile. It points to the root of the tree, which may
+ * move as the tree grows and shrinks, and to the first header page, which
+ * tracks the pages freed by merges so that they can be reused.
+ * <p>
+ * On disk it is the root page number, the category of the root, the page
+ * number of the first header page (0 when there is none) and the layout of
+ * the file's tuples: a value chosen by whoever wrote the file, so that it
+ * can tell later whether the file still holds the tuples it expects (0
+ * when unset).
+ */
+public class BTreeRootPtrPage implements Page {
+
+    private final BTreePageId pid;
+    private int root;
+    private int rootCategory;
+    private int header;
+    private int layout;
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        root = dis.readInt();
+        rootCategory = dis.readByte();
+        header = dis.readInt();
+        layout = dis.readInt();
+        if (rootCategory == 0)
+            rootCategory = BTreePageId.LEAF;
+        setBeforeImage();
+    }
+
+    /** @return the id of page 0 of the given table */
+    public static BTreePageId getId(int tableid) {
+        return new BTreePageId(tableid, 0, BTreePageId.ROOT_PTR);
+    }
+
+    public BTreePageId getId() {
+        return pid;
+    }
+
+    /** @return the id of the root page, or null if the tree has none yet */
+    public BTreePageId getRootId() {
+        return root == 0 ? null : new BTreePageId(pid.getTableId(), root, rootCategory);
+    }
+
+    public void setRootId(BTreePageId id) {
+        if (id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.LEAF)
+            throw new IllegalArgumentException("root must be an internal or leaf page: " + id);
+        root = id.pageNumber();
+        rootCategory = id.pgcateg();
+    }
+
+    /** @return the id of the first header page, or null if there is none */
+    public BTreePageId getHeaderId() {
+        return header == 0 ? null : new BTreePageId(pid.getTableId(), header, BTreePageId.HEADER);
+    }
+
+    public void setHeaderId(BTreePageId id) {
+        header = id == null ? 0 : id.pageNumber();
+    }
+
+    /** @return the layout of the file's tuples, or 0 if it was not set */
+    public int getLayout() {
+        return layout;
+    }
+
+    public void setLayout(int layout) {
+        this.layout = layout;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(13);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(root);
+            dos.writeByte(rootCategory);
+            dos.writeInt(header);
+            dos.writeInt(layout);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        try {
+            return new BTreeRootPtrPage(pid, oldData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
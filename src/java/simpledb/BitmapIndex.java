@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * A bitmap index over a low-cardinality field of a HeapFile: for every
+ * distinct value of the field, a {@link RoaringBitmap} of the positions of
+ * the tuples that hold it, where a tuple in slot s of page p is at position
+ * p * slotsPerPage + s. Predicates on indexed fields are answered by
+ * combining bitmaps (see {@link BitmapScan}) before any heap page is read.
+ * <p>
+ * Indexes are registered with {@link Catalog#addBitmapIndex}, kept in
+ * memory, and updated by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple}. They are written to their file by
+ * {@link BufferPool#flushAllPages}; an index file older than its heap file,
+ * whose pages may have been written since, is not trusted and the index is
+ * rebuilt from the table.
+ * <p>
+ * The file holds a magic number, the field, the slots per page and the
+ * number of values, then each value followed by its bitmap.
+ */
+public class BitmapIndex {
+
+    private static final int MAGIC = 0x424D4958;
+
+    private final int tableid;
+    private final int field;
+    private final File file;
+    private final Type type;
+    private final int slotsPerPage;
+    private final HashMap<Field, RoaringBitmap> bitmaps = new HashMap<Field, RoaringBitmap>();
+    private boolean dirty = false;
+
+    /**
+     * @param tableid the indexed table; its DbFile must be a HeapFile
+     * @param field the indexed field
+     * @param f the file that stores the index
+     */
+    public BitmapIndex(int tableid, int field, File f) {
+        DbFile table = Database.getCatalog().getDbFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        TupleDesc td = table.getTupleDesc();
+        if (field < 0 || field >= td.numFields())
+            throw new IllegalArgumentException("table " + tableid + " has no field " + field);
+        this.tableid = tableid;
+        this.field = field;
+        this.file = f;
+        this.type = td.getFieldType(field);
+        this.slotsPerPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the indexed field */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the file that stores the index */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return the bitmap position of a tuple location */
+    int position(RecordId rid) {
+        return rid.getPageId().pageNumber() * slotsPerPage + rid.tupleno();
+    }
+
+    /** @return the tuple location of a bitmap position */
+    RecordId recordId(int position) {
+        return new RecordId(new HeapPageId(tableid, position / slotsPerPage), position % slotsPerPage);
+    }
+
+    /** @return the number of distinct values of the field */
+    public synchronized int numValues() {
+        return bitmaps.size();
+    }
+
+    /**
+     * @return the positions of the tuples whose field equals value; the
+     *         caller owns the returned bitmap
+     */
+    public synchronized RoaringBitmap lookup(Field value) {
+        RoaringBitmap b = bitmaps.get(value);
+        return b == null ? new RoaringBitmap() : b.copy();
+    }
+
+    /**
+     * @return the positions of the tuples whose field satisfies (field op
+     *         operand), the union of the bitmaps of every matching value;
+     *         the caller owns the returned bitmap
+     */
+    public synchronized RoaringBitmap lookup(Predicate.Op op, Field operand) {
+        if (op == Predicate.Op.EQUALS)
+            return lookup(operand);
+        RoaringBitmap result = new RoaringBitmap();
+        for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+            if (e.getKey().compare(op, operand))
+                result = RoaringBitmap.or(result, e.getValue());
+        }
+        return result;
+    }
+
+    /** Adds the position of a tuple that was just inserted into the table. */
+    synchronized void insertEntry(Tuple t) {
+        Field key = t.getField(field);
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null) {
+            b = new RoaringBitmap();
+            bitmaps.put(key, b);
+        }
+        b.add(position(t.getRecordId()));
+        dirty = true;
+    }
+
+    /**
+     * Removes the position of a tuple that was just deleted from the table.
+     *
+     * @param key the indexed field of the deleted tuple
+     * @param rid where the tuple was stored
+     */
+    synchronized void deleteEntry(Field key, RecordId rid) {
+        RoaringBitmap b = bitmaps.get(key);
+        if (b == null)
+            return;
+        b.remove(position(rid));
+        if (b.isEmpty())
+            bitmaps.remove(key);
+        dirty = true;
+    }
+
+    /**
+     * Builds the index from the tuples already in the table and writes it.
+     */
+    synchronized void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        bitmaps.clear();
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext())
+            insertEntry(it.next());
+        it.close();
+        dirty = true;
+        flush();
+    }
+
+    /**
+     * Loads the index from its file.
+     *
+     * @return false if the file is missing, does not describe this index,
+     *         or is older than the heap file
+     */
+    synchronized boolean load() throws IOException {
+        File heap = ((HeapFile) Database.getCatalog().getDbFile(tableid)).getFile();
+        if (!file.exists() || file.length() == 0 || file.lastModified() < heap.lastModified())
+            return false;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != field || in.readInt() != slotsPerPage)
+                return false;
+            int n = in.readInt();
+            bitmaps.clear();
+            for (int i = 0; i < n; i++) {
+                Field key = type.parse(in);
+                bitmaps.put(key, RoaringBitmap.readFrom(in));
+            }
+            dirty = false;
+            return true;
+        } catch (ParseException e) {
+            return false;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /** Writes the index to its file, if it changed since it was last written. */
+    public synchronized void flush() throws IOException {
+        if (!dirty)
+            return;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(field);
+            out.writeInt(slotsPerPage);
+            out.writeInt(bitmaps.size());
+            for (Map.Entry<Field, RoaringBitmap> e : bitmaps.entrySet()) {
+                e.getKey().serialize(out);
+                e.getValue().writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+        dirty = false;
+    }
+}
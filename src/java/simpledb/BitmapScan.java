@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BitmapScan reads the tuples of a HeapFile that satisfy a boolean
+ * combination of predicates on fields with a {@link BitmapIndex}. The
+ * condition is given in conjunctive normal form: the scan returns the
+ * tuples that satisfy at least one predicate of every clause. Each predicate
+ * is answered by its index as a bitmap of tuple positions; the bitmaps of a
+ * clause are ORed and the clauses ANDed, so the final set of positions is
+ * known before any heap page is read. The positions are in file order, and
+ * each heap page holding a match is then fetched once.
+ * <p>
+ * For example, {@code genre = 'drama' AND (role = 'actor' OR role =
+ * 'director')} is
+ * <pre>
+ * new Predicate[][] {
+ *     { new Predicate(genre, EQUALS, drama) },
+ *     { new Predicate(role, EQUALS, actor), new Predicate(role, EQUALS, director) } }
+ * </pre>
+ */
+public class BitmapScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private Predicate[][] clauses;
+    private BitmapIndex[][] indexes;
+
+    private int[] positions = null;
+    private int pos = 0;
+    private HeapPage page = null;
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     * @param clauses
+     *            the condition in conjunctive normal form: an AND of
+     *            clauses, each an OR of predicates
+     * @throws IllegalArgumentException
+     *            if a predicate's field has no bitmap index, or a clause is
+     *            empty
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, Predicate[][] clauses) {
+        if (clauses.length == 0)
+            throw new IllegalArgumentException("a bitmap scan needs at least one clause");
+        this.indexes = new BitmapIndex[clauses.length][];
+        for (int i = 0; i < clauses.length; i++) {
+            if (clauses[i].length == 0)
+                throw new IllegalArgumentException("clause " + i + " is empty");
+            indexes[i] = new BitmapIndex[clauses[i].length];
+            for (int j = 0; j < clauses[i].length; j++) {
+                int field = clauses[i][j].getField();
+                indexes[i][j] = Database.getCatalog().getBitmapIndex(tableid, field);
+                if (indexes[i][j] == null)
+                    throw new IllegalArgumentException("table " + tableid + " has no bitmap index on field " + field);
+            }
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.clauses = clauses;
+    }
+
+    /**
+     * Creates a scan for a conjunction of predicates.
+     */
+    public BitmapScan(TransactionId tid, int tableid, String tableAlias, Predicate[] conjuncts) {
+        this(tid, tableid, tableAlias, asClauses(conjuncts));
+    }
+
+    private static Predicate[][] asClauses(Predicate[] conjuncts) {
+        Predicate[][] clauses = new Predicate[conjuncts.length][];
+        for (int i = 0; i < conjuncts.length; i++)
+            clauses[i] = new Predicate[] { conjuncts[i] };
+        return clauses;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    /**
+     * @return the positions of the tuples that satisfy the condition
+     */
+    RoaringBitmap evaluate() {
+        RoaringBitmap result = null;
+        for (int i = 0; i < clauses.length; i++) {
+            RoaringBitmap clause = null;
+            for (int j = 0; j < clauses[i].length; j++) {
+                Predicate p = clauses[i][j];
+                RoaringBitmap b = indexes[i][j].lookup(p.getOp(), p.getOperand());
+                clause = clause == null ? b : RoaringBitmap.or(clause, b);
+            }
+            result = result == null ? clause : RoaringBitmap.and(result, clause);
+            if (result.isEmpty())
+                break;
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of tuples the scan returns, computed from the
+     *         indexes alone; valid once the scan is open
+     */
+    public int getMatchCount() {
+        if (positions == null)
+            throw new IllegalStateException("BitmapScan not yet open");
+        return positions.length;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        positions = evaluate().toArray();
+        pos = 0;
+        page = null;
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        BitmapIndex index = indexes[0][0];
+        while (pos < positions.length) {
+            RecordId rid = index.recordId(positions[pos++]);
+            if (page == null || page.getId().pageNumber() != rid.getPageId().pageNumber())
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        pos = 0;
+        page = null;
+    }
+
+    public void close() {
+        super.close();
+        positions = null;
+        page = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * BlockNestedLoopJoin implements a nested-loops join that reads the outer
+ * (child1) relation a block at a time. Each block holds as many outer tuples
+ * as fit on the configured number of buffer pool pages, and the inner
+ * (child2) relation is scanned once per block rather than once per outer
+ * tuple, so the number of inner rescans drops by the block factor.
+ * <p>
+ * Because every outer/inner pair in a block is compared directly, any
+ * JoinPredicate is supported, including non-equality operators such as
+ * LESS_THAN and LIKE that the hash and sort-merge joins cannot handle.
+ */
+public class BlockNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of buffer pool pages of outer tuples per block. */
+    public static final int DEFAULT_BLOCK_PAGES = 10;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+    private int blockPages;
+    private int blockTuples;
+
+    private ArrayList<Tuple> block = new ArrayList<Tuple>();
+    private int blockIndex = 0;
+    private Tuple inner = null;
+    // true once the first block has been loaded for the current pass
+    private boolean started = false;
+
+    /**
+     * Constructor. Accepts two children to join, the predicate to join them
+     * on and the size of each outer block.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param blockPages
+     *            number of buffer pool pages worth of outer tuples to hold
+     *            in each block; must be at least 1
+     */
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2, int blockPages) {
+        if (blockPages < 1)
+            throw new IllegalArgumentException("block must span at least one page, got " + blockPages);
+
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.blockPages = blockPages;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = computeBlockTuples();
+    }
+
+    public BlockNestedLoopJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        this(p, child1, child2, DEFAULT_BLOCK_PAGES);
+    }
+
+    /**
+     * Number of outer tuples per block, using the same slots-per-page formula
+     * as HeapPage: floor((PAGE_SIZE*8) / (tuple size * 8 + 1)).
+     */
+    private int computeBlockTuples() {
+        int tupleSize = child1.getTupleDesc().getSize();
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        return Math.max(1, perPage) * blockPages;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return the number of buffer pool pages of outer tuples per block
+     */
+    public int getBlockPages() {
+        return this.blockPages;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        resetState();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        resetState();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        child1.rewind();
+        child2.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        block.clear();
+        blockIndex = 0;
+        inner = null;
+        started = false;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. For every inner tuple the whole current block is probed;
+     * when the inner relation is exhausted the next outer block is loaded and
+     * the inner relation is rewound once.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!started) {
+            started = true;
+            if (!fillBlock())
+                return null;
+        }
+
+        while (true) {
+            if (inner != null) {
+                while (blockIndex < block.size()) {
+                    Tuple outer = block.get(blockIndex++);
+                    if (p.filter(outer, inner))
+                        return mergeTuples(td, outer, inner);
+                }
+            }
+
+            if (child2.hasNext()) {
+                inner = child2.next();
+                blockIndex = 0;
+                continue;
+            }
+
+            // inner pass over this block is complete
+            if (!fillBlock())
+                return null;
+            child2.rewind();
+            inner = null;
+        }
+    }
+
+    /**
+     * Loads the next block of outer tuples.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean fillBlock() throws TransactionAbortedException, DbException {
+        block.clear();
+        blockIndex = 0;
+        while (block.size() < blockTuples && child1.hasNext())
+            block.add(child1.next());
+
+        return !block.isEmpty();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        this.blockTuples = computeBlockTuples();
+    }
+}
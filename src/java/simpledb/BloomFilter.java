@@ -0,0 +1,179 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A Bloom filter over Fields: a set that answers membership queries with no
+ * false negatives and a tunable rate of false positives, in a few bits per
+ * key. It is used to drop tuples that cannot find a join partner before
+ * they are looked up in a hash table or passed to another operator, and to
+ * skip heap pages that cannot hold a key (see {@link PageBloomFilter}).
+ * <p>
+ * Keys are hashed once to 64 bits; the k bit positions are derived from the
+ * two halves by double hashing. An IntField and the int it holds hash
+ * alike, so {@link #mightContain(int)} can test values of a decoded int
+ * column without building Fields.
+ */
+public class BloomFilter implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** False positive rate of filters sized by {@link #forKeys}. */
+    public static final double DEFAULT_FPP = 0.01;
+
+    private final long[] bits;
+    private final int numBits;
+    private final int numHashes;
+
+    /**
+     * Creates an empty filter.
+     *
+     * @param numBits
+     *            the size of the filter in bits; rounded up to a multiple
+     *            of 64
+     * @param numHashes
+     *            the number of bits set per key
+     */
+    public BloomFilter(int numBits, int numHashes) {
+        if (numBits <= 0 || numHashes <= 0)
+            throw new IllegalArgumentException("a Bloom filter needs at least one bit and one hash");
+        this.bits = new long[(numBits + 63) / 64];
+        this.numBits = bits.length * 64;
+        this.numHashes = numHashes;
+    }
+
+    /**
+     * Creates an empty filter sized for a number of keys and a false
+     * positive rate.
+     */
+    public static BloomFilter forKeys(int expectedKeys, double fpp) {
+        if (fpp <= 0 || fpp >= 1)
+            throw new IllegalArgumentException("false positive rate must be in (0, 1), got " + fpp);
+        double bitsPerKey = -Math.log(fpp) / (Math.log(2) * Math.log(2));
+        int numBits = (int) Math.min(Integer.MAX_VALUE - 63, Math.ceil(Math.max(1, expectedKeys) * bitsPerKey));
+        return new BloomFilter(numBits, Math.max(1, (int) Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    public int numBits() {
+        return numBits;
+    }
+
+    public int numHashes() {
+        return numHashes;
+    }
+
+    /** @return the 64-bit hash of a key */
+    static long hash(Field f) {
+        return mix(f.hashCode());
+    }
+
+    /** @return the 64-bit hash of an int, equal to that of its IntField */
+    static long hash(int v) {
+        return mix(v);
+    }
+
+    // the finalizer of MurmurHash3
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public void add(Field f) {
+        addHash(hash(f));
+    }
+
+    public void add(int v) {
+        addHash(hash(v));
+    }
+
+    /**
+     * @return false if f was never added; true if it may have been
+     */
+    public boolean mightContain(Field f) {
+        return mightContainHash(hash(f));
+    }
+
+    /**
+     * @return false if v (as an IntField) was never added; true if it may
+     *         have been
+     */
+    public boolean mightContain(int v) {
+        return mightContainHash(hash(v));
+    }
+
+    void addHash(long h) {
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            bits[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    boolean mightContainHash(long h) {
+        int h1 = (int) h, h2 = (int) (h >>> 32);
+        for (int i = 0; i < numHashes; i++) {
+            int bit = ((h1 + i * h2) & 0x7fffffff) % numBits;
+            if ((bits[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Narrows a selection vector over the tuples of a page, in the order of
+     * {@link HeapPage#getAllTuples()}, to those whose field may be in this
+     * filter. An INT_TYPE field is tested on the page's decoded column, so
+     * the rejected tuples are never touched. sel may be used as out.
+     *
+     * @return the number of selected tuples written to out
+     */
+    int select(HeapPage page, int field, int[] sel, int selCount, int[] out) {
+        int k = 0;
+        if (page.td.getFieldType(field) == Type.INT_TYPE) {
+            int[] column = page.getIntColumn(field);
+            for (int j = 0; j < selCount; j++) {
+                if (mightContain(column[sel[j]]))
+                    out[k++] = sel[j];
+            }
+        } else {
+            List<Tuple> tuples = page.getAllTuples();
+            for (int j = 0; j < selCount; j++) {
+                if (mightContain(tuples.get(sel[j]).getField(field)))
+                    out[k++] = sel[j];
+            }
+        }
+        return k;
+    }
+
+    /**
+     * Adds every key of another filter of the same size to this one.
+     */
+    public void merge(BloomFilter other) {
+        if (other.numBits != numBits || other.numHashes != numHashes)
+            throw new IllegalArgumentException("cannot merge Bloom filters of different sizes");
+        for (int i = 0; i < bits.length; i++)
+            bits[i] |= other.bits[i];
+    }
+
+    /** Removes every key. */
+    public void clear() {
+        Arrays.fill(bits, 0L);
+    }
+
+    /** Writes the bits of the filter, numBits() / 8 bytes. */
+    void writeBits(DataOutput out) throws IOException {
+        for (long w : bits)
+            out.writeLong(w);
+    }
+
+    /** Replaces the bits of the filter with ones written by writeBits. */
+    void readBits(DataInput in) throws IOException {
+        for (int i = 0; i < bits.length; i++)
+            bits[i] = in.readLong();
+    }
+}
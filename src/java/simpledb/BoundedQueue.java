@@ -0,0 +1,174 @@
+package simpledb;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer FIFO queue used to pass
+ * batches of tuples between the threads of a parallel plan.
+ * <p>
+ * The queue is a power-of-two ring of cells. Each cell carries a sequence
+ * number that tells producers and consumers whether the cell is free for the
+ * current lap, so offer() and poll() only need a compare-and-set on the
+ * shared tail or head counter and never take a lock.
+ * <p>
+ * put() and take() provide backpressure: when the queue is full (or empty)
+ * the caller spins briefly, then yields, then parks for increasing
+ * intervals until the queue has room (or an element).
+ */
+public class BoundedQueue<E> {
+
+    private static final int SPINS = 64;
+    private static final long MAX_PARK_NANOS = 1000000L;
+
+    private final int mask;
+    private final AtomicReferenceArray<E> cells;
+    private final AtomicLongArray sequences;
+    private final AtomicLong head = new AtomicLong(0);
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * Creates a queue that holds at least capacity elements (rounded up to a
+     * power of two, and to at least two so that a full cell can never be
+     * mistaken for a free one on the next lap).
+     */
+    public BoundedQueue(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive, got " + capacity);
+        int size = 2;
+        while (size < capacity)
+            size <<= 1;
+
+        this.mask = size - 1;
+        this.cells = new AtomicReferenceArray<E>(size);
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++)
+            sequences.set(i, i);
+    }
+
+    /** @return the number of elements the queue can hold */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Adds e to the tail of the queue if there is room.
+     *
+     * @return false if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException();
+
+        while (true) {
+            long pos = tail.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    cells.set(index, e);
+                    // publish the cell to consumers of this lap
+                    sequences.set(index, pos + 1);
+                    return true;
+                }
+            } else if (diff < 0) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Removes the element at the head of the queue, if any.
+     *
+     * @return the element, or null if the queue is empty
+     */
+    public E poll() {
+        while (true) {
+            long pos = head.get();
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = cells.get(index);
+                    cells.set(index, null);
+                    // hand the cell back to producers for the next lap
+                    sequences.set(index, pos + mask + 1);
+                    return e;
+                }
+            } else if (diff < 0) {
+                return null;
+            }
+        }
+    }
+
+    /**
+     * Adds e to the queue, waiting while it is full.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     *         while waiting
+     */
+    public void put(E e) throws InterruptedException {
+        int attempt = 0;
+        while (!offer(e))
+            backoff(attempt++);
+    }
+
+    /**
+     * Adds e to the queue, waiting up to the given time for room.
+     *
+     * @return false if the queue was still full when the time ran out
+     * @throws InterruptedException if the calling thread is interrupted
+     *         while waiting
+     */
+    public boolean offer(E e, long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        int attempt = 0;
+        while (!offer(e)) {
+            if (System.nanoTime() - deadline >= 0)
+                return false;
+            backoff(attempt++);
+        }
+        return true;
+    }
+
+    /**
+     * Removes and returns the head of the queue, waiting while it is empty.
+     *
+     * @throws InterruptedException if the calling thread is interrupted
+     *         while waiting
+     */
+    public E take() throws InterruptedException {
+        int attempt = 0;
+        E e;
+        while ((e = poll()) == null)
+            backoff(attempt++);
+        return e;
+    }
+
+    /** @return true if the queue holds no elements */
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    /** Removes every element currently in the queue. */
+    public void clear() {
+        while (poll() != null)
+            ;
+    }
+
+    private static void backoff(int attempt) throws InterruptedException {
+        if (Thread.interrupted())
+            throw new InterruptedException();
+        if (attempt < SPINS)
+            return;
+        if (attempt < SPINS * 2) {
+            Thread.yield();
+            return;
+        }
+        long nanos = Math.min(MAX_PARK_NANOS, 1000L << Math.min(10, attempt - SPINS * 2));
+        LockSupport.parkNanos(nanos);
+    }
+}
@@ -2,6 +2,11 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -22,7 +27,12 @@ public class BufferPool {
     public static final int DEFAULT_PAGES = 50;
 
     private int pageNum = 0;
-    private Map<PageId, Page> bufferedPages = null;
+    private ConcurrentHashMap<PageId, Page> bufferedPages = null;
+    // reads in progress, so that concurrent misses on a page share one read
+    private ConcurrentHashMap<PageId, FutureTask<Page>> loadingPages = null;
+    // pages being evicted, so that no two threads pick the same victim;
+    // guarded by this
+    private final HashSet<PageId> evictingPages = new HashSet<PageId>();
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -31,7 +41,8 @@ public class BufferPool {
     public BufferPool(int numPages) {
         // some code goes here
         this.pageNum = numPages;
-        this.bufferedPages = new HashMap<PageId, Page>();
+        this.bufferedPages = new ConcurrentHashMap<PageId, Page>();
+        this.loadingPages = new ConcurrentHashMap<PageId, FutureTask<Page>>();
     }
 
     /**
@@ -53,19 +64,73 @@ public class BufferPool {
         throws TransactionAbortedException, DbException {
         // some code goes here
         //return null;
-        Page retrievedPage = null;
-        if (!bufferedPages.containsKey(pid)) {
-            if (bufferedPages.size() > pageNum) {
-                throw new DbException("Page number exceeds limit: " + pageNum);
+        for (;;) {
+            Page retrievedPage = bufferedPages.get(pid);
+            if (retrievedPage != null)
+                return retrievedPage;
+
+            // pages may be requested concurrently (e.g. by a parallel scan or
+            // by many queries at once). Only the first thread to miss on a
+            // page reads it; the others wait for that read instead of issuing
+            // their own. No monitor is held during the read, so a waiting
+            // virtual thread parks instead of pinning its carrier.
+            final PageId loadPid = pid;
+            FutureTask<Page> load = new FutureTask<Page>(new Callable<Page>() {
+                public Page call() {
+                    return Database.getCatalog().getDbFile(loadPid.getTableId()).readPage(loadPid);
+                }
+            });
+            FutureTask<Page> inFlight = loadingPages.putIfAbsent(pid, load);
+            if (inFlight == null) {
+                try {
+                    // the page may have been cached after our first lookup
+                    retrievedPage = bufferedPages.get(pid);
+                    if (retrievedPage == null) {
+                        if (bufferedPages.size() >= pageNum)
+                            evictPage();
+                        load.run();
+                        retrievedPage = awaitLoad(load);
+                        bufferedPages.put(pid, retrievedPage);
+                    }
+                    return retrievedPage;
+                } finally {
+                    loadingPages.remove(pid, load);
+                    // the read was not run (the page was already cached, or
+                    // eviction failed); waiters must not block on it forever
+                    if (!load.isDone())
+                        load.cancel(false);
+                }
             }
 
-            retrievedPage = Database.getCatalog().getDbFile(pid.getTableId())
-                            .readPage(pid);
-            bufferedPages.put(pid, retrievedPage);
+            retrievedPage = awaitLoad(inFlight);
+            if (retrievedPage != null)
+                return retrievedPage;
+            // the thread that started the read gave up on it; look again
         }
-        retrievedPage = bufferedPages.get(pid);
+    }
 
-        return retrievedPage;
+    /**
+     * Waits for a page read started by getPage and returns the page, or
+     * rethrows the exception the read failed with.
+     *
+     * @return null if the thread that started the read gave up on it
+     */
+    private Page awaitLoad(FutureTask<Page> load) throws DbException {
+        try {
+            return load.get();
+        } catch (CancellationException e) {
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for a page read");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new DbException("page read failed: " + cause);
+        }
     }
 
     /**
@@ -129,7 +194,16 @@ public class BufferPool {
     public void insertTuple(TransactionId tid, int tableId, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        // not necessary for proj1
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        ArrayList<Page> modified = file.insertTuple(tid, t);
+        cacheDirtyPages(tid, modified);
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            cacheDirtyPages(tid, index.insertEntry(tid, t));
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.insertEntry(t);
+        TableStats stats = Database.getCatalog().getTableStats(tableId);
+        if (stats != null)
+            stats.addTuple(t, modified);
     }
 
     /**
@@ -148,7 +222,39 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
         // some code goes here
-        // not necessary for proj1
+        RecordId rid = t.getRecordId();
+        if (rid == null)
+            throw new DbException("tuple is not stored in any table");
+        int tableId = rid.getPageId().getTableId();
+        DbFile file = Database.getCatalog().getDbFile(tableId);
+        cacheDirtyPages(tid, file.deleteTuple(tid, t));
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableId))
+            cacheDirtyPages(tid, index.deleteEntry(tid, t.getField(index.getField()), rid));
+        for (BitmapIndex index : Database.getCatalog().getBitmapIndexes(tableId))
+            index.deleteEntry(t.getField(index.getField()), rid);
+        TableStats stats = Database.getCatalog().getTableStats(tableId);
+        if (stats != null)
+            stats.removeTuple(t);
+    }
+
+    /**
+     * Marks the pages modified by an insert or delete dirty and makes them
+     * the cached copies, evicting other pages to make room. A file may
+     * return pages that were never cached, such as pages it just created.
+     */
+    private void cacheDirtyPages(TransactionId tid, ArrayList<Page> pages) throws DbException {
+        if (pages == null)
+            return;
+        for (Page p : pages) {
+            if (!bufferedPages.containsKey(p.getId()) && bufferedPages.size() >= pageNum)
+                evictPage();
+            // under the page's lock, so that a concurrent write-back of the
+            // page either sees it dirty or finishes before it is dirtied
+            synchronized (p) {
+                p.markDirty(true, tid);
+                bufferedPages.put(p.getId(), p);
+            }
+        }
     }
 
     /**
@@ -158,8 +264,9 @@ public class BufferPool {
      */
     public synchronized void flushAllPages() throws IOException {
         // some code goes here
-        // not necessary for proj1
-
+        for (PageId pid : bufferedPages.keySet())
+            flushPage(pid);
+        Database.getCatalog().flushBitmapIndexes();
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -169,7 +276,20 @@ public class BufferPool {
     */
     public synchronized void discardPage(PageId pid) {
         // some code goes here
-	// not necessary for proj1
+        bufferedPages.remove(pid);
+    }
+
+    /**
+     * Removes every cached page of a file from the buffer pool, without
+     * writing them back; used once the file was rewritten on disk.
+     *
+     * @param tableid the id of the file
+     */
+    public synchronized void discardPages(int tableid) {
+        for (PageId pid : bufferedPages.keySet()) {
+            if (pid.getTableId() == tableid)
+                bufferedPages.remove(pid);
+        }
     }
 
     /**
@@ -178,23 +298,73 @@ public class BufferPool {
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        Page p = bufferedPages.get(pid);
+        if (p == null)
+            return;
+        synchronized (p) {
+            if (p.isDirty() == null)
+                return;
+            Database.getCatalog().getDbFile(pid.getTableId()).writePage(p);
+            p.markDirty(false, null);
+        }
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        for (Map.Entry<PageId, Page> e : bufferedPages.entrySet()) {
+            if (tid.equals(e.getValue().isDirty()))
+                flushPage(e.getKey());
+        }
     }
 
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen under the pool's monitor, but written back
+     * outside it, so that other threads are not held up by the write. The
+     * write, marking the page clean and dropping it happen under the page's
+     * own lock, which {@link #cacheDirtyPages} takes to dirty a page.
      */
-    private synchronized  void evictPage() throws DbException {
+    private void evictPage() throws DbException {
         // some code goes here
-        // not necessary for proj1
+        // prefer a clean page; there is no transaction log yet, so when
+        // every page is dirty one is written back before it is dropped
+        Page victim = null;
+        synchronized (this) {
+            for (Page p : bufferedPages.values()) {
+                if (evictingPages.contains(p.getId()))
+                    continue;
+                if (p.isDirty() == null) {
+                    victim = p;
+                    break;
+                }
+                if (victim == null)
+                    victim = p;
+            }
+            if (victim == null)
+                return;
+            evictingPages.add(victim.getId());
+        }
+        try {
+            synchronized (victim) {
+                if (victim.isDirty() != null) {
+                    try {
+                        Database.getCatalog().getDbFile(victim.getId().getTableId()).writePage(victim);
+                    } catch (IOException e) {
+                        throw new DbException("could not write page " + victim.getId() + " while evicting it: "
+                                + e.getMessage());
+                    }
+                    victim.markDirty(false, null);
+                }
+                bufferedPages.remove(victim.getId(), victim);
+            }
+        } finally {
+            synchronized (this) {
+                evictingPages.remove(victim.getId());
+            }
+        }
     }
 
 }
@@ -5,28 +5,33 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
  * associated schemas.
- * For now, this is a stub catalog that must be populated with tables by a
- * user program before it can be used -- eventually, this should be converted
- * to a catalog that reads a catalog table from disk.
+ * The catalog is populated with tables by a user program, from a text
+ * schema with {@link #loadSchema}, or from a binary catalog file with
+ * {@link #loadCatalog}, which {@link #saveCatalog} writes.
+ * <p>
+ * Each table is described by an immutable {@link TableInfo}, registered in
+ * concurrent maps by id and by name, so every lookup is a single hash probe
+ * and never blocks. Changes (adding tables or indexes, clearing) are
+ * serialized with each other and replace whole entries; readers running
+ * concurrently see either the old entry or the new one.
  */
 
 public class Catalog {
-    private Map<Integer, DbFile> dbFiles = null;
-    private Map<Integer, String> tableNames = null;
-    private Map<Integer, String> tablePKs = null;
+    private final ConcurrentHashMap<Integer, TableInfo> tablesById = new ConcurrentHashMap<Integer, TableInfo>();
+    private final ConcurrentHashMap<String, TableInfo> tablesByName = new ConcurrentHashMap<String, TableInfo>();
+    // the files of secondary indexes, by their own id
+    private final ConcurrentHashMap<Integer, DbFile> indexFiles = new ConcurrentHashMap<Integer, DbFile>();
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        // some code goes here
-        dbFiles = new HashMap<Integer, DbFile>();
-        tableNames = new HashMap<Integer, String>();
-        tablePKs = new HashMap<Integer, String>();
     }
 
     /**
@@ -35,27 +40,31 @@ public class Catalog {
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
-     * @param pkeyField the name of the primary key field
      * conflict exists, use the last table to be added as the table for a given name.
+     * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
-        // some code goes here
-        int id = file.getId();
-        //remove the table with duplicate name
-        if (tableNames.containsValue(name)) {
-            Iterator<Integer> iter = tableNames.keySet().iterator();
-            while (iter.hasNext()) {
-                int curId = iter.next();
-                if (name.equals(tableNames.get(curId))) {
-                    dbFiles.remove(curId);
-                    tableNames.remove(curId);
-                    tablePKs.remove(curId);
-                }
-            }
-        }
-        dbFiles.put(id, file);
-        tableNames.put(id, name);
-        tablePKs.put(id, pkeyField);
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
+        TableInfo info = new TableInfo(file, name, pkeyField);
+        // publish the new entry before dropping the ones it replaces (the
+        // table that had this name, and this table's old entry), so that a
+        // concurrent lookup of either never finds nothing
+        TableInfo byName = tablesByName.put(name, info);
+        TableInfo byId = tablesById.put(info.getId(), info);
+        if (byName != null)
+            removeTable(byName);
+        if (byId != null)
+            removeTable(byId);
+    }
+
+    /**
+     * Removes whatever is still registered for an entry that was replaced;
+     * keys now mapped to other entries are left alone.
+     */
+    private void removeTable(TableInfo info) {
+        tablesByName.remove(info.getName(), info);
+        tablesById.remove(info.getId(), info);
+        for (SecondaryIndex index : info.getIndexes())
+            indexFiles.remove(index.getFile().getId());
     }
 
     public void addTable(DbFile file, String name) {
@@ -73,24 +82,34 @@ public class Catalog {
         addTable(file, (UUID.randomUUID()).toString());
     }
 
+    /**
+     * @return the catalog entry of a table
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public TableInfo getTableInfo(int tableid) throws NoSuchElementException {
+        TableInfo info = tablesById.get(tableid);
+        if (info == null)
+            throw new NoSuchElementException("Catalog has no table with id: " + tableid);
+        return info;
+    }
+
+    /**
+     * @return the catalog entry of a table
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public TableInfo getTableInfo(String name) throws NoSuchElementException {
+        TableInfo info = name == null ? null : tablesByName.get(name);
+        if (info == null)
+            throw new NoSuchElementException("Catalog has no table with name: " + name);
+        return info;
+    }
+
     /**
      * Return the id of the table with a specified name,
      * @throws NoSuchElementException if the table doesn't exist
      */
     public int getTableId(String name) throws NoSuchElementException {
-        // some code goes here
-        //return 0;
-        if (tableNames.containsValue(name)) {
-            Iterator<Integer> iter = tableNames.keySet().iterator();
-            while (iter.hasNext()) {
-                int curId = iter.next();
-                if (name.equals(tableNames.get(curId))) {
-                    return curId;
-                }
-            }
-        }
-
-        throw new NoSuchElementException("Catalog has no table with name: " + name);
+        return getTableInfo(name).getId();
     }
 
     /**
@@ -100,11 +119,12 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        // some code goes here
-        //return null;
-        if (dbFiles.containsKey(tableid)) {
-            return dbFiles.get(tableid).getTupleDesc();
-        }
+        TableInfo info = tablesById.get(tableid);
+        if (info != null)
+            return info.getTupleDesc();
+        DbFile index = indexFiles.get(tableid);
+        if (index != null)
+            return index.getTupleDesc();
 
         throw new NoSuchElementException("Catalog has no TupleDesc with id: " + tableid);
     }
@@ -116,51 +136,237 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDbFile(int tableid) throws NoSuchElementException {
-        // some code goes here
-        //return null;
-        if (dbFiles.containsKey(tableid)) {
-            return dbFiles.get(tableid);
-        }
+        TableInfo info = tablesById.get(tableid);
+        if (info != null)
+            return info.getFile();
+        DbFile index = indexFiles.get(tableid);
+        if (index != null)
+            return index;
 
         throw new NoSuchElementException("Catalog has no DbFile with id: " + tableid);
     }
 
-    public String getPrimaryKey(int tableid) {
-        // some code goes here
-        //return null;
-        if (tablePKs.containsKey(tableid)) {
-            return tablePKs.get(tableid);
+    /**
+     * Adds a secondary index over a field of a table whose DbFile is a
+     * HeapFile. If the index file is empty, older than the table, or holds
+     * entries with other fields, the index is built from the tuples already
+     * in the table. From then on, inserts and deletes through the
+     * BufferPool keep the index up to date. The index replaces any index of
+     * the table over the same field or stored in the same file.
+     *
+     * @param tableid the table to index
+     * @param field the index of the field to index
+     * @param indexFile the file that stores the index
+     * @return the new index
+     * @throws NoSuchElementException if the table doesn't exist
+     */
+    public SecondaryIndex addIndex(int tableid, int field, File indexFile)
+            throws DbException, IOException, TransactionAbortedException {
+        return addIndex(tableid, field, indexFile, new int[0]);
+    }
+
+    /**
+     * Adds a secondary index that also stores the values of other fields,
+     * so that queries reading only the key and those fields are covered by
+     * the index.
+     *
+     * @param included the fields stored in the index along with the key
+     * @see #addIndex(int, int, File)
+     */
+    public SecondaryIndex addIndex(int tableid, int field, File indexFile, int[] included)
+            throws DbException, IOException, TransactionAbortedException {
+        // the index is built before it is published, so readers never see
+        // it empty or partly built
+        SecondaryIndex index = new SecondaryIndex(tableid, field, indexFile, included);
+        if (!index.isUpToDate())
+            index.build(new TransactionId());
+        synchronized (this) {
+            TableInfo info = getTableInfo(tableid);
+            TableInfo updated = info.withIndex(index);
+            for (SecondaryIndex replaced : info.getIndexes()) {
+                if (!updated.getIndexes().contains(replaced)
+                        && replaced.getFile().getId() != index.getFile().getId())
+                    indexFiles.remove(replaced.getFile().getId());
+            }
+            indexFiles.put(index.getFile().getId(), index.getFile());
+            replaceTable(info, updated);
         }
+        return index;
+    }
+
+    /** Replaces the entry of a table, under both its id and its name. */
+    private void replaceTable(TableInfo old, TableInfo info) {
+        tablesById.put(info.getId(), info);
+        tablesByName.replace(info.getName(), old, info);
+    }
+
+    /**
+     * @return the secondary indexes of a table; empty if it has none
+     */
+    public List<SecondaryIndex> getIndexes(int tableid) {
+        TableInfo info = tablesById.get(tableid);
+        if (info == null)
+            return Collections.<SecondaryIndex>emptyList();
+        return info.getIndexes();
+    }
+
+    /**
+     * @return the secondary index over the given field of a table, or null
+     *         if there is none
+     */
+    public SecondaryIndex getIndex(int tableid, int field) {
+        for (SecondaryIndex index : getIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Adds a bitmap index over a field of a table whose DbFile is a
+     * HeapFile. The index is loaded from indexFile if it is up to date, and
+     * otherwise built from the table and written there. Inserts and deletes
+     * through the BufferPool keep it up to date.
+     *
+     * @param tableid the table to index
+     * @param field the index of the field to index
+     * @param indexFile the file that stores the index
+     * @return the new index
+     */
+    public BitmapIndex addBitmapIndex(int tableid, int field, File indexFile)
+            throws DbException, IOException, TransactionAbortedException {
+        BitmapIndex index = new BitmapIndex(tableid, field, indexFile);
+        if (!index.load())
+            index.build(new TransactionId());
+        synchronized (this) {
+            TableInfo info = getTableInfo(tableid);
+            replaceTable(info, info.withBitmapIndex(index));
+        }
+        return index;
+    }
+
+    /**
+     * @return the bitmap indexes of a table; empty if it has none
+     */
+    public List<BitmapIndex> getBitmapIndexes(int tableid) {
+        TableInfo info = tablesById.get(tableid);
+        if (info == null)
+            return Collections.<BitmapIndex>emptyList();
+        return info.getBitmapIndexes();
+    }
+
+    /**
+     * @return the bitmap index over the given field of a table, or null if
+     *         there is none
+     */
+    public BitmapIndex getBitmapIndex(int tableid, int field) {
+        for (BitmapIndex index : getBitmapIndexes(tableid)) {
+            if (index.getField() == field)
+                return index;
+        }
+        return null;
+    }
+
+    /**
+     * Registers the statistics of a table, replacing any it had. They are
+     * written with the catalog by {@link #saveCatalog}.
+     */
+    public synchronized void setTableStats(int tableid, TableStats stats) {
+        TableInfo info = getTableInfo(tableid);
+        replaceTable(info, info.withStats(stats));
+    }
+
+    /**
+     * Registers new statistics of a table if its statistics are still
+     * expected, as a background refresh does.
+     *
+     * @return false if the table has other statistics, or is gone
+     */
+    synchronized boolean replaceTableStats(int tableid, TableStats expected, TableStats stats) {
+        TableInfo info = tablesById.get(tableid);
+        if (info == null || info.getStats() != expected)
+            return false;
+        replaceTable(info, info.withStats(stats));
+        return true;
+    }
+
+    /**
+     * @return the statistics of a table, or null if none are registered
+     */
+    public TableStats getTableStats(int tableid) {
+        TableInfo info = tablesById.get(tableid);
+        return info == null ? null : info.getStats();
+    }
+
+    /**
+     * Writes every bitmap index that changed since it was last written.
+     */
+    public void flushBitmapIndexes() throws IOException {
+        for (TableInfo info : tablesById.values()) {
+            for (BitmapIndex index : info.getBitmapIndexes())
+                index.flush();
+        }
+    }
+
+    public String getPrimaryKey(int tableid) {
+        TableInfo info = tablesById.get(tableid);
+        if (info != null)
+            return info.getPrimaryKey();
 
         throw new NoSuchElementException("Catalog has no PK with id: " + tableid);
     }
 
     public Iterator<Integer> tableIdIterator() {
-        // some code goes here
-        //return null;
-        return dbFiles.keySet().iterator();
+        return Collections.unmodifiableSet(tablesById.keySet()).iterator();
     }
 
     //id is table id
     public String getTableName(int id) {
-        // some code goes here
-        //return null;
-        return tableNames.get(id);
+        TableInfo info = tablesById.get(id);
+        return info == null ? null : info.getName();
     }
     
     /** Delete all tables from the catalog */
-    public void clear() {
-        // some code goes here
-        dbFiles.clear();
-        tableNames.clear();
-        tablePKs.clear();
+    public synchronized void clear() {
+        tablesById.clear();
+        tablesByName.clear();
+        indexFiles.clear();
     }
     
+    /**
+     * Writes the tables of the catalog, with their indexes, to a binary
+     * catalog file that {@link #loadCatalog} reads back.
+     *
+     * @see CatalogFile
+     */
+    public synchronized void saveCatalog(String catalogFile) throws IOException, DbException {
+        CatalogFile.write(this, new File(catalogFile));
+    }
+
+    /**
+     * Adds the tables and indexes recorded in a binary catalog file written
+     * by {@link #saveCatalog}. The file is read with a single read, and its
+     * checksum verified before any table is added.
+     *
+     * @throws DbException if the file is not a valid catalog file
+     * @see CatalogFile
+     */
+    public void loadCatalog(String catalogFile) throws IOException, DbException {
+        CatalogFile.read(this, new File(catalogFile));
+    }
+
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line is of the form name (field type [annotations], ...), where type
+     * is int or string and the annotations are pk, for the primary key, idx,
+     * for a secondary index over the field stored in name.field.idx (written
+     * idx:f1:f2 to include the values of fields f1 and f2 in it), bitmap,
+     * for a bitmap index over the field stored in name.field.bmi, and bloom,
+     * for per-page Bloom filters over the field.
      * @param catalogFile
+     * @throws DbException if a line is malformed or an index cannot be built
      */
-    public void loadSchema(String catalogFile) {
+    public void loadSchema(String catalogFile) throws IOException, DbException {
         String line = "";
         String baseFolder=new File(catalogFile).getParent();
         try {
@@ -175,24 +381,32 @@ public class Catalog {
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
+                ArrayList<String[]> includes = new ArrayList<String[]>();
+                ArrayList<String> bitmapped = new ArrayList<String>();
+                ArrayList<String> bloom = new ArrayList<String>();
                 for (String e : els) {
-                    String[] els2 = e.trim().split(" ");
+                    String[] els2 = e.trim().split("\\s+");
                     names.add(els2[0].trim());
                     if (els2[1].trim().toLowerCase().equals("int"))
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().toLowerCase().equals("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
-                        System.out.println("Unknown type " + els2[1]);
-                        System.exit(0);
-                    }
-                    if (els2.length == 3) {
-                        if (els2[2].trim().equals("pk"))
+                    else
+                        throw new DbException("Unknown type " + els2[1] + " in catalog entry : " + line);
+                    for (int i = 2; i < els2.length; i++) {
+                        if (els2[i].trim().equals("pk"))
                             primaryKey = els2[0].trim();
-                        else {
-                            System.out.println("Unknown annotation " + els2[2]);
-                            System.exit(0);
-                        }
+                        else if (els2[i].trim().equals("idx") || els2[i].trim().startsWith("idx:")) {
+                            String[] parts = els2[i].trim().split(":");
+                            indexed.add(els2[0].trim());
+                            includes.add(Arrays.copyOfRange(parts, 1, parts.length));
+                        } else if (els2[i].trim().equals("bitmap"))
+                            bitmapped.add(els2[0].trim());
+                        else if (els2[i].trim().equals("bloom"))
+                            bloom.add(els2[0].trim());
+                        else
+                            throw new DbException("Unknown annotation " + els2[i] + " in catalog entry : " + line);
                     }
                 }
                 Type[] typeAr = types.toArray(new Type[0]);
@@ -201,13 +415,27 @@ public class Catalog {
                 HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                for (int i = 0; i < indexed.size(); i++) {
+                    String field = indexed.get(i);
+                    int[] included = new int[includes.get(i).length];
+                    for (int j = 0; j < included.length; j++)
+                        included[j] = t.fieldNameToIndex(includes.get(i)[j]);
+                    addIndex(tabHf.getId(), t.fieldNameToIndex(field),
+                            new File(baseFolder + "/" + name + "." + field + ".idx"), included);
+                    System.out.println("Added index on " + name + "." + field);
+                }
+                for (String field : bitmapped) {
+                    addBitmapIndex(tabHf.getId(), t.fieldNameToIndex(field),
+                            new File(baseFolder + "/" + name + "." + field + ".bmi"));
+                    System.out.println("Added bitmap index on " + name + "." + field);
+                }
+                for (String field : bloom)
+                    tabHf.addBloomFilter(t.fieldNameToIndex(field));
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            throw new DbException("Could not build index : " + e.getMessage());
         } catch (IndexOutOfBoundsException e) {
-            System.out.println ("Invalid catalog entry : " + line);
-            System.exit(0);
+            throw new DbException("Invalid catalog entry : " + line);
         }
     }
 }
@@ -0,0 +1,283 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * CatalogFile stores the contents of a {@link Catalog} in a binary file, so
+ * a database with many tables starts with one read instead of re-parsing a
+ * text schema. The file is
+ * <pre>
+ * magic, version, body length, body, CRC32 of the body
+ * </pre>
+ * and the body holds the page size and string length it was written with,
+ * then each table: its name, primary key, kind of DbFile (heap, B+ tree or
+ * hash, with the key field of the last two), data file, fields, secondary
+ * indexes with their included fields, bitmap indexes, Bloom filter fields
+ * and a length-prefixed block holding its {@link TableStats}, if any.
+ * Relative paths are resolved against the directory of the catalog file, so
+ * a database directory can be moved as a whole.
+ * <p>
+ * A file is written to a temporary file that is synced to disk and then
+ * atomically renamed over the old one, so a reader sees either the previous
+ * catalog or the new one, even after a crash. A file with a wrong magic
+ * number, version, page size or checksum is rejected with a DbException
+ * before any table is added to the catalog.
+ */
+public class CatalogFile {
+
+    public static final int MAGIC = 0x53444243; // "SDBC"
+    public static final int VERSION = 1;
+
+    static final byte HEAP = 0;
+    static final byte BTREE = 1;
+    static final byte HASH = 2;
+
+    private CatalogFile() {
+    }
+
+    /**
+     * Writes every table of a catalog, with its indexes, to f.
+     *
+     * @throws DbException if a table is stored in a kind of DbFile that
+     *             cannot be recorded
+     */
+    public static void write(Catalog catalog, File f) throws IOException, DbException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeInt(BufferPool.PAGE_SIZE);
+        out.writeInt(Type.STRING_LEN);
+
+        ArrayList<TableInfo> tables = new ArrayList<TableInfo>();
+        Iterator<Integer> it = catalog.tableIdIterator();
+        while (it.hasNext())
+            tables.add(catalog.getTableInfo(it.next()));
+        out.writeInt(tables.size());
+        for (TableInfo info : tables)
+            writeTable(out, info, dir);
+        out.flush();
+
+        CRC32 crc = new CRC32();
+        crc.update(body.toByteArray());
+        File tmp = new File(f.getPath() + ".tmp");
+        FileOutputStream fos = new FileOutputStream(tmp);
+        DataOutputStream file = new DataOutputStream(new BufferedOutputStream(fos));
+        boolean replaced = false;
+        try {
+            file.writeInt(MAGIC);
+            file.writeInt(VERSION);
+            file.writeInt(body.size());
+            body.writeTo(file);
+            file.writeInt((int) crc.getValue());
+            file.flush();
+            Utility.replaceFile(fos, tmp, f);
+            replaced = true;
+        } finally {
+            if (!replaced) {
+                file.close();
+                tmp.delete();
+            }
+        }
+    }
+
+    private static void writeTable(DataOutputStream out, TableInfo info, File dir)
+            throws IOException, DbException {
+        DbFile file = info.getFile();
+        out.writeUTF(info.getName());
+        out.writeUTF(info.getPrimaryKey() == null ? "" : info.getPrimaryKey());
+        if (file instanceof HeapFile) {
+            out.writeByte(HEAP);
+            out.writeUTF(path(((HeapFile) file).getFile(), dir));
+        } else if (file instanceof BTreeFile) {
+            out.writeByte(BTREE);
+            out.writeInt(((BTreeFile) file).keyField());
+            out.writeUTF(path(((BTreeFile) file).getFile(), dir));
+        } else if (file instanceof HashFile) {
+            out.writeByte(HASH);
+            out.writeInt(((HashFile) file).keyField());
+            out.writeUTF(path(((HashFile) file).getFile(), dir));
+        } else {
+            throw new DbException("cannot record table " + info.getName() + " stored in a "
+                    + file.getClass().getSimpleName());
+        }
+
+        TupleDesc td = info.getTupleDesc();
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            out.writeByte(td.getFieldType(i).ordinal());
+            String name = td.getFieldName(i);
+            out.writeUTF(name == null ? "" : name);
+        }
+
+        out.writeInt(info.getIndexes().size());
+        for (SecondaryIndex index : info.getIndexes()) {
+            out.writeInt(index.getField());
+            out.writeUTF(path(index.getFile().getFile(), dir));
+            int[] included = index.getIncludedFields();
+            out.writeInt(included.length);
+            for (int field : included)
+                out.writeInt(field);
+        }
+        out.writeInt(info.getBitmapIndexes().size());
+        for (BitmapIndex index : info.getBitmapIndexes()) {
+            out.writeInt(index.getField());
+            out.writeUTF(path(index.getFile(), dir));
+        }
+        if (file instanceof HeapFile) {
+            List<PageBloomFilter> filters = ((HeapFile) file).getBloomFilters();
+            out.writeInt(filters.size());
+            for (PageBloomFilter bf : filters)
+                out.writeInt(bf.getField());
+        } else {
+            out.writeInt(0);
+        }
+
+        TableStats stats = info.getStats();
+        if (stats == null) {
+            out.writeInt(0);
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream statsOut = new DataOutputStream(bytes);
+            stats.writeTo(statsOut);
+            statsOut.flush();
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    /** @return f relative to dir if it lies in it, else its absolute path */
+    private static String path(File f, File dir) {
+        String abs = f.getAbsolutePath();
+        String prefix = dir.getPath() + File.separator;
+        return abs.startsWith(prefix) ? abs.substring(prefix.length()) : abs;
+    }
+
+    private static File resolve(String path, File dir) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(dir, path);
+    }
+
+    /**
+     * Reads a catalog file and adds its tables and indexes to catalog.
+     * Indexes whose files are current are loaded rather than rebuilt.
+     *
+     * @throws DbException if the file is not a valid catalog file of this
+     *             version, was written with another page size or string
+     *             length, or an index cannot be built
+     */
+    public static void read(Catalog catalog, File f) throws IOException, DbException {
+        File dir = f.getAbsoluteFile().getParentFile();
+        byte[] bytes = new byte[(int) f.length()];
+        DataInputStream file = new DataInputStream(new FileInputStream(f));
+        try {
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (bytes.length < 16 || in.readInt() != MAGIC)
+            throw new DbException(f + " is not a catalog file");
+        int version = in.readInt();
+        if (version != VERSION)
+            throw new DbException(f + " has catalog version " + version + ", expected " + VERSION);
+        int length = in.readInt();
+        if (length < 0 || length != bytes.length - 16)
+            throw new DbException(f + " is truncated");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 12, length);
+        if ((int) crc.getValue() != readInt(bytes, 12 + length))
+            throw new DbException(f + " is corrupt: checksum mismatch");
+
+        int pageSize = in.readInt();
+        if (pageSize != BufferPool.PAGE_SIZE)
+            throw new DbException(f + " was written with pages of " + pageSize + " bytes, not "
+                    + BufferPool.PAGE_SIZE);
+        int stringLen = in.readInt();
+        if (stringLen != Type.STRING_LEN)
+            throw new DbException(f + " was written with strings of " + stringLen + " bytes, not "
+                    + Type.STRING_LEN);
+
+        try {
+            int numTables = in.readInt();
+            for (int i = 0; i < numTables; i++)
+                readTable(in, catalog, dir);
+        } catch (TransactionAbortedException e) {
+            throw new DbException("could not build index: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new DbException(f + " is corrupt: " + e.getMessage());
+        }
+    }
+
+    private static void readTable(DataInputStream in, Catalog catalog, File dir)
+            throws IOException, DbException, TransactionAbortedException {
+        String name = in.readUTF();
+        String pkey = in.readUTF();
+        byte kind = in.readByte();
+        int key = kind == HEAP ? -1 : in.readInt();
+        File data = resolve(in.readUTF(), dir);
+
+        int numFields = in.readInt();
+        Type[] types = new Type[numFields];
+        String[] names = new String[numFields];
+        for (int i = 0; i < numFields; i++) {
+            int type = in.readByte();
+            if (type < 0 || type >= Type.values().length)
+                throw new DbException("unknown type " + type + " in table " + name);
+            types[i] = Type.values()[type];
+            names[i] = in.readUTF();
+        }
+        TupleDesc td = new TupleDesc(types, names);
+
+        DbFile file;
+        if (kind == HEAP)
+            file = new HeapFile(data, td);
+        else if (kind == BTREE)
+            file = new BTreeFile(data, key, td);
+        else if (kind == HASH)
+            file = new HashFile(data, key, td);
+        else
+            throw new DbException("unknown file kind " + kind + " of table " + name);
+        catalog.addTable(file, name, pkey);
+
+        int numIndexes = in.readInt();
+        for (int i = 0; i < numIndexes; i++) {
+            int field = in.readInt();
+            File indexFile = resolve(in.readUTF(), dir);
+            int[] included = new int[in.readInt()];
+            for (int j = 0; j < included.length; j++)
+                included[j] = in.readInt();
+            catalog.addIndex(file.getId(), field, indexFile, included);
+        }
+        int numBitmaps = in.readInt();
+        for (int i = 0; i < numBitmaps; i++) {
+            int field = in.readInt();
+            catalog.addBitmapIndex(file.getId(), field, resolve(in.readUTF(), dir));
+        }
+        int numBloom = in.readInt();
+        for (int i = 0; i < numBloom; i++) {
+            int field = in.readInt();
+            if (!(file instanceof HeapFile))
+                throw new DbException("Bloom filters on table " + name + ", which is not a HeapFile");
+            ((HeapFile) file).addBloomFilter(field);
+        }
+
+        // statistics taken when the table had another number of pages are
+        // out of date and dropped
+        byte[] statsBytes = new byte[in.readInt()];
+        in.readFully(statsBytes);
+        if (statsBytes.length > 0) {
+            TableStats stats = TableStats.readFrom(file.getId(), TableStats.IOCOSTPERPAGE,
+                    new DataInputStream(new ByteArrayInputStream(statsBytes)));
+            if (stats.numPages() == TableStats.numPages(file))
+                catalog.setTableStats(file.getId(), stats);
+        }
+    }
+
+    private static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xff) << 24) | ((b[off + 1] & 0xff) << 16) | ((b[off + 2] & 0xff) << 8)
+                | (b[off + 3] & 0xff);
+    }
+}
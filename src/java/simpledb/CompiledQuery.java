@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Base class of the classes generated by {@link QueryCompiler}. A generated
+ * subclass implements {@link #scanPage(byte[])} as a single loop over the
+ * slots of a raw HeapPage, with the header size, tuple size, field offsets
+ * and predicate operators of one plan shape compiled in as constants. The
+ * predicate operands are not compiled in; they are passed to
+ * {@link #init} so that one generated class serves every query of the same
+ * shape.
+ * <p>
+ * The helpers here are the only calls the generated code makes, and are
+ * all static or final so that the JIT can inline them.
+ */
+public abstract class CompiledQuery {
+
+    /** Predicate operands, in predicate order. */
+    protected int[] constants;
+    /** TupleDesc of the rows passed to {@link #emit(Tuple)}. */
+    protected TupleDesc outTd;
+
+    private List<Tuple> rows;
+    private HashAggregator aggregator;
+
+    /**
+     * Prepares this instance to run one query.
+     *
+     * @param constants
+     *            the predicate operands
+     * @param outTd
+     *            the TupleDesc of emitted rows, or null for aggregates
+     * @param aggregator
+     *            the aggregator that receives aggregate input, or null
+     */
+    final void init(int[] constants, TupleDesc outTd, HashAggregator aggregator) {
+        this.constants = constants;
+        this.outTd = outTd;
+        this.aggregator = aggregator;
+    }
+
+    /**
+     * Runs the compiled pipeline over one page in HeapPage format, appending
+     * any emitted rows to out.
+     */
+    final void run(byte[] page, List<Tuple> out) {
+        this.rows = out;
+        scanPage(page);
+        this.rows = null;
+    }
+
+    /** The generated loop over the slots of one page. */
+    protected abstract void scanPage(byte[] page);
+
+    /** Reads a big-endian int at offset o. */
+    protected static int readInt(byte[] p, int o) {
+        return ((p[o] & 0xff) << 24) | ((p[o + 1] & 0xff) << 16)
+                | ((p[o + 2] & 0xff) << 8) | (p[o + 3] & 0xff);
+    }
+
+    /** Reads a length-prefixed string field at offset o. */
+    protected static String readString(byte[] p, int o) {
+        int len = readInt(p, o);
+        return new String(p, o + 4, len);
+    }
+
+    /** Passes one output row of a non-aggregate plan to the caller. */
+    protected final void emit(Tuple t) {
+        rows.add(t);
+    }
+
+    /** Folds one value into the group with an int (or no) group key. */
+    protected final void aggregate(int key, int value) {
+        aggregator.merge(key, null, value);
+    }
+
+    /** Folds one value into the group with a string group key. */
+    protected final void aggregate(String key, int value) {
+        aggregator.merge(0, key, value);
+    }
+}
@@ -49,10 +49,11 @@ public interface DbFile extends Serializable {
      * This method will acquire a lock on the affected pages of the file, and
      * may block until the lock can be acquired.
      *
+     * @return An ArrayList contain the pages that were modified
      * @throws DbException if the tuple cannot be deleted or is not a member
      *   of the file
      */
-    public Page deleteTuple(TransactionId tid, Tuple t)
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException;
 
     /**
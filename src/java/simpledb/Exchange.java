@@ -0,0 +1,357 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exchange is a Volcano-style exchange operator that connects N producer
+ * subplans to M consumer pipelines. Each producer DbIterator is drained on
+ * its own thread; its tuples are routed either by a hash of one field (so
+ * that equal keys always reach the same consumer, as needed by partitioned
+ * joins and aggregates) or round-robin, and are handed over in batches
+ * through one {@link BoundedQueue} per consumer.
+ * <p>
+ * The consumers are ordinary DbIterators obtained from
+ * {@link #getConsumer(int)}, so any existing operator can be placed on top
+ * of them unchanged. The producers start when the first consumer is opened
+ * and are cancelled once every consumer has been closed. Queues are
+ * bounded: a producer whose target consumer falls behind waits for room.
+ * <p>
+ * All producers must return tuples with the same TupleDesc. An exchange can
+ * only be run once per open; its consumers do not support rewind.
+ */
+public class Exchange {
+
+    /** Partition field value that requests round-robin routing. */
+    public static final int ROUND_ROBIN = -1;
+
+    /** Default number of batches buffered per consumer. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+    /** Number of tuples a producer collects for a consumer before handing them over. */
+    public static final int BATCH_SIZE = 256;
+
+    // how long a blocked producer waits before re-checking for cancellation
+    private static final long RETRY_MILLIS = 10;
+
+    // marks the end of the input in a consumer queue
+    private static final List<Tuple> END = Collections.unmodifiableList(new ArrayList<Tuple>());
+
+    private DbIterator[] producers;
+    private final Consumer[] consumers;
+    private final int partitionField;
+    private final Executor executor;
+    private final int queueCapacity;
+
+    // state of the current run; replaced each time the exchange is started
+    private Run run = null;
+    private int openConsumers = 0;
+
+    /**
+     * Creates an exchange.
+     *
+     * @param producers
+     *            the subplans whose tuples are redistributed
+     * @param numConsumers
+     *            the number of consumer pipelines
+     * @param partitionField
+     *            the field whose hash selects the consumer of each tuple, or
+     *            {@link #ROUND_ROBIN}
+     * @param executor
+     *            runs one task per producer; each task occupies its thread
+     *            until the producer is drained
+     * @param queueCapacity
+     *            the number of batches buffered per consumer
+     */
+    public Exchange(DbIterator[] producers, int numConsumers, int partitionField,
+            Executor executor, int queueCapacity) {
+        if (producers.length == 0)
+            throw new IllegalArgumentException("exchange needs at least one producer");
+        if (numConsumers < 1)
+            throw new IllegalArgumentException("exchange needs at least one consumer, got " + numConsumers);
+        TupleDesc td = producers[0].getTupleDesc();
+        for (int i = 1; i < producers.length; i++) {
+            if (!td.equals(producers[i].getTupleDesc()))
+                throw new IllegalArgumentException("producer " + i + " has a different TupleDesc");
+        }
+        if (partitionField != ROUND_ROBIN && (partitionField < 0 || partitionField >= td.numFields()))
+            throw new IllegalArgumentException("no field " + partitionField + " to partition on");
+
+        this.producers = producers;
+        this.partitionField = partitionField;
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.consumers = new Consumer[numConsumers];
+        for (int i = 0; i < numConsumers; i++)
+            consumers[i] = new Consumer(i);
+    }
+
+    /**
+     * Creates an exchange that runs each producer on a new daemon thread.
+     */
+    public Exchange(DbIterator[] producers, int numConsumers, int partitionField) {
+        this(producers, numConsumers, partitionField, new Executor() {
+            public void execute(Runnable task) {
+                Thread t = new Thread(task, "exchange-producer");
+                t.setDaemon(true);
+                t.start();
+            }
+        }, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Returns a DbIterator that gathers the tuples of all producers into a
+     * single stream, e.g. to feed the serial top of a plan.
+     */
+    public static DbIterator gather(DbIterator[] producers) {
+        return new Exchange(producers, 1, ROUND_ROBIN).getConsumer(0);
+    }
+
+    /**
+     * @return the DbIterator that returns the tuples routed to consumer i
+     */
+    public DbIterator getConsumer(int i) {
+        return consumers[i];
+    }
+
+    public int getNumConsumers() {
+        return consumers.length;
+    }
+
+    /**
+     * @return the partition field, or {@link #ROUND_ROBIN}
+     */
+    public int getPartitionField() {
+        return partitionField;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return producers[0].getTupleDesc();
+    }
+
+    /**
+     * Called when a consumer opens. Starts the producers if this is the first
+     * consumer of a run.
+     */
+    private synchronized Run attach(int consumer) throws DbException {
+        if (run != null && run.detached.get(consumer) != 0)
+            throw new DbException("exchange consumer " + consumer
+                    + " cannot be reopened while other consumers are still running");
+        if (run == null) {
+            run = new Run(consumers.length, producers.length, queueCapacity);
+            for (int i = 0; i < producers.length; i++)
+                executor.execute(new ProducerTask(run, producers[i], i));
+        }
+        run.detached.set(consumer, 0);
+        openConsumers++;
+        return run;
+    }
+
+    /**
+     * Called when a consumer closes. Cancels the producers once no consumer
+     * is left.
+     */
+    private synchronized void detach(Run r, int consumer) {
+        if (r != run)
+            return;
+        r.detached.set(consumer, 1);
+        r.queues[consumer].clear();
+        if (--openConsumers == 0) {
+            r.cancelled = true;
+            for (int i = 0; i < r.queues.length; i++)
+                r.queues[i].clear();
+            run = null;
+        }
+    }
+
+    /**
+     * The queues and status shared by the producers and consumers of one run.
+     */
+    private static class Run {
+        final BoundedQueue<List<Tuple>>[] queues;
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger liveProducers;
+        // 1 for consumers that have been closed; their batches are dropped
+        final AtomicIntegerArray detached;
+        volatile boolean cancelled = false;
+
+        Run(int numConsumers, int numProducers, int capacity) {
+            queues = Utility.newArray(BoundedQueue.class, numConsumers);
+            for (int i = 0; i < numConsumers; i++)
+                queues[i] = new BoundedQueue<List<Tuple>>(capacity);
+            liveProducers = new AtomicInteger(numProducers);
+            detached = new AtomicIntegerArray(numConsumers);
+        }
+
+        boolean stopping() {
+            return cancelled || failure.get() != null;
+        }
+
+        /**
+         * Hands a batch to consumer i, waiting while its queue is full. Gives
+         * up if the consumer or the whole run has been closed.
+         */
+        void publish(int i, List<Tuple> batch) throws InterruptedException {
+            while (!queues[i].offer(batch, RETRY_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled || detached.get(i) != 0)
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Drains one producer and routes its tuples to the consumers. The last
+     * producer to finish sends the end marker to every consumer.
+     */
+    private class ProducerTask implements Runnable {
+
+        private final Run run;
+        private final DbIterator producer;
+        private int nextConsumer;
+
+        ProducerTask(Run run, DbIterator producer, int index) {
+            this.run = run;
+            this.producer = producer;
+            // stagger round-robin start points so small inputs still spread out
+            this.nextConsumer = index % consumers.length;
+        }
+
+        public void run() {
+            try {
+                produce();
+            } catch (Throwable t) {
+                run.failure.compareAndSet(null, t);
+            } finally {
+                producer.close();
+                if (run.liveProducers.decrementAndGet() == 0) {
+                    try {
+                        for (int i = 0; i < run.queues.length; i++)
+                            run.publish(i, END);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }
+
+        private void produce() throws DbException, TransactionAbortedException,
+                InterruptedException {
+            int m = consumers.length;
+            ArrayList<Tuple>[] batches = Utility.newArray(ArrayList.class, m);
+
+            producer.open();
+            while (!run.stopping() && producer.hasNext()) {
+                Tuple t = producer.next();
+                int target = route(t, m);
+                if (batches[target] == null)
+                    batches[target] = new ArrayList<Tuple>(BATCH_SIZE);
+                batches[target].add(t);
+                if (batches[target].size() >= BATCH_SIZE) {
+                    run.publish(target, batches[target]);
+                    batches[target] = null;
+                }
+            }
+
+            for (int i = 0; i < m && !run.stopping(); i++) {
+                if (batches[i] != null)
+                    run.publish(i, batches[i]);
+            }
+        }
+
+        private int route(Tuple t, int m) {
+            if (m == 1)
+                return 0;
+            if (partitionField == ROUND_ROBIN) {
+                int target = nextConsumer;
+                nextConsumer = (nextConsumer + 1) % m;
+                return target;
+            }
+            // spread the bits of the field hash before taking the remainder
+            int h = t.getField(partitionField).hashCode() * 0x9E3779B9;
+            return ((h ^ (h >>> 16)) & 0x7fffffff) % m;
+        }
+    }
+
+    /**
+     * The DbIterator through which one consumer pipeline reads its partition.
+     */
+    private class Consumer extends Operator {
+
+        private static final long serialVersionUID = 1L;
+        private final int index;
+        private transient Run run = null;
+        private Iterator<Tuple> batch = null;
+        private boolean finished = false;
+
+        Consumer(int index) {
+            this.index = index;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return Exchange.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (run != null)
+                throw new IllegalStateException("exchange consumer " + index + " is already open");
+            run = attach(index);
+            batch = null;
+            finished = false;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            if (run != null) {
+                detach(run, index);
+                run = null;
+            }
+            batch = null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            throw new DbException("Exchange consumers do not support rewind");
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (batch == null || !batch.hasNext()) {
+                if (finished)
+                    return null;
+
+                List<Tuple> next;
+                try {
+                    next = run.queues[index].take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while waiting for exchange producers");
+                }
+
+                if (next == END) {
+                    finished = true;
+                    Throwable t = run.failure.get();
+                    if (t instanceof TransactionAbortedException)
+                        throw (TransactionAbortedException) t;
+                    if (t != null)
+                        throw new DbException("exchange producer failed: " + t);
+                    return null;
+                }
+                batch = next.iterator();
+            }
+            return batch.next();
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return producers;
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            producers = children;
+        }
+    }
+}
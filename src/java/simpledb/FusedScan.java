@@ -0,0 +1,248 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * FusedScan evaluates a scan of a HeapFile together with a conjunction of
+ * filter predicates and either a projection or an aggregate, as a single
+ * operator. When the plan can be compiled, it is run by a class generated
+ * by {@link QueryCompiler} directly over the raw bytes of each page;
+ * otherwise it falls back to an interpreted push {@link Pipeline} with the
+ * same result.
+ * <p>
+ * Non-aggregate plans produce their rows one page at a time as they are
+ * pulled. Aggregate plans consume the whole table on open(), like
+ * {@link Aggregate}.
+ */
+public class FusedScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private Predicate[] predicates;
+    private int[] projection;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+
+    private transient CompiledQuery compiled = null;
+    private transient DbIterator fallback = null;
+    private HashAggregator aggregator = null;
+    private DbIterator aggIt = null;
+    private ArrayList<Tuple> rows = new ArrayList<Tuple>();
+    private int pos = 0;
+    private int pageNo = 0;
+
+    /**
+     * Creates a scan that returns the projected fields of the tuples that
+     * satisfy every predicate.
+     *
+     * @param projection
+     *            the fields to return, in order, or null for all fields
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, int[] projection) {
+        this(tid, tableid, tableAlias, predicates, projection, -1, Aggregator.NO_GROUPING, null);
+    }
+
+    /**
+     * Creates a scan that aggregates the tuples that satisfy every
+     * predicate.
+     *
+     * @param afield
+     *            the field over which the aggregate is computed
+     * @param gfield
+     *            the field to group on, or {@link Aggregator#NO_GROUPING}
+     * @param aop
+     *            the aggregation operator
+     */
+    public FusedScan(TransactionId tid, int tableid, String tableAlias,
+            Predicate[] predicates, int afield, int gfield, Aggregator.Op aop) {
+        this(tid, tableid, tableAlias, predicates, null, afield, gfield, aop);
+        if (aop == null)
+            throw new IllegalArgumentException("aggregate operator must not be null");
+    }
+
+    private FusedScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates,
+            int[] projection, int afield, int gfield, Aggregator.Op aop) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (aop != null && aop != Aggregator.Op.COUNT && td.getFieldType(afield) == Type.STRING_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields, got " + aop);
+        if (aop == null && projection == null) {
+            projection = new int[td.numFields()];
+            for (int i = 0; i < projection.length; i++)
+                projection[i] = i;
+        }
+
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates.clone();
+        this.projection = projection == null ? null : projection.clone();
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+    }
+
+    /**
+     * @return true if the current run executes generated code rather than
+     *         the interpreted fallback
+     */
+    public boolean isCompiled() {
+        return compiled != null;
+    }
+
+    private TupleDesc inputTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc input = inputTupleDesc();
+        if (aop != null) {
+            String aggName = Aggregate.nameOfAggregatorOp(aop) + "(" + input.getFieldName(afield) + ")";
+            if (gfield == Aggregator.NO_GROUPING)
+                return new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName });
+            return new TupleDesc(new Type[] { input.getFieldType(gfield), Type.INT_TYPE },
+                    new String[] { input.getFieldName(gfield), aggName });
+        }
+
+        Type[] types = new Type[projection.length];
+        String[] names = new String[projection.length];
+        for (int i = 0; i < projection.length; i++) {
+            types[i] = input.getFieldType(projection[i]);
+            names[i] = input.getFieldName(projection[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        Class<? extends CompiledQuery> cls = QueryCompiler.compile(td, predicates, projection,
+                afield, gfield, aop);
+        compiled = null;
+        fallback = null;
+        if (cls != null) {
+            try {
+                compiled = cls.getDeclaredConstructor().newInstance();
+            } catch (Exception e) {
+                throw new DbException("cannot instantiate compiled query: " + e);
+            }
+        }
+
+        if (compiled == null) {
+            openFallback();
+        } else {
+            int[] constants = new int[predicates.length];
+            for (int i = 0; i < predicates.length; i++)
+                constants[i] = ((IntField) predicates[i].getOperand()).getValue();
+            if (aop != null) {
+                Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+                aggregator = new HashAggregator(gfield, gtype, afield, td.getFieldType(afield), aop);
+                compiled.init(constants, null, aggregator);
+            } else {
+                compiled.init(constants, getTupleDesc(), null);
+            }
+            pageNo = 0;
+            rows.clear();
+            pos = 0;
+            if (aop != null)
+                aggregateAll();
+        }
+        super.open();
+    }
+
+    private void openFallback() throws DbException, TransactionAbortedException {
+        Pipeline pipeline = new Pipeline(new PushScan(tid, tableId, tableAlias));
+        for (Predicate p : predicates)
+            pipeline.filter(p);
+        if (aop != null)
+            pipeline.aggregate(afield, gfield, aop);
+        else
+            pipeline.project(projection);
+        fallback = pipeline.iterator();
+        fallback.open();
+    }
+
+    /**
+     * Runs the compiled code over the next page that the zone map cannot
+     * rule out; false when none is left.
+     */
+    private boolean scanNextPage() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        while (pageNo < file.numPages() && !file.mayMatch(pageNo, predicates))
+            pageNo++;
+        if (pageNo >= file.numPages())
+            return false;
+        PageId pid = new HeapPageId(tableId, pageNo++);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        file.learnZone(page);
+        compiled.run(page.getRawData(), rows);
+        return true;
+    }
+
+    private void aggregateAll() throws DbException, TransactionAbortedException {
+        while (scanNextPage())
+            ;
+        aggIt = aggregator.iterator();
+        aggIt.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (fallback != null)
+            return fallback.hasNext() ? fallback.next() : null;
+        if (aggIt != null)
+            return aggIt.hasNext() ? aggIt.next() : null;
+
+        while (pos >= rows.size()) {
+            rows.clear();
+            pos = 0;
+            if (!scanNextPage())
+                return null;
+        }
+        return rows.get(pos++);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        if (fallback != null) {
+            fallback.rewind();
+        } else if (aggIt != null) {
+            aggIt.rewind();
+        } else {
+            pageNo = 0;
+            rows.clear();
+            pos = 0;
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (fallback != null) {
+            fallback.close();
+            fallback = null;
+        }
+        if (aggIt != null) {
+            aggIt.close();
+            aggIt = null;
+        }
+        if (aggregator != null) {
+            aggregator.discardSpill();
+            aggregator = null;
+        }
+        compiled = null;
+        rows.clear();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,520 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Computes an aggregate over a set of tuples, grouped on an IntField or
+ * StringField, using an open-addressing hash table.
+ * <p>
+ * Groups are numbered densely in the order they are first seen. The hash
+ * table only maps a slot to a group number; the group keys and running
+ * accumulators live in parallel primitive arrays indexed by group number,
+ * so no per-group objects are allocated while tuples are merged.
+ * <p>
+ * At most maxGroups groups are kept in memory. Once the table is full, a
+ * tuple whose group is not already resident is written to one of
+ * {@link #SPILL_PARTITIONS} temporary partition files chosen by hash. Groups
+ * are never split between memory and disk: a group is either resident from
+ * its first tuple on, or every one of its tuples is spilled. Each partition
+ * is aggregated by its own HashAggregator when the results are iterated,
+ * using different hash bits so that it can spill again if it is still too
+ * large.
+ */
+public class HashAggregator implements Aggregator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of groups held in memory before spilling. */
+    public static final int DEFAULT_MAX_GROUPS = 1 << 16;
+
+    /** Number of partition files a full table spills into. */
+    public static final int SPILL_PARTITIONS = 8;
+
+    // partitions are picked with three hash bits per level, starting at the
+    // top of the word; below this depth the table is allowed to grow
+    private static final int MAX_SPILL_LEVEL = 4;
+    private static final int INITIAL_GROUPS = 16;
+
+    private int gbfield;
+    private Type gbfieldtype;
+    private int afield;
+    private Type afieldtype;
+    private Op what;
+    private int maxGroups;
+    private int level;
+
+    // slot -> group number + 1; 0 marks an empty slot
+    private int[] slots;
+    private int numGroups = 0;
+    private int[] intKeys;
+    private String[] strKeys;
+    private long[] values;
+    private long[] counts;
+
+    private File[] spillFiles = null;
+    private DataOutputStream[] spillOut = null;
+
+    /**
+     * Aggregate constructor
+     *
+     * @param gbfield
+     *            the 0-based index of the group-by field in the tuple, or
+     *            NO_GROUPING if there is no grouping
+     * @param gbfieldtype
+     *            the type of the group by field (e.g., Type.INT_TYPE), or null
+     *            if there is no grouping
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param afieldtype
+     *            the type of the aggregate field
+     * @param what
+     *            the aggregation operator
+     * @param maxGroups
+     *            the number of groups held in memory before spilling
+     * @throws IllegalArgumentException
+     *            if what is not COUNT and afieldtype is Type.STRING_TYPE
+     */
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what, int maxGroups) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, maxGroups, 0);
+    }
+
+    public HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype, Op what) {
+        this(gbfield, gbfieldtype, afield, afieldtype, what, DEFAULT_MAX_GROUPS);
+    }
+
+    private HashAggregator(int gbfield, Type gbfieldtype, int afield, Type afieldtype,
+            Op what, int maxGroups, int level) {
+        if (afieldtype == Type.STRING_TYPE && what != Op.COUNT)
+            throw new IllegalArgumentException("only COUNT is supported over string fields, got " + what);
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive, got " + maxGroups);
+
+        this.gbfield = gbfield;
+        this.gbfieldtype = gbfield == NO_GROUPING ? null : gbfieldtype;
+        this.afield = afield;
+        this.afieldtype = afieldtype;
+        this.what = what;
+        this.maxGroups = maxGroups;
+        this.level = level;
+
+        int initial = Math.min(INITIAL_GROUPS, maxGroups);
+        this.slots = new int[tableSizeFor(initial)];
+        allocateGroups(initial);
+    }
+
+    /**
+     * Merge a new tuple into the aggregate, grouping as indicated in the
+     * constructor
+     *
+     * @param tup
+     *            the Tuple containing an aggregate field and a group-by field
+     */
+    public void mergeTupleIntoGroup(Tuple tup) {
+        int value = 0;
+        if (afieldtype == Type.INT_TYPE)
+            value = ((IntField) tup.getField(afield)).getValue();
+
+        if (gbfieldtype == null) {
+            merge(0, null, value);
+        } else if (gbfieldtype == Type.INT_TYPE) {
+            merge(((IntField) tup.getField(gbfield)).getValue(), null, value);
+        } else {
+            merge(0, ((StringField) tup.getField(gbfield)).getValue(), value);
+        }
+    }
+
+    /**
+     * Adds one aggregate input value to the group identified by intKey (for
+     * INT_TYPE or no grouping) or strKey (for STRING_TYPE grouping).
+     */
+    void merge(int intKey, String strKey, int value) {
+        int hash = hash(intKey, strKey);
+        int group = findGroup(intKey, strKey, hash);
+        if (group < 0) {
+            spill(intKey, strKey, value, hash);
+            return;
+        }
+
+        values[group] = accumulate(what, values[group], counts[group], value);
+        counts[group]++;
+    }
+
+    /**
+     * Folds one input value into a running accumulator.
+     *
+     * @param acc the accumulator so far
+     * @param count the number of values already folded into acc
+     * @return the new accumulator
+     */
+    static long accumulate(Op what, long acc, long count, int value) {
+        switch (what) {
+        case MIN:
+            return count == 0 || value < acc ? value : acc;
+        case MAX:
+            return count == 0 || value > acc ? value : acc;
+        case SUM:
+        case AVG:
+            return acc + value;
+        default:
+            return acc;
+        }
+    }
+
+    /**
+     * Combines two accumulators computed over disjoint sets of values.
+     *
+     * @return the accumulator over both sets
+     */
+    static long combine(Op what, long acc1, long count1, long acc2, long count2) {
+        switch (what) {
+        case MIN:
+            return count1 == 0 || (count2 != 0 && acc2 < acc1) ? acc2 : acc1;
+        case MAX:
+            return count1 == 0 || (count2 != 0 && acc2 > acc1) ? acc2 : acc1;
+        case SUM:
+        case AVG:
+            return acc1 + acc2;
+        default:
+            return acc1;
+        }
+    }
+
+    /**
+     * Folds the groups of another aggregator, built with the same fields and
+     * operator over a disjoint part of the input, into this one. Used to
+     * combine the thread-local partial aggregates of a parallel aggregation.
+     *
+     * @throws IllegalArgumentException
+     *            if partial has spilled groups to disk
+     * @throws IllegalStateException
+     *            if this aggregator runs out of room for the merged groups
+     */
+    public void mergeAggregator(HashAggregator partial) {
+        if (partial.hasSpilled())
+            throw new IllegalArgumentException("cannot merge an aggregator that has spilled");
+        if (partial.what != what || partial.gbfieldtype != gbfieldtype)
+            throw new IllegalArgumentException("cannot merge aggregators of different shapes");
+
+        for (int g = 0; g < partial.numGroups; g++) {
+            int intKey = partial.intKeys != null ? partial.intKeys[g] : 0;
+            String strKey = partial.strKeys != null ? partial.strKeys[g] : null;
+            int group = findGroup(intKey, strKey, hash(intKey, strKey));
+            if (group < 0)
+                throw new IllegalStateException("merged aggregate exceeds " + maxGroups + " groups");
+
+            values[group] = combine(what, values[group], counts[group],
+                    partial.values[g], partial.counts[g]);
+            counts[group] += partial.counts[g];
+        }
+    }
+
+    /**
+     * @return the aggregate value for an accumulator over count values
+     */
+    static int result(Op what, long acc, long count) {
+        switch (what) {
+        case COUNT:
+            return (int) count;
+        case AVG:
+            return (int) (acc / count);
+        default:
+            return (int) acc;
+        }
+    }
+
+    /**
+     * Finds the group for a key, creating it if there is room.
+     *
+     * @return the group number, or -1 if the key is not resident and the
+     *         table is full
+     */
+    private int findGroup(int intKey, String strKey, int hash) {
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            int group = slots[slot] - 1;
+            if (keyEquals(group, intKey, strKey))
+                return group;
+            slot = (slot + 1) & mask;
+        }
+
+        if (numGroups >= maxGroups && level < MAX_SPILL_LEVEL)
+            return -1;
+
+        int group = numGroups++;
+        if (group >= counts.length)
+            growGroups();
+        if (strKeys != null)
+            strKeys[group] = strKey;
+        else
+            intKeys[group] = intKey;
+        slots[slot] = group + 1;
+
+        // keep the load factor at or below one half
+        if (numGroups * 2 > slots.length)
+            rehash(slots.length * 2);
+        return group;
+    }
+
+    private boolean keyEquals(int group, int intKey, String strKey) {
+        if (strKeys != null)
+            return strKeys[group].equals(strKey);
+        return intKeys[group] == intKey;
+    }
+
+    private int hash(int intKey, String strKey) {
+        int h = strKeys != null ? strKey.hashCode() : intKey;
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash(int newSize) {
+        slots = new int[newSize];
+        int mask = newSize - 1;
+        for (int group = 0; group < numGroups; group++) {
+            int slot = hash(strKeys == null ? intKeys[group] : 0,
+                    strKeys == null ? null : strKeys[group]) & mask;
+            while (slots[slot] != 0)
+                slot = (slot + 1) & mask;
+            slots[slot] = group + 1;
+        }
+    }
+
+    private void allocateGroups(int capacity) {
+        if (gbfieldtype == Type.STRING_TYPE)
+            strKeys = new String[capacity];
+        else
+            intKeys = new int[capacity];
+        values = new long[capacity];
+        counts = new long[capacity];
+    }
+
+    private void growGroups() {
+        int capacity = counts.length * 2;
+        if (strKeys != null)
+            strKeys = Arrays.copyOf(strKeys, capacity);
+        else
+            intKeys = Arrays.copyOf(intKeys, capacity);
+        values = Arrays.copyOf(values, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+    }
+
+    private static int tableSizeFor(int groups) {
+        int size = 2;
+        while (size < groups * 2)
+            size <<= 1;
+        return size;
+    }
+
+    /**
+     * Appends a key/value pair to the partition file selected by the hash
+     * bits for this level.
+     */
+    private void spill(int intKey, String strKey, int value, int hash) {
+        int partition = (hash >>> (29 - 3 * level)) & (SPILL_PARTITIONS - 1);
+        try {
+            if (spillOut == null) {
+                spillFiles = new File[SPILL_PARTITIONS];
+                spillOut = new DataOutputStream[SPILL_PARTITIONS];
+            }
+            if (spillOut[partition] == null) {
+                spillFiles[partition] = File.createTempFile("aggspill", ".tmp");
+                spillFiles[partition].deleteOnExit();
+                spillOut[partition] = new DataOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(spillFiles[partition])));
+            }
+            DataOutputStream dos = spillOut[partition];
+            if (strKeys != null)
+                dos.writeUTF(strKey);
+            else
+                dos.writeInt(intKey);
+            dos.writeInt(value);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to spill aggregate partition", e);
+        }
+    }
+
+    /** Flushes and closes the partition writers so the files can be read. */
+    private void finishSpill() {
+        if (spillOut == null)
+            return;
+        try {
+            for (int i = 0; i < spillOut.length; i++) {
+                if (spillOut[i] != null) {
+                    spillOut[i].close();
+                    spillOut[i] = null;
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("failed to close aggregate partition", e);
+        }
+    }
+
+    /** Deletes any partition files written by this aggregator. */
+    void discardSpill() {
+        finishSpill();
+        if (spillFiles == null)
+            return;
+        for (int i = 0; i < spillFiles.length; i++) {
+            if (spillFiles[i] != null) {
+                spillFiles[i].delete();
+                spillFiles[i] = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if some groups were written to partition files because
+     *         the table was full
+     */
+    public boolean hasSpilled() {
+        return spillFiles != null;
+    }
+
+    /**
+     * Aggregates one spilled partition with a fresh table one level down.
+     */
+    private HashAggregator loadPartition(File f) throws IOException {
+        // spilled records are (key, value) pairs: group field 0, value field 1
+        HashAggregator child = new HashAggregator(0, gbfieldtype, 1, Type.INT_TYPE,
+                what, maxGroups, level + 1);
+        DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            while (true) {
+                int intKey = 0;
+                String strKey = null;
+                try {
+                    if (strKeys != null)
+                        strKey = dis.readUTF();
+                    else
+                        intKey = dis.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                child.merge(intKey, strKey, dis.readInt());
+            }
+        } finally {
+            dis.close();
+        }
+        return child;
+    }
+
+    /**
+     * @return the TupleDesc of the result tuples: (groupVal, aggregateVal) if
+     *         grouping, or a single (aggregateVal) otherwise.
+     */
+    TupleDesc getResultTupleDesc() {
+        if (gbfieldtype == null)
+            return new TupleDesc(new Type[] { Type.INT_TYPE });
+        return new TupleDesc(new Type[] { gbfieldtype, Type.INT_TYPE });
+    }
+
+    private Tuple resultTuple(TupleDesc td, int group) {
+        int result = result(what, values[group], counts[group]);
+
+        Tuple t = new Tuple(td);
+        if (gbfieldtype == null) {
+            t.setField(0, new IntField(result));
+        } else {
+            if (strKeys != null)
+                t.setField(0, new StringField(strKeys[group], Type.STRING_LEN));
+            else
+                t.setField(0, new IntField(intKeys[group]));
+            t.setField(1, new IntField(result));
+        }
+        return t;
+    }
+
+    /**
+     * Create a DbIterator over group aggregate results. Resident groups are
+     * returned first; spilled partitions are then aggregated one at a time.
+     *
+     * @return a DbIterator whose tuples are the pair (groupVal, aggregateVal)
+     *         if using group, or a single (aggregateVal) if no grouping. The
+     *         aggregateVal is determined by the type of aggregate specified in
+     *         the constructor.
+     */
+    public DbIterator iterator() {
+        return new ResultIterator();
+    }
+
+    private class ResultIterator implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td = getResultTupleDesc();
+        private boolean open = false;
+        private int nextGroup;
+        private int partition;
+        private HashAggregator partitionAgg;
+        private DbIterator partitionIt;
+
+        public void open() throws DbException, TransactionAbortedException {
+            finishSpill();
+            nextGroup = 0;
+            partition = 0;
+            closePartition();
+            open = true;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            if (!open)
+                throw new IllegalStateException("iterator not open");
+            if (nextGroup < numGroups)
+                return true;
+
+            while (true) {
+                if (partitionIt != null && partitionIt.hasNext())
+                    return true;
+                closePartition();
+                if (spillFiles == null || partition >= spillFiles.length)
+                    return false;
+
+                File f = spillFiles[partition++];
+                if (f == null)
+                    continue;
+                try {
+                    partitionAgg = loadPartition(f);
+                } catch (IOException e) {
+                    throw new DbException("failed to read aggregate partition: " + e.getMessage());
+                }
+                partitionIt = partitionAgg.iterator();
+                partitionIt.open();
+            }
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException,
+                NoSuchElementException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (nextGroup < numGroups)
+                return resultTuple(td, nextGroup++);
+            return partitionIt.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            closePartition();
+            open = false;
+        }
+
+        private void closePartition() {
+            if (partitionIt != null) {
+                partitionIt.close();
+                partitionIt = null;
+            }
+            if (partitionAgg != null) {
+                partitionAgg.discardSpill();
+                partitionAgg = null;
+            }
+        }
+    }
+}
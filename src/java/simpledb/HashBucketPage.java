@@ -0,0 +1,196 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A bucket page of a HashFile: either the primary page of a bucket or one
+ * of the overflow pages chained behind it. Free overflow pages are chained
+ * the same way, from {@link HashMetaPage#getFreeHead}.
+ * <p>
+ * On disk a bucket page is the page number of the next page in its chain
+ * (0 when there is none), the number of tuples, and then the tuples
+ * themselves, packed in no particular order. As on a BTreeLeafPage, the
+ * tuple number of a tuple's RecordId is its position on the page, which the
+ * page keeps up to date.
+ */
+public class HashBucketPage implements Page {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final HashPageId pid;
+    private final TupleDesc td;
+    private int next;
+    private ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+
+    /**
+     * Creates a bucket page from its on-disk representation. A page of all
+     * zeros is an empty page at the end of its chain.
+     */
+    public HashBucketPage(HashPageId id, byte[] data, TupleDesc td) throws IOException {
+        this.pid = id;
+        this.td = td;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        next = dis.readInt();
+        int n = dis.readInt();
+        if (n < 0 || n > maxTuples(td))
+            throw new IOException("corrupt bucket page " + id + ": " + n + " tuples");
+        try {
+            for (int i = 0; i < n; i++) {
+                Tuple t = new Tuple(td);
+                for (int j = 0; j < td.numFields(); j++)
+                    t.setField(j, td.getFieldType(j).parse(dis));
+                t.setRecordId(new RecordId(pid, i));
+                tuples.add(t);
+            }
+        } catch (java.text.ParseException e) {
+            throw new IOException("corrupt bucket page " + id + ": " + e.getMessage());
+        }
+        setBeforeImage();
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    /**
+     * @return the number of tuples that fit on a bucket page of this schema
+     */
+    static int maxTuples(TupleDesc td) {
+        return (BufferPool.PAGE_SIZE - HEADER_SIZE) / td.getSize();
+    }
+
+    public int getNumTuples() {
+        return tuples.size();
+    }
+
+    public int getNumEmptySlots() {
+        return maxTuples(td) - tuples.size();
+    }
+
+    public Tuple getTuple(int i) {
+        return tuples.get(i);
+    }
+
+    /** @return the next page in this page's chain, or 0 if it is the last */
+    public int getNextPage() {
+        return next;
+    }
+
+    public void setNextPage(int pgNo) {
+        next = pgNo;
+    }
+
+    /**
+     * Adds a tuple to the end of this page and sets its RecordId.
+     *
+     * @throws DbException if the page is full or the tuple has the wrong
+     *         schema
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tuple schema does not match the page");
+        if (tuples.size() >= maxTuples(td))
+            throw new DbException("bucket page " + pid + " is full");
+        tuples.add(t);
+        t.setRecordId(new RecordId(pid, tuples.size() - 1));
+    }
+
+    /**
+     * Removes a tuple from this page. The tuple is found through its
+     * RecordId, or by comparing field values if the RecordId is stale.
+     *
+     * @throws DbException if the tuple is not on this page
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int i = rid.tupleno();
+        if (i < 0 || i >= tuples.size() || !sameTuple(tuples.get(i), t)) {
+            i = -1;
+            for (int j = 0; j < tuples.size(); j++) {
+                if (sameTuple(tuples.get(j), t)) {
+                    i = j;
+                    break;
+                }
+            }
+            if (i < 0)
+                throw new DbException("tuple is not on page " + pid);
+        }
+        tuples.remove(i);
+        t.setRecordId(null);
+        for (int j = i; j < tuples.size(); j++)
+            tuples.get(j).setRecordId(new RecordId(pid, j));
+    }
+
+    /**
+     * Removes and returns every tuple on this page, leaving it empty. Used
+     * when a bucket is split and its tuples are redistributed.
+     */
+    ArrayList<Tuple> removeAll() {
+        ArrayList<Tuple> removed = tuples;
+        tuples = new ArrayList<Tuple>();
+        return removed;
+    }
+
+    private static boolean sameTuple(Tuple a, Tuple b) {
+        if (a == b)
+            return true;
+        int n = a.getTupleDesc().numFields();
+        if (n != b.getTupleDesc().numFields())
+            return false;
+        for (int i = 0; i < n; i++) {
+            if (!a.getField(i).equals(b.getField(i)))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return an iterator over the tuples of this page
+     */
+    public Iterator<Tuple> iterator() {
+        return Collections.unmodifiableList(new ArrayList<Tuple>(tuples)).iterator();
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.PAGE_SIZE);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(next);
+            dos.writeInt(tuples.size());
+            for (Tuple t : tuples) {
+                for (int j = 0; j < td.numFields(); j++)
+                    t.getField(j).serialize(dos);
+            }
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public HashBucketPage getBeforeImage() {
+        try {
+            return new HashBucketPage(pid, oldData, td);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,351 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * HashFile is a DbFile that stores its tuples in a disk-resident linear
+ * hash table on one key field. It answers equality lookups on the key by
+ * reading the one bucket the key hashes to, with no tree to descend: the
+ * primary page of every bucket is computed from the {@link HashMetaPage}, so
+ * a probe costs one page read unless the bucket has overflow pages.
+ * <p>
+ * The file starts with a single bucket. When the average bucket is more
+ * than {@link #MAX_LOAD} full, the next bucket in linear hashing order is
+ * split: a new bucket is added at the end, and the tuples of the bucket it
+ * splits from are redistributed between the two using one more bit of the
+ * hash. A bucket that fills up before its turn to split grows a chain of
+ * overflow pages. Overflow pages emptied by splits or deletes are kept on a
+ * free list for reuse; buckets are never merged.
+ * <p>
+ * As in BTreeFile, inserts and deletes are serialized on the file and keep
+ * every page they modify in a local map of dirty pages that is returned to
+ * the BufferPool.
+ */
+public class HashFile implements DbFile {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Average bucket fill, as a fraction of a page, above which a bucket is split. */
+    public static final double MAX_LOAD = 0.75;
+
+    private final File f;
+    private final TupleDesc td;
+    private final int tableid;
+    private final int keyField;
+
+    /**
+     * Constructs a hash file backed by the specified file. An empty or
+     * missing file is initialized with one empty bucket on first use.
+     *
+     * @param f the file that stores the on-disk backing store for this file
+     * @param key the field on which the file is hashed
+     * @param td the tuple descriptor of the tuples in the file
+     */
+    public HashFile(File f, int key, TupleDesc td) {
+        if (key < 0 || key >= td.numFields())
+            throw new IllegalArgumentException("key field " + key + " is out of range");
+        if (HashBucketPage.maxTuples(td) < 1)
+            throw new IllegalArgumentException("tuples of " + td + " are too large for a hash file");
+        this.f = f;
+        this.td = td;
+        this.keyField = key;
+        this.tableid = f.getAbsoluteFile().hashCode();
+    }
+
+    public File getFile() {
+        return f;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this HashFile: the hash code of
+     * the absolute path of the underlying file, as for HeapFile.
+     */
+    public int getId() {
+        return tableid;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the index of the field the file is hashed on */
+    public int keyField() {
+        return keyField;
+    }
+
+    /**
+     * @return the number of pages in the file, including the meta page,
+     *         free overflow pages and pages reserved for future buckets
+     */
+    public int numPages() {
+        return (int) (f.length() / BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * @return the hash of a key; the buckets use its low bits, so the hash
+     *         code is mixed first
+     */
+    static int hash(Field key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Writes the meta page and the primary page of bucket 0 to an empty
+     * file.
+     */
+    private synchronized void ensureInitialized() throws IOException {
+        if (f.length() > 0)
+            return;
+        HashMetaPage meta = new HashMetaPage(HashMetaPage.getId(tableid), new byte[BufferPool.PAGE_SIZE]);
+        meta.addBucket();
+        FileOutputStream out = new FileOutputStream(f);
+        try {
+            out.write(meta.getPageData());
+            out.write(new byte[BufferPool.PAGE_SIZE]);
+        } finally {
+            out.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (!(pid instanceof HashPageId) || pid.getTableId() != tableid)
+            throw new IllegalArgumentException("page " + pid + " is not in this file");
+        try {
+            ensureInitialized();
+            if (pid.pageNumber() >= numPages())
+                throw new IllegalArgumentException("page " + pid + " does not exist");
+            byte[] data = new byte[BufferPool.PAGE_SIZE];
+            RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                raf.seek((long) pid.pageNumber() * BufferPool.PAGE_SIZE);
+                raf.readFully(data);
+            } finally {
+                raf.close();
+            }
+            if (pid.pageNumber() == 0)
+                return new HashMetaPage((HashPageId) pid, data);
+            return new HashBucketPage((HashPageId) pid, data, td);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("cannot read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        synchronized (this) {
+            RandomAccessFile raf = new RandomAccessFile(f, "rw");
+            try {
+                raf.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+                raf.write(page.getPageData());
+            } finally {
+                raf.close();
+            }
+        }
+    }
+
+    /**
+     * Fetches a page, looking first in the dirty pages of the running
+     * operation. Pages fetched READ_WRITE are added to dirtypages.
+     *
+     * @param dirtypages the pages modified by the running operation, or
+     *        null for a read-only caller
+     */
+    Page getPage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        if (dirtypages != null) {
+            Page p = dirtypages.get(pid);
+            if (p != null)
+                return p;
+        }
+        Page p = Database.getBufferPool().getPage(tid, pid, perm);
+        if (dirtypages != null && perm == Permissions.READ_WRITE)
+            dirtypages.put(pid, p);
+        return p;
+    }
+
+    HashMetaPage getMetaPage(TransactionId tid, HashMap<PageId, Page> dirtypages, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        return (HashMetaPage) getPage(tid, dirtypages, HashMetaPage.getId(tableid), perm);
+    }
+
+    private HashBucketPage getBucketPage(TransactionId tid, HashMap<PageId, Page> dirtypages, int pgNo,
+            Permissions perm) throws DbException, TransactionAbortedException {
+        return (HashBucketPage) getPage(tid, dirtypages, new HashPageId(tableid, pgNo), perm);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple schema does not match the file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        int pgNo = meta.bucketPage(meta.bucketFor(hash(t.getField(keyField))));
+        HashBucketPage page = getBucketPage(tid, dirtypages, pgNo, Permissions.READ_ONLY);
+        while (page.getNumEmptySlots() == 0 && page.getNextPage() != 0)
+            page = getBucketPage(tid, dirtypages, page.getNextPage(), Permissions.READ_ONLY);
+        if (page.getNumEmptySlots() == 0) {
+            HashBucketPage overflow = allocatePage(tid, dirtypages, meta);
+            page = getBucketPage(tid, dirtypages, page.getId().pageNumber(), Permissions.READ_WRITE);
+            page.setNextPage(overflow.getId().pageNumber());
+            page = overflow;
+        } else {
+            page = getBucketPage(tid, dirtypages, page.getId().pageNumber(), Permissions.READ_WRITE);
+        }
+        page.insertTuple(t);
+
+        meta.setNumTuples(meta.getNumTuples() + 1);
+        if (meta.getNumTuples() > MAX_LOAD * HashBucketPage.maxTuples(td) * meta.getNumBuckets())
+            splitBucket(tid, dirtypages, meta);
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * Adds the next bucket and moves into it the tuples of the bucket it
+     * splits from whose hash now selects it. The tuples that stay are packed
+     * into the front of the old chain and the rest of the chain is freed.
+     */
+    private void splitBucket(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta)
+            throws DbException, IOException, TransactionAbortedException {
+        int nb = meta.addBucket();
+        int old = nb ^ Integer.highestOneBit(nb);
+        extendFile(meta.getNumPages());
+
+        ArrayList<HashBucketPage> oldChain = new ArrayList<HashBucketPage>();
+        ArrayList<Tuple> moving = new ArrayList<Tuple>();
+        int pgNo = meta.bucketPage(old);
+        while (pgNo != 0) {
+            HashBucketPage page = getBucketPage(tid, dirtypages, pgNo, Permissions.READ_WRITE);
+            oldChain.add(page);
+            moving.addAll(page.removeAll());
+            pgNo = page.getNextPage();
+        }
+
+        ArrayList<Tuple> staying = new ArrayList<Tuple>();
+        ArrayList<Tuple> leaving = new ArrayList<Tuple>();
+        for (Tuple t : moving) {
+            if (meta.bucketFor(hash(t.getField(keyField))) == nb)
+                leaving.add(t);
+            else
+                staying.add(t);
+        }
+
+        int used = 0;
+        for (Tuple t : staying) {
+            if (oldChain.get(used).getNumEmptySlots() == 0)
+                used++;
+            oldChain.get(used).insertTuple(t);
+        }
+        oldChain.get(used).setNextPage(0);
+        for (int i = oldChain.size() - 1; i > used; i--)
+            freePage(meta, oldChain.get(i));
+
+        HashBucketPage page = newPage(dirtypages, meta.bucketPage(nb));
+        for (Tuple t : leaving) {
+            if (page.getNumEmptySlots() == 0) {
+                HashBucketPage overflow = allocatePage(tid, dirtypages, meta);
+                page.setNextPage(overflow.getId().pageNumber());
+                page = overflow;
+            }
+            page.insertTuple(t);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !(rid.getPageId() instanceof HashPageId) || rid.getPageId().getTableId() != tableid
+                || rid.getPageId().pageNumber() == 0)
+            throw new DbException("tuple is not in this file");
+        HashMap<PageId, Page> dirtypages = new HashMap<PageId, Page>();
+        HashMetaPage meta = getMetaPage(tid, dirtypages, Permissions.READ_WRITE);
+        HashBucketPage page = getBucketPage(tid, dirtypages, rid.getPageId().pageNumber(), Permissions.READ_WRITE);
+        Field key = t.getField(keyField);
+        page.deleteTuple(t);
+        meta.setNumTuples(meta.getNumTuples() - 1);
+
+        // unlink an overflow page that is now empty
+        int primary = meta.bucketPage(meta.bucketFor(hash(key)));
+        if (page.getNumTuples() == 0 && page.getId().pageNumber() != primary) {
+            HashBucketPage prev = getBucketPage(tid, dirtypages, primary, Permissions.READ_ONLY);
+            while (prev.getNextPage() != page.getId().pageNumber()) {
+                if (prev.getNextPage() == 0)
+                    throw new DbException("page " + page.getId() + " is not in the chain of its bucket");
+                prev = getBucketPage(tid, dirtypages, prev.getNextPage(), Permissions.READ_ONLY);
+            }
+            prev = getBucketPage(tid, dirtypages, prev.getId().pageNumber(), Permissions.READ_WRITE);
+            prev.setNextPage(page.getNextPage());
+            freePage(meta, page);
+        }
+        return new ArrayList<Page>(dirtypages.values());
+    }
+
+    /**
+     * @return an empty overflow page, taken from the free list or appended
+     *         to the file
+     */
+    private HashBucketPage allocatePage(TransactionId tid, HashMap<PageId, Page> dirtypages, HashMetaPage meta)
+            throws DbException, IOException, TransactionAbortedException {
+        int pgNo = meta.getFreeHead();
+        if (pgNo != 0) {
+            HashBucketPage page = getBucketPage(tid, dirtypages, pgNo, Permissions.READ_WRITE);
+            meta.setFreeHead(page.getNextPage());
+            page.setNextPage(0);
+            return page;
+        }
+        pgNo = meta.appendPage();
+        extendFile(meta.getNumPages());
+        return newPage(dirtypages, pgNo);
+    }
+
+    /** Puts an empty page at the head of the free list. */
+    private void freePage(HashMetaPage meta, HashBucketPage page) {
+        page.setNextPage(meta.getFreeHead());
+        meta.setFreeHead(page.getId().pageNumber());
+    }
+
+    /**
+     * @return a new empty bucket page, replacing any cached copy
+     */
+    private HashBucketPage newPage(HashMap<PageId, Page> dirtypages, int pgNo) throws IOException {
+        HashPageId pid = new HashPageId(tableid, pgNo);
+        Database.getBufferPool().discardPage(pid);
+        HashBucketPage page = new HashBucketPage(pid, new byte[BufferPool.PAGE_SIZE], td);
+        dirtypages.put(pid, page);
+        return page;
+    }
+
+    /** Extends the file with zeroed pages to at least numPages pages. */
+    private void extendFile(int numPages) throws IOException {
+        if (numPages() >= numPages)
+            return;
+        RandomAccessFile raf = new RandomAccessFile(f, "rw");
+        try {
+            raf.setLength((long) numPages * BufferPool.PAGE_SIZE);
+        } finally {
+            raf.close();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new HashFileIterator(tid, this, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples whose key equals the field of
+     * ipred. It reads only the chain of the bucket the key hashes to.
+     *
+     * @throws IllegalArgumentException if the operator of ipred is not
+     *         EQUALS; a hash file cannot answer range predicates
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred) {
+        if (ipred.getOp() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash file only supports equality lookups, got " + ipred);
+        return new HashFileIterator(tid, this, ipred.getField());
+    }
+}
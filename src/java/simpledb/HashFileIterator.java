@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Iterates over the tuples of a HashFile, bucket by bucket, or over the
+ * tuples with one key, reading only the chain of the bucket that key hashes
+ * to. Each page is fetched through the BufferPool only when it is reached.
+ */
+public class HashFileIterator implements DbFileIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private HashFile file;
+    private Field key;
+
+    private HashMetaPage meta = null;
+    private int bucket;
+    private int lastBucket;
+    private int nextPage;
+    private Iterator<Tuple> it = null;
+    private Tuple next = null;
+
+    /**
+     * @param key the key to look up, or null to return every tuple
+     */
+    public HashFileIterator(TransactionId tid, HashFile file, Field key) {
+        this.tid = tid;
+        this.file = file;
+        this.key = key;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        meta = file.getMetaPage(tid, null, Permissions.READ_ONLY);
+        if (key != null) {
+            bucket = meta.bucketFor(HashFile.hash(key));
+            lastBucket = bucket;
+        } else {
+            bucket = 0;
+            lastBucket = meta.getNumBuckets() - 1;
+        }
+        nextPage = meta.bucketPage(bucket);
+        it = Collections.<Tuple>emptyList().iterator();
+        next = null;
+    }
+
+    private Tuple readNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            while (!it.hasNext()) {
+                if (nextPage == 0) {
+                    if (bucket == lastBucket)
+                        return null;
+                    nextPage = meta.bucketPage(++bucket);
+                }
+                HashBucketPage page = (HashBucketPage) Database.getBufferPool().getPage(tid,
+                        new HashPageId(file.getId(), nextPage), Permissions.READ_ONLY);
+                it = page.iterator();
+                nextPage = page.getNextPage();
+            }
+            Tuple t = it.next();
+            if (key == null || key.equals(t.getField(file.keyField())))
+                return t;
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (it == null)
+            return false;
+        if (next == null)
+            next = readNext();
+        return next != null;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    public void close() {
+        meta = null;
+        it = null;
+        next = null;
+    }
+}
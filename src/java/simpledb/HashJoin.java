@@ -0,0 +1,94 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * HashJoin is an in-memory equi-join of two DbIterators. When opened, it
+ * reads the inner (child2) relation into a {@link PushHashBuild} on its join
+ * field; it then streams the outer (child1) relation through a
+ * {@link PushHashProbe}, so each outer tuple costs one hash lookup. Output
+ * tuples hold the outer fields followed by the inner fields, as in the other
+ * joins.
+ * <p>
+ * Unlike ParallelHashJoin, the children may be any plans, such as the
+ * output of other joins; the inner side should be the smaller input, since
+ * it is held in memory.
+ */
+public class HashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    private PushHashBuild build = null;
+    private DbIterator probe = null;
+
+    /**
+     * @param p
+     *            the equality predicate to join on
+     * @param child1
+     *            the outer relation, streamed
+     * @param child2
+     *            the inner relation, held in a hash table
+     * @throws IllegalArgumentException
+     *            if the predicate is not an equality predicate
+     */
+    public HashJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("HashJoin only supports equality predicates, got " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        build = new Pipeline(child2).build(p.getField2());
+        probe = new Pipeline(child1).then(new PushHashProbe(build, p.getField1(), child1.getTupleDesc()))
+                .iterator();
+        probe.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return probe.hasNext() ? probe.next() : null;
+    }
+
+    /** Restarts the probe; the hash table is kept. */
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        probe.rewind();
+    }
+
+    public void close() {
+        super.close();
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        build = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
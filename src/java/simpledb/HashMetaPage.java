@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Page 0 of every HashFile. It holds the state of the linear hashing
+ * scheme: the number of buckets and tuples, the number of pages allocated
+ * in the file, the head of the list of free overflow pages, and where each
+ * group of bucket pages starts.
+ * <p>
+ * Buckets are created one at a time as the file grows, but their primary
+ * pages are reserved in groups: bucket 0 and bucket 1 form groups 0 and 1,
+ * and group g &gt; 0 holds buckets 2^(g-1) to 2^g - 1 on consecutive pages,
+ * reserved when its first bucket is created. The primary page of any bucket
+ * is therefore found by arithmetic on this page alone, and an equality
+ * probe reads one bucket page unless the bucket has overflowed.
+ * <p>
+ * On disk it is the number of buckets, tuples and allocated pages, the
+ * first free page (0 when there is none), and the first page of each of the
+ * 32 groups.
+ */
+public class HashMetaPage implements Page {
+
+    static final int NUM_GROUPS = 32;
+
+    private final HashPageId pid;
+    private int numBuckets;
+    private int numTuples;
+    private int numPages;
+    private int freeHead;
+    private int[] groupStart = new int[NUM_GROUPS];
+
+    private volatile TransactionId dirtier = null;
+    private byte[] oldData;
+
+    /**
+     * Creates the meta page from its on-disk representation. A page of all
+     * zeros describes a file with no buckets.
+     */
+    public HashMetaPage(HashPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        numBuckets = dis.readInt();
+        numTuples = dis.readInt();
+        numPages = Math.max(1, dis.readInt());
+        freeHead = dis.readInt();
+        for (int g = 0; g < NUM_GROUPS; g++)
+            groupStart[g] = dis.readInt();
+        setBeforeImage();
+    }
+
+    /** @return the id of page 0 of the given table */
+    public static HashPageId getId(int tableid) {
+        return new HashPageId(tableid, 0);
+    }
+
+    public HashPageId getId() {
+        return pid;
+    }
+
+    public int getNumBuckets() {
+        return numBuckets;
+    }
+
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    public void setNumTuples(int n) {
+        numTuples = n;
+    }
+
+    /** @return the number of pages allocated so far, including this one */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /** @return the first free overflow page, or 0 if there is none */
+    public int getFreeHead() {
+        return freeHead;
+    }
+
+    public void setFreeHead(int pgNo) {
+        freeHead = pgNo;
+    }
+
+    /** @return the group that bucket b belongs to */
+    static int groupOf(int b) {
+        return 32 - Integer.numberOfLeadingZeros(b);
+    }
+
+    /** @return the first bucket of group g */
+    private static int firstBucket(int g) {
+        return g == 0 ? 0 : 1 << (g - 1);
+    }
+
+    /**
+     * @return the bucket a key with the given hash belongs to while the
+     *         file has numBuckets buckets
+     */
+    public int bucketFor(int hash) {
+        return bucketFor(hash, numBuckets);
+    }
+
+    static int bucketFor(int hash, int numBuckets) {
+        int maxBucket = numBuckets - 1;
+        int highMask = maxBucket == 0 ? 0 : -1 >>> Integer.numberOfLeadingZeros(maxBucket);
+        int b = hash & highMask;
+        return b <= maxBucket ? b : hash & (highMask >>> 1);
+    }
+
+    /** @return the page number of the primary page of bucket b */
+    public int bucketPage(int b) {
+        if (b < 0 || b >= numBuckets)
+            throw new IllegalArgumentException("no bucket " + b);
+        int g = groupOf(b);
+        return groupStart[g] + b - firstBucket(g);
+    }
+
+    /**
+     * Adds the next bucket, reserving the pages of a new group if it is the
+     * first bucket of one. The caller extends the file to
+     * {@link #getNumPages} pages.
+     *
+     * @return the number of the new bucket
+     */
+    public int addBucket() {
+        int b = numBuckets;
+        int g = groupOf(b);
+        if (b == firstBucket(g)) {
+            groupStart[g] = numPages;
+            numPages += g == 0 ? 1 : 1 << (g - 1);
+        }
+        numBuckets++;
+        return b;
+    }
+
+    /**
+     * Allocates a page at the end of the file. The caller extends the file
+     * to {@link #getNumPages} pages.
+     *
+     * @return the number of the new page
+     */
+    public int appendPage() {
+        return numPages++;
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        dirtier = dirty ? tid : null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(16 + 4 * NUM_GROUPS);
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(numBuckets);
+            dos.writeInt(numTuples);
+            dos.writeInt(numPages);
+            dos.writeInt(freeHead);
+            for (int g = 0; g < NUM_GROUPS; g++)
+                dos.writeInt(groupStart[g]);
+            dos.flush();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return Arrays.copyOf(baos.toByteArray(), BufferPool.PAGE_SIZE);
+    }
+
+    public HashMetaPage getBeforeImage() {
+        try {
+            return new HashMetaPage(pid, oldData);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void setBeforeImage() {
+        oldData = getPageData().clone();
+    }
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashFile. Page 0 is the
+ * {@link HashMetaPage}; every other page is a {@link HashBucketPage}.
+ */
+public class HashPageId implements PageId {
+
+    private final int tableId;
+    private final int pgNo;
+
+    public HashPageId(int tableId, int pgNo) {
+        this.tableId = tableId;
+        this.pgNo = pgNo;
+    }
+
+    public int getTableId() {
+        return tableId;
+    }
+
+    public int pageNumber() {
+        return pgNo;
+    }
+
+    public int hashCode() {
+        return tableId * 31 + pgNo;
+    }
+
+    /**
+     * Compares one PageId to another. HashPageIds are equal when the table
+     * and page number match.
+     */
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId))
+            return false;
+        HashPageId other = (HashPageId) o;
+        return other.tableId == tableId && other.pgNo == pgNo;
+    }
+
+    public String toString() {
+        return "(" + tableId + ", " + pgNo + ")";
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        int data[] = new int[2];
+        data[0] = tableId;
+        data[1] = pgNo;
+        return data;
+    }
+}
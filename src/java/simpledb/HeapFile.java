@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -17,6 +18,12 @@ public class HeapFile implements DbFile {
     private File file = null;
     private TupleDesc tupleDesc = null;
     private int heapFileId;
+    private volatile ZoneMap zoneMap = null;
+    // guards opening the zone map; not the file's own lock, which is held
+    // by inserts while they fetch pages that may evict into writePage
+    private final Object zoneMapLock = new Object();
+    // per-page Bloom filters over chosen fields; see addBloomFilter
+    private final List<PageBloomFilter> bloomFilters = new CopyOnWriteArrayList<PageBloomFilter>();
     /**
      * Constructs a heap file backed by the specified file.
      * 
@@ -95,7 +102,110 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        // not necessary for proj1
+        RandomAccessFile randomWriter = new RandomAccessFile(this.file, "rw");
+        try {
+            randomWriter.seek((long) page.getId().pageNumber() * BufferPool.PAGE_SIZE);
+            randomWriter.write(page.getPageData());
+        } finally {
+            randomWriter.close();
+        }
+        ZoneMap zm = zoneMap();
+        if (zm != null)
+            zm.update((HeapPage) page);
+        for (PageBloomFilter bf : bloomFilters)
+            bf.update((HeapPage) page);
+    }
+
+    /**
+     * Returns the zone map of this file, opening it on first use.
+     *
+     * @return the zone map, or null if the table has no INT_TYPE fields
+     */
+    ZoneMap zoneMap() {
+        ZoneMap zm = zoneMap;
+        if (zm == null) {
+            synchronized (zoneMapLock) {
+                if (zoneMap == null)
+                    zoneMap = new ZoneMap(this.file, this.tupleDesc);
+                zm = zoneMap;
+            }
+        }
+        return zm.numColumns() == 0 ? null : zm;
+    }
+
+    /**
+     * Keeps per-page Bloom filters over a field of this file, so that
+     * filtered scans skip the pages that cannot hold the operand of an
+     * equality predicate on it. The filters of existing pages are built as
+     * the pages are next read by a filtered scan or written.
+     *
+     * @return the filters, which are shared if the field already has them
+     */
+    public synchronized PageBloomFilter addBloomFilter(int field) {
+        PageBloomFilter bf = getBloomFilter(field);
+        if (bf == null) {
+            bf = new PageBloomFilter(this.file, this.tupleDesc, field);
+            bloomFilters.add(bf);
+        }
+        return bf;
+    }
+
+    /**
+     * @return the per-page Bloom filters over a field, or null if it has none
+     */
+    public PageBloomFilter getBloomFilter(int field) {
+        for (PageBloomFilter bf : bloomFilters) {
+            if (bf.getField() == field)
+                return bf;
+        }
+        return null;
+    }
+
+    /**
+     * @return the per-page Bloom filters of the file, unmodifiable
+     */
+    public List<PageBloomFilter> getBloomFilters() {
+        return Collections.unmodifiableList(bloomFilters);
+    }
+
+    /**
+     * Checks the zone map and Bloom filters of a page against a conjunction
+     * of predicates. The zone map considers predicates on INT_TYPE fields
+     * with an IntField operand, and the Bloom filters equality predicates on
+     * their field.
+     *
+     * @return false if no tuple on page pgNo can satisfy every predicate, so
+     *         the page need not be read
+     */
+    public boolean mayMatch(int pgNo, Predicate[] predicates) {
+        ZoneMap zm = zoneMap();
+        for (Predicate p : predicates) {
+            if (zm != null && p.getOperand() instanceof IntField
+                    && !zm.mayMatch(pgNo, p.getField(), p.getOp(), ((IntField) p.getOperand()).getValue()))
+                return false;
+            if (p.getOp() == Predicate.Op.EQUALS && !bloomFilters.isEmpty()) {
+                PageBloomFilter bf = getBloomFilter(p.getField());
+                if (bf != null && !bf.mayContain(pgNo, p.getOperand()))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the zone map and Bloom filters of a page read by a filtered
+     * scan, if they are not known yet.
+     */
+    void learnZone(HeapPage page) throws DbException {
+        ZoneMap zm = zoneMap();
+        try {
+            if (zm != null)
+                zm.learn(page);
+            for (PageBloomFilter bf : bloomFilters)
+                bf.learn(page);
+        } catch (IOException e) {
+            throw new DbException("cannot write the page synopses of " + this.file + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -115,41 +225,67 @@ public class HeapFile implements DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for proj1
+        if (!this.tupleDesc.equals(t.getTupleDesc()))
+            throw new DbException("tuple schema does not match the file");
+        HeapPage page = null;
+        synchronized (this) {
+            for (int i = 0; i < numPages() && page == null; i++) {
+                HeapPage p = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(this.heapFileId, i), Permissions.READ_WRITE);
+                if (p.getNumEmptySlots() > 0)
+                    page = p;
+            }
+            if (page == null) {
+                // every page is full: append an empty one
+                int pgNo = numPages();
+                RandomAccessFile randomWriter = new RandomAccessFile(this.file, "rw");
+                try {
+                    randomWriter.seek((long) pgNo * BufferPool.PAGE_SIZE);
+                    randomWriter.write(HeapPage.createEmptyPageData());
+                } finally {
+                    randomWriter.close();
+                }
+                if (zoneMap() != null)
+                    zoneMap().setEmpty(pgNo);
+                for (PageBloomFilter bf : bloomFilters)
+                    bf.setEmpty(pgNo);
+                page = (HeapPage) Database.getBufferPool().getPage(tid,
+                        new HeapPageId(this.heapFileId, pgNo), Permissions.READ_WRITE);
+            }
+            page.insertTuple(t);
+            if (zoneMap() != null)
+                zoneMap().widen(page.getId().pageNumber(), t);
+            for (PageBloomFilter bf : bloomFilters)
+                bf.add(page.getId().pageNumber(), t);
+        }
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
     }
 
     // see DbFile.java for javadocs
-    public Page deleteTuple(TransactionId tid, Tuple t) throws DbException,
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         // some code goes here
-        return null;
-        // not necessary for proj1
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != this.heapFileId
+                || rid.getPageId().pageNumber() >= numPages())
+            throw new DbException("tuple is not a member of this file");
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(),
+                Permissions.READ_WRITE);
+        synchronized (this) {
+            page.deleteTuple(t);
+        }
+        ArrayList<Page> modified = new ArrayList<Page>();
+        modified.add(page);
+        return modified;
     }
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
         //return null;
-        int totalPage = numPages();
-        List<Tuple> tuples = new ArrayList<Tuple>();
-
-        for (int i = 0; i < totalPage; i++) {
-            HeapPage page = null;
-            PageId pid = new HeapPageId(this.heapFileId, i);
-            try {
-                page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-            } catch(TransactionAbortedException e) {
-                e.printStackTrace();
-                System.exit(0);
-            } catch(DbException e) {
-                e.printStackTrace();
-                System.exit(0);
-            }
-            tuples.addAll(page.getAllTuples());
-        }
-
-        return new HeapFileIterator(tuples);
+        return new HeapFileIterator(tid, this);
     }
 
 }
\ No newline at end of file
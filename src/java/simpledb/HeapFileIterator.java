@@ -2,12 +2,23 @@ package simpledb;
 
 import java.util.*;
 
+/**
+ * Iterates over the tuples of a HeapFile one page at a time. Pages are
+ * fetched through the BufferPool only when the iterator reaches them, so a
+ * consumer that stops early (e.g. a Limit) never reads the rest of the file.
+ */
 public class HeapFileIterator implements DbFileIterator {
-	private List<Tuple> tuples = null;	
+
+	private static final long serialVersionUID = 1L;
+
+	private TransactionId tid = null;
+	private HeapFile file = null;
+	private int pageNo = 0;
 	private Iterator<Tuple> it = null;
 
-	public HeapFileIterator(List<Tuple> tuples) {
-		this.tuples = tuples;
+	public HeapFileIterator(TransactionId tid, HeapFile file) {
+		this.tid = tid;
+		this.file = file;
 	}
 
 	    /**
@@ -15,12 +26,36 @@ public class HeapFileIterator implements DbFileIterator {
      * @throws DbException when there are problems opening/accessing the database.
      */
     public void open() throws DbException, TransactionAbortedException {
-    	this.it = this.tuples.iterator();
+    	this.pageNo = 0;
+    	this.it = pageIterator(0);
+    }
+
+    /**
+     * Returns an iterator over the tuples of the given page, or an empty
+     * iterator if the file has no such page.
+     */
+    private Iterator<Tuple> pageIterator(int pgNo)
+    		throws DbException, TransactionAbortedException {
+    	if (pgNo >= file.numPages())
+    		return Collections.<Tuple>emptyList().iterator();
+
+    	PageId pid = new HeapPageId(file.getId(), pgNo);
+    	HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    	return page.iterator();
     }
 
     /** @return true if there are more tuples available. */
     public boolean hasNext() throws DbException, TransactionAbortedException {
-    	return it == null ? false : it.hasNext();
+    	if (it == null)
+    		return false;
+
+    	while (!it.hasNext()) {
+    		if (pageNo + 1 >= file.numPages())
+    			return false;
+    		pageNo++;
+    		it = pageIterator(pageNo);
+    	}
+    	return true;
     }
 
     /**
@@ -33,16 +68,10 @@ public class HeapFileIterator implements DbFileIterator {
     public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
     	if (it == null)
     		throw new NoSuchElementException("Iterator is not open");
+    	if (!hasNext())
+    		throw new NoSuchElementException("No more tuples");
 
-    	Tuple tuple = null;
-    	try {
-    		tuple = it.next();
-    	} catch(NoSuchElementException e) {
-    		e.printStackTrace();
-    		System.exit(0);
-    	}
-
-    	return tuple;
+    	return it.next();
     }
 
     /**
@@ -60,4 +89,4 @@ public class HeapFileIterator implements DbFileIterator {
     public void close() {
     	this.it = null;
     }
-}
\ No newline at end of file
+}
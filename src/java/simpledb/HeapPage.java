@@ -21,6 +21,11 @@ public class HeapPage implements Page {
     int numSlots;
 
     byte[] oldData;
+    // the bytes this page was read from, until the page is modified
+    private volatile byte[] rawData;
+    private volatile TransactionId dirtier = null;
+    // decoded INT_TYPE columns, indexed by field; dropped when the page changes
+    private volatile int[][] intColumns;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -60,6 +65,7 @@ public class HeapPage implements Page {
         dis.close();
 
         setBeforeImage();
+        this.rawData = data;
     }
 
     /** Retrieve the number of tuples on this page.
@@ -69,7 +75,7 @@ public class HeapPage implements Page {
     private int getNumTuples() {        
         // some code goes here
         //return 0;
-        int tupleSize = Database.getCatalog().getTupleDesc(pid.getTableId()).getSize();
+        int tupleSize = td.getSize();
         return (int)Math.floor((BufferPool.PAGE_SIZE * 8.0) / (tupleSize * 8.0 + 1));
     }
 
@@ -100,6 +106,20 @@ public class HeapPage implements Page {
         oldData = getPageData().clone();
     }
 
+    /**
+     * Returns this page in its on-disk format. While the page is unchanged
+     * since it was read, this is the array it was read from, so no
+     * serialization is needed. Callers must not modify the returned array.
+     */
+    byte[] getRawData() {
+        byte[] raw = rawData;
+        if (raw == null) {
+            raw = getPageData();
+            rawData = raw;
+        }
+        return raw;
+    }
+
     /**
      * @return the PageId associated with this page.
      */
@@ -238,7 +258,17 @@ public class HeapPage implements Page {
      */
     public void deleteTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()))
+            throw new DbException("tuple is not on page " + pid);
+        int slot = rid.tupleno();
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            throw new DbException("slot " + slot + " of page " + pid + " is already empty");
+        markSlotUsed(slot, false);
+        tuples[slot] = null;
+        t.setRecordId(null);
+        rawData = null;
+        intColumns = null;
     }
 
     /**
@@ -250,7 +280,19 @@ public class HeapPage implements Page {
      */
     public void insertTuple(Tuple t) throws DbException {
         // some code goes here
-        // not necessary for lab1
+        if (!td.equals(t.getTupleDesc()))
+            throw new DbException("tuple schema does not match page " + pid);
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (!isSlotUsed(slot)) {
+                markSlotUsed(slot, true);
+                tuples[slot] = t;
+                t.setRecordId(new RecordId(pid, slot));
+                rawData = null;
+                intColumns = null;
+                return;
+            }
+        }
+        throw new DbException("page " + pid + " is full");
     }
 
     /**
@@ -259,7 +301,7 @@ public class HeapPage implements Page {
      */
     public void markDirty(boolean dirty, TransactionId tid) {
         // some code goes here
-	// not necessary for lab1
+        this.dirtier = dirty ? tid : null;
     }
 
     /**
@@ -267,8 +309,7 @@ public class HeapPage implements Page {
      */
     public TransactionId isDirty() {
         // some code goes here
-	// Not necessary for lab1
-        return null;      
+        return this.dirtier;
     }
 
     /**
@@ -277,13 +318,12 @@ public class HeapPage implements Page {
     public int getNumEmptySlots() {
         // some code goes here
         //return 0;
+        // only the first numSlots header bits describe slots; the rest of
+        // the last header byte is padding
         int emptySlotsNo = 0;
-        for (byte b : this.header) {
-            byte tmp = b;
-            for (int i = 0; i < 8; i++) {
-                if (((tmp >> i) & 0x01) == 0)
-                    emptySlotsNo++;
-            }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                emptySlotsNo++;
         }
 
         return emptySlotsNo;
@@ -307,7 +347,19 @@ public class HeapPage implements Page {
      */
     private void markSlotUsed(int i, boolean value) {
         // some code goes here
-        // not necessary for lab1
+        if (value)
+            header[i / 8] |= (byte) (1 << (i % 8));
+        else
+            header[i / 8] &= (byte) ~(1 << (i % 8));
+    }
+
+    /**
+     * @return the tuple in the given slot, or null if the slot is empty
+     */
+    Tuple getTuple(int slot) {
+        if (slot < 0 || slot >= numSlots || !isSlotUsed(slot))
+            return null;
+        return tuples[slot];
     }
 
     /**
@@ -326,6 +378,42 @@ public class HeapPage implements Page {
         return tupleList.iterator();
     }
 
+    /**
+     * Returns the values of an INT_TYPE field for the used slots of this
+     * page, in the same order as {@link #getAllTuples()}. The column is
+     * decoded from the page bytes on first use and cached until the page is
+     * modified. Callers must not modify the returned array.
+     */
+    int[] getIntColumn(int field) {
+        if (td.getFieldType(field) != Type.INT_TYPE)
+            throw new IllegalArgumentException("field " + field + " is not an INT_TYPE field");
+
+        int[][] columns = intColumns;
+        if (columns == null) {
+            columns = new int[td.numFields()][];
+            intColumns = columns;
+        }
+        int[] column = columns[field];
+        if (column != null)
+            return column;
+
+        int offset = 0;
+        for (int i = 0; i < field; i++)
+            offset += td.getFieldType(i).getLen();
+        int tupleSize = td.getSize();
+        byte[] data = getRawData();
+
+        column = new int[numSlots - getNumEmptySlots()];
+        int n = 0;
+        for (int slot = 0, pos = header.length + offset; slot < numSlots; slot++, pos += tupleSize) {
+            if (isSlotUsed(slot))
+                column[n++] = ((data[pos] & 0xff) << 24) | ((data[pos + 1] & 0xff) << 16)
+                        | ((data[pos + 2] & 0xff) << 8) | (data[pos + 3] & 0xff);
+        }
+        columns[field] = column;
+        return column;
+    }
+
     //add a method to return all tuple as list
     public List<Tuple> getAllTuples() {
         List<Tuple> list = new ArrayList<Tuple>();
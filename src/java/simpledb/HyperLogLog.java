@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A HyperLogLog sketch: an estimate of the number of distinct values added
+ * to it, with a relative standard error of about 1.04 / sqrt(2^p), in 2^p
+ * bytes. Values are hashed with {@link BloomFilter#hash}; the top p bits of
+ * the hash choose a register, which keeps the longest run of leading zeros
+ * seen in the remaining bits. Small counts are estimated by linear counting
+ * of the empty registers.
+ * <p>
+ * Sketches of the same precision can be merged, so a sketch of a union is
+ * the merge of the sketches of its parts. Values cannot be removed.
+ */
+public class HyperLogLog {
+
+    /** Precision of sketches made by the default constructor: 4096 registers. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    private final int p;
+    private final byte[] registers;
+
+    public HyperLogLog() {
+        this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * @param p the number of hash bits that choose a register, in [4, 16]
+     */
+    public HyperLogLog(int p) {
+        if (p < 4 || p > 16)
+            throw new IllegalArgumentException("precision must be in [4, 16], got " + p);
+        this.p = p;
+        this.registers = new byte[1 << p];
+    }
+
+    public int precision() {
+        return p;
+    }
+
+    public void add(Field f) {
+        addHash(BloomFilter.hash(f));
+    }
+
+    public void add(int v) {
+        addHash(BloomFilter.hash(v));
+    }
+
+    private void addHash(long h) {
+        int index = (int) (h >>> (64 - p));
+        // the position of the first 1 bit after the index bits, from 1
+        long rest = (h << p) | (1L << (p - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(rest) + 1);
+        if (rank > registers[index])
+            registers[index] = rank;
+    }
+
+    /** @return the estimated number of distinct values added */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = m == 16 ? 0.673 : m == 32 ? 0.697 : m == 64 ? 0.709 : 0.7213 / (1 + 1.079 / m);
+        double e = alpha * m * m / sum;
+        if (e <= 2.5 * m && zeros > 0)
+            e = m * Math.log((double) m / zeros);
+        return Math.round(e);
+    }
+
+    /** Adds every value added to other to this sketch. */
+    public void merge(HyperLogLog other) {
+        if (other.p != p)
+            throw new IllegalArgumentException("cannot merge sketches of precision " + p + " and " + other.p);
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(p);
+        out.write(registers);
+    }
+
+    public static HyperLogLog readFrom(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog(in.readByte());
+        in.readFully(h.registers);
+        return h;
+    }
+}
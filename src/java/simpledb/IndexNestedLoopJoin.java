@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexNestedLoopJoin joins an outer child with a table that has an index
+ * on its join field. Instead of scanning the inner table, it probes the
+ * index once per outer tuple with an {@link IndexScan}, so the cost of the
+ * join is one index lookup per outer tuple plus the matches: about one page
+ * read per probe for a HashFile, and a root-to-leaf descent for a BTreeFile
+ * or a HeapFile with a {@link SecondaryIndex}.
+ * <p>
+ * Equality joins are supported on every kind of index. Range predicates
+ * (LESS_THAN, GREATER_THAN_OR_EQ, ...) need an ordered index and are
+ * rejected for a HashFile.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private JoinPredicate p;
+    private DbIterator child1;
+    private int innerTableId;
+    private String innerAlias;
+    private TupleDesc td;
+
+    private Tuple outer = null;
+    private IndexScan probe = null;
+
+    /**
+     * @param tid
+     *            the transaction the inner probes run as a part of
+     * @param p
+     *            the join predicate; field2 is the indexed field of the
+     *            inner table
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param innerTableId
+     *            the inner table: a BTreeFile or HashFile keyed on the join
+     *            field, or a HeapFile with a secondary index on it
+     * @param innerAlias
+     *            the alias of the inner table, used to prefix its field
+     *            names as in SeqScan
+     * @throws IllegalArgumentException
+     *            if the inner join field is not indexed, or the index cannot
+     *            answer the predicate's operator
+     */
+    public IndexNestedLoopJoin(TransactionId tid, JoinPredicate p, DbIterator child1, int innerTableId,
+            String innerAlias) {
+        Predicate.Op op = probeOp(p.getOperator());
+        DbFile file = Database.getCatalog().getDbFile(innerTableId);
+        if (file instanceof HashFile && op != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("a hash index only supports equality joins, got " + p.getOperator());
+        // fails if the field is not indexed
+        new IndexScan(tid, innerTableId, innerAlias, p.getField2(), new IndexPredicate(op, null));
+
+        this.tid = tid;
+        this.p = p;
+        this.child1 = child1;
+        this.innerTableId = innerTableId;
+        this.innerAlias = innerAlias;
+        this.td = TupleDesc.merge(child1.getTupleDesc(),
+                SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(innerTableId), innerAlias));
+    }
+
+    /**
+     * @return the operator op' such that (outer op inner) holds exactly when
+     *         (inner op' outer) does
+     */
+    private static Predicate.Op probeOp(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return Predicate.Op.EQUALS;
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            throw new IllegalArgumentException("an index cannot answer join operator " + op);
+        }
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.td.getFieldName(this.child1.getTupleDesc().numFields() + this.p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        closeProbe();
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        child1.rewind();
+        closeProbe();
+        outer = null;
+    }
+
+    private void closeProbe() {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join: the remaining matches of
+     * the current outer tuple, and then those of the next outer tuple, found
+     * by probing the inner index with its join field.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (probe != null && probe.hasNext())
+                return mergeTuples(td, outer, probe.next());
+            closeProbe();
+
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            IndexPredicate ipred = new IndexPredicate(probeOp(p.getOperator()), outer.getField(p.getField1()));
+            probe = new IndexScan(tid, innerTableId, innerAlias, p.getField2(), ipred);
+            probe.open();
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.td = TupleDesc.merge(child1.getTupleDesc(),
+                SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(innerTableId), innerAlias));
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexOnlyScan answers a query over a HeapFile from a covering
+ * {@link SecondaryIndex} alone. When every field the query reads is the
+ * index key or one of the index's included fields, the scan walks the index
+ * entries that satisfy the predicate and builds its output tuples from
+ * them, so no heap page is read. Tuples are returned in key order and carry
+ * no RecordId.
+ * <p>
+ * For example, {@code SELECT COUNT(*) FROM Casts WHERE mid BETWEEN a AND b}
+ * reads only index pages when the scan projects mid from an index on it.
+ */
+public class IndexOnlyScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private IndexPredicate ipred;
+    private int[] fields;
+    private SecondaryIndex index;
+    // for each output field, the entry field it is copied from
+    private int[] entryFields;
+    private TupleDesc td;
+
+    private DbFileIterator it = null;
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     * @param field
+     *            the indexed field ipred applies to
+     * @param ipred
+     *            the predicate on the indexed field, or null to read every
+     *            entry
+     * @param fields
+     *            the fields of the table to return, in order
+     * @throws IllegalArgumentException
+     *            if no index on field stores every one of fields
+     */
+    public IndexOnlyScan(TransactionId tid, int tableid, String tableAlias, int field,
+            IndexPredicate ipred, int[] fields) {
+        for (SecondaryIndex candidate : Database.getCatalog().getIndexes(tableid)) {
+            if (candidate.getField() == field && candidate.covers(fields)) {
+                this.index = candidate;
+                break;
+            }
+        }
+        if (this.index == null)
+            throw new IllegalArgumentException("no index on field " + field + " of table " + tableid
+                    + " covers fields " + Arrays.toString(fields));
+
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+        this.fields = fields.clone();
+        this.entryFields = new int[fields.length];
+        TupleDesc tableTd = SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableid), tableAlias);
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            entryFields[i] = index.entryField(fields[i]);
+            types[i] = tableTd.getFieldType(fields[i]);
+            names[i] = tableTd.getFieldName(fields[i]);
+        }
+        this.td = new TupleDesc(types, names);
+    }
+
+    /**
+     * @return true if an index on field of the table stores every one of
+     *         fields, so an IndexOnlyScan can answer a query reading them
+     */
+    public static boolean isCovered(int tableid, int field, int[] fields) {
+        for (SecondaryIndex index : Database.getCatalog().getIndexes(tableid)) {
+            if (index.getField() == field && index.covers(fields))
+                return true;
+        }
+        return false;
+    }
+
+    public String getAlias() {
+        return tableAlias;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    /** @return the fields of the table this scan returns */
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        BTreeFile file = index.getFile();
+        it = ipred == null ? file.iterator(tid) : file.indexIterator(tid, ipred);
+        it.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!it.hasNext())
+            return null;
+        Tuple e = it.next();
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < entryFields.length; i++)
+            t.setField(i, e.getField(entryFields[i]));
+        return t;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        it.rewind();
+    }
+
+    public void close() {
+        super.close();
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key field of an index with a constant. It is
+ * the search condition passed to {@link BTreeFile#indexIterator} and
+ * {@link HashFile#indexIterator}.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Predicate.Op op;
+    private Field fieldvalue;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation to apply (as defined in Predicate.Op); the
+     *            key is the left-hand operand
+     * @param fvalue
+     *            the value that the key is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field fvalue) {
+        this.op = op;
+        this.fieldvalue = fvalue;
+    }
+
+    public Field getField() {
+        return fieldvalue;
+    }
+
+    public Predicate.Op getOp() {
+        return op;
+    }
+
+    /**
+     * @return true if the key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(op, fieldvalue);
+    }
+
+    /**
+     * Returns true if no key greater than or equal to the given one can
+     * satisfy this predicate, so that a scan in key order can stop.
+     */
+    boolean isPastEnd(Field key) {
+        switch (op) {
+        case EQUALS:
+        case LESS_THAN_OR_EQ:
+            return key.compare(Predicate.Op.GREATER_THAN, fieldvalue);
+        case LESS_THAN:
+            return key.compare(Predicate.Op.GREATER_THAN_OR_EQ, fieldvalue);
+        default:
+            return false;
+        }
+    }
+
+    /** Return true if the fieldvalue in the supplied predicate
+        is satisfied by this predicate's fieldvalue and
+        operator.
+        @param ipd The field to compare against.
+    */
+    public boolean equals(IndexPredicate ipd) {
+        if (ipd == null)
+            return false;
+        return op.equals(ipd.op) && fieldvalue.equals(ipd.fieldvalue);
+    }
+
+    public String toString() {
+        return "key " + op + " " + fieldvalue;
+    }
+}
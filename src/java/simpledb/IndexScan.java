@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies an IndexPredicate. Unlike a SeqScan followed by a
+ * Filter, it reads only the index pages on the path to the first match and
+ * those holding the result.
+ * <p>
+ * Over a BTreeFile, the scan uses the file itself and returns tuples in key
+ * order. Over a HashFile, ipred must be an equality predicate (or null for
+ * a full scan), and the scan reads only the bucket the key hashes to. Over
+ * a HeapFile, it uses a {@link SecondaryIndex} on the field:
+ * the matching RecordIds are collected and sorted by page first, so each
+ * heap page is fetched through the BufferPool once and in file order, and
+ * tuples are returned in that order rather than in key order.
+ */
+public class IndexScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private IndexPredicate ipred;
+    private SecondaryIndex index = null;
+    private DbFileIterator it = null;
+
+    private List<RecordId> rids = null;
+    private int ridPos = 0;
+    private HeapPage page = null;
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan; its DbFile must be a BTreeFile or a
+     *            HashFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     * @param ipred
+     *            the predicate on the key field of the file, or null to
+     *            scan the whole file (in key order for a BTreeFile)
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, IndexPredicate ipred) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (!(file instanceof BTreeFile) && !(file instanceof HashFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a BTreeFile or HashFile");
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    /**
+     * Creates a scan through the index on a given field: the key of a
+     * BTreeFile or HashFile, or a field of a HeapFile with a secondary
+     * index.
+     *
+     * @param field
+     *            the field ipred applies to
+     * @param ipred
+     *            the predicate on the field; must not be null for a
+     *            HeapFile
+     * @throws IllegalArgumentException if the field is not indexed
+     */
+    public IndexScan(TransactionId tid, int tableid, String tableAlias, int field, IndexPredicate ipred) {
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        if (file instanceof BTreeFile) {
+            if (((BTreeFile) file).keyField() != field)
+                throw new IllegalArgumentException("field " + field + " is not the key of table " + tableid);
+        } else if (file instanceof HashFile) {
+            if (((HashFile) file).keyField() != field)
+                throw new IllegalArgumentException("field " + field + " is not the key of table " + tableid);
+        } else {
+            index = Database.getCatalog().getIndex(tableid, field);
+            if (index == null || ipred == null)
+                throw new IllegalArgumentException("table " + tableid + " has no index on field " + field);
+        }
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.ipred = ipred;
+    }
+
+    public IndexPredicate getIndexPredicate() {
+        return ipred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        if (index != null) {
+            rids = index.lookup(tid, ipred);
+            ridPos = 0;
+            page = null;
+        } else {
+            DbFile file = Database.getCatalog().getDbFile(tableId);
+            if (ipred == null)
+                it = file.iterator(tid);
+            else if (file instanceof HashFile)
+                it = ((HashFile) file).indexIterator(tid, ipred);
+            else
+                it = ((BTreeFile) file).indexIterator(tid, ipred);
+            it.open();
+        }
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (index == null)
+            return it.hasNext() ? it.next() : null;
+
+        while (ridPos < rids.size()) {
+            RecordId rid = rids.get(ridPos++);
+            if (page == null || page.getId().pageNumber() != rid.getPageId().pageNumber())
+                page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            if (t != null)
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        if (index != null) {
+            ridPos = 0;
+            page = null;
+        } else {
+            it.rewind();
+        }
+    }
+
+    public void close() {
+        super.close();
+        if (it != null) {
+            it.close();
+            it = null;
+        }
+        rids = null;
+        page = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
@@ -0,0 +1,232 @@
+package simpledb;
+
+/**
+ * Filter kernels over decoded INT_TYPE columns. Each kernel compares an
+ * int[] column with a constant and produces a selection vector: the
+ * ascending positions of the values that pass.
+ * <p>
+ * When the incubating Vector API (jdk.incubator.vector) is available, the
+ * kernels compare a whole SIMD vector of values per step; see
+ * VectorIntFilterKernels, which is compiled from src/vector and loaded only
+ * if the JVM was started with --add-modules jdk.incubator.vector. Setting
+ * the system property simpledb.vectorKernels to false disables it.
+ * <p>
+ * Otherwise the scalar kernels below are used: one tight loop per operator
+ * without a data-dependent branch. Every position is stored and the output
+ * cursor only advances when the comparison holds, which avoids branch
+ * mispredictions at any selectivity; the data-dependent store index keeps
+ * the JIT from vectorizing these loops, though.
+ */
+public final class IntFilterKernels {
+
+    /** An implementation of the kernels. */
+    interface Kernels {
+        int select(Predicate.Op op, int[] values, int n, int c, int[] sel);
+
+        int refine(Predicate.Op op, int[] values, int c, int[] in, int n, int[] out);
+    }
+
+    // the Vector API kernels, or null if they cannot be used
+    private static final Kernels VECTOR = loadVectorKernels();
+
+    private IntFilterKernels() {
+    }
+
+    private static Kernels loadVectorKernels() {
+        if (!Boolean.parseBoolean(System.getProperty("simpledb.vectorKernels", "true")))
+            return null;
+        try {
+            // fails with a LinkageError when the module is not present
+            Class<?> c = Class.forName("simpledb.VectorIntFilterKernels");
+            return (Kernels) c.getDeclaredConstructor().newInstance();
+        } catch (Exception e) {
+            return null;
+        } catch (LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if the kernels run on the Vector API, false if they use
+     *         the scalar loops
+     */
+    public static boolean isVectorized() {
+        return VECTOR != null;
+    }
+
+    /**
+     * @return true if op can be evaluated by these kernels
+     */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return true if p compares an INT_TYPE field of a tuple of td with an
+     *         IntField, with an operator the kernels support
+     */
+    static boolean applies(Predicate p, TupleDesc td) {
+        return td.getFieldType(p.getField()) == Type.INT_TYPE && p.getOperand() instanceof IntField
+                && supports(p.getOp());
+    }
+
+    /**
+     * Selects the positions i in [0, n) with values[i] op c.
+     *
+     * @param sel
+     *            receives the selected positions; must have room for n
+     *            entries
+     * @return the number of positions selected
+     */
+    public static int select(Predicate.Op op, int[] values, int n, int c, int[] sel) {
+        if (VECTOR != null)
+            return VECTOR.select(op, values, n, c, sel);
+        return selectFrom(op, values, 0, n, c, sel, 0);
+    }
+
+    /**
+     * Narrows a selection vector to the positions whose value also
+     * satisfies values[pos] op c. May be called with in == out.
+     *
+     * @param in
+     *            the current selection, of length n
+     * @return the number of positions left in out
+     */
+    public static int refine(Predicate.Op op, int[] values, int c, int[] in, int n, int[] out) {
+        if (VECTOR != null)
+            return VECTOR.refine(op, values, c, in, n, out);
+        return refineFrom(op, values, c, in, 0, n, out, 0);
+    }
+
+    /**
+     * Selects the positions of the tuples of a page that satisfy every
+     * predicate, each of which must be one the kernels {@link #applies} to.
+     *
+     * @param n
+     *            the number of tuples on the page
+     * @param sel
+     *            receives the selected positions; must have room for n
+     *            entries
+     * @return the number of positions selected
+     */
+    static int select(Predicate[] predicates, HeapPage page, int n, int[] sel) {
+        if (predicates.length == 0) {
+            for (int i = 0; i < n; i++)
+                sel[i] = i;
+            return n;
+        }
+        Predicate p = predicates[0];
+        int k = select(p.getOp(), page.getIntColumn(p.getField()), n, ((IntField) p.getOperand()).getValue(),
+                sel);
+        for (int j = 1; j < predicates.length && k > 0; j++) {
+            p = predicates[j];
+            k = refine(p.getOp(), page.getIntColumn(p.getField()), ((IntField) p.getOperand()).getValue(),
+                    sel, k, sel);
+        }
+        return k;
+    }
+
+    /**
+     * The scalar select kernel over the positions [from, n), appending to
+     * sel from position k.
+     *
+     * @return the number of positions in sel afterwards
+     */
+    static int selectFrom(Predicate.Op op, int[] values, int from, int n, int c, int[] sel, int k) {
+        switch (op) {
+        case EQUALS:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] == c ? 1 : 0;
+            }
+            return k;
+        case NOT_EQUALS:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] != c ? 1 : 0;
+            }
+            return k;
+        case GREATER_THAN:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] > c ? 1 : 0;
+            }
+            return k;
+        case GREATER_THAN_OR_EQ:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] >= c ? 1 : 0;
+            }
+            return k;
+        case LESS_THAN:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] < c ? 1 : 0;
+            }
+            return k;
+        case LESS_THAN_OR_EQ:
+            for (int i = from; i < n; i++) {
+                sel[k] = i;
+                k += values[i] <= c ? 1 : 0;
+            }
+            return k;
+        default:
+            throw new IllegalArgumentException("no kernel for operator " + op);
+        }
+    }
+
+    /**
+     * The scalar refine kernel over the selected positions in[from, n),
+     * appending to out from position k.
+     *
+     * @return the number of positions in out afterwards
+     */
+    static int refineFrom(Predicate.Op op, int[] values, int c, int[] in, int from, int n, int[] out, int k) {
+        switch (op) {
+        case EQUALS:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] == c ? 1 : 0;
+            }
+            return k;
+        case NOT_EQUALS:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] != c ? 1 : 0;
+            }
+            return k;
+        case GREATER_THAN:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] > c ? 1 : 0;
+            }
+            return k;
+        case GREATER_THAN_OR_EQ:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] >= c ? 1 : 0;
+            }
+            return k;
+        case LESS_THAN:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] < c ? 1 : 0;
+            }
+            return k;
+        case LESS_THAN_OR_EQ:
+            for (int j = from; j < n; j++) {
+                int i = in[j];
+                out[k] = i;
+                k += values[i] <= c ? 1 : 0;
+            }
+            return k;
+        default:
+            throw new IllegalArgumentException("no kernel for operator " + op);
+        }
+    }
+}
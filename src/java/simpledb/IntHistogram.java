@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * An equi-depth histogram over the values of an INT_TYPE field. The range
+ * from the smallest to the largest value is cut into buckets that each
+ * hold about the same number of tuples, so that ranges dense with tuples
+ * get narrow buckets. A run of equal values is never split, and a value
+ * that fills a bucket gets a bucket of its own and so an exact count.
+ * Within a bucket, tuples are assumed to be spread evenly over the
+ * distinct values seen in it.
+ * <p>
+ * The histogram is built from a sorted sample of the values and scaled to
+ * the number of tuples in the table. {@link #add} and {@link #remove} keep
+ * the bucket counts in step with inserts and deletes; the bucket bounds
+ * move only to take in values beyond the ends. A histogram is not
+ * thread-safe; {@link TableStats} synchronizes access to it and hands out
+ * copies.
+ */
+public class IntHistogram {
+
+    // bucket i covers [lo[i], hi[i]]; lo[i] = hi[i - 1] + 1
+    private int[] lo;
+    private int[] hi;
+    private long[] counts;
+    private int[] distinct;
+    private long total;
+
+    /**
+     * Builds a histogram from a sample of a field's values.
+     *
+     * @param sorted
+     *            the sample, in ascending order
+     * @param n
+     *            the number of values of sorted that are in the sample
+     * @param total
+     *            the number of tuples in the table
+     * @param min
+     *            the smallest value in the table
+     * @param max
+     *            the largest value in the table
+     * @param buckets
+     *            the number of buckets to aim for
+     */
+    public IntHistogram(int[] sorted, int n, long total, int min, int max, int buckets) {
+        int depth = Math.max(1, (n + buckets - 1) / buckets);
+        // a short bucket may be cut before each bucket of a single value
+        int cap = 2 * buckets + 2;
+        int[] lo = new int[cap], hi = new int[cap], size = new int[cap], distinct = new int[cap];
+        int b = 0;
+        for (int i = 0; i < n; b++) {
+            int start = i, d = 0;
+            while (i < n) {
+                int run = 1;
+                while (i + run < n && sorted[i + run] == sorted[i])
+                    run++;
+                // a run that fills a bucket starts a bucket of its own
+                if (i > start && (i - start >= depth || run >= depth))
+                    break;
+                i += run;
+                d++;
+            }
+            lo[b] = b == 0 ? min : hi[b - 1] + 1;
+            hi[b] = sorted[i - 1];
+            size[b] = i - start;
+            distinct[b] = d;
+        }
+        if (b > 0)
+            hi[b - 1] = Math.max(hi[b - 1], max);
+
+        this.lo = new int[b];
+        this.hi = new int[b];
+        this.counts = new long[b];
+        this.distinct = new int[b];
+        System.arraycopy(lo, 0, this.lo, 0, b);
+        System.arraycopy(hi, 0, this.hi, 0, b);
+        System.arraycopy(distinct, 0, this.distinct, 0, b);
+        long assigned = 0;
+        for (int i = 0; i < b; i++) {
+            counts[i] = i == b - 1 ? total - assigned : Math.round((double) size[i] * total / n);
+            assigned += counts[i];
+        }
+        this.total = b == 0 ? 0 : total;
+    }
+
+    private IntHistogram(int[] lo, int[] hi, long[] counts, int[] distinct) {
+        this.lo = lo;
+        this.hi = hi;
+        this.counts = counts;
+        this.distinct = distinct;
+        for (long c : counts)
+            total += c;
+    }
+
+    /** @return a histogram with the same buckets, which changes independently */
+    public IntHistogram copy() {
+        return new IntHistogram(lo.clone(), hi.clone(), counts.clone(), distinct.clone());
+    }
+
+    /** @return the number of buckets */
+    public int numBuckets() {
+        return counts.length;
+    }
+
+    /** @return the number of tuples the histogram describes */
+    public long totalCount() {
+        return total;
+    }
+
+    /** Counts a value inserted into the table. */
+    public void add(int v) {
+        if (counts.length == 0) {
+            lo = new int[] { v };
+            hi = new int[] { v };
+            counts = new long[] { 0 };
+            distinct = new int[] { 1 };
+        }
+        int b = bucket(v);
+        if (b < 0) {
+            b = v < lo[0] ? 0 : counts.length - 1;
+            if (b == 0)
+                lo[0] = v;
+            else
+                hi[b] = v;
+        }
+        counts[b]++;
+        total++;
+    }
+
+    /** Uncounts a value deleted from the table. */
+    public void remove(int v) {
+        int b = bucket(v);
+        if (b < 0 || counts[b] == 0)
+            return;
+        counts[b]--;
+        total--;
+    }
+
+    /** @return the index of the bucket covering v, or -1 if v is out of range */
+    private int bucket(int v) {
+        int l = 0, h = counts.length - 1;
+        if (h < 0 || v < lo[0] || v > hi[h])
+            return -1;
+        while (l < h) {
+            int mid = (l + h) >>> 1;
+            if (hi[mid] < v)
+                l = mid + 1;
+            else
+                h = mid;
+        }
+        return l;
+    }
+
+    /** @return the fraction of tuples whose value is v */
+    private double equal(int v) {
+        int b = bucket(v);
+        if (b < 0 || total == 0)
+            return 0;
+        long width = (long) hi[b] - lo[b] + 1;
+        return (double) counts[b] / total / Math.max(1, Math.min(width, distinct[b]));
+    }
+
+    /** @return the fraction of tuples whose value is less than v */
+    private double less(int v) {
+        if (total == 0 || v <= lo[0])
+            return 0;
+        if (v > hi[counts.length - 1])
+            return 1;
+        int b = bucket(v);
+        long below = 0;
+        for (int i = 0; i < b; i++)
+            below += counts[i];
+        long width = (long) hi[b] - lo[b] + 1;
+        return (below + (double) counts[b] * (v - lo[b]) / width) / total;
+    }
+
+    /**
+     * Estimates the fraction of tuples of the table that satisfy a
+     * predicate {@code field op v}.
+     */
+    public double estimateSelectivity(Predicate.Op op, int v) {
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return equal(v);
+        case NOT_EQUALS:
+            return total == 0 ? 0 : 1 - equal(v);
+        case LESS_THAN:
+            return less(v);
+        case LESS_THAN_OR_EQ:
+            return Math.min(1, less(v) + equal(v));
+        case GREATER_THAN:
+            return total == 0 ? 0 : Math.max(0, 1 - less(v) - equal(v));
+        case GREATER_THAN_OR_EQ:
+            return total == 0 ? 0 : 1 - less(v);
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            out.writeInt(lo[i]);
+            out.writeInt(hi[i]);
+            out.writeLong(counts[i]);
+            out.writeInt(distinct[i]);
+        }
+    }
+
+    public static IntHistogram readFrom(DataInputStream in) throws IOException {
+        int b = in.readInt();
+        int[] lo = new int[b], hi = new int[b], distinct = new int[b];
+        long[] counts = new long[b];
+        for (int i = 0; i < b; i++) {
+            lo[i] = in.readInt();
+            hi[i] = in.readInt();
+            counts[i] = in.readLong();
+            distinct[i] = in.readInt();
+        }
+        return new IntHistogram(lo, hi, counts, distinct);
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < counts.length; i++)
+            sb.append("[").append(lo[i]).append(", ").append(hi[i]).append("]: ").append(counts[i]).append("\n");
+        return sb.toString();
+    }
+}
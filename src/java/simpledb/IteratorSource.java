@@ -0,0 +1,45 @@
+package simpledb;
+
+/**
+ * Adapts a DbIterator to the push engine: pulls tuples from the iterator
+ * and pushes them into the pipeline, so any existing operator can feed a
+ * push pipeline.
+ */
+public class IteratorSource implements PushSource {
+
+    /** Number of tuples pulled per batch. */
+    public static final int BATCH_SIZE = 1024;
+
+    private final DbIterator child;
+
+    public IteratorSource(DbIterator child) {
+        this.child = child;
+    }
+
+    /** @return the iterator this source pulls from */
+    public DbIterator getChild() {
+        return child;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    public boolean pushBatch(PushSink sink) throws DbException, TransactionAbortedException {
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            if (!child.hasNext())
+                return false;
+            if (!sink.push(child.next()))
+                return false;
+        }
+        return true;
+    }
+
+    public void close() {
+        child.close();
+    }
+}
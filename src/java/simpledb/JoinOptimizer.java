@@ -0,0 +1,562 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * JoinOptimizer chooses the order and the algorithms of the joins of a
+ * query, Selinger style. Plans are costed from {@link TableStats}: a scan
+ * costs {@link TableStats#estimateScanCost}, proportional to the pages of
+ * the table, and each tuple an operator handles costs
+ * {@link #CPU_COST_PER_TUPLE}. Join cardinalities are estimated from the
+ * number of distinct values of the join fields.
+ * <p>
+ * The best plan of every subset of the relations is found by dynamic
+ * programming over the subsets in increasing order, and kept in a table
+ * indexed by the subset's bitmask, so each subset is planned once. By
+ * default plans are left-deep: a subset is planned as the best plan of all
+ * but one of its relations joined with a scan of the last one. With
+ * {@link #setBushy} every split of a subset into two planned halves is
+ * tried. Two halves are joined only if a join predicate connects them, so
+ * no plan contains a cross product.
+ * <p>
+ * Each join is run as a {@link BlockNestedLoopJoin}, which handles any
+ * predicate, or, for an equality predicate, a {@link HashJoin} or a
+ * {@link SortMergeJoin}, which sorts only the inputs that are not already
+ * in join key order. A plan is turned into operators with
+ * {@link #buildPlan}.
+ */
+public class JoinOptimizer {
+
+    /** The algorithm that runs a join. */
+    public enum Method {
+        NESTED_LOOP, HASH, SORT_MERGE
+    }
+
+    /** The most relations a query may join. */
+    public static final int MAX_RELATIONS = 20;
+
+    /**
+     * The cost of handling one tuple in an operator, in the units of
+     * {@link TableStats#IOCOSTPERPAGE}.
+     */
+    public static final double CPU_COST_PER_TUPLE = 1.0;
+
+    /** Selectivity assumed for a join predicate other than = and <>. */
+    public static final double RANGE_JOIN_SELECTIVITY = 0.3;
+
+    private final String[] aliases;
+    private final int[] tableIds;
+    private final List<LogicalJoinNode> joins;
+    // the bit of the relation on each side of each join
+    private final int[] bits1;
+    private final int[] bits2;
+    private boolean bushy = false;
+
+    private TableStats[] stats;
+
+    /**
+     * @param tables
+     *            the relations of the query: the id of the table each alias
+     *            names
+     * @param joins
+     *            the join predicates between them
+     * @throws IllegalArgumentException
+     *            if a join names an alias that is not in tables, or there
+     *            are more than {@link #MAX_RELATIONS} relations
+     */
+    public JoinOptimizer(Map<String, Integer> tables, List<LogicalJoinNode> joins) {
+        if (tables.isEmpty())
+            throw new IllegalArgumentException("a query needs at least one table");
+        if (tables.size() > MAX_RELATIONS)
+            throw new IllegalArgumentException("cannot join more than " + MAX_RELATIONS + " tables, got "
+                    + tables.size());
+        this.aliases = new String[tables.size()];
+        this.tableIds = new int[tables.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> e : tables.entrySet()) {
+            aliases[i] = e.getKey();
+            tableIds[i] = e.getValue();
+            i++;
+        }
+        this.joins = new ArrayList<LogicalJoinNode>(joins);
+        this.bits1 = new int[joins.size()];
+        this.bits2 = new int[joins.size()];
+        for (int j = 0; j < this.joins.size(); j++) {
+            bits1[j] = 1 << index(this.joins.get(j).getTable1Alias());
+            bits2[j] = 1 << index(this.joins.get(j).getTable2Alias());
+        }
+    }
+
+    private int index(String alias) {
+        for (int i = 0; i < aliases.length; i++) {
+            if (aliases[i].equals(alias))
+                return i;
+        }
+        throw new IllegalArgumentException("no table with alias " + alias + " in the query");
+    }
+
+    /** Sets whether bushy plans, joining two joins, are considered. */
+    public void setBushy(boolean bushy) {
+        this.bushy = bushy;
+    }
+
+    /**
+     * A plan for a subset of the relations of a query, with its estimated
+     * cost and cardinality: a scan of one relation, or a join of two plans.
+     */
+    public static class Plan {
+        private final String alias;
+        private final Plan left;
+        private final Plan right;
+        private final Method method;
+        private final LogicalJoinNode join;
+        private final List<LogicalJoinNode> residuals;
+        private final double cost;
+        private final double cardinality;
+        // the relations in the order of their fields in the output
+        private final String[] order;
+        private final int[] widths;
+        private final int tupleSize;
+        // the field the output is sorted on, if any
+        private final String sortAlias;
+        private final int sortField;
+
+        private Plan(String alias, TupleDesc td, double cost, double cardinality, String sortAlias, int sortField) {
+            this.alias = alias;
+            this.left = null;
+            this.right = null;
+            this.method = null;
+            this.join = null;
+            this.residuals = Collections.<LogicalJoinNode>emptyList();
+            this.cost = cost;
+            this.cardinality = cardinality;
+            this.order = new String[] { alias };
+            this.widths = new int[] { td.numFields() };
+            this.tupleSize = td.getSize();
+            this.sortAlias = sortAlias;
+            this.sortField = sortField;
+        }
+
+        private Plan(Plan left, Plan right, Method method, LogicalJoinNode join, List<LogicalJoinNode> residuals,
+                double cost, double cardinality) {
+            this.alias = null;
+            this.left = left;
+            this.right = right;
+            this.method = method;
+            this.join = join;
+            this.residuals = residuals;
+            this.cost = cost;
+            this.cardinality = cardinality;
+            this.order = new String[left.order.length + right.order.length];
+            this.widths = new int[order.length];
+            System.arraycopy(left.order, 0, order, 0, left.order.length);
+            System.arraycopy(right.order, 0, order, left.order.length, right.order.length);
+            System.arraycopy(left.widths, 0, widths, 0, left.widths.length);
+            System.arraycopy(right.widths, 0, widths, left.widths.length, right.widths.length);
+            this.tupleSize = left.tupleSize + right.tupleSize;
+            if (method == Method.SORT_MERGE) {
+                this.sortAlias = join.getTable1Alias();
+                this.sortField = join.getField1();
+            } else if (method == Method.HASH) {
+                // the probe streams the outer input in order
+                this.sortAlias = left.sortAlias;
+                this.sortField = left.sortField;
+            } else {
+                this.sortAlias = null;
+                this.sortField = -1;
+            }
+        }
+
+        /** @return true if this plan scans a single relation */
+        public boolean isScan() {
+            return alias != null;
+        }
+
+        /** @return the relation a scan reads, or null for a join */
+        public String getAlias() {
+            return alias;
+        }
+
+        /** @return the outer input of a join, or null for a scan */
+        public Plan getLeft() {
+            return left;
+        }
+
+        /** @return the inner input of a join, or null for a scan */
+        public Plan getRight() {
+            return right;
+        }
+
+        /** @return the algorithm of a join, or null for a scan */
+        public Method getMethod() {
+            return method;
+        }
+
+        /**
+         * @return the predicate a join runs on, with its first table in the
+         *         outer input; null for a scan
+         */
+        public LogicalJoinNode getJoin() {
+            return join;
+        }
+
+        /**
+         * @return the other predicates between the inputs of a join, applied
+         *         to its output
+         */
+        public List<LogicalJoinNode> getResiduals() {
+            return residuals;
+        }
+
+        /** @return the estimated cost of running the plan */
+        public double getCost() {
+            return cost;
+        }
+
+        /** @return the estimated number of tuples the plan returns */
+        public double getCardinality() {
+            return cardinality;
+        }
+
+        /** @return the aliases of the relations, in the order of their fields in the output */
+        public List<String> getAliases() {
+            return Collections.unmodifiableList(Arrays.asList(order));
+        }
+
+        /** @return the index in the output of the first field of a relation */
+        public int fieldOffset(String alias) {
+            int offset = 0;
+            for (int i = 0; i < order.length; i++) {
+                if (order[i].equals(alias))
+                    return offset;
+                offset += widths[i];
+            }
+            throw new NoSuchElementException("no relation " + alias + " in the plan");
+        }
+
+        private int numFields() {
+            int n = 0;
+            for (int w : widths)
+                n += w;
+            return n;
+        }
+
+        /** @return true if the output is in ascending order of alias.field */
+        public boolean isSortedOn(String alias, int field) {
+            return sortAlias != null && sortAlias.equals(alias) && sortField == field;
+        }
+
+        /** @return the joins of the plan, in the order they are run */
+        public List<LogicalJoinNode> getJoinOrder() {
+            ArrayList<LogicalJoinNode> l = new ArrayList<LogicalJoinNode>();
+            addJoins(l);
+            return l;
+        }
+
+        private void addJoins(List<LogicalJoinNode> l) {
+            if (alias != null)
+                return;
+            left.addJoins(l);
+            right.addJoins(l);
+            l.add(join);
+            l.addAll(residuals);
+        }
+
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            explain(sb, "");
+            return sb.toString();
+        }
+
+        private void explain(StringBuilder sb, String indent) {
+            sb.append(indent);
+            if (alias != null)
+                sb.append("SCAN ").append(alias);
+            else
+                sb.append(method).append(" ").append(join).append(residuals.isEmpty() ? "" : " AND " + residuals);
+            sb.append(String.format(" (cost=%.0f, card=%.0f)%n", cost, cardinality));
+            if (alias == null) {
+                left.explain(sb, indent + "  ");
+                right.explain(sb, indent + "  ");
+            }
+        }
+    }
+
+    /**
+     * Finds the cheapest plan joining every relation of the query. The
+     * statistics of each table are taken from the catalog, and computed
+     * and registered there if it has none.
+     *
+     * @param filterSelectivities
+     *            for each alias, the fraction of its tuples that pass the
+     *            query's filters on it; aliases not in the map pass all
+     * @throws IllegalArgumentException
+     *            if the join predicates do not connect every relation
+     */
+    public Plan orderJoins(Map<String, Double> filterSelectivities)
+            throws DbException, TransactionAbortedException {
+        int n = aliases.length;
+        stats = new TableStats[n];
+        Plan[] best = new Plan[1 << n];
+        for (int i = 0; i < n; i++) {
+            stats[i] = Database.getCatalog().getTableStats(tableIds[i]);
+            if (stats[i] == null) {
+                stats[i] = new TableStats(tableIds[i], TableStats.IOCOSTPERPAGE);
+                Database.getCatalog().setTableStats(tableIds[i], stats[i]);
+            }
+            Double sel = filterSelectivities.get(aliases[i]);
+            best[1 << i] = scanPlan(i, sel == null ? 1.0 : sel);
+        }
+
+        // every proper subset of a mask is a smaller number, so it is
+        // planned before the mask
+        for (int mask = 1; mask < best.length; mask++) {
+            if (Integer.bitCount(mask) < 2)
+                continue;
+            if (bushy) {
+                for (int l = (mask - 1) & mask; l > 0; l = (l - 1) & mask)
+                    consider(best, mask, l, mask ^ l);
+            } else {
+                for (int rest = mask; rest != 0; rest &= rest - 1) {
+                    int r = rest & -rest;
+                    consider(best, mask, mask ^ r, r);
+                }
+            }
+        }
+
+        Plan plan = best[best.length - 1];
+        if (plan == null)
+            throw new IllegalArgumentException("the join predicates do not connect every table of the query");
+        return plan;
+    }
+
+    private Plan scanPlan(int i, double selectivity) {
+        DbFile file = Database.getCatalog().getDbFile(tableIds[i]);
+        String sortAlias = null;
+        int sortField = -1;
+        if (file instanceof BTreeFile) {
+            sortAlias = aliases[i];
+            sortField = ((BTreeFile) file).keyField();
+        }
+        double card = Math.max(1, stats[i].estimateTableCardinality(selectivity));
+        return new Plan(aliases[i], file.getTupleDesc(), stats[i].estimateScanCost(), card, sortAlias, sortField);
+    }
+
+    /**
+     * Costs every way of joining plan left (outer) with plan right (inner)
+     * and keeps the cheapest as the plan of mask if it beats the best so
+     * far.
+     */
+    private void consider(Plan[] best, int mask, int l, int r) {
+        Plan left = best[l], right = best[r];
+        if (left == null || right == null)
+            return;
+
+        // the predicates between the halves, each with its first table on
+        // the left; an equality predicate is preferred to run the join
+        LogicalJoinNode primary = null;
+        ArrayList<LogicalJoinNode> crossing = new ArrayList<LogicalJoinNode>();
+        for (int j = 0; j < joins.size(); j++) {
+            LogicalJoinNode node;
+            if ((bits1[j] & l) != 0 && (bits2[j] & r) != 0) {
+                node = joins.get(j);
+            } else if ((bits2[j] & l) != 0 && (bits1[j] & r) != 0) {
+                // a LIKE predicate cannot be turned around
+                if (joins.get(j).getOperator() == Predicate.Op.LIKE)
+                    return;
+                node = joins.get(j).swapInnerOuter();
+            } else {
+                continue;
+            }
+            if (primary == null || (primary.getOperator() != Predicate.Op.EQUALS
+                    && node.getOperator() == Predicate.Op.EQUALS)) {
+                if (primary != null)
+                    crossing.add(primary);
+                primary = node;
+            } else {
+                crossing.add(node);
+            }
+        }
+        if (primary == null)
+            return;
+
+        double card = left.cardinality * right.cardinality * selectivity(primary, left, right);
+        for (LogicalJoinNode node : crossing)
+            card *= selectivity(node, left, right);
+        card = Math.max(1, card);
+
+        for (Method m : Method.values()) {
+            if (m != Method.NESTED_LOOP && primary.getOperator() != Predicate.Op.EQUALS)
+                continue;
+            double cost = estimateJoinCost(m, primary, left, right) + card * CPU_COST_PER_TUPLE;
+            if (best[mask] == null || cost < best[mask].cost)
+                best[mask] = new Plan(left, right, m, primary, crossing, cost, card);
+        }
+    }
+
+    /**
+     * @return the fraction of the pairs of tuples of left and right that
+     *         satisfy a predicate whose first table is in left
+     */
+    private double selectivity(LogicalJoinNode j, Plan left, Plan right) {
+        switch (j.getOperator()) {
+        case EQUALS:
+        case LIKE:
+            return 1.0 / maxDistinct(j, left, right);
+        case NOT_EQUALS:
+            return 1 - 1.0 / maxDistinct(j, left, right);
+        default:
+            return RANGE_JOIN_SELECTIVITY;
+        }
+    }
+
+    /**
+     * @return the larger number of distinct values of the two join fields,
+     *         each capped by the cardinality of its input
+     */
+    private double maxDistinct(LogicalJoinNode j, Plan left, Plan right) {
+        double d1 = Math.min(stats[index(j.getTable1Alias())].numDistinct(j.getField1()), left.cardinality);
+        double d2 = Math.min(stats[index(j.getTable2Alias())].numDistinct(j.getField2()), right.cardinality);
+        return Math.max(1, Math.max(d1, d2));
+    }
+
+    /**
+     * Estimates the cost of a join, including the cost of its inputs but
+     * not of producing its output:
+     * <ul>
+     * <li>a block nested-loop join runs the inner plan once per block of
+     * outer tuples and compares every pair;</li>
+     * <li>a hash join runs each input once; building costs each inner tuple
+     * twice, an insert and later lookups;</li>
+     * <li>a sort-merge join runs each input once, sorts the inputs that are
+     * not in key order, and merges them.</li>
+     * </ul>
+     */
+    private double estimateJoinCost(Method m, LogicalJoinNode j, Plan left, Plan right) {
+        switch (m) {
+        case NESTED_LOOP:
+            int perPage = Math.max(1, (BufferPool.PAGE_SIZE * 8) / (left.tupleSize * 8 + 1));
+            double blocks = Math.ceil(left.cardinality / (perPage * BlockNestedLoopJoin.DEFAULT_BLOCK_PAGES));
+            return left.cost + blocks * right.cost + left.cardinality * right.cardinality * CPU_COST_PER_TUPLE;
+        case HASH:
+            return left.cost + right.cost + (left.cardinality + 2 * right.cardinality) * CPU_COST_PER_TUPLE;
+        case SORT_MERGE:
+            double cost = left.cost + right.cost + (left.cardinality + right.cardinality) * CPU_COST_PER_TUPLE;
+            if (!left.isSortedOn(j.getTable1Alias(), j.getField1()))
+                cost += sortCost(left.cardinality);
+            if (!right.isSortedOn(j.getTable2Alias(), j.getField2()))
+                cost += sortCost(right.cardinality);
+            return cost;
+        }
+        throw new IllegalArgumentException("unknown join method " + m);
+    }
+
+    private static double sortCost(double card) {
+        return card * Math.log(Math.max(2, card)) / Math.log(2) * CPU_COST_PER_TUPLE;
+    }
+
+    /**
+     * Builds the operators of a plan.
+     *
+     * @param inputs
+     *            for each alias, the operator that reads its relation, with
+     *            the table's fields in order (e.g. a SeqScan, applying the
+     *            query's filters on it). The input of a BTreeFile must
+     *            return its tuples in key order.
+     * @return the root of the plan; its fields are those of the relations
+     *         in the order of {@link Plan#getAliases}
+     */
+    public static DbIterator buildPlan(Plan plan, Map<String, DbIterator> inputs) {
+        if (plan.isScan()) {
+            DbIterator input = inputs.get(plan.alias);
+            if (input == null)
+                throw new IllegalArgumentException("no input for relation " + plan.alias);
+            return input;
+        }
+        DbIterator left = buildPlan(plan.left, inputs);
+        DbIterator right = buildPlan(plan.right, inputs);
+        LogicalJoinNode j = plan.join;
+        JoinPredicate p = new JoinPredicate(plan.left.fieldOffset(j.getTable1Alias()) + j.getField1(),
+                j.getOperator(), plan.right.fieldOffset(j.getTable2Alias()) + j.getField2());
+
+        DbIterator op;
+        switch (plan.method) {
+        case HASH:
+            op = new HashJoin(p, left, right);
+            break;
+        case SORT_MERGE:
+            if (!plan.left.isSortedOn(j.getTable1Alias(), j.getField1()))
+                left = new OrderBy(p.getField1(), true, left);
+            if (!plan.right.isSortedOn(j.getTable2Alias(), j.getField2()))
+                right = new OrderBy(p.getField2(), true, right);
+            op = new SortMergeJoin(p, left, right);
+            break;
+        default:
+            op = new BlockNestedLoopJoin(p, left, right);
+        }
+
+        int rightStart = plan.left.numFields();
+        for (LogicalJoinNode r : plan.residuals) {
+            JoinPredicate rp = new JoinPredicate(plan.left.fieldOffset(r.getTable1Alias()) + r.getField1(),
+                    r.getOperator(), rightStart + plan.right.fieldOffset(r.getTable2Alias()) + r.getField2());
+            op = new ResidualFilter(rp, op);
+        }
+        return op;
+    }
+
+    /**
+     * Keeps the tuples of its child whose fields satisfy a join predicate
+     * between two fields of the same tuple; applies the predicates of a
+     * join beyond the one it runs on.
+     */
+    private static class ResidualFilter extends Operator {
+
+        private static final long serialVersionUID = 1L;
+
+        private final JoinPredicate p;
+        private DbIterator child;
+
+        ResidualFilter(JoinPredicate p, DbIterator child) {
+            this.p = p;
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (p.filter(t, t))
+                    return t;
+            }
+            return null;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            clearLookahead();
+            child.rewind();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+}
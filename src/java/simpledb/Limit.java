@@ -0,0 +1,84 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Limit returns at most a fixed number of tuples from its child. Once the
+ * limit has been reached the child is not asked for any further tuples, so
+ * a Limit over a SeqScan stops reading pages of the underlying HeapFile as
+ * soon as enough tuples have been produced.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int limit;
+    private int returned = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the DbIterator feeding us tuples
+     * @param limit
+     *            the maximum number of tuples to return; must not be negative
+     */
+    public Limit(DbIterator child, int limit) {
+        if (limit < 0)
+            throw new IllegalArgumentException("limit must not be negative, got " + limit);
+        this.child = child;
+        this.limit = limit;
+    }
+
+    /**
+     * @return the maximum number of tuples returned by this operator
+     */
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        child.rewind();
+        returned = 0;
+    }
+
+    /**
+     * Returns the next tuple from the child, or null once limit tuples have
+     * been returned or the child is exhausted.
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (returned >= limit || !child.hasNext())
+            return null;
+
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
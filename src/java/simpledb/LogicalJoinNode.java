@@ -0,0 +1,85 @@
+package simpledb;
+
+/**
+ * A LogicalJoinNode is a join predicate between two tables of a query,
+ * {@code t1.f1 op t2.f2}, where the tables are named by their aliases in
+ * the query and the fields by their index in the table. It says nothing
+ * about how or in which order the join is run; that is chosen by the
+ * {@link JoinOptimizer}.
+ */
+public class LogicalJoinNode {
+
+    private final String t1Alias;
+    private final int f1;
+    private final Predicate.Op op;
+    private final String t2Alias;
+    private final int f2;
+
+    public LogicalJoinNode(String t1Alias, int f1, Predicate.Op op, String t2Alias, int f2) {
+        if (t1Alias.equals(t2Alias))
+            throw new IllegalArgumentException("a join predicate needs two tables, got " + t1Alias + " twice");
+        this.t1Alias = t1Alias;
+        this.f1 = f1;
+        this.op = op;
+        this.t2Alias = t2Alias;
+        this.f2 = f2;
+    }
+
+    public String getTable1Alias() {
+        return t1Alias;
+    }
+
+    public int getField1() {
+        return f1;
+    }
+
+    public Predicate.Op getOperator() {
+        return op;
+    }
+
+    public String getTable2Alias() {
+        return t2Alias;
+    }
+
+    public int getField2() {
+        return f2;
+    }
+
+    /**
+     * @return the same predicate with its tables in the other order, e.g.
+     *         {@code b.y > a.x} for {@code a.x < b.y}
+     */
+    public LogicalJoinNode swapInnerOuter() {
+        return new LogicalJoinNode(t2Alias, f2, reverse(op), t1Alias, f1);
+    }
+
+    private static Predicate.Op reverse(Predicate.Op op) {
+        switch (op) {
+        case LESS_THAN:
+            return Predicate.Op.GREATER_THAN;
+        case LESS_THAN_OR_EQ:
+            return Predicate.Op.GREATER_THAN_OR_EQ;
+        case GREATER_THAN:
+            return Predicate.Op.LESS_THAN;
+        case GREATER_THAN_OR_EQ:
+            return Predicate.Op.LESS_THAN_OR_EQ;
+        default:
+            return op;
+        }
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof LogicalJoinNode))
+            return false;
+        LogicalJoinNode j = (LogicalJoinNode) o;
+        return t1Alias.equals(j.t1Alias) && f1 == j.f1 && op == j.op && t2Alias.equals(j.t2Alias) && f2 == j.f2;
+    }
+
+    public int hashCode() {
+        return ((t1Alias.hashCode() * 31 + f1) * 31 + op.hashCode()) * 31 + t2Alias.hashCode() * 7 + f2;
+    }
+
+    public String toString() {
+        return t1Alias + "." + f1 + " " + op + " " + t2Alias + "." + f2;
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands out the pages of a HeapFile in morsels of a few consecutive pages to
+ * any number of worker threads. Workers pull the next morsel when they are
+ * done with the previous one, so faster workers simply process more morsels
+ * and no fixed partitioning of the file is needed.
+ * <p>
+ * The page count is fixed when the dispenser is created.
+ */
+public class MorselDispenser {
+
+    private final TransactionId tid;
+    private final HeapFile file;
+    private final int numPages;
+    private final int morselPages;
+    private final AtomicInteger nextPage = new AtomicInteger(0);
+
+    /**
+     * @param tid
+     *            the transaction the pages are read under
+     * @param file
+     *            the file whose pages are handed out
+     * @param morselPages
+     *            the number of consecutive pages in one morsel
+     */
+    public MorselDispenser(TransactionId tid, HeapFile file, int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("morsel must span at least one page, got " + morselPages);
+        this.tid = tid;
+        this.file = file;
+        this.numPages = file.numPages();
+        this.morselPages = morselPages;
+    }
+
+    public int getMorselPages() {
+        return morselPages;
+    }
+
+    /**
+     * Claims the next morsel and appends its tuples to out. Pages are read
+     * through the BufferPool.
+     *
+     * @return false if every morsel has already been claimed
+     */
+    public boolean nextMorsel(List<Tuple> out) throws DbException, TransactionAbortedException {
+        int start = nextPage.getAndAdd(morselPages);
+        if (start >= numPages)
+            return false;
+
+        int end = Math.min(numPages, start + morselPages);
+        for (int pgNo = start; pgNo < end; pgNo++) {
+            PageId pid = new HeapPageId(file.getId(), pgNo);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            out.addAll(page.getAllTuples());
+        }
+        return true;
+    }
+
+    /**
+     * Claims the next morsel and appends to out only its tuples whose field
+     * may be in a Bloom filter.
+     *
+     * @return false if every morsel has already been claimed
+     */
+    public boolean nextMorsel(List<Tuple> out, int field, BloomFilter filter)
+            throws DbException, TransactionAbortedException {
+        int start = nextPage.getAndAdd(morselPages);
+        if (start >= numPages)
+            return false;
+
+        int end = Math.min(numPages, start + morselPages);
+        for (int pgNo = start; pgNo < end; pgNo++) {
+            PageId pid = new HeapPageId(file.getId(), pgNo);
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            List<Tuple> tuples = page.getAllTuples();
+            int[] sel = new int[tuples.size()];
+            for (int i = 0; i < sel.length; i++)
+                sel[i] = i;
+            int selCount = filter.select(page, field, sel, sel.length, sel);
+            for (int j = 0; j < selCount; j++)
+                out.add(tuples.get(sel[j]));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * OrderBy is an operator that implements a relational ORDER BY. It reads its
+ * child completely into memory and returns the tuples sorted on a single
+ * field.
+ */
+public class OrderBy extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private TupleDesc td;
+    private ArrayList<Tuple> childTups = new ArrayList<Tuple>();
+    private int orderByField;
+    private String orderByFieldName;
+    private Iterator<Tuple> it;
+    private boolean asc;
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int orderbyField, boolean asc, DbIterator child) {
+        this.child = child;
+        this.td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        childTups.clear();
+        while (child.hasNext())
+            childTups.add(child.next());
+        Collections.sort(childTups, new TupleComparator(orderByField, asc));
+        it = childTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        it = childTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns tuples from the child operator
+     * in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
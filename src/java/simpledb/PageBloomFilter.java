@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Per-page Bloom filters over one field of a HeapFile. An equality
+ * predicate on the field is checked against the filter of a page before the
+ * page is fetched, so a point lookup on an unclustered column (where the
+ * {@link ZoneMap} ranges of every page overlap) reads only the pages that
+ * may hold the key, plus a few false positives.
+ * <p>
+ * Filters are maintained like the zone map: a page's filter is rebuilt when
+ * the page is written by {@link HeapFile#writePage} or read clean by a
+ * filtered scan, and every insert adds its key in between, so the filter
+ * always covers the page; deletes leave stale keys until the page is next
+ * written. A page whose filter is not known is never skipped.
+ * <p>
+ * Every page gets a filter of the same size, {@link #BITS_PER_KEY} bits for
+ * each slot of a page. The filters are kept in a {@link PageSidecar} named
+ * {@link #sidecarFile}, whose header holds the field and the size and
+ * number of hashes of the filters and whose record of a page holds the bits
+ * of its filter.
+ */
+public class PageBloomFilter {
+
+    /** Filter bits per tuple slot of a page. */
+    public static final int BITS_PER_KEY = 8;
+
+    private static final int MAGIC = 0x42464C54;
+    private static final int NUM_HASHES = 5;
+
+    private final PageSidecar sidecar;
+    private final int field;
+    private final boolean intField;
+    private final int numBits;
+
+    // the filter of each page, or null if it is not known
+    private final ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+
+    /**
+     * Opens the Bloom filters over one field of a heap file, loading their
+     * sidecar if it is present and up to date.
+     *
+     * @param heapFile the file backing the HeapFile
+     * @param td the schema of the HeapFile
+     * @param field the field the filters hold
+     */
+    public PageBloomFilter(File heapFile, TupleDesc td, int field) {
+        if (field < 0 || field >= td.numFields())
+            throw new IllegalArgumentException("table has no field " + field);
+        this.field = field;
+        this.intField = td.getFieldType(field) == Type.INT_TYPE;
+        int slots = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        this.numBits = new BloomFilter(Math.max(1, slots * BITS_PER_KEY), NUM_HASHES).numBits();
+
+        this.sidecar = new PageSidecar(sidecarFile(heapFile, field),
+                new int[] { MAGIC, field, numBits, NUM_HASHES }, numBits / 8, new PageSidecar.Records() {
+                    public void read(int pgNo, DataInput in) throws IOException {
+                        emptyFilter(pgNo).readBits(in);
+                    }
+
+                    public void write(int pgNo, DataOutput out) throws IOException {
+                        filters.get(pgNo).writeBits(out);
+                    }
+                });
+        if (!sidecar.load(heapFile))
+            filters.clear();
+    }
+
+    /** @return the sidecar file that holds the filters over a field of a heap file */
+    public static File sidecarFile(File heapFile, int field) {
+        return new File(heapFile.getPath() + "." + field + ".bf");
+    }
+
+    /** @return the field the filters hold */
+    public int getField() {
+        return field;
+    }
+
+    private BloomFilter emptyFilter(int pgNo) {
+        while (filters.size() <= pgNo)
+            filters.add(null);
+        BloomFilter f = filters.get(pgNo);
+        if (f == null) {
+            f = new BloomFilter(numBits, NUM_HASHES);
+            filters.set(pgNo, f);
+        } else {
+            f.clear();
+        }
+        return f;
+    }
+
+    /** @return true if the filter of page pgNo is known */
+    public synchronized boolean isKnown(int pgNo) {
+        return pgNo < filters.size() && filters.get(pgNo) != null;
+    }
+
+    /**
+     * Rebuilds the filter of a page whose contents are on disk, and writes
+     * it to the sidecar.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        BloomFilter f = emptyFilter(pgNo);
+        if (intField) {
+            for (int v : page.getIntColumn(field))
+                f.add(v);
+        } else {
+            for (Tuple t : page.getAllTuples())
+                f.add(t.getField(field));
+        }
+        sidecar.write(pgNo);
+    }
+
+    /**
+     * Builds the filter of a page read by a scan, if it is not known yet and
+     * the page has no unwritten changes.
+     */
+    public synchronized void learn(HeapPage page) throws IOException {
+        if (!isKnown(page.getId().pageNumber()) && page.isDirty() == null)
+            update(page);
+    }
+
+    /** Records that page pgNo was just appended to the file, empty. */
+    public synchronized void setEmpty(int pgNo) throws IOException {
+        emptyFilter(pgNo);
+        sidecar.write(pgNo);
+    }
+
+    /**
+     * Adds the key of a tuple inserted into page pgNo. The change reaches
+     * the sidecar when the page is written.
+     */
+    public synchronized void add(int pgNo, Tuple t) {
+        if (isKnown(pgNo))
+            filters.get(pgNo).add(t.getField(field));
+    }
+
+    /**
+     * @return false if no tuple on page pgNo has the given key; true if one
+     *         may, or if the page's filter is not known
+     */
+    public synchronized boolean mayContain(int pgNo, Field key) {
+        return !isKnown(pgNo) || filters.get(pgNo).mightContain(key);
+    }
+}
@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * A sidecar file next to a heap file that holds one fixed-size record per
+ * page, used by {@link ZoneMap} and {@link PageBloomFilter}. The file is a
+ * header of ints (a magic number followed by whatever the owner needs to
+ * recognize its own records) and then one record per page: a byte that is 1
+ * when the page's record is known, then the owner's body of the record.
+ * <p>
+ * A sidecar older than its heap file (e.g. after the heap file was
+ * rewritten by HeapFileEncoder), or one whose header does not match, is
+ * discarded when it is loaded.
+ */
+final class PageSidecar {
+
+    /** Reads and writes the body of the records of a sidecar. */
+    interface Records {
+        /** Reads the body of the known record of page pgNo. */
+        void read(int pgNo, DataInput in) throws IOException;
+
+        /** Writes the body of the record of page pgNo. */
+        void write(int pgNo, DataOutput out) throws IOException;
+    }
+
+    private final File file;
+    private final int[] header;
+    private final int recordSize;
+    private final Records records;
+
+    /**
+     * @param file the sidecar file
+     * @param header the ints the file must start with
+     * @param bodySize the size in bytes of the body of each record
+     * @param records reads and writes the bodies of the records
+     */
+    PageSidecar(File file, int[] header, int bodySize, Records records) {
+        this.file = file;
+        this.header = header.clone();
+        this.recordSize = 1 + bodySize;
+        this.records = records;
+    }
+
+    private long headerSize() {
+        return 4L * header.length;
+    }
+
+    /**
+     * Reads the known records of the sidecar, if it is present and up to
+     * date with heapFile, and deletes it otherwise.
+     *
+     * @return false if the sidecar was discarded, in which case the owner
+     *         must forget any records already read
+     */
+    boolean load(File heapFile) {
+        if (!file.exists())
+            return true;
+        boolean loaded = false;
+        if (file.lastModified() >= heapFile.lastModified()) {
+            try {
+                loaded = read();
+            } catch (IOException e) {
+                loaded = false;
+            }
+        }
+        if (!loaded)
+            file.delete();
+        return loaded;
+    }
+
+    /** @return false if the sidecar does not start with the header */
+    private boolean read() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            for (int h : header) {
+                if (in.readInt() != h)
+                    return false;
+            }
+            int pages = (int) ((file.length() - headerSize()) / recordSize);
+            for (int p = 0; p < pages; p++) {
+                if (in.readByte() == 1)
+                    records.read(p, in);
+                else
+                    in.readFully(new byte[recordSize - 1]);
+            }
+            return true;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Writes the record of page pgNo as known, and the header if the file
+     * does not have one yet.
+     */
+    void write(int pgNo) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            if (raf.length() < headerSize()) {
+                for (int h : header)
+                    raf.writeInt(h);
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(recordSize);
+            DataOutputStream dos = new DataOutputStream(baos);
+            dos.writeByte(1);
+            records.write(pgNo, dos);
+            // pages between the old end of the sidecar and this one read
+            // back as unknown, since their flag bytes are zero
+            raf.seek(headerSize() + (long) pgNo * recordSize);
+            raf.write(baos.toByteArray());
+        } finally {
+            raf.close();
+        }
+    }
+}
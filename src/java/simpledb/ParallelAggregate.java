@@ -0,0 +1,230 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelAggregate computes the same result as {@link Aggregate} over a
+ * whole HeapFile, using morsel-driven parallelism. One worker task per pool
+ * thread pulls morsels from a shared {@link MorselDispenser} and folds their
+ * tuples into its own {@link HashAggregator}, so workers never contend on a
+ * shared table. When the file is exhausted the partial aggregates are merged
+ * pairwise, again in parallel, into the final result.
+ * <p>
+ * Partial aggregates are kept in memory; unlike Aggregate this operator does
+ * not spill.
+ */
+public class ParallelAggregate extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private int afield;
+    private int gfield;
+    private Aggregator.Op aop;
+    private transient ForkJoinPool pool;
+    private int morselPages;
+
+    private HashAggregator result = null;
+    private DbIterator resultIt = null;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction the table is read under
+     * @param tableid
+     *            the table to aggregate; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias used to name the output fields, as in SeqScan
+     * @param afield
+     *            the column over which we are computing an aggregate
+     * @param gfield
+     *            the column over which we are grouping the result, or -1 if
+     *            there is no grouping
+     * @param aop
+     *            the aggregation operator to use
+     * @param pool
+     *            the pool whose workers scan and aggregate
+     * @param morselPages
+     *            the number of pages a worker claims at a time
+     */
+    public ParallelAggregate(TransactionId tid, int tableid, String tableAlias, int afield,
+            int gfield, Aggregator.Op aop, ForkJoinPool pool, int morselPages) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        if (aop != Aggregator.Op.COUNT && td.getFieldType(afield) == Type.STRING_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields, got " + aop);
+
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.pool = pool;
+        this.morselPages = morselPages;
+    }
+
+    public ParallelAggregate(TransactionId tid, int tableid, String tableAlias, int afield,
+            int gfield, Aggregator.Op aop) {
+        this(tid, tableid, tableAlias, afield, gfield, aop, ForkJoinPool.commonPool(),
+                ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+    }
+
+    private TupleDesc inputTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    public int groupField() {
+        return this.gfield;
+    }
+
+    public int aggregateField() {
+        return this.afield;
+    }
+
+    public Aggregator.Op aggregateOp() {
+        return this.aop;
+    }
+
+    /**
+     * Returns the TupleDesc of the result, named as by {@link Aggregate}.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc input = inputTupleDesc();
+        String aggName = Aggregate.nameOfAggregatorOp(aop) + "(" + input.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            return new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName });
+
+        return new TupleDesc(new Type[] { input.getFieldType(gfield), Type.INT_TYPE },
+                new String[] { input.getFieldName(gfield), aggName });
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        TupleDesc td = file.getTupleDesc();
+        Type gtype = gfield == Aggregator.NO_GROUPING ? null : td.getFieldType(gfield);
+        Type atype = td.getFieldType(afield);
+
+        MorselDispenser dispenser = new MorselDispenser(tid, file, morselPages);
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        int workers = pool.getParallelism();
+        HashAggregator[] partials = new HashAggregator[workers];
+        List<ForkJoinTask<?>> tasks = new ArrayList<ForkJoinTask<?>>();
+        for (int i = 0; i < workers; i++) {
+            partials[i] = new HashAggregator(gfield, gtype, afield, atype, aop, Integer.MAX_VALUE);
+            tasks.add(new PartialTask(dispenser, partials[i], failure));
+        }
+
+        pool.invoke(new MergeTask(tasks, partials, 0, workers));
+        Throwable t = failure.get();
+        if (t instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) t;
+        if (t != null)
+            throw new DbException("parallel aggregate failed: " + t);
+
+        result = partials[0];
+        resultIt = result.iterator();
+        resultIt.open();
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (resultIt != null && resultIt.hasNext())
+            return resultIt.next();
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        resultIt.rewind();
+    }
+
+    public void close() {
+        super.close();
+        if (resultIt != null) {
+            resultIt.close();
+            resultIt = null;
+        }
+        result = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+
+    /**
+     * Aggregates morsels into one thread-local partial until the dispenser
+     * runs dry.
+     */
+    private static class PartialTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final MorselDispenser dispenser;
+        private final HashAggregator partial;
+        private final AtomicReference<Throwable> failure;
+
+        PartialTask(MorselDispenser dispenser, HashAggregator partial,
+                AtomicReference<Throwable> failure) {
+            this.dispenser = dispenser;
+            this.partial = partial;
+            this.failure = failure;
+        }
+
+        protected void compute() {
+            ArrayList<Tuple> morsel = new ArrayList<Tuple>();
+            try {
+                while (failure.get() == null && dispenser.nextMorsel(morsel)) {
+                    for (Tuple t : morsel)
+                        partial.mergeTupleIntoGroup(t);
+                    morsel.clear();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+    /**
+     * Runs the partial tasks for partials [lo, hi) and merges their results
+     * into partials[lo], splitting the range in half so that merges of
+     * disjoint pairs run concurrently.
+     */
+    private static class MergeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final List<ForkJoinTask<?>> tasks;
+        private final HashAggregator[] partials;
+        private final int lo;
+        private final int hi;
+
+        MergeTask(List<ForkJoinTask<?>> tasks, HashAggregator[] partials, int lo, int hi) {
+            this.tasks = tasks;
+            this.partials = partials;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo == 1) {
+                tasks.get(lo).invoke();
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new MergeTask(tasks, partials, lo, mid),
+                    new MergeTask(tasks, partials, mid, hi));
+            partials[lo].mergeAggregator(partials[mid]);
+            partials[mid] = null;
+        }
+    }
+}
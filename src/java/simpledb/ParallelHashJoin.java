@@ -0,0 +1,448 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelHashJoin is a morsel-driven parallel equi-join of two HeapFiles.
+ * <p>
+ * The join runs in three phases on a ForkJoinPool, with one worker task per
+ * pool thread in each phase:
+ * <ol>
+ * <li>Build: workers pull morsels of the inner (second) table from a shared
+ * {@link MorselDispenser} and insert the tuples into thread-local hash
+ * tables, already split into one partition per worker by join key.</li>
+ * <li>Merge: worker p merges partition p of every thread-local table into
+ * the final table for that partition. Partitions are disjoint, so no
+ * locking is needed.</li>
+ * <li>Probe: workers pull morsels of the outer (first) table, look up each
+ * tuple in the read-only final table, and push batches of joined tuples
+ * into a bounded queue read by the consuming thread.</li>
+ * </ol>
+ * After the merge, the build keys are summarized in a {@link BloomFilter}
+ * that the probe workers apply to each outer page's join column as they
+ * claim it, so outer tuples without a match (most of them, in a star join
+ * against a filtered dimension) are dropped before the hash lookup.
+ * The number of partitions follows the pool's parallelism, so nothing needs
+ * tuning per query. Build and merge complete in open(); probe output is
+ * returned in no particular order as workers produce it.
+ */
+public class ParallelHashJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of batches of joined tuples buffered for the consumer. */
+    public static final int OUTPUT_CAPACITY = 64;
+
+    // joined tuples are handed to the consumer in batches of this size
+    private static final int BATCH_SIZE = 256;
+
+    // marks the end of the probe phase in the output queue
+    private static final List<Tuple> END = Collections.unmodifiableList(new ArrayList<Tuple>());
+
+    private TransactionId tid;
+    private JoinPredicate p;
+    private int tableId1;
+    private String alias1;
+    private int tableId2;
+    private String alias2;
+    private transient ForkJoinPool pool;
+    private int morselPages;
+    private TupleDesc td;
+
+    // final build table, one map per partition
+    private transient HashMap<Field, ArrayList<Tuple>>[] table = null;
+    // the keys of the build table
+    private transient BloomFilter keys = null;
+    private transient Probe probe = null;
+    private Iterator<Tuple> batch = null;
+    private boolean finished = false;
+
+    /**
+     * Constructor.
+     *
+     * @param tid
+     *            the transaction both tables are read under
+     * @param p
+     *            the join predicate; its operator must be
+     *            Predicate.Op.EQUALS. Field1 refers to the first table and
+     *            field2 to the second.
+     * @param tableId1
+     *            the outer (probe) table
+     * @param alias1
+     *            the alias of the outer table
+     * @param tableId2
+     *            the inner (build) table
+     * @param alias2
+     *            the alias of the inner table
+     * @param pool
+     *            the pool whose workers run the join
+     * @param morselPages
+     *            the number of pages a worker claims at a time
+     * @throws IllegalArgumentException
+     *            if the predicate is not an equality predicate
+     */
+    public ParallelHashJoin(TransactionId tid, JoinPredicate p, int tableId1, String alias1,
+            int tableId2, String alias2, ForkJoinPool pool, int morselPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("ParallelHashJoin only supports equality predicates, got " + p.getOperator());
+        if (!(Database.getCatalog().getDbFile(tableId1) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableId1 + " is not a HeapFile");
+        if (!(Database.getCatalog().getDbFile(tableId2) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableId2 + " is not a HeapFile");
+
+        this.tid = tid;
+        this.p = p;
+        this.tableId1 = tableId1;
+        this.alias1 = alias1;
+        this.tableId2 = tableId2;
+        this.alias2 = alias2;
+        this.pool = pool;
+        this.morselPages = morselPages;
+        this.td = TupleDesc.merge(
+                SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId1), alias1),
+                SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId2), alias2));
+    }
+
+    public ParallelHashJoin(TransactionId tid, JoinPredicate p, int tableId1, String alias1,
+            int tableId2, String alias2) {
+        this(tid, p, tableId1, alias1, tableId2, alias2, ForkJoinPool.commonPool(),
+                ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    public String getJoinField1Name() {
+        return td.getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        int n1 = Database.getCatalog().getTupleDesc(tableId1).numFields();
+        return td.getFieldName(n1 + p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    private static int partitionOf(Field key, int partitions) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return ((h ^ (h >>> 16)) & 0x7fffffff) % partitions;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        int workers = pool.getParallelism();
+        AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+        // build thread-local tables
+        HeapFile inner = (HeapFile) Database.getCatalog().getDbFile(tableId2);
+        MorselDispenser buildMorsels = new MorselDispenser(tid, inner, morselPages);
+        HashMap<Field, ArrayList<Tuple>>[][] local = Utility.newArray(HashMap[].class, workers);
+        List<BuildTask> builds = new ArrayList<BuildTask>();
+        for (int w = 0; w < workers; w++)
+            builds.add(new BuildTask(buildMorsels, local, w, failure));
+        invokePhase(builds, failure);
+
+        // merge partition p of every local table into table[p]
+        HashMap<Field, ArrayList<Tuple>>[] merged = Utility.newArray(HashMap.class, workers);
+        List<MergeTask> merges = new ArrayList<MergeTask>();
+        for (int part = 0; part < workers; part++)
+            merges.add(new MergeTask(local, merged, part));
+        invokePhase(merges, failure);
+        table = merged;
+        int numKeys = 0;
+        for (HashMap<Field, ArrayList<Tuple>> part : merged)
+            numKeys += part.size();
+        keys = BloomFilter.forKeys(numKeys, BloomFilter.DEFAULT_FPP);
+        for (HashMap<Field, ArrayList<Tuple>> part : merged) {
+            for (Field key : part.keySet())
+                keys.add(key);
+        }
+
+        // probe asynchronously; the consumer reads from the output queue
+        HeapFile outer = (HeapFile) Database.getCatalog().getDbFile(tableId1);
+        final Probe pr = new Probe(new MorselDispenser(tid, outer, morselPages), workers);
+        probe = pr;
+        batch = null;
+        finished = false;
+        for (int w = 0; w < workers; w++)
+            pool.execute(new ProbeTask(pr, table, keys));
+
+        super.open();
+    }
+
+    private void invokePhase(List<? extends ForkJoinTask<?>> tasks,
+            AtomicReference<Throwable> failure) throws DbException, TransactionAbortedException {
+        final List<? extends ForkJoinTask<?>> all = tasks;
+        pool.invoke(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                invokeAll(all);
+            }
+        });
+        Throwable t = failure.get();
+        if (t instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) t;
+        if (t != null)
+            throw new DbException("parallel hash join failed: " + t);
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (batch == null || !batch.hasNext()) {
+            if (finished)
+                return null;
+
+            List<Tuple> next;
+            try {
+                next = probe.output.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for join workers");
+            }
+
+            if (next == END) {
+                finished = true;
+                Throwable t = probe.failure.get();
+                if (t instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) t;
+                if (t != null)
+                    throw new DbException("parallel hash join failed: " + t);
+                return null;
+            }
+            batch = next.iterator();
+        }
+        return batch.next();
+    }
+
+    /**
+     * Restarts the probe phase; the build table is reused.
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        stopProbe();
+        HeapFile outer = (HeapFile) Database.getCatalog().getDbFile(tableId1);
+        int workers = table.length;
+        Probe pr = new Probe(new MorselDispenser(tid, outer, morselPages), workers);
+        probe = pr;
+        batch = null;
+        finished = false;
+        for (int w = 0; w < workers; w++)
+            pool.execute(new ProbeTask(pr, table, keys));
+    }
+
+    public void close() {
+        super.close();
+        stopProbe();
+        table = null;
+        keys = null;
+        batch = null;
+    }
+
+    private void stopProbe() {
+        if (probe != null) {
+            probe.cancelled = true;
+            probe.output.clear();
+            probe = null;
+        }
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+
+    /**
+     * Inserts morsels of the inner table into one worker's partitioned local
+     * table.
+     */
+    private class BuildTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final MorselDispenser morsels;
+        private final HashMap<Field, ArrayList<Tuple>>[][] local;
+        private final int worker;
+        private final AtomicReference<Throwable> failure;
+
+        BuildTask(MorselDispenser morsels, HashMap<Field, ArrayList<Tuple>>[][] local,
+                int worker, AtomicReference<Throwable> failure) {
+            this.morsels = morsels;
+            this.local = local;
+            this.worker = worker;
+            this.failure = failure;
+        }
+
+        protected void compute() {
+            int partitions = local.length;
+            HashMap<Field, ArrayList<Tuple>>[] parts = Utility.newArray(HashMap.class, partitions);
+            for (int i = 0; i < partitions; i++)
+                parts[i] = new HashMap<Field, ArrayList<Tuple>>();
+            local[worker] = parts;
+
+            ArrayList<Tuple> morsel = new ArrayList<Tuple>();
+            try {
+                while (failure.get() == null && morsels.nextMorsel(morsel)) {
+                    for (Tuple t : morsel) {
+                        Field key = t.getField(p.getField2());
+                        HashMap<Field, ArrayList<Tuple>> part = parts[partitionOf(key, partitions)];
+                        ArrayList<Tuple> matches = part.get(key);
+                        if (matches == null) {
+                            matches = new ArrayList<Tuple>(2);
+                            part.put(key, matches);
+                        }
+                        matches.add(t);
+                    }
+                    morsel.clear();
+                }
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }
+    }
+
+    /**
+     * Merges one partition of every local table into the final table.
+     */
+    private static class MergeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final HashMap<Field, ArrayList<Tuple>>[][] local;
+        private final HashMap<Field, ArrayList<Tuple>>[] merged;
+        private final int part;
+
+        MergeTask(HashMap<Field, ArrayList<Tuple>>[][] local,
+                HashMap<Field, ArrayList<Tuple>>[] merged, int part) {
+            this.local = local;
+            this.merged = merged;
+            this.part = part;
+        }
+
+        protected void compute() {
+            // start from the largest local partition to copy the fewest entries
+            int largest = 0;
+            for (int w = 1; w < local.length; w++) {
+                if (local[w][part].size() > local[largest][part].size())
+                    largest = w;
+            }
+
+            HashMap<Field, ArrayList<Tuple>> target = local[largest][part];
+            for (int w = 0; w < local.length; w++) {
+                if (w == largest)
+                    continue;
+                for (Map.Entry<Field, ArrayList<Tuple>> e : local[w][part].entrySet()) {
+                    ArrayList<Tuple> matches = target.get(e.getKey());
+                    if (matches == null)
+                        target.put(e.getKey(), e.getValue());
+                    else
+                        matches.addAll(e.getValue());
+                }
+                local[w][part] = null;
+            }
+            merged[part] = target;
+        }
+    }
+
+    /**
+     * The output queue and status shared by the probe workers of one pass.
+     */
+    private static class Probe {
+        final MorselDispenser morsels;
+        final BoundedQueue<List<Tuple>> output = new BoundedQueue<List<Tuple>>(OUTPUT_CAPACITY);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicInteger liveWorkers;
+        // set when the consumer closes or rewinds the join
+        volatile boolean cancelled = false;
+
+        Probe(MorselDispenser morsels, int workers) {
+            this.morsels = morsels;
+            this.liveWorkers = new AtomicInteger(workers);
+        }
+
+        boolean stopping() {
+            return cancelled || failure.get() != null;
+        }
+
+        /**
+         * Hands one batch to the consumer, blocking (as a managed blocker,
+         * so the pool can compensate) while the queue is full. Gives up if
+         * the consumer has stopped this pass.
+         */
+        void publish(final List<Tuple> tuples) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean done = false;
+
+                    public boolean block() throws InterruptedException {
+                        while (!done && !cancelled)
+                            done = output.offer(tuples, 10, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        if (!done && !cancelled)
+                            done = output.offer(tuples);
+                        return done || cancelled;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Probes morsels of the outer table against the final build table. The
+     * last worker to finish publishes the end marker.
+     */
+    private class ProbeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Probe probe;
+        private final HashMap<Field, ArrayList<Tuple>>[] table;
+        private final BloomFilter keys;
+
+        ProbeTask(Probe probe, HashMap<Field, ArrayList<Tuple>>[] table, BloomFilter keys) {
+            this.probe = probe;
+            this.table = table;
+            this.keys = keys;
+        }
+
+        protected void compute() {
+            ArrayList<Tuple> morsel = new ArrayList<Tuple>();
+            ArrayList<Tuple> out = new ArrayList<Tuple>(BATCH_SIZE);
+            try {
+                while (!probe.stopping() && probe.morsels.nextMorsel(morsel, p.getField1(), keys)) {
+                    for (Tuple t : morsel) {
+                        Field key = t.getField(p.getField1());
+                        ArrayList<Tuple> matches = table[partitionOf(key, table.length)].get(key);
+                        if (matches == null)
+                            continue;
+                        for (Tuple m : matches) {
+                            out.add(mergeTuples(td, t, m));
+                            if (out.size() >= BATCH_SIZE) {
+                                probe.publish(out);
+                                out = new ArrayList<Tuple>(BATCH_SIZE);
+                            }
+                        }
+                    }
+                    morsel.clear();
+                }
+                if (!out.isEmpty() && !probe.stopping())
+                    probe.publish(out);
+            } catch (Throwable t) {
+                probe.failure.compareAndSet(null, t);
+            } finally {
+                if (probe.liveWorkers.decrementAndGet() == 0)
+                    probe.publish(END);
+            }
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelSeqScan reads every tuple of a HeapFile, like {@link SeqScan}, but
+ * splits the page range [0, numPages()) into morsels of a few pages and
+ * reads them concurrently on a ForkJoinPool. Worker tasks push one batch of
+ * tuples per page into a bounded exchange queue, from which the consuming
+ * thread returns tuples through the usual DbIterator interface.
+ * <p>
+ * Tuples are returned in no particular order. The exchange queue is bounded,
+ * so workers block (as ForkJoinPool managed blockers, letting the pool
+ * compensate) when the consumer falls behind.
+ */
+public class ParallelSeqScan implements DbIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Default number of pages read by one worker task. */
+    public static final int DEFAULT_MORSEL_PAGES = 4;
+
+    /** Number of page batches that may be buffered between workers and the consumer. */
+    public static final int EXCHANGE_CAPACITY = 64;
+
+    // marks the end of the scan in the exchange queue
+    private static final List<Tuple> END = Collections.unmodifiableList(new ArrayList<Tuple>());
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private transient ForkJoinPool pool;
+    private int morselPages;
+
+    // state of the current pass; replaced on every open() so that workers of
+    // a closed pass can never publish into a later one
+    private transient Run run = null;
+    private Iterator<Tuple> batch = null;
+    private boolean finished = false;
+
+    /**
+     * Creates a parallel sequential scan over the specified table.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     * @param pool
+     *            the pool whose workers read the pages
+     * @param morselPages
+     *            number of consecutive pages read by one worker task
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+            ForkJoinPool pool, int morselPages) {
+        if (morselPages < 1)
+            throw new IllegalArgumentException("morsel must span at least one page, got " + morselPages);
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.pool = pool;
+        this.morselPages = morselPages;
+    }
+
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, ForkJoinPool.commonPool(), DEFAULT_MORSEL_PAGES);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /**
+     * @return the name of the table this operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.tableId);
+    }
+
+    public TupleDesc getTupleDesc() {
+        TupleDesc tupleDesc = Database.getCatalog().getDbFile(this.tableId).getTupleDesc();
+        return SeqScan.aliasedTupleDesc(tupleDesc, this.tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        final Run r = new Run();
+        run = r;
+        batch = null;
+        finished = false;
+
+        final RangeTask root = new RangeTask(r, file, 0, file.numPages());
+        pool.execute(new RecursiveAction() {
+            private static final long serialVersionUID = 1L;
+
+            protected void compute() {
+                try {
+                    root.invoke();
+                } catch (Throwable t) {
+                    r.failure.compareAndSet(null, t);
+                } finally {
+                    r.publish(END);
+                }
+            }
+        });
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (run == null)
+            throw new IllegalStateException("ParallelSeqScan not yet open");
+
+        while (batch == null || !batch.hasNext()) {
+            if (finished)
+                return false;
+
+            List<Tuple> next;
+            try {
+                next = run.exchange.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted while waiting for scan workers");
+            }
+
+            if (next == END) {
+                finished = true;
+                Throwable t = run.failure.get();
+                if (t instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) t;
+                if (t != null)
+                    throw new DbException("parallel scan failed: " + t);
+                return false;
+            }
+            batch = next.iterator();
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException,
+            NoSuchElementException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.next();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * Stops the workers. Tasks that have not started are skipped, and any
+     * worker waiting on a full exchange queue gives up.
+     */
+    public void close() {
+        if (run != null) {
+            run.cancelled = true;
+            run.exchange.clear();
+            run = null;
+        }
+        batch = null;
+    }
+
+    /**
+     * The exchange queue and status shared by the workers of one pass.
+     */
+    private static class Run {
+        final BlockingQueue<List<Tuple>> exchange =
+                new ArrayBlockingQueue<List<Tuple>>(EXCHANGE_CAPACITY);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        // set when the consumer closes the scan
+        volatile boolean cancelled = false;
+
+        /** @return true if workers should stop reading pages */
+        boolean stopping() {
+            return cancelled || failure.get() != null;
+        }
+
+        /**
+         * Hands one batch to the consumer, blocking while the exchange is
+         * full. Gives up if the consumer has closed the scan.
+         */
+        void publish(final List<Tuple> tuples) {
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    private boolean done = false;
+
+                    public boolean block() throws InterruptedException {
+                        while (!done && !cancelled)
+                            done = exchange.offer(tuples, 10, TimeUnit.MILLISECONDS);
+                        return true;
+                    }
+
+                    public boolean isReleasable() {
+                        if (!done && !cancelled)
+                            done = exchange.offer(tuples);
+                        return done || cancelled;
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reads pages [start, end), splitting the range in half until it is no
+     * larger than one morsel.
+     */
+    private class RangeTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Run run;
+        private final HeapFile file;
+        private final int start;
+        private final int end;
+
+        RangeTask(Run run, HeapFile file, int start, int end) {
+            this.run = run;
+            this.file = file;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute() {
+            if (run.stopping())
+                return;
+
+            if (end - start > morselPages) {
+                int mid = (start + end) >>> 1;
+                invokeAll(new RangeTask(run, file, start, mid), new RangeTask(run, file, mid, end));
+                return;
+            }
+
+            try {
+                for (int pgNo = start; pgNo < end && !run.stopping(); pgNo++) {
+                    PageId pid = new HeapPageId(file.getId(), pgNo);
+                    HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    List<Tuple> tuples = page.getAllTuples();
+                    if (!tuples.isEmpty())
+                        run.publish(tuples);
+                }
+            } catch (Exception e) {
+                run.failure.compareAndSet(null, e);
+            }
+        }
+    }
+}
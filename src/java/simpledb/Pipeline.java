@@ -0,0 +1,317 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * A Pipeline is a chain of push operators driven by a {@link PushSource}.
+ * It is the push-based alternative to a tree of DbIterators: the source
+ * loops over its tuples and calls straight into the next operator, so the
+ * per-tuple cost of each stage is one (usually inlined) push() call instead
+ * of a hasNext()/next() pair with checked exceptions.
+ * <p>
+ * Pipelines are built front to back:
+ * <pre>
+ * PushHashBuild build = new Pipeline(new PushScan(tid, dimId, "d")).build(0);
+ * List&lt;Tuple&gt; result = new Pipeline(new PushScan(tid, factId, "f"))
+ *         .filter(new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(10)))
+ *         .probe(build, 1)
+ *         .aggregate(2, 4, Aggregator.Op.SUM)
+ *         .collect();
+ * </pre>
+ * Existing operators plug in at either end: {@link IteratorSource} drives a
+ * pipeline from any DbIterator, and {@link #iterator()} exposes a pipeline
+ * as a DbIterator.
+ */
+public class Pipeline {
+
+    private final PushSource source;
+    private final ArrayList<PushOperator> operators = new ArrayList<PushOperator>();
+    // predicates and runtime filters pushed into the source scan; the
+    // caller may reuse the scan, so they are only added to it while the
+    // pipeline runs
+    private final ArrayList<Predicate> scanPredicates = new ArrayList<Predicate>();
+    private final ArrayList<Integer> scanFilterFields = new ArrayList<Integer>();
+    private final ArrayList<BloomFilter> scanFilters = new ArrayList<BloomFilter>();
+    private boolean scanFiltersAdded = false;
+
+    public Pipeline(PushSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Creates a pipeline that is driven by an existing DbIterator.
+     */
+    public Pipeline(DbIterator child) {
+        this(new IteratorSource(child));
+    }
+
+    /**
+     * @return the TupleDesc of the tuples leaving the last operator
+     */
+    public TupleDesc getTupleDesc() {
+        if (operators.isEmpty())
+            return source.getTupleDesc();
+        return operators.get(operators.size() - 1).getTupleDesc();
+    }
+
+    /**
+     * Appends an operator to the chain.
+     *
+     * @return this pipeline
+     */
+    public Pipeline then(PushOperator op) {
+        if (!operators.isEmpty())
+            operators.get(operators.size() - 1).setNext(op);
+        operators.add(op);
+        return this;
+    }
+
+    /**
+     * Drops the tuples that do not satisfy p. A predicate on an INT_TYPE
+     * field that directly follows a {@link PushScan} is evaluated inside
+     * the scan, a page at a time, by the {@link IntFilterKernels}.
+     */
+    public Pipeline filter(Predicate p) {
+        if (operators.isEmpty() && source instanceof PushScan && ((PushScan) source).canPushDown(p)) {
+            scanPredicates.add(p);
+            return this;
+        }
+        return then(new PushFilter(p, getTupleDesc()));
+    }
+
+    public Pipeline project(int[] fields) {
+        return then(new PushProject(fields, getTupleDesc()));
+    }
+
+    /**
+     * Joins the pipeline's tuples with a built hash table on equality of
+     * probeField and the build key. If the build is complete and no earlier
+     * operator changes the source's tuples, the Bloom filter of the build
+     * keys is pushed into the source scan, so tuples without a match are
+     * dropped before they enter the pipeline. The filter applies only
+     * while this pipeline runs.
+     */
+    public Pipeline probe(PushHashBuild build, int probeField) {
+        if (build.isBuilt() && onlyFilters() && (source instanceof PushScan || seqScan() != null)) {
+            scanFilterFields.add(probeField);
+            scanFilters.add(build.getBloomFilter());
+        }
+        return then(new PushHashProbe(build, probeField, getTupleDesc()));
+    }
+
+    /** @return the SeqScan the source pulls from, or null */
+    private SeqScan seqScan() {
+        if (source instanceof IteratorSource && ((IteratorSource) source).getChild() instanceof SeqScan)
+            return (SeqScan) ((IteratorSource) source).getChild();
+        return null;
+    }
+
+    /**
+     * Adds the pushed-down predicates and runtime filters to the source
+     * scan and opens the source.
+     */
+    private void openSource() throws DbException, TransactionAbortedException {
+        addScanFilters();
+        boolean opened = false;
+        try {
+            source.open();
+            opened = true;
+        } finally {
+            if (!opened)
+                removeScanFilters();
+        }
+    }
+
+    /**
+     * Closes the source and takes the pushed-down predicates and runtime
+     * filters out of the source scan again.
+     */
+    private void closeSource() {
+        try {
+            source.close();
+        } finally {
+            removeScanFilters();
+        }
+    }
+
+    private void addScanFilters() {
+        if (scanFiltersAdded)
+            return;
+        scanFiltersAdded = true;
+        if (source instanceof PushScan) {
+            PushScan scan = (PushScan) source;
+            for (Predicate p : scanPredicates)
+                scan.addPredicate(p);
+            for (int i = 0; i < scanFilters.size(); i++)
+                scan.addRuntimeFilter(scanFilterFields.get(i), scanFilters.get(i));
+        } else if (seqScan() != null) {
+            for (int i = 0; i < scanFilters.size(); i++)
+                seqScan().addRuntimeFilter(scanFilterFields.get(i), scanFilters.get(i));
+        }
+    }
+
+    private void removeScanFilters() {
+        if (!scanFiltersAdded)
+            return;
+        scanFiltersAdded = false;
+        if (source instanceof PushScan) {
+            PushScan scan = (PushScan) source;
+            for (Predicate p : scanPredicates)
+                scan.removePredicate(p);
+            for (BloomFilter f : scanFilters)
+                scan.removeRuntimeFilter(f);
+        } else if (seqScan() != null) {
+            for (BloomFilter f : scanFilters)
+                seqScan().removeRuntimeFilter(f);
+        }
+    }
+
+    /** @return true if every operator so far is a filter */
+    private boolean onlyFilters() {
+        for (PushOperator op : operators) {
+            if (!(op instanceof PushFilter))
+                return false;
+        }
+        return true;
+    }
+
+    public Pipeline aggregate(int afield, int gfield, Aggregator.Op aop) {
+        return then(new PushAggregate(afield, gfield, aop, getTupleDesc()));
+    }
+
+    /**
+     * Runs the pipeline to completion, pushing its output into sink.
+     */
+    public void run(PushSink sink) throws DbException, TransactionAbortedException {
+        PushSink head = connect(sink);
+        openSource();
+        try {
+            while (source.pushBatch(head))
+                ;
+            head.finish();
+        } finally {
+            closeSource();
+        }
+    }
+
+    /**
+     * Runs the pipeline into a hash table on keyField of its output.
+     */
+    public PushHashBuild build(int keyField) throws DbException, TransactionAbortedException {
+        PushHashBuild build = new PushHashBuild(keyField, getTupleDesc());
+        run(build);
+        return build;
+    }
+
+    /**
+     * Runs the pipeline and returns its output.
+     */
+    public List<Tuple> collect() throws DbException, TransactionAbortedException {
+        Buffer buffer = new Buffer();
+        run(buffer);
+        return buffer.tuples;
+    }
+
+    /**
+     * @return a DbIterator that runs this pipeline one source batch at a
+     *         time as tuples are pulled from it
+     */
+    public DbIterator iterator() {
+        return new PipelineIterator();
+    }
+
+    /**
+     * Points the last operator at sink, resets every operator, and returns
+     * the head of the chain.
+     */
+    private PushSink connect(PushSink sink) {
+        for (PushOperator op : operators)
+            op.reset();
+        if (operators.isEmpty())
+            return sink;
+        operators.get(operators.size() - 1).setNext(sink);
+        return operators.get(0);
+    }
+
+    /** Terminal sink that keeps everything pushed into it. */
+    private static class Buffer implements PushSink {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+
+        public boolean push(Tuple t) {
+            tuples.add(t);
+            return true;
+        }
+
+        public void finish() {
+        }
+    }
+
+    /**
+     * Pull adapter: each time its buffer runs dry, pushes one more source
+     * batch through the pipeline into the buffer.
+     */
+    private class PipelineIterator extends Operator {
+
+        private static final long serialVersionUID = 1L;
+        private final Buffer buffer = new Buffer();
+        private PushSink head = null;
+        private int pos = 0;
+        private boolean exhausted = false;
+
+        public TupleDesc getTupleDesc() {
+            return Pipeline.this.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            head = connect(buffer);
+            openSource();
+            reset();
+            super.open();
+        }
+
+        private void reset() {
+            buffer.tuples.clear();
+            pos = 0;
+            exhausted = false;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (pos >= buffer.tuples.size()) {
+                if (exhausted)
+                    return null;
+                buffer.tuples.clear();
+                pos = 0;
+                if (!source.pushBatch(head)) {
+                    exhausted = true;
+                    head.finish();
+                }
+            }
+            return buffer.tuples.get(pos++);
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            clearLookahead();
+            closeSource();
+            head = connect(buffer);
+            openSource();
+            reset();
+        }
+
+        public void close() {
+            super.close();
+            closeSource();
+            buffer.tuples.clear();
+            for (PushOperator op : operators)
+                op.reset();
+        }
+
+        @Override
+        public DbIterator[] getChildren() {
+            return new DbIterator[0];
+        }
+
+        @Override
+        public void setChildren(DbIterator[] children) {
+        }
+    }
+}
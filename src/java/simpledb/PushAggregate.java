@@ -0,0 +1,90 @@
+package simpledb;
+
+/**
+ * Push-based aggregation: folds every pushed tuple into a
+ * {@link HashAggregator} and pushes the groups downstream from finish().
+ * The output has the same shape and field names as {@link Aggregate}.
+ */
+public class PushAggregate extends PushOperator {
+
+    private final int afield;
+    private final int gfield;
+    private final Aggregator.Op aop;
+    private final Type gtype;
+    private final Type atype;
+    private final TupleDesc td;
+    // groups of the current run; created on the first tuple so that the
+    // pipeline can be run again after finish()
+    private HashAggregator aggregator = null;
+
+    /**
+     * @param afield
+     *            the column over which we are computing an aggregate
+     * @param gfield
+     *            the column over which we are grouping, or
+     *            {@link Aggregator#NO_GROUPING}
+     * @param aop
+     *            the aggregation operator
+     * @param input
+     *            the TupleDesc of the pushed tuples
+     */
+    public PushAggregate(int afield, int gfield, Aggregator.Op aop, TupleDesc input) {
+        this.afield = afield;
+        this.gfield = gfield;
+        this.aop = aop;
+        this.gtype = gfield == Aggregator.NO_GROUPING ? null : input.getFieldType(gfield);
+        this.atype = input.getFieldType(afield);
+        if (aop != Aggregator.Op.COUNT && atype == Type.STRING_TYPE)
+            throw new IllegalArgumentException("only COUNT is supported over string fields, got " + aop);
+
+        String aggName = Aggregate.nameOfAggregatorOp(aop) + "(" + input.getFieldName(afield) + ")";
+        if (gfield == Aggregator.NO_GROUPING)
+            this.td = new TupleDesc(new Type[] { Type.INT_TYPE }, new String[] { aggName });
+        else
+            this.td = new TupleDesc(new Type[] { gtype, Type.INT_TYPE },
+                    new String[] { input.getFieldName(gfield), aggName });
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    private HashAggregator aggregator() {
+        if (aggregator == null)
+            aggregator = new HashAggregator(gfield, gtype, afield, atype, aop);
+        return aggregator;
+    }
+
+    public boolean push(Tuple t) {
+        aggregator().mergeTupleIntoGroup(t);
+        return true;
+    }
+
+    public void reset() {
+        if (aggregator != null) {
+            aggregator.discardSpill();
+            aggregator = null;
+        }
+    }
+
+    public void finish() throws DbException, TransactionAbortedException {
+        HashAggregator groupsAgg = aggregator();
+        aggregator = null;
+        DbIterator groups = groupsAgg.iterator();
+        groups.open();
+        try {
+            while (groups.hasNext()) {
+                Tuple g = groups.next();
+                Tuple out = new Tuple(td);
+                for (int i = 0; i < td.numFields(); i++)
+                    out.setField(i, g.getField(i));
+                if (!next.push(out))
+                    break;
+            }
+        } finally {
+            groups.close();
+            groupsAgg.discardSpill();
+        }
+        next.finish();
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+/**
+ * Push-based filter: passes on only the tuples that satisfy a predicate.
+ */
+public class PushFilter extends PushOperator {
+
+    private final Predicate p;
+    private final TupleDesc td;
+
+    /**
+     * @param p
+     *            the predicate tuples must satisfy
+     * @param td
+     *            the TupleDesc of the input
+     */
+    public PushFilter(Predicate p, TupleDesc td) {
+        this.p = p;
+        this.td = td;
+    }
+
+    public Predicate getPredicate() {
+        return this.p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public boolean push(Tuple t) {
+        if (!p.filter(t))
+            return true;
+        return next.push(t);
+    }
+}
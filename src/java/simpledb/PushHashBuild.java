@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Terminal sink of a build pipeline: inserts every tuple pushed into it
+ * into a hash table on one key field, for use by {@link PushHashProbe}.
+ * Once the input is consumed it also summarizes the keys in a
+ * {@link BloomFilter}, which the probe side pushes into its scan to drop
+ * tuples with no match before they reach the join.
+ */
+public class PushHashBuild implements PushSink {
+
+    private final int keyField;
+    private final TupleDesc td;
+    private final HashMap<Field, ArrayList<Tuple>> table = new HashMap<Field, ArrayList<Tuple>>();
+    private boolean built = false;
+    private BloomFilter keys = null;
+
+    /**
+     * @param keyField
+     *            the field tuples are hashed on
+     * @param td
+     *            the TupleDesc of the build input
+     */
+    public PushHashBuild(int keyField, TupleDesc td) {
+        this.keyField = keyField;
+        this.td = td;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public boolean push(Tuple t) {
+        Field key = t.getField(keyField);
+        ArrayList<Tuple> matches = table.get(key);
+        if (matches == null) {
+            matches = new ArrayList<Tuple>(2);
+            table.put(key, matches);
+        }
+        matches.add(t);
+        return true;
+    }
+
+    public void finish() {
+        keys = BloomFilter.forKeys(table.size(), BloomFilter.DEFAULT_FPP);
+        for (Field key : table.keySet())
+            keys.add(key);
+        built = true;
+    }
+
+    /**
+     * @return true once the build input has been completely consumed
+     */
+    public boolean isBuilt() {
+        return built;
+    }
+
+    /**
+     * @return a Bloom filter of the build keys
+     * @throws IllegalStateException if the build input is not consumed yet
+     */
+    public BloomFilter getBloomFilter() {
+        if (!built)
+            throw new IllegalStateException("hash table is not built yet");
+        return keys;
+    }
+
+    /**
+     * @return the build tuples with the given key, or null if there are none
+     */
+    public List<Tuple> lookup(Field key) {
+        return table.get(key);
+    }
+}
@@ -0,0 +1,45 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Push-based hash join probe: joins each pushed tuple with the matching
+ * tuples of a completed {@link PushHashBuild} on equality of the probe
+ * field and the build key, pushing probe fields followed by build fields.
+ */
+public class PushHashProbe extends PushOperator {
+
+    private final PushHashBuild build;
+    private final int probeField;
+    private final TupleDesc td;
+
+    /**
+     * @param build
+     *            the hash table to probe; it must be built before the first
+     *            tuple is pushed
+     * @param probeField
+     *            the field of the pushed tuples compared with the build key
+     * @param probeTd
+     *            the TupleDesc of the pushed tuples
+     */
+    public PushHashProbe(PushHashBuild build, int probeField, TupleDesc probeTd) {
+        this.build = build;
+        this.probeField = probeField;
+        this.td = TupleDesc.merge(probeTd, build.getTupleDesc());
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public boolean push(Tuple t) {
+        List<Tuple> matches = build.lookup(t.getField(probeField));
+        if (matches == null)
+            return true;
+        for (int i = 0; i < matches.size(); i++) {
+            if (!next.push(Operator.mergeTuples(td, t, matches.get(i))))
+                return false;
+        }
+        return true;
+    }
+}
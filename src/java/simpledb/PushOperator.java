@@ -0,0 +1,38 @@
+package simpledb;
+
+/**
+ * Base class of the intermediate operators of a push pipeline. Each
+ * operator transforms the tuples pushed into it and pushes its own output
+ * into the next sink of the chain.
+ */
+public abstract class PushOperator implements PushSink {
+
+    protected PushSink next;
+
+    /**
+     * Sets the sink this operator pushes its output into.
+     */
+    public void setNext(PushSink next) {
+        this.next = next;
+    }
+
+    public PushSink getNext() {
+        return this.next;
+    }
+
+    /**
+     * @return the TupleDesc of the tuples this operator pushes
+     */
+    public abstract TupleDesc getTupleDesc();
+
+    /**
+     * Drops any state accumulated from a previous, possibly unfinished, run
+     * of the pipeline. The default does nothing.
+     */
+    public void reset() {
+    }
+
+    public void finish() throws DbException, TransactionAbortedException {
+        next.finish();
+    }
+}
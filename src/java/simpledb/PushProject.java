@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * Push-based projection: keeps the given fields of each input tuple, in the
+ * given order.
+ */
+public class PushProject extends PushOperator {
+
+    private final int[] fields;
+    private final TupleDesc td;
+
+    /**
+     * @param fields
+     *            the input fields to keep
+     * @param input
+     *            the TupleDesc of the input
+     */
+    public PushProject(int[] fields, TupleDesc input) {
+        Type[] types = new Type[fields.length];
+        String[] names = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = input.getFieldType(fields[i]);
+            names[i] = input.getFieldName(fields[i]);
+        }
+        this.fields = fields.clone();
+        this.td = new TupleDesc(types, names);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public boolean push(Tuple t) {
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < fields.length; i++)
+            out.setField(i, t.getField(fields[i]));
+        return next.push(out);
+    }
+}
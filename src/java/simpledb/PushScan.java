@@ -0,0 +1,157 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * Push-based sequential scan of a HeapFile. Each batch is one page: the
+ * tuples of the page are pushed into the sink in a single loop, with one
+ * BufferPool lookup per page rather than per tuple.
+ * <p>
+ * Predicates on INT_TYPE fields can be pushed into the scan with
+ * {@link #addPredicate}; a {@link Pipeline} whose source is the scan does
+ * so for the duration of each run. They are evaluated by the {@link IntFilterKernels} over the
+ * page's decoded columns, giving a selection vector of the tuples to push.
+ * Runtime filters, Bloom filters of the keys of a hash join's build side,
+ * can be pushed in with {@link #addRuntimeFilter}. They narrow the same
+ * selection vector before any tuple is pushed, so probe tuples that cannot
+ * find a match never leave the scan.
+ */
+public class PushScan implements PushSource {
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private HeapFile file = null;
+    private int pageNo = 0;
+    private Predicate[] predicates = new Predicate[0];
+    private final ArrayList<Integer> filterFields = new ArrayList<Integer>();
+    private final ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+    private int[] sel = new int[0];
+    private long dropped = 0;
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     */
+    public PushScan(TransactionId tid, int tableid, String tableAlias) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    /**
+     * @return true if p can be evaluated inside the scan by
+     *         {@link #addPredicate}
+     */
+    public boolean canPushDown(Predicate p) {
+        return IntFilterKernels.applies(p, Database.getCatalog().getTupleDesc(tableId));
+    }
+
+    /**
+     * Drops the tuples that do not satisfy a predicate.
+     *
+     * @throws IllegalArgumentException
+     *             if the scan cannot evaluate p; see {@link #canPushDown}
+     */
+    public void addPredicate(Predicate p) {
+        if (!canPushDown(p))
+            throw new IllegalArgumentException("cannot evaluate " + p + " inside the scan");
+        predicates = Arrays.copyOf(predicates, predicates.length + 1);
+        predicates[predicates.length - 1] = p;
+    }
+
+    /** Stops evaluating a predicate added by {@link #addPredicate}. */
+    public void removePredicate(Predicate p) {
+        for (int i = 0; i < predicates.length; i++) {
+            if (predicates[i] == p) {
+                Predicate[] rest = new Predicate[predicates.length - 1];
+                System.arraycopy(predicates, 0, rest, 0, i);
+                System.arraycopy(predicates, i + 1, rest, i, rest.length - i);
+                predicates = rest;
+                return;
+            }
+        }
+    }
+
+    /**
+     * Drops the tuples whose field is not in a Bloom filter.
+     *
+     * @param field
+     *            the field of the scanned table the filter applies to
+     */
+    public void addRuntimeFilter(int field, BloomFilter filter) {
+        filterFields.add(field);
+        filters.add(filter);
+    }
+
+    /** Stops applying a filter added by {@link #addRuntimeFilter}. */
+    public void removeRuntimeFilter(BloomFilter filter) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i) == filter) {
+                filterFields.remove(i);
+                filters.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of tuples dropped by runtime filters since the scan
+     *         was created
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public void open() {
+        file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        pageNo = 0;
+    }
+
+    public boolean pushBatch(PushSink sink) throws DbException, TransactionAbortedException {
+        if (file == null)
+            throw new IllegalStateException("PushScan not yet open");
+        if (pageNo >= file.numPages())
+            return false;
+
+        PageId pid = new HeapPageId(tableId, pageNo++);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        List<Tuple> tuples = page.getAllTuples();
+        if (predicates.length == 0 && filters.isEmpty()) {
+            for (int i = 0, n = tuples.size(); i < n; i++) {
+                if (!sink.push(tuples.get(i)))
+                    return false;
+            }
+            return pageNo < file.numPages();
+        }
+
+        int n = tuples.size();
+        if (sel.length < n)
+            sel = new int[n];
+        int selCount = IntFilterKernels.select(predicates, page, n, sel);
+        int passed = selCount;
+        for (int j = 0; j < filters.size() && selCount > 0; j++)
+            selCount = filters.get(j).select(page, filterFields.get(j), sel, selCount, sel);
+        dropped += passed - selCount;
+        for (int j = 0; j < selCount; j++) {
+            if (!sink.push(tuples.get(sel[j])))
+                return false;
+        }
+        return pageNo < file.numPages();
+    }
+
+    public void close() {
+        file = null;
+    }
+}
@@ -0,0 +1,30 @@
+package simpledb;
+
+/**
+ * PushSink is the consumer interface of the push-based execution engine.
+ * Instead of pulling tuples from a child with hasNext()/next(), a producer
+ * (ultimately a {@link PushSource}) calls push() on the next operator of the
+ * pipeline for every tuple it produces, and finish() once at the end.
+ * <p>
+ * push() declares no checked exceptions so that a chain of operators
+ * compiles into plain nested calls the JIT can inline. Work that can fail
+ * (reading pages, spilling) happens in sources and in finish().
+ *
+ * @see Pipeline
+ */
+public interface PushSink {
+
+    /**
+     * Consumes one tuple.
+     *
+     * @return false if this sink needs no more tuples, in which case the
+     *         producer should stop pushing and call finish()
+     */
+    public boolean push(Tuple t);
+
+    /**
+     * Signals the end of the input. Pipeline breakers (hash build,
+     * aggregation) emit their results from here.
+     */
+    public void finish() throws DbException, TransactionAbortedException;
+}
@@ -0,0 +1,25 @@
+package simpledb;
+
+/**
+ * The driver at the bottom of a push pipeline. A source produces its tuples
+ * in batches and pushes each batch into a {@link PushSink}.
+ */
+public interface PushSource {
+
+    /**
+     * @return the TupleDesc of the tuples this source pushes
+     */
+    public TupleDesc getTupleDesc();
+
+    public void open() throws DbException, TransactionAbortedException;
+
+    /**
+     * Pushes the next batch of tuples into sink.
+     *
+     * @return false if the source is exhausted or the sink asked to stop;
+     *         the caller should then finish the sink
+     */
+    public boolean pushBatch(PushSink sink) throws DbException, TransactionAbortedException;
+
+    public void close();
+}
@@ -0,0 +1,277 @@
+package simpledb;
+
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.tools.*;
+
+/**
+ * QueryCompiler turns a scan / filter / project / aggregate plan over a
+ * HeapFile into one specialized {@link CompiledQuery} subclass. The
+ * generated code reads fields straight from the raw page bytes at offsets
+ * computed from the TupleDesc, and compares INT_TYPE fields with the
+ * primitive operator of each predicate, so no Field objects are parsed and
+ * no Field.compare or Type.parse call remains on the per-tuple path.
+ * <p>
+ * Classes are cached by plan shape: the table's field types, the field and
+ * operator of each predicate, the projected fields and the aggregate.
+ * Predicate operands are not part of the shape, so the same class serves
+ * every query that differs only in its constants.
+ * <p>
+ * Code is generated as Java source and compiled in memory with the
+ * javax.tools compiler. Only predicates over INT_TYPE fields, other than
+ * LIKE, can be compiled; {@link #compile} returns null for any other plan,
+ * and also when no compiler is available (e.g. on a JRE), in which case
+ * callers fall back to interpreted execution.
+ */
+public class QueryCompiler {
+
+    // plan shape -> generated class
+    private static final ConcurrentHashMap<String, Class<? extends CompiledQuery>> cache =
+            new ConcurrentHashMap<String, Class<? extends CompiledQuery>>();
+    // shapes that failed to compile, so that they are not retried
+    private static final Set<String> failed =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private static final AtomicInteger compilations = new AtomicInteger(0);
+
+    private QueryCompiler() {
+    }
+
+    /**
+     * @return true if every predicate can be compiled
+     */
+    public static boolean isCompilable(TupleDesc td, Predicate[] predicates) {
+        for (Predicate p : predicates) {
+            if (td.getFieldType(p.getField()) != Type.INT_TYPE
+                    || !(p.getOperand() instanceof IntField)
+                    || p.getOp() == Predicate.Op.LIKE)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of classes generated so far; a cache hit does not
+     *         generate a class
+     */
+    public static int getCompilationCount() {
+        return compilations.get();
+    }
+
+    /**
+     * Returns the generated class for a plan, compiling it on first use.
+     *
+     * @param td
+     *            the TupleDesc of the scanned table
+     * @param predicates
+     *            conjunctive filter predicates
+     * @param projection
+     *            the fields of each output row, or null if the plan
+     *            aggregates
+     * @param afield
+     *            the aggregate field, if the plan aggregates
+     * @param gfield
+     *            the group-by field, or {@link Aggregator#NO_GROUPING}
+     * @param aop
+     *            the aggregate operator, or null if the plan does not
+     *            aggregate
+     * @return the class, or null if the plan cannot be compiled
+     */
+    public static Class<? extends CompiledQuery> compile(TupleDesc td, Predicate[] predicates,
+            int[] projection, int afield, int gfield, Aggregator.Op aop) {
+        if (!isCompilable(td, predicates))
+            return null;
+
+        String shape = shapeOf(td, predicates, projection, afield, gfield, aop);
+        Class<? extends CompiledQuery> cls = cache.get(shape);
+        if (cls != null || failed.contains(shape))
+            return cls;
+
+        synchronized (QueryCompiler.class) {
+            cls = cache.get(shape);
+            if (cls != null || failed.contains(shape))
+                return cls;
+
+            String className = "GeneratedQuery" + compilations.incrementAndGet();
+            String source = generate(className, td, predicates, projection, afield, gfield, aop);
+            cls = compileSource(className, source);
+            if (cls == null)
+                failed.add(shape);
+            else
+                cache.put(shape, cls);
+            return cls;
+        }
+    }
+
+    private static String shapeOf(TupleDesc td, Predicate[] predicates, int[] projection,
+            int afield, int gfield, Aggregator.Op aop) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < td.numFields(); i++)
+            sb.append(td.getFieldType(i) == Type.INT_TYPE ? 'i' : 's');
+        sb.append('|');
+        for (Predicate p : predicates)
+            sb.append(p.getField()).append(p.getOp().name()).append(',');
+        sb.append('|');
+        if (aop == null)
+            sb.append(Arrays.toString(projection));
+        else
+            sb.append(aop.name()).append('(').append(afield).append(")/").append(gfield);
+        return sb.toString();
+    }
+
+    private static String javaOperator(Predicate.Op op) {
+        switch (op) {
+        case EQUALS:
+            return "==";
+        case NOT_EQUALS:
+            return "!=";
+        case GREATER_THAN:
+            return ">";
+        case GREATER_THAN_OR_EQ:
+            return ">=";
+        case LESS_THAN:
+            return "<";
+        case LESS_THAN_OR_EQ:
+            return "<=";
+        default:
+            throw new IllegalArgumentException("cannot compile operator " + op);
+        }
+    }
+
+    /** @return a Java expression reading field i of the tuple at base */
+    private static String readField(TupleDesc td, int[] offsets, int i) {
+        if (td.getFieldType(i) == Type.INT_TYPE)
+            return "readInt(p, base + " + offsets[i] + ")";
+        return "readString(p, base + " + offsets[i] + ")";
+    }
+
+    /**
+     * Generates the source of a CompiledQuery subclass for one plan shape.
+     * The page layout matches HeapPage: a slot bitmap followed by fixed-size
+     * tuples.
+     */
+    static String generate(String className, TupleDesc td, Predicate[] predicates,
+            int[] projection, int afield, int gfield, Aggregator.Op aop) {
+        int tupleSize = td.getSize();
+        int numSlots = (BufferPool.PAGE_SIZE * 8) / (tupleSize * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        int[] offsets = new int[td.numFields()];
+        for (int i = 1; i < offsets.length; i++)
+            offsets[i] = offsets[i - 1] + td.getFieldType(i - 1).getLen();
+
+        StringBuilder src = new StringBuilder();
+        src.append("public final class ").append(className).append(" extends simpledb.CompiledQuery {\n");
+        src.append("    protected void scanPage(byte[] p) {\n");
+        src.append("        final int[] c = constants;\n");
+        src.append("        int base = ").append(headerSize).append(";\n");
+        src.append("        for (int slot = 0; slot < ").append(numSlots)
+                .append("; slot++, base += ").append(tupleSize).append(") {\n");
+        src.append("            if (((p[slot >>> 3] >> (slot & 7)) & 1) == 0) continue;\n");
+        for (int k = 0; k < predicates.length; k++) {
+            Predicate pr = predicates[k];
+            src.append("            if (!(").append(readField(td, offsets, pr.getField()))
+                    .append(' ').append(javaOperator(pr.getOp())).append(" c[").append(k)
+                    .append("])) continue;\n");
+        }
+
+        if (aop != null) {
+            String key = gfield == Aggregator.NO_GROUPING ? "0" : readField(td, offsets, gfield);
+            String value = td.getFieldType(afield) == Type.INT_TYPE ? readField(td, offsets, afield) : "0";
+            src.append("            aggregate(").append(key).append(", ").append(value).append(");\n");
+        } else {
+            src.append("            simpledb.Tuple t = new simpledb.Tuple(outTd);\n");
+            for (int j = 0; j < projection.length; j++) {
+                int f = projection[j];
+                src.append("            t.setField(").append(j).append(", ");
+                if (td.getFieldType(f) == Type.INT_TYPE)
+                    src.append("new simpledb.IntField(").append(readField(td, offsets, f)).append(")");
+                else
+                    src.append("new simpledb.StringField(").append(readField(td, offsets, f))
+                            .append(", simpledb.Type.STRING_LEN)");
+                src.append(");\n");
+            }
+            src.append("            emit(t);\n");
+        }
+        src.append("        }\n");
+        src.append("    }\n");
+        src.append("}\n");
+        return src.toString();
+    }
+
+    /**
+     * Compiles one generated class in memory and loads it.
+     *
+     * @return the class, or null if no compiler is available or the source
+     *         does not compile
+     */
+    private static Class<? extends CompiledQuery> compileSource(final String className,
+            final String source) {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null)
+            return null;
+
+        final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+        StandardJavaFileManager std = compiler.getStandardFileManager(null, null, null);
+        JavaFileManager fm = new ForwardingJavaFileManager<StandardJavaFileManager>(std) {
+            public JavaFileObject getJavaFileForOutput(Location location, final String name,
+                    JavaFileObject.Kind kind, FileObject sibling) {
+                return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind) {
+                    public OutputStream openOutputStream() {
+                        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        classes.put(name, bytes);
+                        return bytes;
+                    }
+                };
+            }
+        };
+        JavaFileObject file = new SimpleJavaFileObject(
+                URI.create("string:///" + className + JavaFileObject.Kind.SOURCE.extension),
+                JavaFileObject.Kind.SOURCE) {
+            public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+                return source;
+            }
+        };
+
+        List<String> options = Arrays.asList("-classpath", classPath(), "-g:none", "-nowarn");
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<JavaFileObject>();
+        Boolean ok = compiler.getTask(null, fm, diagnostics, options, null,
+                Collections.singletonList(file)).call();
+        if (ok == null || !ok.booleanValue()) {
+            Debug.log("query compilation failed: %s", diagnostics.getDiagnostics());
+            return null;
+        }
+
+        ByteArrayOutputStream bytes = classes.get(className);
+        if (bytes == null)
+            return null;
+        Class<?> cls = new GeneratedLoader(CompiledQuery.class.getClassLoader())
+                .define(className, bytes.toByteArray());
+        return cls.asSubclass(CompiledQuery.class);
+    }
+
+    /** @return a class path on which the simpledb classes can be found */
+    private static String classPath() {
+        String cp = System.getProperty("java.class.path");
+        try {
+            File self = new File(CompiledQuery.class.getProtectionDomain().getCodeSource()
+                    .getLocation().toURI());
+            cp = self.getPath() + File.pathSeparator + cp;
+        } catch (Exception e) {
+            // fall back to the JVM class path alone
+        }
+        return cp;
+    }
+
+    /** Loads generated classes as children of the simpledb class loader. */
+    private static class GeneratedLoader extends ClassLoader {
+        GeneratedLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] b) {
+            return defineClass(name, b, 0, b.length);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package simpledb;
+
+import java.lang.reflect.Method;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * QueryExecutor runs client queries concurrently, each on its own thread.
+ * <p>
+ * When the JVM supports virtual threads (Java 21 and later) every query gets
+ * a new virtual thread, so thousands of mostly I/O-bound queries can be in
+ * flight without as many platform threads: a query blocked on a page read
+ * in {@link BufferPool#getPage} parks and releases its carrier thread. At
+ * most maxConcurrentQueries queries run at once; the others wait for a
+ * permit, which on a virtual thread costs no platform thread either.
+ * <p>
+ * On older JVMs the executor falls back to a fixed pool of
+ * maxConcurrentQueries platform threads, which enforces the same limit by
+ * queuing the excess queries.
+ */
+public class QueryExecutor {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final int maxConcurrentQueries;
+    private final boolean virtual;
+    private final AtomicInteger running = new AtomicInteger(0);
+
+    /**
+     * Creates an executor that uses virtual threads if the JVM provides
+     * them.
+     *
+     * @param maxConcurrentQueries
+     *            the maximum number of queries that run at the same time
+     */
+    public QueryExecutor(int maxConcurrentQueries) {
+        this(maxConcurrentQueries, virtualThreadFactory());
+    }
+
+    /**
+     * Creates an executor that runs each query on a thread from the given
+     * factory, or on a fixed pool of platform threads if factory is null.
+     */
+    QueryExecutor(int maxConcurrentQueries, ThreadFactory factory) {
+        if (maxConcurrentQueries < 1)
+            throw new IllegalArgumentException("concurrency limit must be positive, got " + maxConcurrentQueries);
+        this.maxConcurrentQueries = maxConcurrentQueries;
+        this.virtual = factory != null;
+        if (virtual) {
+            // one new thread per query; the semaphore bounds how many run
+            this.executor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0L, TimeUnit.SECONDS,
+                    new SynchronousQueue<Runnable>(), factory);
+            this.permits = new Semaphore(maxConcurrentQueries);
+        } else {
+            this.executor = Executors.newFixedThreadPool(maxConcurrentQueries, new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger(0);
+
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "query-" + count.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            this.permits = null;
+        }
+    }
+
+    /**
+     * @return a factory for virtual threads, or null if this JVM has none
+     */
+    static ThreadFactory virtualThreadFactory() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            Object builder = ofVirtual.invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return true if queries run on virtual threads
+     */
+    public boolean usesVirtualThreads() {
+        return virtual;
+    }
+
+    public int getMaxConcurrentQueries() {
+        return maxConcurrentQueries;
+    }
+
+    /**
+     * @return the number of queries currently running (not waiting for a
+     *         permit)
+     */
+    public int getRunningQueries() {
+        return running.get();
+    }
+
+    /**
+     * Submits a query. The callable runs on its own thread once a permit is
+     * available.
+     */
+    public <T> Future<T> submit(final Callable<T> query) {
+        return executor.submit(new Callable<T>() {
+            public T call() throws Exception {
+                if (permits != null)
+                    permits.acquire();
+                running.incrementAndGet();
+                try {
+                    return query.call();
+                } finally {
+                    running.decrementAndGet();
+                    if (permits != null)
+                        permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * Submits a query plan. The plan is opened, drained and closed on the
+     * query's thread, and the future returns its result tuples.
+     */
+    public Future<List<Tuple>> submit(final DbIterator plan) {
+        return submit(new Callable<List<Tuple>>() {
+            public List<Tuple> call() throws Exception {
+                List<Tuple> result = new ArrayList<Tuple>();
+                plan.open();
+                try {
+                    while (plan.hasNext())
+                        result.add(plan.next());
+                } finally {
+                    plan.close();
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * Stops accepting queries. Queries already submitted still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * Waits for submitted queries to finish after a shutdown.
+     *
+     * @return false if the timeout elapsed first
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return executor.awaitTermination(timeout, unit);
+    }
+}
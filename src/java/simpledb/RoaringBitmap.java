@@ -0,0 +1,529 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A compressed set of non-negative ints in the style of Roaring bitmaps.
+ * Values are grouped by their high 16 bits into containers, each holding the
+ * low 16 bits of its values either as a sorted array (up to
+ * {@link #ARRAY_MAX} values, 2 bytes per value) or as a 65536-bit bitmap (8
+ * KB), whichever is smaller. Sparse and dense ranges are both stored
+ * compactly, and AND, OR and ANDNOT work container by container: bitmap
+ * containers a 64-bit word at a time, array containers by merging.
+ */
+public class RoaringBitmap implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The largest number of values held in an array container. */
+    public static final int ARRAY_MAX = 4096;
+
+    // the high 16 bits of each container, ascending, and the containers
+    private int[] keys = new int[4];
+    private Container[] containers = new Container[4];
+    private int size = 0;
+
+    public RoaringBitmap() {
+    }
+
+    /** @return a bitmap holding the given values */
+    public static RoaringBitmap of(int... values) {
+        RoaringBitmap b = new RoaringBitmap();
+        for (int v : values)
+            b.add(v);
+        return b;
+    }
+
+    private static void checkValue(int v) {
+        if (v < 0)
+            throw new IllegalArgumentException("bitmap values must be non-negative, got " + v);
+    }
+
+    private int find(int key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insertContainer(int pos, int key, Container c) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            containers = Arrays.copyOf(containers, size * 2);
+        }
+        System.arraycopy(keys, pos, keys, pos + 1, size - pos);
+        System.arraycopy(containers, pos, containers, pos + 1, size - pos);
+        keys[pos] = key;
+        containers[pos] = c;
+        size++;
+    }
+
+    private void removeContainer(int pos) {
+        System.arraycopy(keys, pos + 1, keys, pos, size - pos - 1);
+        System.arraycopy(containers, pos + 1, containers, pos, size - pos - 1);
+        containers[--size] = null;
+    }
+
+    /** Adds v to the set. */
+    public void add(int v) {
+        checkValue(v);
+        int i = find(v >>> 16);
+        if (i < 0) {
+            i = -i - 1;
+            insertContainer(i, v >>> 16, new ArrayContainer());
+        }
+        containers[i] = containers[i].add((char) v);
+    }
+
+    /** Removes v from the set, if it is present. */
+    public void remove(int v) {
+        if (v < 0)
+            return;
+        int i = find(v >>> 16);
+        if (i < 0)
+            return;
+        containers[i] = containers[i].remove((char) v);
+        if (containers[i].cardinality() == 0)
+            removeContainer(i);
+    }
+
+    public boolean contains(int v) {
+        if (v < 0)
+            return false;
+        int i = find(v >>> 16);
+        return i >= 0 && containers[i].contains((char) v);
+    }
+
+    /** @return the number of values in the set */
+    public int getCardinality() {
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n += containers[i].cardinality();
+        return n;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** @return the values of the set in ascending order */
+    public int[] toArray() {
+        int[] out = new int[getCardinality()];
+        int n = 0;
+        for (int i = 0; i < size; i++)
+            n = containers[i].fill(keys[i] << 16, out, n);
+        return out;
+    }
+
+    /** @return a new bitmap holding the values in both a and b */
+    public static RoaringBitmap and(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size && j < b.size) {
+            if (a.keys[i] < b.keys[j]) {
+                i++;
+            } else if (a.keys[i] > b.keys[j]) {
+                j++;
+            } else {
+                Container c = a.containers[i].and(b.containers[j]);
+                if (c.cardinality() > 0)
+                    r.insertContainer(r.size, a.keys[i], c);
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new bitmap holding the values in a or b */
+    public static RoaringBitmap or(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int i = 0, j = 0;
+        while (i < a.size || j < b.size) {
+            if (j == b.size || (i < a.size && a.keys[i] < b.keys[j])) {
+                r.insertContainer(r.size, a.keys[i], a.containers[i].copy());
+                i++;
+            } else if (i == a.size || a.keys[i] > b.keys[j]) {
+                r.insertContainer(r.size, b.keys[j], b.containers[j].copy());
+                j++;
+            } else {
+                r.insertContainer(r.size, a.keys[i], a.containers[i].or(b.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return r;
+    }
+
+    /** @return a new bitmap holding the values in a but not in b */
+    public static RoaringBitmap andNot(RoaringBitmap a, RoaringBitmap b) {
+        RoaringBitmap r = new RoaringBitmap();
+        int j = 0;
+        for (int i = 0; i < a.size; i++) {
+            while (j < b.size && b.keys[j] < a.keys[i])
+                j++;
+            Container c = j < b.size && b.keys[j] == a.keys[i]
+                    ? a.containers[i].andNot(b.containers[j]) : a.containers[i].copy();
+            if (c.cardinality() > 0)
+                r.insertContainer(r.size, a.keys[i], c);
+        }
+        return r;
+    }
+
+    /** @return a copy of this bitmap */
+    public RoaringBitmap copy() {
+        return or(this, new RoaringBitmap());
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof RoaringBitmap))
+            return false;
+        return Arrays.equals(toArray(), ((RoaringBitmap) o).toArray());
+    }
+
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    /** @return the number of bytes writeTo writes */
+    public int serializedSize() {
+        int n = 4;
+        for (int i = 0; i < size; i++)
+            n += 7 + containers[i].dataSize();
+        return n;
+    }
+
+    /**
+     * Writes the bitmap: the number of containers, then for each its key,
+     * its kind, its cardinality and its values or words.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeShort(keys[i]);
+            out.writeByte(containers[i] instanceof BitmapContainer ? 1 : 0);
+            out.writeInt(containers[i].cardinality());
+            containers[i].writeData(out);
+        }
+    }
+
+    /** Reads a bitmap written by writeTo. */
+    public static RoaringBitmap readFrom(DataInput in) throws IOException {
+        RoaringBitmap b = new RoaringBitmap();
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            int key = in.readUnsignedShort();
+            boolean bitmap = in.readByte() == 1;
+            int card = in.readInt();
+            Container c = bitmap ? BitmapContainer.read(in, card) : ArrayContainer.read(in, card);
+            b.insertContainer(b.size, key, c);
+        }
+        return b;
+    }
+
+    /** The low 16 bits of the values that share their high 16 bits. */
+    private static abstract class Container implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        /** @return the container holding this one's values and x */
+        abstract Container add(char x);
+
+        /** @return the container holding this one's values but x */
+        abstract Container remove(char x);
+
+        abstract boolean contains(char x);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container andNot(Container other);
+
+        abstract Container copy();
+
+        /** Writes high | value into out from position n; returns the new n. */
+        abstract int fill(int high, int[] out, int n);
+
+        abstract int dataSize();
+
+        abstract void writeData(DataOutput out) throws IOException;
+    }
+
+    private static final class ArrayContainer extends Container {
+
+        private static final long serialVersionUID = 1L;
+
+        private char[] values;
+        private int card;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int card) {
+            this.values = values;
+            this.card = card;
+        }
+
+        static ArrayContainer read(DataInput in, int card) throws IOException {
+            char[] values = new char[Math.max(card, 1)];
+            for (int i = 0; i < card; i++)
+                values[i] = in.readChar();
+            return new ArrayContainer(values, card);
+        }
+
+        Container add(char x) {
+            int i = Arrays.binarySearch(values, 0, card, x);
+            if (i >= 0)
+                return this;
+            if (card == ARRAY_MAX)
+                return toBitmap().add(x);
+            i = -i - 1;
+            if (card == values.length)
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, card * 2));
+            System.arraycopy(values, i, values, i + 1, card - i);
+            values[i] = x;
+            card++;
+            return this;
+        }
+
+        Container remove(char x) {
+            int i = Arrays.binarySearch(values, 0, card, x);
+            if (i >= 0) {
+                System.arraycopy(values, i + 1, values, i, card - i - 1);
+                card--;
+            }
+            return this;
+        }
+
+        boolean contains(char x) {
+            return Arrays.binarySearch(values, 0, card, x) >= 0;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        BitmapContainer toBitmap() {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < card; i++)
+                b.words[values[i] >>> 6] |= 1L << values[i];
+            b.card = card;
+            return b;
+        }
+
+        Container and(Container other) {
+            char[] out = new char[Math.min(card, other.cardinality()) + 1];
+            int n = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                int i = 0, j = 0;
+                while (i < card && j < o.card) {
+                    if (values[i] < o.values[j])
+                        i++;
+                    else if (values[i] > o.values[j])
+                        j++;
+                    else {
+                        out[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int i = 0; i < card; i++) {
+                    if (other.contains(values[i]))
+                        out[n++] = values[i];
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container or(Container other) {
+            if (other instanceof BitmapContainer)
+                return other.or(this);
+            ArrayContainer o = (ArrayContainer) other;
+            if (card + o.card > ARRAY_MAX)
+                return toBitmap().or(o);
+            char[] out = new char[card + o.card + 1];
+            int i = 0, j = 0, n = 0;
+            while (i < card || j < o.card) {
+                if (j == o.card || (i < card && values[i] < o.values[j]))
+                    out[n++] = values[i++];
+                else if (i == card || values[i] > o.values[j])
+                    out[n++] = o.values[j++];
+                else {
+                    out[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container andNot(Container other) {
+            char[] out = new char[card + 1];
+            int n = 0;
+            for (int i = 0; i < card; i++) {
+                if (!other.contains(values[i]))
+                    out[n++] = values[i];
+            }
+            return new ArrayContainer(out, n);
+        }
+
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, Math.max(card, 1)), card);
+        }
+
+        int fill(int high, int[] out, int n) {
+            for (int i = 0; i < card; i++)
+                out[n++] = high | values[i];
+            return n;
+        }
+
+        int dataSize() {
+            return 2 * card;
+        }
+
+        void writeData(DataOutput out) throws IOException {
+            for (int i = 0; i < card; i++)
+                out.writeChar(values[i]);
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+
+        private static final long serialVersionUID = 1L;
+
+        private final long[] words = new long[1024];
+        private int card = 0;
+
+        static BitmapContainer read(DataInput in, int card) throws IOException {
+            BitmapContainer b = new BitmapContainer();
+            for (int i = 0; i < b.words.length; i++)
+                b.words[i] = in.readLong();
+            b.card = card;
+            return b;
+        }
+
+        Container add(char x) {
+            long bit = 1L << x;
+            if ((words[x >>> 6] & bit) == 0) {
+                words[x >>> 6] |= bit;
+                card++;
+            }
+            return this;
+        }
+
+        Container remove(char x) {
+            long bit = 1L << x;
+            if ((words[x >>> 6] & bit) != 0) {
+                words[x >>> 6] &= ~bit;
+                card--;
+            }
+            return card <= ARRAY_MAX ? toArrayContainer() : this;
+        }
+
+        boolean contains(char x) {
+            return (words[x >>> 6] & (1L << x)) != 0;
+        }
+
+        int cardinality() {
+            return card;
+        }
+
+        ArrayContainer toArrayContainer() {
+            char[] values = new char[Math.max(card, 1)];
+            int n = 0;
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    values[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return new ArrayContainer(values, n);
+        }
+
+        /** @return the container for the given words, recounted */
+        private static Container ofWords(long[] words) {
+            BitmapContainer b = new BitmapContainer();
+            int card = 0;
+            for (int i = 0; i < words.length; i++) {
+                b.words[i] = words[i];
+                card += Long.bitCount(words[i]);
+            }
+            b.card = card;
+            return card <= ARRAY_MAX ? b.toArrayContainer() : b;
+        }
+
+        Container and(Container other) {
+            if (other instanceof ArrayContainer)
+                return other.and(this);
+            long[] out = new long[words.length];
+            long[] o = ((BitmapContainer) other).words;
+            for (int i = 0; i < words.length; i++)
+                out[i] = words[i] & o[i];
+            return ofWords(out);
+        }
+
+        Container or(Container other) {
+            BitmapContainer b = (BitmapContainer) copy();
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++)
+                    b.add(o.values[i]);
+                return b.card <= ARRAY_MAX ? b.toArrayContainer() : b;
+            }
+            long[] o = ((BitmapContainer) other).words;
+            int card = 0;
+            for (int i = 0; i < words.length; i++) {
+                b.words[i] |= o[i];
+                card += Long.bitCount(b.words[i]);
+            }
+            b.card = card;
+            return b;
+        }
+
+        Container andNot(Container other) {
+            long[] out = Arrays.copyOf(words, words.length);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer o = (ArrayContainer) other;
+                for (int i = 0; i < o.card; i++)
+                    out[o.values[i] >>> 6] &= ~(1L << o.values[i]);
+            } else {
+                long[] o = ((BitmapContainer) other).words;
+                for (int i = 0; i < words.length; i++)
+                    out[i] &= ~o[i];
+            }
+            return ofWords(out);
+        }
+
+        Container copy() {
+            BitmapContainer b = new BitmapContainer();
+            System.arraycopy(words, 0, b.words, 0, words.length);
+            b.card = card;
+            return b;
+        }
+
+        int fill(int high, int[] out, int n) {
+            for (int w = 0; w < words.length; w++) {
+                long word = words[w];
+                while (word != 0) {
+                    out[n++] = high | ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return n;
+        }
+
+        int dataSize() {
+            return 8 * words.length;
+        }
+
+        void writeData(DataOutput out) throws IOException {
+            for (long w : words)
+                out.writeLong(w);
+        }
+    }
+}
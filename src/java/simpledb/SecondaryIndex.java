@@ -0,0 +1,235 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A secondary index over one field of a HeapFile. The index is a BTreeFile
+ * of entries (key, page number, slot, included...), sorted on the key, where
+ * the page number and slot locate the indexed tuple in the heap file.
+ * Indexes are registered with {@link Catalog#addIndex} and kept up to date
+ * by {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple}.
+ * <p>
+ * An index may store copies of other fields of the table, its included
+ * fields. A query that needs only the key and included fields is
+ * <i>covered</i> by the index and can be answered by an
+ * {@link IndexOnlyScan} without reading the heap file.
+ */
+public class SecondaryIndex {
+
+    private final int tableid;
+    private final int field;
+    private final int[] included;
+    private final BTreeFile file;
+
+    /**
+     * @param tableid the indexed table; its DbFile must be a HeapFile
+     * @param field the indexed field
+     * @param f the file that stores the index entries
+     */
+    public SecondaryIndex(int tableid, int field, File f) {
+        this(tableid, field, f, new int[0]);
+    }
+
+    /**
+     * @param tableid the indexed table; its DbFile must be a HeapFile
+     * @param field the indexed field
+     * @param f the file that stores the index entries
+     * @param included the fields whose values are stored in the entries
+     *            along with the key
+     */
+    public SecondaryIndex(int tableid, int field, File f, int[] included) {
+        DbFile table = Database.getCatalog().getDbFile(tableid);
+        if (!(table instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        TupleDesc td = table.getTupleDesc();
+        for (int i : included) {
+            if (i < 0 || i >= td.numFields())
+                throw new IllegalArgumentException("table " + tableid + " has no field " + i);
+        }
+        this.tableid = tableid;
+        this.field = field;
+        this.included = included.clone();
+        this.file = new BTreeFile(f, 0, entryDesc(td, field, included));
+    }
+
+    /**
+     * @return the schema of index entries: the key, the page number and slot
+     *         of the tuple in the heap file, then the included fields
+     */
+    static TupleDesc entryDesc(TupleDesc td, int field, int[] included) {
+        Type[] types = new Type[3 + included.length];
+        String[] names = new String[3 + included.length];
+        types[0] = td.getFieldType(field);
+        names[0] = td.getFieldName(field);
+        types[1] = types[2] = Type.INT_TYPE;
+        names[1] = "pageno";
+        names[2] = "slot";
+        for (int i = 0; i < included.length; i++) {
+            types[3 + i] = td.getFieldType(included[i]);
+            names[3 + i] = td.getFieldName(included[i]);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /** @return the id of the indexed table */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the indexed field */
+    public int getField() {
+        return field;
+    }
+
+    /** @return the fields stored in the entries along with the key */
+    public int[] getIncludedFields() {
+        return included.clone();
+    }
+
+    /**
+     * @return the field of an index entry that holds a field of the table,
+     *         or -1 if the index does not store it
+     */
+    public int entryField(int tableField) {
+        if (tableField == field)
+            return 0;
+        for (int i = 0; i < included.length; i++) {
+            if (included[i] == tableField)
+                return 3 + i;
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if every given field of the table is stored in the index,
+     *         so a query reading only those fields need not read the table
+     */
+    public boolean covers(int[] fields) {
+        for (int f : fields) {
+            if (entryField(f) < 0)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the layout recorded in the index file: which fields of the
+     *         table its entries hold. Never 0, the layout of files written
+     *         without one.
+     */
+    int layout() {
+        int h = field + 1;
+        for (int i : included)
+            h = h * 31 + i + 1;
+        return h == 0 ? 1 : h;
+    }
+
+    /**
+     * @return true if the index file holds entries of this index and is not
+     *         older than the heap file; otherwise it must be rebuilt
+     */
+    boolean isUpToDate() throws IOException {
+        File heap = ((HeapFile) Database.getCatalog().getDbFile(tableid)).getFile();
+        File f = file.getFile();
+        return f.length() > 0 && f.lastModified() >= heap.lastModified() && file.getLayout() == layout();
+    }
+
+    /** @return the BTreeFile that holds the index entries */
+    public BTreeFile getFile() {
+        return file;
+    }
+
+    private Tuple entry(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(file.getTupleDesc());
+        e.setField(0, t.getField(field));
+        e.setField(1, new IntField(rid.getPageId().pageNumber()));
+        e.setField(2, new IntField(rid.tupleno()));
+        for (int i = 0; i < included.length; i++)
+            e.setField(3 + i, t.getField(included[i]));
+        return e;
+    }
+
+    /**
+     * Adds the entry for a tuple that was just inserted into the table.
+     *
+     * @return the index pages that were modified
+     */
+    ArrayList<Page> insertEntry(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        return file.insertTuple(tid, entry(t));
+    }
+
+    /**
+     * Removes the entry for a tuple that was just deleted from the table.
+     *
+     * @param key the indexed field of the deleted tuple
+     * @param rid where the tuple was stored
+     * @return the index pages that were modified
+     * @throws DbException if the index has no such entry
+     */
+    ArrayList<Page> deleteEntry(TransactionId tid, Field key, RecordId rid)
+            throws DbException, TransactionAbortedException {
+        int pageNo = rid.getPageId().pageNumber();
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        try {
+            while (it.hasNext()) {
+                Tuple e = it.next();
+                if (((IntField) e.getField(1)).getValue() == pageNo
+                        && ((IntField) e.getField(2)).getValue() == rid.tupleno())
+                    return file.deleteTuple(tid, e);
+            }
+        } finally {
+            it.close();
+        }
+        throw new DbException("index on field " + field + " of table " + tableid + " has no entry for " + rid);
+    }
+
+    /**
+     * Returns the locations of the tuples whose indexed field satisfies
+     * ipred, sorted by page and then slot, so that a caller fetching them
+     * reads each heap page once and in file order.
+     */
+    public List<RecordId> lookup(TransactionId tid, IndexPredicate ipred)
+            throws DbException, TransactionAbortedException {
+        long[] locations = new long[64];
+        int n = 0;
+        DbFileIterator it = file.indexIterator(tid, ipred);
+        it.open();
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            if (n == locations.length)
+                locations = Arrays.copyOf(locations, n * 2);
+            locations[n++] = ((long) ((IntField) e.getField(1)).getValue() << 32)
+                    | ((IntField) e.getField(2)).getValue();
+        }
+        it.close();
+        Arrays.sort(locations, 0, n);
+
+        ArrayList<RecordId> rids = new ArrayList<RecordId>(n);
+        for (int i = 0; i < n; i++)
+            rids.add(new RecordId(new HeapPageId(tableid, (int) (locations[i] >>> 32)), (int) locations[i]));
+        return rids;
+    }
+
+    /**
+     * Adds an entry for every tuple already in the table, replacing the
+     * contents of the index file. The file is bulk-loaded with a
+     * BTreeFileEncoder, so the entries are sorted once and every index page
+     * is written sequentially; it records the layout of the entries. Pages
+     * of the previous contents are dropped from the BufferPool.
+     */
+    void build(TransactionId tid) throws DbException, IOException, TransactionAbortedException {
+        BTreeFileEncoder encoder = new BTreeFileEncoder(file.getTupleDesc(), 0);
+        DbFileIterator it = Database.getCatalog().getDbFile(tableid).iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            encoder.add(entry(it.next()));
+        }
+        it.close();
+        encoder.write(file.getFile(), layout());
+        Database.getBufferPool().discardPages(file.getId());
+    }
+}
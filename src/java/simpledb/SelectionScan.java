@@ -0,0 +1,150 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SelectionScan is a sequential scan of a HeapFile that applies a
+ * conjunction of predicates a page at a time. Predicates on INT_TYPE fields
+ * are evaluated by {@link IntFilterKernels} over the page's decoded int[]
+ * column, narrowing a selection vector; any other predicate is then applied
+ * tuple by tuple to the survivors only. Only selected tuples are returned.
+ * <p>
+ * Before a page is fetched, the predicates are checked against the file's
+ * {@link ZoneMap} and {@link PageBloomFilter}s, and pages whose value ranges
+ * or keys cannot match are skipped without being read.
+ */
+public class SelectionScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private TransactionId tid;
+    private int tableId;
+    private String tableAlias;
+    private Predicate[] predicates;
+    // predicates evaluated by the int kernels, then the rest
+    private Predicate[] kernelPredicates;
+    private Predicate[] otherPredicates;
+
+    private int pageNo = 0;
+    private List<Tuple> pageTuples = null;
+    private int[] sel = new int[0];
+    private int selCount = 0;
+    private int selPos = 0;
+
+    /**
+     * @param tid
+     *            the transaction this scan is running as a part of
+     * @param tableid
+     *            the table to scan; its DbFile must be a HeapFile
+     * @param tableAlias
+     *            the alias of this table, used to prefix field names as in
+     *            SeqScan
+     * @param predicates
+     *            predicates that every returned tuple satisfies
+     */
+    public SelectionScan(TransactionId tid, int tableid, String tableAlias, Predicate[] predicates) {
+        if (!(Database.getCatalog().getDbFile(tableid) instanceof HeapFile))
+            throw new IllegalArgumentException("table " + tableid + " is not a HeapFile");
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.predicates = predicates;
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableid);
+        ArrayList<Predicate> kernel = new ArrayList<Predicate>();
+        ArrayList<Predicate> other = new ArrayList<Predicate>();
+        for (Predicate p : predicates) {
+            if (IntFilterKernels.applies(p, td))
+                kernel.add(p);
+            else
+                other.add(p);
+        }
+        this.kernelPredicates = kernel.toArray(new Predicate[kernel.size()]);
+        this.otherPredicates = other.toArray(new Predicate[other.size()]);
+    }
+
+    public TupleDesc getTupleDesc() {
+        return SeqScan.aliasedTupleDesc(Database.getCatalog().getTupleDesc(tableId), tableAlias);
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        resetScan();
+        super.open();
+    }
+
+    private void resetScan() {
+        pageNo = 0;
+        pageTuples = null;
+        selCount = 0;
+        selPos = 0;
+    }
+
+    /**
+     * Reads the next page and computes its selection vector.
+     *
+     * @return false if there are no more pages
+     */
+    private boolean filterNextPage() throws DbException, TransactionAbortedException {
+        HeapFile file = (HeapFile) Database.getCatalog().getDbFile(tableId);
+        while (pageNo < file.numPages() && !file.mayMatch(pageNo, predicates))
+            pageNo++;
+        if (pageNo >= file.numPages())
+            return false;
+
+        PageId pid = new HeapPageId(tableId, pageNo++);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        file.learnZone(page);
+        pageTuples = page.getAllTuples();
+        int n = pageTuples.size();
+        if (sel.length < n)
+            sel = new int[n];
+
+        selCount = IntFilterKernels.select(kernelPredicates, page, n, sel);
+
+        if (otherPredicates.length > 0) {
+            int k = 0;
+            for (int j = 0; j < selCount; j++) {
+                Tuple t = pageTuples.get(sel[j]);
+                boolean pass = true;
+                for (Predicate p : otherPredicates) {
+                    if (!p.filter(t)) {
+                        pass = false;
+                        break;
+                    }
+                }
+                if (pass)
+                    sel[k++] = sel[j];
+            }
+            selCount = k;
+        }
+        selPos = 0;
+        return true;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (selPos >= selCount) {
+            if (!filterNextPage())
+                return null;
+        }
+        return pageTuples.get(sel[selPos++]);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        resetScan();
+    }
+
+    public void close() {
+        super.close();
+        pageTuples = null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[0];
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+    }
+}
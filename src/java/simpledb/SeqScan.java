@@ -6,6 +6,10 @@ import java.util.*;
  * SeqScan is an implementation of a sequential scan access method that reads
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
+ * <p>
+ * Runtime filters pushed in by a hash join ({@link #addRuntimeFilter}) drop
+ * the tuples whose join key is not on the build side inside the scan, before
+ * they are returned to the join.
  */
 public class SeqScan implements DbIterator {
 
@@ -15,6 +19,10 @@ public class SeqScan implements DbIterator {
     private String tableAlias = null;
     private String tableName = null;
     private DbFileIterator it = null;
+    private ArrayList<Integer> filterFields = new ArrayList<Integer>();
+    private ArrayList<BloomFilter> filters = new ArrayList<BloomFilter>();
+    // the next tuple that passed the runtime filters
+    private Tuple next = null;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -98,6 +106,14 @@ public class SeqScan implements DbIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc = Database.getCatalog().getDbFile(this.tableId).getTupleDesc();
+        return aliasedTupleDesc(tupleDesc, this.tableAlias);
+    }
+
+    /**
+     * @return a copy of tupleDesc whose field names are prefixed with
+     *         "tableAlias."
+     */
+    static TupleDesc aliasedTupleDesc(TupleDesc tupleDesc, String tableAlias) {
         int fieldNum = tupleDesc.numFields();
         String[] names = new String[fieldNum];
         Type[] types = new Type[fieldNum];
@@ -111,20 +127,66 @@ public class SeqScan implements DbIterator {
         return new TupleDesc(types, names);
     }
 
+    /**
+     * Drops the tuples whose field is not in a Bloom filter.
+     *
+     * @param field
+     *            the field of the scanned table the filter applies to
+     */
+    public void addRuntimeFilter(int field, BloomFilter filter) {
+        this.filterFields.add(field);
+        this.filters.add(filter);
+    }
+
+    /** Stops applying a filter added by {@link #addRuntimeFilter}. */
+    public void removeRuntimeFilter(BloomFilter filter) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (filters.get(i) == filter) {
+                this.filterFields.remove(i);
+                this.filters.remove(i);
+                return;
+            }
+        }
+    }
+
+    private boolean passesFilters(Tuple t) {
+        for (int i = 0; i < filters.size(); i++) {
+            if (!filters.get(i).mightContain(t.getField(filterFields.get(i))))
+                return false;
+        }
+        return true;
+    }
+
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return this.it == null ? false : it.hasNext();
+        if (this.it == null)
+            return false;
+        if (filters.isEmpty())
+            return it.hasNext();
+        while (next == null && it.hasNext()) {
+            Tuple t = it.next();
+            if (passesFilters(t))
+                next = t;
+        }
+        return next != null;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return this.it.next();
+        if (filters.isEmpty())
+            return this.it.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        Tuple t = next;
+        next = null;
+        return t;
     }
 
     public void close() {
         // some code goes here
-        this.it = null;
+        this.it.close();
+        this.next = null;
     }
 
     public void rewind() throws DbException, NoSuchElementException,
@@ -132,5 +194,6 @@ public class SeqScan implements DbIterator {
         // some code goes here
         this.it.close();
         this.it.open();
+        this.next = null;
     }
 }
@@ -8,6 +8,20 @@ public class SimpleDb {
         // convert a file
         if(args[0].equals("convert")) {
         try {
+            // options: --btree=<keyField> writes a B+ tree sorted on that
+            // field instead of a heap file, --fill=<f> sets its page fill
+            int btreeKey = -1;
+            double fillFactor = BTreeFileEncoder.DEFAULT_FILL_FACTOR;
+            ArrayList<String> positional = new ArrayList<String>();
+            for (String arg : args) {
+                if (arg.startsWith("--btree="))
+                    btreeKey = Integer.parseInt(arg.substring("--btree=".length()));
+                else if (arg.startsWith("--fill="))
+                    fillFactor = Double.parseDouble(arg.substring("--fill=".length()));
+                else
+                    positional.add(arg);
+            }
+            args = positional.toArray(new String[positional.size()]);
             if (args.length<3 || args.length>5){
                 System.err.println("Unexpected number of arguments to convert ");
                 return;
@@ -44,7 +58,14 @@ public class SimpleDb {
                     fieldSeparator=args[4].charAt(0);
             }
 
-            HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
+            if (btreeKey >= 0) {
+                if (btreeKey >= numOfAttributes) {
+                    System.err.println("B+ tree key field " + btreeKey + " is out of range");
+                    return;
+                }
+                BTreeFileEncoder.convert(sourceTxtFile, targetDatFile, ts, fieldSeparator, btreeKey, fillFactor);
+            } else
+                HeapFileEncoder.convert(sourceTxtFile,targetDatFile,
                         BufferPool.PAGE_SIZE,numOfAttributes,ts,fieldSeparator);
 
         } catch (IOException e) {
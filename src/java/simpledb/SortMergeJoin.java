@@ -0,0 +1,191 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin implements an equi-join of two children that are already
+ * sorted in ascending order on their join fields (e.g. by an
+ * {@link OrderBy} or an ordered access method).
+ * <p>
+ * Both children are read exactly once per pass. The only tuples held in
+ * memory are the run of inner (child2) tuples that share the current join
+ * key, so buffering is bounded by the largest group of duplicate inner keys
+ * rather than by the size of either input, and no child is ever rewound in
+ * the middle of a pass.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    private TupleDesc td;
+
+    // the outer tuple currently being joined against the buffered group
+    private Tuple outer = null;
+    // inner tuples sharing groupKey, and the position of the next one to emit
+    private ArrayList<Tuple> group = new ArrayList<Tuple>();
+    private Field groupKey = null;
+    private int groupIndex = 0;
+    // the first inner tuple beyond the buffered group, if already read
+    private Tuple innerPeek = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on. Both children must be sorted in ascending order on their join field.
+     *
+     * @param p
+     *            The predicate to use to join the children; its operator must
+     *            be Predicate.Op.EQUALS
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @throws IllegalArgumentException
+     *            if the predicate is not an equality predicate
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("SortMergeJoin only supports equality predicates, got " + p.getOperator());
+
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return this.p;
+    }
+
+    /**
+     * @return
+     *       the field name of join field1. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
+    }
+
+    /**
+     * @return
+     *       the field name of join field2. Should be quantified by
+     *       alias or table name.
+     * */
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
+    }
+
+    /**
+     * @see simpledb.TupleDesc#merge(TupleDesc, TupleDesc) for possible
+     *      implementation logic.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        child2.open();
+        resetState();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+        child2.close();
+        resetState();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        child1.rewind();
+        child2.rewind();
+        resetState();
+    }
+
+    private void resetState() {
+        outer = null;
+        group.clear();
+        groupKey = null;
+        groupIndex = 0;
+        innerPeek = null;
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. The outer side is advanced one tuple at a time; for each
+     * outer tuple the inner side is advanced just far enough to buffer the
+     * group of inner tuples with an equal key. Consecutive outer tuples with
+     * the same key replay the buffered group instead of re-reading child2.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (outer != null && groupIndex < group.size())
+                return mergeTuples(td, outer, group.get(groupIndex++));
+
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            groupIndex = 0;
+
+            Field key = outer.getField(p.getField1());
+            if (groupKey != null && key.equals(groupKey))
+                continue;
+
+            if (!fillGroup(key))
+                return null;
+        }
+    }
+
+    /**
+     * Advances the inner side past every tuple with a key smaller than key and
+     * buffers the tuples whose key equals it.
+     *
+     * @return false if the inner side is exhausted and no later outer tuple
+     *         can produce a match
+     */
+    private boolean fillGroup(Field key) throws TransactionAbortedException, DbException {
+        group.clear();
+        groupKey = null;
+
+        int f2 = p.getField2();
+        while (true) {
+            if (innerPeek == null) {
+                if (!child2.hasNext())
+                    break;
+                innerPeek = child2.next();
+            }
+
+            Field innerKey = innerPeek.getField(f2);
+            if (innerKey.compare(Predicate.Op.LESS_THAN, key)) {
+                innerPeek = null;
+            } else if (innerKey.equals(key)) {
+                group.add(innerPeek);
+                innerPeek = null;
+            } else {
+                break;
+            }
+        }
+
+        if (!group.isEmpty())
+            groupKey = key;
+        return !group.isEmpty() || innerPeek != null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child1, this.child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * The catalog entry of one table: its id, name, file, schema, primary key,
+ * indexes and statistics. A TableInfo is immutable; the Catalog replaces an
+ * entry with a new one, made by {@link #withIndex}, {@link #withBitmapIndex}
+ * or {@link #withStats}, when the table's indexes or statistics change, so
+ * a reader that fetched an entry always sees a consistent table.
+ */
+public final class TableInfo {
+
+    private final int id;
+    private final String name;
+    private final DbFile file;
+    private final TupleDesc td;
+    private final String pkeyField;
+    private final List<SecondaryIndex> indexes;
+    private final List<BitmapIndex> bitmapIndexes;
+    private final TableStats stats;
+
+    /**
+     * Creates the entry of a table with no indexes.
+     */
+    public TableInfo(DbFile file, String name, String pkeyField) {
+        this(file, name, pkeyField, Collections.<SecondaryIndex>emptyList(),
+                Collections.<BitmapIndex>emptyList(), null);
+    }
+
+    private TableInfo(DbFile file, String name, String pkeyField, List<SecondaryIndex> indexes,
+            List<BitmapIndex> bitmapIndexes, TableStats stats) {
+        if (name == null)
+            throw new IllegalArgumentException("table name must not be null");
+        this.id = file.getId();
+        this.name = name;
+        this.file = file;
+        this.td = file.getTupleDesc();
+        this.pkeyField = pkeyField;
+        this.indexes = indexes;
+        this.bitmapIndexes = bitmapIndexes;
+        this.stats = stats;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public DbFile getFile() {
+        return file;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the name of the primary key field, or "" if there is none */
+    public String getPrimaryKey() {
+        return pkeyField;
+    }
+
+    /** @return the secondary indexes of the table, unmodifiable */
+    public List<SecondaryIndex> getIndexes() {
+        return indexes;
+    }
+
+    /** @return the bitmap indexes of the table, unmodifiable */
+    public List<BitmapIndex> getBitmapIndexes() {
+        return bitmapIndexes;
+    }
+
+    /** @return the statistics of the table, or null if none were computed */
+    public TableStats getStats() {
+        return stats;
+    }
+
+    /**
+     * @return a copy of this entry with one more secondary index, which
+     *         replaces any index over the same field or in the same file
+     */
+    public TableInfo withIndex(SecondaryIndex index) {
+        ArrayList<SecondaryIndex> l = new ArrayList<SecondaryIndex>();
+        for (SecondaryIndex i : indexes) {
+            if (i.getField() != index.getField() && i.getFile().getId() != index.getFile().getId())
+                l.add(i);
+        }
+        l.add(index);
+        return new TableInfo(file, name, pkeyField, Collections.unmodifiableList(l), bitmapIndexes, stats);
+    }
+
+    /** @return a copy of this entry with one more bitmap index */
+    public TableInfo withBitmapIndex(BitmapIndex index) {
+        ArrayList<BitmapIndex> l = new ArrayList<BitmapIndex>(bitmapIndexes);
+        l.add(index);
+        return new TableInfo(file, name, pkeyField, indexes, Collections.unmodifiableList(l), stats);
+    }
+
+    /** @return a copy of this entry with the given statistics */
+    public TableInfo withStats(TableStats stats) {
+        return new TableInfo(file, name, pkeyField, indexes, bitmapIndexes, stats);
+    }
+}
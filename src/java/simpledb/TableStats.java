@@ -0,0 +1,484 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * TableStats represents statistics (e.g., histograms) about base tables in a
+ * query, used to estimate the cost of scanning a table and the number of
+ * tuples that satisfy a predicate.
+ * <p>
+ * The statistics are gathered by a single scan of the table. Every field
+ * gets a {@link HyperLogLog} sketch of its number of distinct values. An
+ * INT_TYPE field also gets an equi-depth {@link IntHistogram}, built from a
+ * reservoir sample of the rows; a STRING_TYPE field gets a list of its most
+ * common values with their counts, found with the Space-Saving algorithm in
+ * a bounded number of counters.
+ * <p>
+ * Statistics are registered with {@link Catalog#setTableStats} and written
+ * with the catalog by {@link Catalog#saveCatalog}. While registered, they
+ * are maintained by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple}: row counts are exact, histogram buckets
+ * and most common values are counted up and down, and sketches take in
+ * inserted values (a sketch cannot forget a deleted value, so distinct
+ * counts are capped by the row count). Once the rows inserted or deleted
+ * since the statistics were taken exceed {@link #STALE_FRACTION} of the
+ * table, they are recomputed in the background and replaced in the
+ * catalog, so estimates drift by at most that fraction between refreshes.
+ */
+public class TableStats {
+
+    /** The default cost of reading a page from disk. */
+    public static final int IOCOSTPERPAGE = 1000;
+
+    /** The number of buckets of the histogram of an INT_TYPE field. */
+    public static final int NUM_HIST_BINS = 100;
+
+    /** The number of rows sampled to build histograms. */
+    public static final int SAMPLE_SIZE = 20000;
+
+    /** The number of most common values kept for a STRING_TYPE field. */
+    public static final int NUM_MCVS = 16;
+
+    /** Selectivity assumed for a range predicate on a STRING_TYPE field. */
+    public static final double STRING_RANGE_SELECTIVITY = 1.0 / 3;
+
+    /** Selectivity assumed for a LIKE predicate on a STRING_TYPE field. */
+    public static final double STRING_LIKE_SELECTIVITY = 0.1;
+
+    /**
+     * The fraction of a table's rows that may be inserted or deleted before
+     * its statistics are recomputed.
+     */
+    public static final double STALE_FRACTION = 0.2;
+
+    /** Statistics are never recomputed after fewer modifications than this. */
+    public static final int MIN_STALE_MODIFICATIONS = 500;
+
+    private static final Executor DAEMON_THREADS = new Executor() {
+        public void execute(Runnable task) {
+            Thread t = new Thread(task, "table-stats-refresh");
+            t.setDaemon(true);
+            t.start();
+        }
+    };
+    private static volatile Executor refreshExecutor = DAEMON_THREADS;
+
+    private final int tableid;
+    private final int ioCostPerPage;
+    private int numPages;
+    private long numTuples;
+    // the rows when the statistics were taken, and the changes since
+    private long builtTuples;
+    private long modifications = 0;
+    private final AtomicBoolean refreshing = new AtomicBoolean(false);
+    private final TupleDesc td;
+    private final HyperLogLog[] sketches;
+    // for INT_TYPE fields, else null
+    private final IntHistogram[] histograms;
+    // for STRING_TYPE fields, else null: the most common values, by count
+    private final Field[][] mcvs;
+    private final long[][] mcvCounts;
+
+    /**
+     * Computes the statistics of a table with a scan of its DbFile.
+     *
+     * @param tableid
+     *            the table to scan
+     * @param ioCostPerPage
+     *            the cost of reading a page; scan costs are proportional
+     *            to it
+     */
+    public TableStats(int tableid, int ioCostPerPage) throws DbException, TransactionAbortedException {
+        this(tableid, ioCostPerPage, Database.getCatalog().getTupleDesc(tableid));
+        DbFile file = Database.getCatalog().getDbFile(tableid);
+        this.numPages = numPages(file);
+
+        int n = td.numFields();
+        int[][] samples = new int[n][];
+        int[] min = new int[n], max = new int[n];
+        ArrayList<HashMap<Field, long[]>> counters = new ArrayList<HashMap<Field, long[]>>();
+        for (int i = 0; i < n; i++) {
+            sketches[i] = new HyperLogLog();
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                samples[i] = new int[SAMPLE_SIZE];
+                min[i] = Integer.MAX_VALUE;
+                max[i] = Integer.MIN_VALUE;
+            }
+            counters.add(td.getFieldType(i) == Type.STRING_TYPE ? new HashMap<Field, long[]>() : null);
+        }
+
+        Random rand = new Random(tableid);
+        DbFileIterator it = file.iterator(new TransactionId());
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            // reservoir sampling: the row replaces a random sampled row
+            long row = numTuples++;
+            int slot = row < SAMPLE_SIZE ? (int) row : (int) (rand.nextDouble() * (row + 1));
+            for (int i = 0; i < n; i++) {
+                Field f = t.getField(i);
+                sketches[i].add(f);
+                if (samples[i] != null) {
+                    int v = ((IntField) f).getValue();
+                    min[i] = Math.min(min[i], v);
+                    max[i] = Math.max(max[i], v);
+                    if (slot < SAMPLE_SIZE)
+                        samples[i][slot] = v;
+                } else {
+                    spaceSaving(counters.get(i), f);
+                }
+            }
+        }
+        it.close();
+
+        int sampled = (int) Math.min(numTuples, SAMPLE_SIZE);
+        for (int i = 0; i < n; i++) {
+            if (samples[i] != null) {
+                Arrays.sort(samples[i], 0, sampled);
+                histograms[i] = new IntHistogram(samples[i], sampled, numTuples, min[i], max[i], NUM_HIST_BINS);
+            } else {
+                setMcvs(i, counters.get(i));
+            }
+        }
+        this.builtTuples = numTuples;
+    }
+
+    private TableStats(int tableid, int ioCostPerPage, TupleDesc td) {
+        this.tableid = tableid;
+        this.ioCostPerPage = ioCostPerPage;
+        this.td = td;
+        int n = td.numFields();
+        this.sketches = new HyperLogLog[n];
+        this.histograms = new IntHistogram[n];
+        this.mcvs = new Field[n][];
+        this.mcvCounts = new long[n][];
+    }
+
+    /**
+     * Counts a value with the Space-Saving algorithm: when all counters are
+     * taken, the value takes over the smallest one, which then overcounts
+     * it by at most its previous count. Each counter is {count, error}.
+     */
+    private static void spaceSaving(HashMap<Field, long[]> counters, Field f) {
+        long[] c = counters.get(f);
+        if (c != null) {
+            c[0]++;
+            return;
+        }
+        if (counters.size() < 4 * NUM_MCVS) {
+            counters.put(f, new long[] { 1, 0 });
+            return;
+        }
+        Field victim = null;
+        long[] smallest = null;
+        for (Map.Entry<Field, long[]> e : counters.entrySet()) {
+            if (smallest == null || e.getValue()[0] < smallest[0]) {
+                victim = e.getKey();
+                smallest = e.getValue();
+            }
+        }
+        counters.remove(victim);
+        counters.put(f, new long[] { smallest[0] + 1, smallest[0] });
+    }
+
+    /** Keeps the NUM_MCVS values with the largest guaranteed counts. */
+    private void setMcvs(int field, HashMap<Field, long[]> counters) {
+        ArrayList<Map.Entry<Field, long[]>> entries = new ArrayList<Map.Entry<Field, long[]>>(counters.entrySet());
+        Collections.sort(entries, new Comparator<Map.Entry<Field, long[]>>() {
+            public int compare(Map.Entry<Field, long[]> a, Map.Entry<Field, long[]> b) {
+                long ga = a.getValue()[0] - a.getValue()[1], gb = b.getValue()[0] - b.getValue()[1];
+                return ga > gb ? -1 : ga < gb ? 1 : 0;
+            }
+        });
+        int k = 0;
+        while (k < entries.size() && k < NUM_MCVS && entries.get(k).getValue()[0] > entries.get(k).getValue()[1])
+            k++;
+        mcvs[field] = new Field[k];
+        mcvCounts[field] = new long[k];
+        for (int i = 0; i < k; i++) {
+            mcvs[field][i] = entries.get(i).getKey();
+            mcvCounts[field][i] = entries.get(i).getValue()[0] - entries.get(i).getValue()[1];
+        }
+    }
+
+    /**
+     * @return the number of pages of a HeapFile, BTreeFile or HashFile, or
+     *         0 for a DbFile of another kind
+     */
+    static int numPages(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof BTreeFile)
+            return ((BTreeFile) file).numPages();
+        if (file instanceof HashFile)
+            return ((HashFile) file).numPages();
+        return 0;
+    }
+
+    /**
+     * Sets the executor that recomputes stale statistics. By default, or
+     * after setting null, each refresh runs on a new daemon thread.
+     */
+    static void setRefreshExecutor(Executor executor) {
+        refreshExecutor = executor == null ? DAEMON_THREADS : executor;
+    }
+
+    /**
+     * Counts a tuple inserted into the table.
+     *
+     * @param modified the pages the table file modified for the insert, or
+     *            null
+     */
+    public void addTuple(Tuple t, List<Page> modified) {
+        synchronized (this) {
+            numTuples++;
+            // the file is measured again only when the insert touched a
+            // page past the end counted so far, i.e. appended one
+            for (int i = 0; modified != null && i < modified.size(); i++) {
+                if (modified.get(i).getId().pageNumber() >= numPages) {
+                    numPages = numPages(Database.getCatalog().getDbFile(tableid));
+                    break;
+                }
+            }
+            for (int i = 0; i < sketches.length; i++) {
+                Field f = t.getField(i);
+                sketches[i].add(f);
+                if (histograms[i] != null)
+                    histograms[i].add(((IntField) f).getValue());
+                else
+                    countMcv(i, f, 1);
+            }
+            modifications++;
+        }
+        refreshIfStale();
+    }
+
+    /** Uncounts a tuple deleted from the table. */
+    public void removeTuple(Tuple t) {
+        synchronized (this) {
+            numTuples = Math.max(0, numTuples - 1);
+            for (int i = 0; i < sketches.length; i++) {
+                Field f = t.getField(i);
+                if (histograms[i] != null)
+                    histograms[i].remove(((IntField) f).getValue());
+                else
+                    countMcv(i, f, -1);
+            }
+            modifications++;
+        }
+        refreshIfStale();
+    }
+
+    private void countMcv(int field, Field f, int delta) {
+        for (int i = 0; i < mcvs[field].length; i++) {
+            if (mcvs[field][i].equals(f)) {
+                mcvCounts[field][i] = Math.max(0, mcvCounts[field][i] + delta);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if enough rows were inserted or deleted since the
+     *         statistics were taken that they should be recomputed
+     */
+    public synchronized boolean isStale() {
+        return modifications >= Math.max(MIN_STALE_MODIFICATIONS, STALE_FRACTION * builtTuples);
+    }
+
+    /** @return the rows inserted or deleted since the statistics were taken */
+    public synchronized long getModifications() {
+        return modifications;
+    }
+
+    /**
+     * Starts recomputing the statistics if they are stale and no refresh
+     * is running. The new statistics replace these in the catalog unless
+     * others were registered in the meantime.
+     */
+    private void refreshIfStale() {
+        if (!isStale() || !refreshing.compareAndSet(false, true))
+            return;
+        final TableStats stale = this;
+        refreshExecutor.execute(new Runnable() {
+            public void run() {
+                try {
+                    TableStats fresh = new TableStats(tableid, ioCostPerPage);
+                    Database.getCatalog().replaceTableStats(tableid, stale, fresh);
+                } catch (Exception e) {
+                    // keep the maintained statistics; a later change retries
+                    refreshing.set(false);
+                }
+            }
+        });
+    }
+
+    /** @return the id of the table the statistics describe */
+    public int getTableId() {
+        return tableid;
+    }
+
+    /** @return the number of pages the table had when the statistics were taken */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Estimates the cost of sequentially scanning the file, given that the
+     * cost to read a page is ioCostPerPage. Assumes no seeks and that no
+     * pages are in the buffer pool.
+     */
+    public synchronized double estimateScanCost() {
+        return (double) numPages * ioCostPerPage;
+    }
+
+    /**
+     * @return the number of tuples in the relation, given that a predicate
+     *         with the given selectivity is applied
+     */
+    public synchronized int estimateTableCardinality(double selectivityFactor) {
+        return (int) Math.min(Integer.MAX_VALUE, Math.round(numTuples * selectivityFactor));
+    }
+
+    /** @return the number of tuples in the table */
+    public synchronized int totalTuples() {
+        return (int) Math.min(Integer.MAX_VALUE, numTuples);
+    }
+
+    /** @return the estimated number of distinct values of a field */
+    public synchronized int numDistinct(int field) {
+        return (int) Math.max(numTuples == 0 ? 0 : 1, Math.min(numTuples, sketches[field].estimate()));
+    }
+
+    /**
+     * @return a copy of the histogram of an INT_TYPE field, or null for a
+     *         field of another type
+     */
+    public synchronized IntHistogram getHistogram(int field) {
+        return histograms[field] == null ? null : histograms[field].copy();
+    }
+
+    /**
+     * @return the most common values of a STRING_TYPE field, most common
+     *         first, or null for a field of another type
+     */
+    public synchronized Field[] getMostCommonValues(int field) {
+        return mcvs[field] == null ? null : mcvs[field].clone();
+    }
+
+    /**
+     * The average selectivity of a predicate on a field over the values it
+     * may be compared with; used when the constant is not known, as in a
+     * join.
+     */
+    public synchronized double avgSelectivity(int field, Predicate.Op op) {
+        if (numTuples == 0)
+            return 0;
+        double eq = 1.0 / numDistinct(field);
+        switch (op) {
+        case EQUALS:
+        case LIKE:
+            return eq;
+        case NOT_EQUALS:
+            return 1 - eq;
+        default:
+            return (1 - eq) / 2;
+        }
+    }
+
+    /**
+     * Estimates the selectivity of predicate {@code field op constant} on
+     * the table.
+     *
+     * @return the estimated fraction of the table's tuples that satisfy
+     *         the predicate
+     */
+    public synchronized double estimateSelectivity(int field, Predicate.Op op, Field constant) {
+        if (numTuples == 0)
+            return 0;
+        if (histograms[field] != null)
+            return histograms[field].estimateSelectivity(op, ((IntField) constant).getValue());
+        switch (op) {
+        case EQUALS:
+            return stringEqual(field, constant);
+        case NOT_EQUALS:
+            return 1 - stringEqual(field, constant);
+        case LIKE:
+            return STRING_LIKE_SELECTIVITY;
+        default:
+            return STRING_RANGE_SELECTIVITY;
+        }
+    }
+
+    private double stringEqual(int field, Field constant) {
+        long common = 0;
+        for (int i = 0; i < mcvs[field].length; i++) {
+            if (mcvs[field][i].equals(constant))
+                return (double) mcvCounts[field][i] / numTuples;
+            common += mcvCounts[field][i];
+        }
+        long rest = Math.max(0, numTuples - common);
+        long others = Math.max(1, numDistinct(field) - mcvs[field].length);
+        return (double) rest / others / numTuples;
+    }
+
+    /**
+     * Writes the statistics, to be read back by {@link #readFrom} for the
+     * same table.
+     */
+    public synchronized void writeTo(DataOutputStream out) throws IOException {
+        out.writeInt(numPages);
+        out.writeLong(numTuples);
+        out.writeInt(td.numFields());
+        for (int i = 0; i < td.numFields(); i++) {
+            sketches[i].writeTo(out);
+            if (histograms[i] != null) {
+                histograms[i].writeTo(out);
+            } else {
+                out.writeInt(mcvs[i].length);
+                for (int j = 0; j < mcvs[i].length; j++) {
+                    mcvs[i][j].serialize(out);
+                    out.writeLong(mcvCounts[i][j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads statistics written by {@link #writeTo}.
+     *
+     * @throws DbException if they do not match the schema of the table
+     */
+    public static TableStats readFrom(int tableid, int ioCostPerPage, DataInputStream in)
+            throws IOException, DbException {
+        TableStats s = new TableStats(tableid, ioCostPerPage, Database.getCatalog().getTupleDesc(tableid));
+        s.numPages = in.readInt();
+        s.numTuples = in.readLong();
+        if (in.readInt() != s.td.numFields())
+            throw new DbException("statistics do not match the schema of table " + tableid);
+        try {
+            for (int i = 0; i < s.td.numFields(); i++) {
+                s.sketches[i] = HyperLogLog.readFrom(in);
+                if (s.td.getFieldType(i) == Type.INT_TYPE) {
+                    s.histograms[i] = IntHistogram.readFrom(in);
+                } else {
+                    int k = in.readInt();
+                    s.mcvs[i] = new Field[k];
+                    s.mcvCounts[i] = new long[k];
+                    for (int j = 0; j < k; j++) {
+                        s.mcvs[i][j] = s.td.getFieldType(i).parse(in);
+                        s.mcvCounts[i][j] = in.readLong();
+                    }
+                }
+            }
+        } catch (ParseException e) {
+            throw new DbException("could not read statistics of table " + tableid + ": " + e.getMessage());
+        }
+        s.builtTuples = s.numTuples;
+        return s;
+    }
+}
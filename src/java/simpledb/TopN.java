@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TopN implements ORDER BY ... LIMIT n. Instead of sorting the whole child
+ * like {@link OrderBy}, it keeps a bounded binary heap of the n best tuples
+ * seen so far while consuming the child, so memory is proportional to n and
+ * each input tuple costs O(log n).
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private DbIterator child;
+    private int orderByField;
+    private boolean asc;
+    private int n;
+    private ArrayList<Tuple> top = new ArrayList<Tuple>();
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return; must not be negative
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, DbIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("n must not be negative, got " + n);
+        this.orderByField = orderbyField;
+        this.asc = asc;
+        this.n = n;
+        this.child = child;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return child.getTupleDesc().getFieldName(orderByField);
+    }
+
+    /**
+     * @return the maximum number of tuples returned by this operator
+     */
+    public int getLimit() {
+        return this.n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+
+        TupleComparator order = new TupleComparator(orderByField, asc);
+        top.clear();
+        if (n > 0) {
+            // the head of the heap is the worst of the current top n, i.e.
+            // the tuple that would be evicted next
+            PriorityQueue<Tuple> heap = new PriorityQueue<Tuple>(n,
+                    Collections.reverseOrder(order));
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                if (heap.size() < n) {
+                    heap.add(t);
+                } else if (order.compare(t, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(t);
+                }
+            }
+            top.addAll(heap);
+            Collections.sort(top, order);
+        }
+
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        clearLookahead();
+        it = top.iterator();
+    }
+
+    /**
+     * Returns the retained tuples in order.
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (it != null && it.hasNext())
+            return it.next();
+
+        return null;
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child = children[0];
+    }
+}
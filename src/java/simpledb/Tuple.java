@@ -57,11 +57,12 @@ public class Tuple implements Serializable {
      * Set the RecordId information for this tuple.
      * 
      * @param rid
-     *            the new RecordId for this tuple.
+     *            the new RecordId for this tuple, or null once the tuple
+     *            is no longer stored on a page.
      */
     public void setRecordId(RecordId rid) {
         // some code goes here
-        recordId = new RecordId(rid.getPageId(), rid.tupleno());
+        recordId = rid == null ? null : new RecordId(rid.getPageId(), rid.tupleno());
     }
 
     /**
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.lang.reflect.Array;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.UUID;
 
@@ -145,6 +148,37 @@ public class Utility {
         return hf;
     }
 
+    /**
+     * Finishes replacing the contents of f with those written to tmp: the
+     * data is forced to disk, out is closed, and tmp is renamed over f in a
+     * single atomic step, so that f holds either all of its old contents or
+     * all of the new ones, even after a crash.
+     *
+     * @param out the stream tmp was written through; it must be flushed
+     */
+    public static void replaceFile(FileOutputStream out, File tmp, File f) throws IOException {
+        try {
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Creates an array of a generic element type, which cannot be written
+     * as an array creation expression without a raw type.
+     *
+     * @param erasure the class of the elements without their type
+     *            arguments, e.g. HashMap.class for HashMap&lt;K, V&gt;
+     * @param n the length of the array
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T[] newArray(Class<?> erasure, int n) {
+        return (T[]) Array.newInstance(erasure, n);
+    }
+
     public static String listToString(ArrayList<Integer> list) {
         String out = "";
         for (Integer i : list) {
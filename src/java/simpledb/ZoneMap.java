@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A zone map of a HeapFile: the minimum and maximum of every INT_TYPE field
+ * on every page. A filtered scan consults it before fetching a page and
+ * skips the page when no value in its range can satisfy a predicate, so on
+ * data whose values follow insertion order (ids, dates) a selective range
+ * predicate reads only the few pages that can match.
+ * <p>
+ * The synopsis of a page is exact when the page is written by
+ * {@link HeapFile#writePage} or read clean by a filtered scan, and is
+ * widened by every insert in between, so it always covers the page's
+ * contents; deletes leave it wider than necessary until the page is next
+ * written. A page whose synopsis is not known is never skipped.
+ * <p>
+ * The zone map is kept in a {@link PageSidecar} named {@link #sidecarFile},
+ * whose header holds the number of INT_TYPE fields and whose record of a
+ * page holds the minimum and maximum of each field.
+ */
+public class ZoneMap {
+
+    private static final int MAGIC = 0x5A4D4150;
+
+    private final PageSidecar sidecar;
+    // the INT_TYPE fields of the table and, for each field, its column in
+    // the synopsis or -1
+    private final int[] fields;
+    private final int[] column;
+
+    private int[] mins = new int[0];
+    private int[] maxs = new int[0];
+    private BitSet known = new BitSet();
+
+    /**
+     * Opens the zone map of a heap file, loading its sidecar if it is
+     * present and up to date.
+     *
+     * @param heapFile the file backing the HeapFile
+     * @param td the schema of the HeapFile
+     */
+    public ZoneMap(File heapFile, TupleDesc td) {
+        this.column = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            column[i] = td.getFieldType(i) == Type.INT_TYPE ? n++ : -1;
+        this.fields = new int[n];
+        for (int i = 0; i < td.numFields(); i++) {
+            if (column[i] >= 0)
+                fields[column[i]] = i;
+        }
+
+        this.sidecar = new PageSidecar(sidecarFile(heapFile), new int[] { MAGIC, n }, 8 * n,
+                new PageSidecar.Records() {
+                    public void read(int pgNo, DataInput in) throws IOException {
+                        ensureCapacity(pgNo + 1);
+                        for (int c = 0; c < fields.length; c++) {
+                            mins[pgNo * fields.length + c] = in.readInt();
+                            maxs[pgNo * fields.length + c] = in.readInt();
+                        }
+                        known.set(pgNo);
+                    }
+
+                    public void write(int pgNo, DataOutput out) throws IOException {
+                        for (int c = 0; c < fields.length; c++) {
+                            out.writeInt(mins[pgNo * fields.length + c]);
+                            out.writeInt(maxs[pgNo * fields.length + c]);
+                        }
+                    }
+                });
+        if (!sidecar.load(heapFile))
+            known.clear();
+    }
+
+    /** @return the sidecar file that holds the zone map of a heap file */
+    public static File sidecarFile(File heapFile) {
+        return new File(heapFile.getPath() + ".zm");
+    }
+
+    /** @return the number of INT_TYPE fields the zone map covers */
+    public int numColumns() {
+        return fields.length;
+    }
+
+    private void ensureCapacity(int pages) {
+        int size = pages * fields.length;
+        if (mins.length < size) {
+            int newSize = Math.max(size, mins.length * 2);
+            mins = Arrays.copyOf(mins, newSize);
+            maxs = Arrays.copyOf(maxs, newSize);
+        }
+    }
+
+    /** @return true if the synopsis of page pgNo is known */
+    public synchronized boolean isKnown(int pgNo) {
+        return known.get(pgNo);
+    }
+
+    /**
+     * Records the exact synopsis of a page whose contents are on disk, and
+     * writes it to the sidecar.
+     */
+    public synchronized void update(HeapPage page) throws IOException {
+        int pgNo = page.getId().pageNumber();
+        ensureCapacity(pgNo + 1);
+        for (int c = 0; c < fields.length; c++) {
+            int[] values = page.getIntColumn(fields[c]);
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            for (int v : values) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+            mins[pgNo * fields.length + c] = min;
+            maxs[pgNo * fields.length + c] = max;
+        }
+        known.set(pgNo);
+        sidecar.write(pgNo);
+    }
+
+    /**
+     * Records the synopsis of a page read by a scan, if it is not known yet
+     * and the page has no unwritten changes.
+     */
+    public synchronized void learn(HeapPage page) throws IOException {
+        if (!known.get(page.getId().pageNumber()) && page.isDirty() == null)
+            update(page);
+    }
+
+    /** Records that page pgNo was just appended to the file, empty. */
+    public synchronized void setEmpty(int pgNo) throws IOException {
+        ensureCapacity(pgNo + 1);
+        for (int c = 0; c < fields.length; c++) {
+            mins[pgNo * fields.length + c] = Integer.MAX_VALUE;
+            maxs[pgNo * fields.length + c] = Integer.MIN_VALUE;
+        }
+        known.set(pgNo);
+        sidecar.write(pgNo);
+    }
+
+    /**
+     * Widens the synopsis of page pgNo to cover a tuple inserted into it.
+     * The change reaches the sidecar when the page is written.
+     */
+    public synchronized void widen(int pgNo, Tuple t) {
+        if (!known.get(pgNo))
+            return;
+        for (int c = 0; c < fields.length; c++) {
+            int v = ((IntField) t.getField(fields[c])).getValue();
+            int i = pgNo * fields.length + c;
+            mins[i] = Math.min(mins[i], v);
+            maxs[i] = Math.max(maxs[i], v);
+        }
+    }
+
+    /**
+     * @return false if no tuple on page pgNo can satisfy (field op c); true
+     *         if one may, or if the page's synopsis is not known
+     */
+    public synchronized boolean mayMatch(int pgNo, int field, Predicate.Op op, int c) {
+        if (!known.get(pgNo) || column[field] < 0)
+            return true;
+        int i = pgNo * fields.length + column[field];
+        int min = mins[i], max = maxs[i];
+        if (min > max)
+            return false; // the page is empty
+        switch (op) {
+        case EQUALS:
+            return min <= c && c <= max;
+        case NOT_EQUALS:
+            return min != c || max != c;
+        case GREATER_THAN:
+            return max > c;
+        case GREATER_THAN_OR_EQ:
+            return max >= c;
+        case LESS_THAN:
+            return min < c;
+        case LESS_THAN_OR_EQ:
+            return min <= c;
+        default:
+            return true;
+        }
+    }
+}
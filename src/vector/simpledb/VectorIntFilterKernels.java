@@ -0,0 +1,101 @@
+package simpledb;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The {@link IntFilterKernels} implemented with the incubating Vector API.
+ * Each step compares a whole vector of values with the constant, giving a
+ * mask of the lanes that pass. A full mask is written out as a run of
+ * positions at once and an empty one is skipped; any other is turned into
+ * 0/1 flags and compacted as the scalar kernels do. Values past the last
+ * full vector go through the scalar kernels.
+ * <p>
+ * This class is compiled separately, with jdk.incubator.vector added, and
+ * only loaded by IntFilterKernels when the module is present at run time.
+ */
+final class VectorIntFilterKernels implements IntFilterKernels.Kernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+    private static final IntVector ZERO = IntVector.zero(SPECIES);
+    private static final IntVector IOTA = ZERO.addIndex(1);
+
+    /**
+     * Compares every lane of v with c. The comparison passed to compare()
+     * must be a constant for the JIT to emit a vector instruction, so it is
+     * chosen here rather than passed in; the switch is the same on every
+     * step and is hoisted out of the callers' loops.
+     */
+    private static VectorMask<Integer> compare(Predicate.Op op, IntVector v, int c) {
+        switch (op) {
+        case EQUALS:
+            return v.compare(VectorOperators.EQ, c);
+        case NOT_EQUALS:
+            return v.compare(VectorOperators.NE, c);
+        case GREATER_THAN:
+            return v.compare(VectorOperators.GT, c);
+        case GREATER_THAN_OR_EQ:
+            return v.compare(VectorOperators.GE, c);
+        case LESS_THAN:
+            return v.compare(VectorOperators.LT, c);
+        case LESS_THAN_OR_EQ:
+            return v.compare(VectorOperators.LE, c);
+        default:
+            throw new IllegalArgumentException("no kernel for operator " + op);
+        }
+    }
+
+    public int select(Predicate.Op op, int[] values, int n, int c, int[] sel) {
+        if (!IntFilterKernels.supports(op))
+            throw new IllegalArgumentException("no kernel for operator " + op);
+        int[] flags = new int[LANES];
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        int i = 0;
+        for (; i < bound; i += LANES) {
+            VectorMask<Integer> m = compare(op, IntVector.fromArray(SPECIES, values, i), c);
+            if (m.allTrue()) {
+                IOTA.add(i).intoArray(sel, k);
+                k += LANES;
+            } else if (m.anyTrue()) {
+                ZERO.blend(1, m).intoArray(flags, 0);
+                for (int l = 0; l < LANES; l++) {
+                    sel[k] = i + l;
+                    k += flags[l];
+                }
+            }
+        }
+        return IntFilterKernels.selectFrom(op, values, i, n, c, sel, k);
+    }
+
+    public int refine(Predicate.Op op, int[] values, int c, int[] in, int n, int[] out) {
+        if (!IntFilterKernels.supports(op))
+            throw new IllegalArgumentException("no kernel for operator " + op);
+        // in may be out, so the positions of a step are copied before any
+        // output is written; the output never runs ahead of the input
+        int[] positions = new int[LANES];
+        int[] flags = new int[LANES];
+        int bound = SPECIES.loopBound(n);
+        int k = 0;
+        int j = 0;
+        for (; j < bound; j += LANES) {
+            IntVector p = IntVector.fromArray(SPECIES, in, j);
+            VectorMask<Integer> m = compare(op, IntVector.fromArray(SPECIES, values, 0, in, j), c);
+            if (m.allTrue()) {
+                p.intoArray(out, k);
+                k += LANES;
+            } else if (m.anyTrue()) {
+                p.intoArray(positions, 0);
+                ZERO.blend(1, m).intoArray(flags, 0);
+                for (int l = 0; l < LANES; l++) {
+                    out[k] = positions[l];
+                    k += flags[l];
+                }
+            }
+        }
+        return IntFilterKernels.refineFrom(op, values, c, in, j, n, out, k);
+    }
+}
@@ -0,0 +1,278 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class AggregateTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator scan3;
+
+    DbIterator sum;
+    DbIterator sumstring;
+
+    DbIterator avg;
+    DbIterator max;
+    DbIterator min;
+    DbIterator count;
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[] { 1, 2,
+                            1, 4,
+                            1, 6,
+                            3, 2,
+                            3, 4,
+                            3, 6,
+                            5, 7 });
+        this.scan2 = TestUtil.createTupleList(width1,
+                new Object[] { 1, "a",
+                               1, "a",
+                               1, "a",
+                               3, "a",
+                               3, "a",
+                               3, "a",
+                               5, "a" });
+        this.scan3 = TestUtil.createTupleList(width1,
+                new Object[] { "a", 2,
+                               "a", 4,
+                               "a", 6,
+                               "b", 2,
+                               "b", 4,
+                               "b", 6,
+                               "c", 7 });
+
+        this.sum = TestUtil.createTupleList(width1,
+                new int[] { 1, 12,
+                            3, 12,
+                            5, 7 });
+        this.sumstring = TestUtil.createTupleList(width1,
+                new Object[] { "a", 12,
+                               "b", 12,
+                               "c", 7 });
+
+        this.avg = TestUtil.createTupleList(width1,
+                new int[] { 1, 4,
+                            3, 4,
+                            5, 7 });
+        this.min = TestUtil.createTupleList(width1,
+                new int[] { 1, 2,
+                            3, 2,
+                            5, 7 });
+        this.max = TestUtil.createTupleList(width1,
+                new int[] { 1, 6,
+                            3, 6,
+                            5, 7 });
+        this.count = TestUtil.createTupleList(width1,
+                new int[] { 1, 3,
+                            3, 3,
+                            5, 1 });
+    }
+
+    /**
+     * Unit test for Aggregate.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        Aggregate op = new Aggregate(scan1, 0, 0, Aggregator.Op.MIN);
+        TupleDesc expected = Utility.getTupleDesc(2);
+        TupleDesc actual = op.getTupleDesc();
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Unit test for Aggregate.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+
+        op.rewind();
+        sum.open();
+        TestUtil.matchAllTuples(sum, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using a count aggregate with string types
+     */
+    @Test public void countStringAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan2, 1, 0, Aggregator.Op.COUNT);
+        op.open();
+        count.open();
+        TestUtil.matchAllTuples(count, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using a sum aggregate grouped on strings
+     */
+    @Test public void sumStringGroupBy() throws Exception {
+        Aggregate op = new Aggregate(scan3, 1, 0, Aggregator.Op.SUM);
+        op.open();
+        sumstring.open();
+        TestUtil.matchAllTuples(sumstring, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using a sum aggregate
+     */
+    @Test public void sumAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM);
+        op.open();
+        sum.open();
+        TestUtil.matchAllTuples(sum, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using an avg aggregate
+     */
+    @Test public void avgAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.AVG);
+        op.open();
+        avg.open();
+        TestUtil.matchAllTuples(avg, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using a max aggregate
+     */
+    @Test public void maxAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.MAX);
+        op.open();
+        max.open();
+        TestUtil.matchAllTuples(max, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() using a min aggregate
+     */
+    @Test public void minAggregate() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.MIN);
+        op.open();
+        min.open();
+        TestUtil.matchAllTuples(min, op);
+    }
+
+    /**
+     * Unit test for Aggregate.getNext() without a group by field
+     */
+    @Test public void noGrouping() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+        op.open();
+        assertTrue(op.hasNext());
+        assertEquals(new IntField(31), op.next().getField(0));
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * Aggregating with a tiny in-memory table spills groups to disk and still
+     * produces exactly one correct result per group.
+     */
+    @Test public void spillsWhenGroupsExceedMemory() throws Exception {
+        final int groups = 1000;
+        ArrayList<Tuple> tups = new ArrayList<Tuple>();
+        for (int rep = 0; rep < 3; rep++) {
+            for (int g = 0; g < groups; g++)
+                tups.add(Utility.getTuple(new int[] { g, g + rep }, 2));
+        }
+        TupleIterator input = new TupleIterator(Utility.getTupleDesc(2), tups);
+
+        HashAggregator agg = new HashAggregator(0, Type.INT_TYPE, 1, Type.INT_TYPE,
+                Aggregator.Op.SUM, 16);
+        input.open();
+        while (input.hasNext())
+            agg.mergeTupleIntoGroup(input.next());
+        assertTrue(agg.hasSpilled());
+
+        DbIterator it = agg.iterator();
+        it.open();
+        boolean[] seen = new boolean[groups];
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            int g = ((IntField) t.getField(0)).getValue();
+            assertFalse("group " + g + " returned twice", seen[g]);
+            seen[g] = true;
+            assertEquals(new IntField(3 * g + 3), t.getField(1));
+            n++;
+        }
+        assertEquals(groups, n);
+        it.close();
+        agg.discardSpill();
+    }
+
+    /**
+     * Streaming mode over input sorted on the group field produces the same
+     * groups as the hash aggregate.
+     */
+    @Test public void streamingAggregates() throws Exception {
+        Aggregator.Op[] ops = new Aggregator.Op[] { Aggregator.Op.SUM,
+                Aggregator.Op.AVG, Aggregator.Op.MIN, Aggregator.Op.MAX, Aggregator.Op.COUNT };
+        DbIterator[] expected = new DbIterator[] { sum, avg, min, max, count };
+        for (int i = 0; i < ops.length; i++) {
+            DbIterator input = TestUtil.createTupleList(width1,
+                    new int[] { 1, 2, 1, 4, 1, 6, 3, 2, 3, 4, 3, 6, 5, 7 });
+            Aggregate op = new Aggregate(input, 1, 0, ops[i], true);
+            assertTrue(op.isStreaming());
+            op.open();
+            expected[i].open();
+            TestUtil.compareDbIterators(expected[i], op);
+
+            op.rewind();
+            expected[i].rewind();
+            TestUtil.compareDbIterators(expected[i], op);
+        }
+    }
+
+    /**
+     * Streaming mode returns the first group before the child is exhausted.
+     */
+    @Test public void streamingReturnsEarly() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, 0, Aggregator.Op.SUM, true);
+        op.open();
+        Tuple first = op.next();
+        assertEquals(new IntField(1), first.getField(0));
+        assertEquals(new IntField(12), first.getField(1));
+        assertTrue(scan1.hasNext());
+    }
+
+    /**
+     * Streaming mode without grouping returns a single result.
+     */
+    @Test public void streamingNoGrouping() throws Exception {
+        Aggregate op = new Aggregate(scan1, 1, Aggregator.NO_GROUPING, Aggregator.Op.MAX, true);
+        op.open();
+        assertEquals(new IntField(7), op.next().getField(0));
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * Only COUNT may be computed over string fields.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void sumOverStringsRejected() {
+        new HashAggregator(0, Type.INT_TYPE, 1, Type.STRING_TYPE, Aggregator.Op.SUM);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(AggregateTest.class);
+    }
+}
@@ -0,0 +1,172 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileEncoderTest extends SimpleDbTestBase {
+
+    private static final TupleDesc STRING_TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+    private final TransactionId tid = new TransactionId();
+
+    private static Tuple tuple(Field key, int value) {
+        Tuple t = new Tuple(STRING_TD);
+        t.setField(0, key);
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static StringField skey(int k) {
+        return new StringField(String.format("%05d", k), Type.STRING_LEN);
+    }
+
+    private static ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    /**
+     * Loads n string-keyed tuples in random order, with every key repeated
+     * three times, and returns the file added to the Catalog.
+     */
+    private BTreeFile load(int n, double fillFactor, int runSize) throws Exception {
+        BTreeFileEncoder encoder = new BTreeFileEncoder(STRING_TD, 0, fillFactor, runSize);
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++)
+            order.add(i);
+        Collections.shuffle(order, new Random(40));
+        for (int i : order)
+            encoder.add(tuple(skey(i / 3), i));
+        File f = TestUtil.tempFile("btree", ".dat");
+        encoder.write(f);
+        BTreeFile file = new BTreeFile(f, 0, STRING_TD);
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        return file;
+    }
+
+    @Test public void emptyInput() throws Exception {
+        BTreeFile file = load(0, BTreeFileEncoder.DEFAULT_FILL_FACTOR, BTreeFileEncoder.DEFAULT_RUN_SIZE);
+        assertEquals(2, file.numPages());
+        assertEquals(1, BTreeFileTest.checkTree(tid, file));
+        assertTrue(scan(file.iterator(tid)).isEmpty());
+    }
+
+    /**
+     * A bulk load builds a valid tree whose leaves hold the fill factor's
+     * share of tuples, and it keeps working under ordinary inserts.
+     */
+    @Test public void fillFactor() throws Exception {
+        int maxTuples = BTreeLeafPage.maxTuples(STRING_TD);
+        BTreeFile full = load(3000, 1.0, BTreeFileEncoder.DEFAULT_RUN_SIZE);
+        BTreeFile half = load(3000, 0.5, BTreeFileEncoder.DEFAULT_RUN_SIZE);
+        assertEquals(3, BTreeFileTest.checkTree(tid, full));
+        BTreeFileTest.checkTree(tid, half);
+
+        int fullLeaves = (3000 + maxTuples - 1) / maxTuples;
+        int halfLeaves = (3000 + maxTuples / 2 - 1) / (maxTuples / 2);
+        assertTrue(half.numPages() > full.numPages());
+        assertTrue(full.numPages() - 1 - fullLeaves < fullLeaves / 10);
+        assertTrue(half.numPages() - 1 - halfLeaves < halfLeaves / 10);
+
+        ArrayList<Tuple> all = scan(half.iterator(tid));
+        assertEquals(3000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(skey(i / 3), all.get(i).getField(0));
+
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, half.getId(), tuple(skey(i), -i));
+        BTreeFileTest.checkTree(tid, half);
+        assertEquals(4, scan(half.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, skey(7)))).size());
+    }
+
+    /**
+     * With a small run size the input is sorted externally, and duplicates
+     * still come out in the order they were added.
+     */
+    @Test public void externalSort() throws Exception {
+        BTreeFile file = load(2000, BTreeFileEncoder.DEFAULT_FILL_FACTOR, 150);
+        BTreeFileTest.checkTree(tid, file);
+        ArrayList<Tuple> all = scan(file.iterator(tid));
+        assertEquals(2000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(skey(i / 3), all.get(i).getField(0));
+
+        ArrayList<Tuple> expected = new ArrayList<Tuple>();
+        ArrayList<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < 2000; i++)
+            order.add(i);
+        Collections.shuffle(order, new Random(40));
+        for (int i : order) {
+            if (i / 3 == 100)
+                expected.add(tuple(skey(100), i));
+        }
+        ArrayList<Tuple> found = scan(file.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, skey(100))));
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < found.size(); i++)
+            assertEquals(expected.get(i).getField(1), found.get(i).getField(1));
+    }
+
+    @Test public void convertTextFile() throws Exception {
+        File in = File.createTempFile("table", ".txt");
+        in.deleteOnExit();
+        PrintWriter w = new PrintWriter(new FileWriter(in));
+        for (int i = 0; i < 1000; i++)
+            w.println((i * 7919) % 1000 + "|name" + i);
+        w.close();
+        File out = TestUtil.tempFile("btree", ".dat");
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        BTreeFileEncoder.convert(in, out, types, '|', 0, 0.75);
+
+        BTreeFile file = new BTreeFile(out, 0, new TupleDesc(types));
+        Database.getCatalog().addTable(file, "converted");
+        BTreeFileTest.checkTree(tid, file);
+        ArrayList<Tuple> all = scan(file.iterator(tid));
+        assertEquals(1000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(new IntField(i), all.get(i).getField(0));
+    }
+
+    /** A load that fails part way leaves the previous file untouched. */
+    @Test public void failedWriteKeepsFile() throws Exception {
+        BTreeFile file = load(300, BTreeFileEncoder.DEFAULT_FILL_FACTOR, BTreeFileEncoder.DEFAULT_RUN_SIZE);
+        byte[] before = TestUtil.readFileBytes(file.getFile().getPath());
+
+        BTreeFileEncoder encoder = new BTreeFileEncoder(STRING_TD, 0);
+        for (int i = 0; i < 300; i++)
+            encoder.add(tuple(skey(i), i));
+        encoder.add(tuple(new IntField(0), 0));
+        try {
+            encoder.write(file.getFile());
+            fail("wrote keys of two types");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        assertTrue(Arrays.equals(before, TestUtil.readFileBytes(file.getFile().getPath())));
+        assertFalse(new File(file.getFile().getPath() + ".tmp").exists());
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void badFillFactor() {
+        new BTreeFileEncoder(STRING_TD, 0, 1.5, BTreeFileEncoder.DEFAULT_RUN_SIZE);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileEncoderTest.class);
+    }
+}
@@ -0,0 +1,255 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc INT_TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+    // 30 tuples per leaf and 30 keys per internal page, so a few thousand
+    // tuples build a tree three levels deep
+    private static final TupleDesc STRING_TD = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+
+    private final TransactionId tid = new TransactionId();
+
+    private BTreeFile createBTree(TupleDesc td, int key) throws Exception {
+        File f = TestUtil.tempFile("btree", ".dat");
+        BTreeFile file = new BTreeFile(f, key, td);
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        return file;
+    }
+
+    private static Tuple tuple(TupleDesc td, Field key, int value) {
+        Tuple t = new Tuple(td);
+        t.setField(0, key);
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static StringField skey(int k) {
+        return new StringField(String.format("%05d", k), Type.STRING_LEN);
+    }
+
+    private static ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    private static void assertSorted(List<Tuple> tuples, int key) {
+        for (int i = 1; i < tuples.size(); i++)
+            assertTrue(BTreePage.compareKeys(tuples.get(i - 1).getField(key), tuples.get(i).getField(key)) <= 0);
+    }
+
+    /**
+     * Checks the structure of the tree under pid: parent pointers, key
+     * bounds and the left-to-right leaf chain.
+     *
+     * @return the depth of the subtree
+     */
+    private static int checkTree(TransactionId tid, BTreePageId pid, BTreePageId parent, Field lower,
+            Field upper, ArrayList<BTreePageId> leaves) throws Exception {
+        BTreePage page = (BTreePage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(parent, page.getParentId());
+        if (page instanceof BTreeLeafPage) {
+            BTreeLeafPage leaf = (BTreeLeafPage) page;
+            for (int i = 0; i < leaf.getNumTuples(); i++) {
+                Field k = leaf.getKey(i);
+                assertTrue(lower == null || BTreePage.compareKeys(lower, k) <= 0);
+                assertTrue(upper == null || BTreePage.compareKeys(k, upper) <= 0);
+                assertEquals(new RecordId(pid, i), leaf.getTuple(i).getRecordId());
+            }
+            BTreePageId left = leaves.isEmpty() ? null : leaves.get(leaves.size() - 1);
+            assertEquals(left, leaf.getLeftSiblingId());
+            leaves.add(pid);
+            return 1;
+        }
+        BTreeInternalPage internal = (BTreeInternalPage) page;
+        assertEquals(internal.getNumKeys() + 1, internal.getNumChildren());
+        int depth = -1;
+        for (int i = 0; i < internal.getNumChildren(); i++) {
+            Field lo = i == 0 ? lower : internal.getKey(i - 1);
+            Field hi = i == internal.getNumKeys() ? upper : internal.getKey(i);
+            int d = checkTree(tid, internal.getChildId(i), pid, lo, hi, leaves);
+            assertTrue(depth == -1 || depth == d);
+            depth = d;
+        }
+        return depth + 1;
+    }
+
+    static int checkTree(TransactionId tid, BTreeFile file) throws Exception {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(tid,
+                BTreeRootPtrPage.getId(file.getId()), Permissions.READ_ONLY);
+        ArrayList<BTreePageId> leaves = new ArrayList<BTreePageId>();
+        int depth = checkTree(tid, rootPtr.getRootId(), rootPtr.getId(), null, null, leaves);
+        BTreeLeafPage last = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+                leaves.get(leaves.size() - 1), Permissions.READ_ONLY);
+        assertNull(last.getRightSiblingId());
+        return depth;
+    }
+
+    private Tuple lookup(BTreeFile file, Field key) throws Exception {
+        DbFileIterator it = file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, key));
+        it.open();
+        Tuple t = it.hasNext() ? it.next() : null;
+        it.close();
+        return t;
+    }
+
+    @Test public void emptyFile() throws Exception {
+        BTreeFile file = createBTree(INT_TD, 0);
+        assertTrue(scan(file.iterator(tid)).isEmpty());
+        assertEquals(2, file.numPages());
+        assertEquals(1, checkTree(tid, file));
+    }
+
+    /**
+     * Tuples inserted in random order come back sorted, and every
+     * IndexPredicate operator returns the same tuples as a filtered scan.
+     */
+    @Test public void insertAndSearch() throws Exception {
+        BTreeFile file = createBTree(INT_TD, 0);
+        Random rand = new Random(38);
+        int[] counts = new int[1000];
+        for (int i = 0; i < 3000; i++) {
+            int k = rand.nextInt(1000);
+            counts[k]++;
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(INT_TD, new IntField(k), i));
+        }
+
+        ArrayList<Tuple> all = scan(file.iterator(tid));
+        assertEquals(3000, all.size());
+        assertSorted(all, 0);
+        assertEquals(2, checkTree(tid, file));
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            if (op == Predicate.Op.LIKE)
+                continue;
+            IntField c = new IntField(500);
+            int expected = 0;
+            for (Tuple t : all) {
+                if (t.getField(0).compare(op, c))
+                    expected++;
+            }
+            ArrayList<Tuple> found = scan(file.indexIterator(tid, new IndexPredicate(op, c)));
+            assertEquals(op.toString(), expected, found.size());
+            assertSorted(found, 0);
+        }
+        for (int k = 0; k < 1000; k += 7)
+            assertEquals(counts[k], scan(file.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, new IntField(k)))).size());
+    }
+
+    /**
+     * Enough string-keyed tuples to split internal pages, then deletes that
+     * merge and redistribute them, with the tree checked after each phase.
+     * The tree is larger than the BufferPool, so pages are evicted and
+     * written back throughout.
+     */
+    @Test public void splitAndMerge() throws Exception {
+        BTreeFile file = createBTree(STRING_TD, 0);
+        Random rand = new Random(380);
+        int[] counts = new int[1500];
+        for (int i = 0; i < 3000; i++) {
+            int k = rand.nextInt(1500);
+            counts[k]++;
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(STRING_TD, skey(k), i));
+        }
+        assertTrue(file.numPages() > BufferPool.DEFAULT_PAGES);
+        assertEquals(3, checkTree(tid, file));
+        ArrayList<Tuple> all = scan(file.iterator(tid));
+        assertEquals(3000, all.size());
+        assertSorted(all, 0);
+
+        // delete every copy of most keys
+        int remaining = 3000;
+        for (int k = 0; k < 1500; k++) {
+            if (k % 10 == 0)
+                continue;
+            for (int j = 0; j < counts[k]; j++) {
+                Tuple t = lookup(file, skey(k));
+                assertNotNull(t);
+                Database.getBufferPool().deleteTuple(tid, t);
+                remaining--;
+            }
+            assertNull(lookup(file, skey(k)));
+            counts[k] = 0;
+        }
+        all = scan(file.iterator(tid));
+        assertEquals(remaining, all.size());
+        assertSorted(all, 0);
+        assertTrue(checkTree(tid, file) < 3);
+        for (int k = 0; k < 1500; k += 10)
+            assertEquals(counts[k], scan(file.indexIterator(tid,
+                    new IndexPredicate(Predicate.Op.EQUALS, skey(k)))).size());
+
+        // freed pages are reused before the file grows
+        int pages = file.numPages();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(STRING_TD, skey(rand.nextInt(1500)), i));
+        assertEquals(pages, file.numPages());
+        checkTree(tid, file);
+        assertEquals(remaining + 1000, scan(file.iterator(tid)).size());
+    }
+
+    /** Flushed pages are read back intact by a fresh BufferPool. */
+    @Test public void persistence() throws Exception {
+        BTreeFile file = createBTree(INT_TD, 1);
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(INT_TD, new IntField(i), 2000 - i));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        ArrayList<Tuple> all = scan(file.iterator(tid));
+        assertEquals(2000, all.size());
+        for (int i = 0; i < all.size(); i++)
+            assertEquals(new IntField(i + 1), all.get(i).getField(1));
+        checkTree(tid, file);
+    }
+
+    @Test public void indexScan() throws Exception {
+        BTreeFile file = createBTree(INT_TD, 0);
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(INT_TD, new IntField(i % 100), i));
+        IndexScan scan = new IndexScan(tid, file.getId(), "t",
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(10)));
+        assertEquals(2, scan.getTupleDesc().numFields());
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            assertTrue(((IntField) scan.next().getField(0)).getValue() < 10);
+            n++;
+        }
+        assertEquals(100, n);
+        scan.rewind();
+        assertTrue(scan.hasNext());
+        scan.close();
+    }
+
+    @Test(expected = DbException.class) public void deleteMissingTuple() throws Exception {
+        BTreeFile file = createBTree(INT_TD, 0);
+        Database.getBufferPool().insertTuple(tid, file.getId(), tuple(INT_TD, new IntField(1), 1));
+        Tuple t = lookup(file, new IntField(1));
+        Tuple other = tuple(INT_TD, new IntField(1), 2);
+        other.setRecordId(t.getRecordId());
+        Database.getBufferPool().deleteTuple(tid, other);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BitmapIndexTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 6000;
+
+    private final TransactionId tid = new TransactionId();
+    private File dataFile;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /** Writes a table of (id, genre in [0, 5), role in [0, 3)). */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(3);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, rand.nextInt(5), rand.nextInt(3))));
+        dataFile = TestUtil.writeTempHeapFile("bitmap", tuples, 3);
+    }
+
+    private File indexFile(int field) {
+        File f = new File(dataFile.getPath() + "." + field + ".bmi");
+        f.deleteOnExit();
+        return f;
+    }
+
+    private CountingHeapFile open() throws Exception {
+        CountingHeapFile file = TestUtil.openCounting(dataFile, 3, "t");
+        Database.getCatalog().addBitmapIndex(file.getId(), 1, indexFile(1));
+        Database.getCatalog().addBitmapIndex(file.getId(), 2, indexFile(2));
+        return file;
+    }
+
+    private static Predicate eq(int field, int value) {
+        return new Predicate(field, Predicate.Op.EQUALS, new IntField(value));
+    }
+
+    private HashSet<Integer> run(BitmapScan scan) throws Exception {
+        HashSet<Integer> ids = new HashSet<Integer>();
+        scan.open();
+        while (scan.hasNext())
+            assertTrue(ids.add(((IntField) scan.next().getField(0)).getValue()));
+        scan.close();
+        return ids;
+    }
+
+    @Test public void roaringMatchesTreeSet() throws Exception {
+        Random rand = new Random(11);
+        RoaringBitmap a = new RoaringBitmap(), b = new RoaringBitmap();
+        TreeSet<Integer> sa = new TreeSet<Integer>(), sb = new TreeSet<Integer>();
+        // a dense run that needs bitmap containers, and sparse values
+        for (int i = 0; i < 20000; i++) {
+            int v = rand.nextBoolean() ? rand.nextInt(70000) : rand.nextInt(Integer.MAX_VALUE);
+            a.add(v);
+            sa.add(v);
+            int w = rand.nextInt(140000);
+            b.add(w);
+            sb.add(w);
+        }
+        for (int i = 0; i < 5000; i++) {
+            int v = rand.nextInt(70000);
+            a.remove(v);
+            sa.remove(v);
+        }
+        assertEquals(sa.size(), a.getCardinality());
+        assertArrayEquals(toArray(sa), a.toArray());
+
+        TreeSet<Integer> and = new TreeSet<Integer>(sa);
+        and.retainAll(sb);
+        assertArrayEquals(toArray(and), RoaringBitmap.and(a, b).toArray());
+        TreeSet<Integer> or = new TreeSet<Integer>(sa);
+        or.addAll(sb);
+        assertArrayEquals(toArray(or), RoaringBitmap.or(a, b).toArray());
+        TreeSet<Integer> andNot = new TreeSet<Integer>(sa);
+        andNot.removeAll(sb);
+        assertArrayEquals(toArray(andNot), RoaringBitmap.andNot(a, b).toArray());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        a.writeTo(new DataOutputStream(bytes));
+        assertEquals(a.serializedSize(), bytes.size());
+        RoaringBitmap read = RoaringBitmap.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(a, read);
+    }
+
+    private static int[] toArray(Set<Integer> s) {
+        int[] out = new int[s.size()];
+        int i = 0;
+        for (int v : s)
+            out[i++] = v;
+        return out;
+    }
+
+    /**
+     * Conjunctions and disjunctions return exactly the matching tuples, and
+     * an empty combination reads no heap page.
+     */
+    @Test public void andOr() throws Exception {
+        CountingHeapFile file = open();
+        HashSet<Integer> expected = new HashSet<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == 2 && (t.get(2) == 0 || t.get(2) == 1))
+                expected.add(t.get(0));
+        }
+        BitmapScan scan = new BitmapScan(tid, file.getId(), "t",
+                new Predicate[][] { { eq(1, 2) }, { eq(2, 0), eq(2, 1) } });
+        assertEquals(expected, run(scan));
+
+        expected.clear();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 3 && t.get(2) == 2)
+                expected.add(t.get(0));
+        }
+        scan = new BitmapScan(tid, file.getId(), "t", new Predicate[] {
+                new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(3)), eq(2, 2) });
+        assertEquals(expected, run(scan));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        scan = new BitmapScan(tid, file.getId(), "t", new Predicate[] { eq(1, 2), eq(1, 3) });
+        scan.open();
+        assertEquals(0, scan.getMatchCount());
+        assertFalse(scan.hasNext());
+        scan.close();
+        assertEquals(0, file.reads);
+    }
+
+    @Test public void unindexedField() throws Exception {
+        CountingHeapFile file = open();
+        try {
+            new BitmapScan(tid, file.getId(), "t", new Predicate[] { eq(0, 1) });
+            fail("scanned a field without a bitmap index");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** Inserts and deletes through the BufferPool update the bitmaps. */
+    @Test public void maintained() throws Exception {
+        CountingHeapFile file = open();
+        Tuple t = new Tuple(file.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new IntField(9));
+        t.setField(2, new IntField(0));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+
+        BitmapScan scan = new BitmapScan(tid, file.getId(), "t", new Predicate[] { eq(1, 9) });
+        assertEquals(new HashSet<Integer>(Arrays.asList(ROWS)), run(scan));
+
+        scan.open();
+        Tuple found = scan.next();
+        scan.close();
+        Database.getBufferPool().deleteTuple(tid, found);
+        scan.open();
+        assertEquals(0, scan.getMatchCount());
+        scan.close();
+    }
+
+    /**
+     * A flushed index is loaded without reading the table; one whose heap
+     * file was rewritten is rebuilt.
+     */
+    @Test public void persistence() throws Exception {
+        open();
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        CountingHeapFile file = open();
+        assertEquals(0, file.reads);
+        assertEquals(5, Database.getCatalog().getBitmapIndex(file.getId(), 1).numValues());
+
+        for (ArrayList<Integer> t : tuples)
+            t.set(1, 7);
+        HeapFileEncoder.convert(tuples, dataFile, BufferPool.PAGE_SIZE, 3);
+        dataFile.setLastModified(indexFile(1).lastModified() + 1000);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = open();
+        assertEquals(1, Database.getCatalog().getBitmapIndex(file.getId(), 1).numValues());
+        BitmapScan scan = new BitmapScan(tid, file.getId(), "t", new Predicate[] { eq(1, 7) });
+        scan.open();
+        assertEquals(ROWS, scan.getMatchCount());
+        scan.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BitmapIndexTest.class);
+    }
+}
@@ -0,0 +1,177 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BlockNestedLoopJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+    DbIterator gtJoin;
+
+    /**
+     * Inner child that records how many times it has been rewound.
+     */
+    static class CountingIterator extends TupleIterator {
+        private static final long serialVersionUID = 1L;
+        int rewinds = 0;
+
+        CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+            super(td, tuples);
+        }
+
+        public void rewind() {
+            rewinds++;
+            super.rewind();
+        }
+    }
+
+    /**
+     * Initialize each unit test
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[] { 1, 2,
+                            3, 4,
+                            5, 6,
+                            7, 8 });
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[] { 1, 2, 3,
+                            2, 3, 4,
+                            3, 4, 5,
+                            4, 5, 6,
+                            5, 6, 7 });
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[] { 1, 2, 1, 2, 3,
+                            3, 4, 3, 4, 5,
+                            5, 6, 5, 6, 7 });
+        this.gtJoin = TestUtil.createTupleList(width1 + width2,
+                new int[] {
+                            3, 4, 1, 2, 3, // 1, 2 < 3
+                            3, 4, 2, 3, 4,
+                            5, 6, 1, 2, 3, // 1, 2, 3, 4 < 5
+                            5, 6, 2, 3, 4,
+                            5, 6, 3, 4, 5,
+                            5, 6, 4, 5, 6,
+                            7, 8, 1, 2, 3, // 1, 2, 3, 4, 5 < 7
+                            7, 8, 2, 3, 4,
+                            7, 8, 3, 4, 5,
+                            7, 8, 4, 5, 6,
+                            7, 8, 5, 6, 7 });
+    }
+
+    /**
+     * Unit test for BlockNestedLoopJoin.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    /**
+     * Unit test for BlockNestedLoopJoin with an equality predicate
+     */
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+        op.rewind();
+        assertEquals(3, count(op));
+    }
+
+    /**
+     * Unit test for BlockNestedLoopJoin with a non-equality predicate
+     */
+    @Test public void gtJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+        op.open();
+        gtJoin.open();
+        TestUtil.matchAllTuples(gtJoin, op);
+        op.rewind();
+        assertEquals(11, count(op));
+    }
+
+    /**
+     * LIKE predicates over string fields are evaluated pairwise
+     */
+    @Test public void likeJoin() throws Exception {
+        DbIterator left = TestUtil.createTupleList(1, new Object[] { "ann", "bob", "ob" });
+        DbIterator right = TestUtil.createTupleList(1, new Object[] { "an", "o", "zz" });
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LIKE, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, left, right);
+        op.open();
+        // "ann" like "an", "bob" like "o", "ob" like "o"
+        assertEquals(3, count(op));
+    }
+
+    /**
+     * The inner child is rewound once per outer block, not once per outer
+     * tuple.
+     */
+    @Test public void rescansPerBlock() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(1);
+        int perPage = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        int outerRows = perPage * 2 + 7;
+
+        ArrayList<Tuple> outerTups = new ArrayList<Tuple>();
+        for (int i = 0; i < outerRows; i++)
+            outerTups.add(Utility.getTuple(new int[] { i }, 1));
+        ArrayList<Tuple> innerTups = new ArrayList<Tuple>();
+        for (int i = 0; i < 50; i++)
+            innerTups.add(Utility.getTuple(new int[] { i * 3 }, 1));
+
+        TupleIterator outer = new TupleIterator(td, outerTups);
+        CountingIterator inner = new CountingIterator(td, innerTups);
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, outer, inner, 1);
+        op.open();
+        assertEquals(50, count(op));
+        // three blocks of outer tuples -> two rewinds of the inner child
+        assertEquals(2, inner.rewinds);
+    }
+
+    /**
+     * Unit test for BlockNestedLoopJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        BlockNestedLoopJoin op = new BlockNestedLoopJoin(pred, scan1, scan2);
+        op.open();
+        assertEquals(3, count(op));
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+        assertEquals(3, count(op));
+    }
+
+    private static int count(DbIterator it) throws Exception {
+        int n = 0;
+        while (it.hasNext()) {
+            assertNotNull(it.next());
+            n++;
+        }
+        return n;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BlockNestedLoopJoinTest.class);
+    }
+}
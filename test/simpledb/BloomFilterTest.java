@@ -0,0 +1,194 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BloomFilterTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private final TransactionId tid = new TransactionId();
+    private File dataFile;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /** Writes a table of (id, key), where keys are distinct and unordered. */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(7);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i * 7919 % 100003)));
+        Collections.shuffle(tuples, rand);
+        dataFile = TestUtil.writeTempHeapFile("bloom", tuples, 2);
+        PageBloomFilter.sidecarFile(dataFile, 1).deleteOnExit();
+    }
+
+    private CountingHeapFile open() {
+        CountingHeapFile file = TestUtil.openCounting(dataFile, 2, "t");
+        file.addBloomFilter(1);
+        return file;
+    }
+
+    private int count(HeapFile file, Predicate... predicates) throws Exception {
+        SelectionScan scan = new SelectionScan(tid, file.getId(), "t", predicates);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private static Predicate keyEquals(int key) {
+        return new Predicate(1, Predicate.Op.EQUALS, new IntField(key));
+    }
+
+    @Test public void membership() {
+        BloomFilter f = BloomFilter.forKeys(10000, 0.01);
+        for (int i = 0; i < 10000; i++)
+            f.add(i * 3);
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(f.mightContain(i * 3));
+            assertTrue(f.mightContain(new IntField(i * 3)));
+            if (f.mightContain(i * 3 + 1))
+                falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 300);
+
+        BloomFilter s = BloomFilter.forKeys(10, 0.01);
+        s.add(new StringField("star", Type.STRING_LEN));
+        assertTrue(s.mightContain(new StringField("star", Type.STRING_LEN)));
+    }
+
+    @Test public void merge() {
+        BloomFilter a = new BloomFilter(1024, 3);
+        BloomFilter b = new BloomFilter(1024, 3);
+        a.add(1);
+        b.add(2);
+        a.merge(b);
+        assertTrue(a.mightContain(1));
+        assertTrue(a.mightContain(2));
+        try {
+            a.merge(new BloomFilter(2048, 3));
+            fail("merged filters of different sizes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * The zone map cannot skip pages for a point lookup on an unordered
+     * column, but once the pages' Bloom filters are learned it reads only
+     * the page holding the key, plus rare false positives.
+     */
+    @Test public void pageFiltersSkipPages() throws Exception {
+        CountingHeapFile file = open();
+        int key = tuples.get(ROWS / 2).get(1);
+        assertEquals(1, count(file, keyEquals(key)));
+        assertEquals(file.numPages(), file.reads);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        assertEquals(1, count(file, keyEquals(key)));
+        assertTrue("reads: " + file.reads, file.reads <= 2);
+
+        file.reads = 0;
+        assertEquals(0, count(file, keyEquals(100004)));
+        assertTrue("reads: " + file.reads, file.reads <= 1);
+
+        // the filters are reloaded from the sidecar
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = open();
+        assertEquals(1, count(file, keyEquals(key)));
+        assertTrue("reads: " + file.reads, file.reads <= 2);
+    }
+
+    /** Keys inserted after the filters are learned are still found. */
+    @Test public void maintainedOnInsert() throws Exception {
+        CountingHeapFile file = open();
+        count(file, keyEquals(-1));
+
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(file.getTupleDesc());
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new IntField(-1 - i));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        }
+        assertEquals(1, count(file, keyEquals(-1)));
+        assertEquals(1, count(file, keyEquals(-600)));
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        assertEquals(1, count(file, keyEquals(-300)));
+        assertTrue("reads: " + file.reads, file.reads <= 2);
+    }
+
+    /**
+     * Probing a small build side pushes its keys into the probe scan, which
+     * drops most probe tuples without changing the join result.
+     */
+    @Test public void runtimeFilter() throws Exception {
+        ArrayList<ArrayList<Integer>> dimTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile dim = SystemTestUtil.createRandomHeapFile(2, 50, 1000, null, dimTuples);
+        ArrayList<ArrayList<Integer>> factTuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile fact = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, factTuples);
+
+        HashSet<Integer> dimKeys = new HashSet<Integer>();
+        for (ArrayList<Integer> t : dimTuples)
+            dimKeys.add(t.get(0));
+        int expected = 0;
+        for (ArrayList<Integer> ft : factTuples) {
+            for (ArrayList<Integer> dt : dimTuples) {
+                if (dt.get(0).equals(ft.get(1)))
+                    expected++;
+            }
+        }
+
+        PushHashBuild build = new Pipeline(new PushScan(tid, dim.getId(), "d")).build(0);
+        BloomFilter keys = build.getBloomFilter();
+        for (Integer k : dimKeys)
+            assertTrue(keys.mightContain(k));
+
+        PushScan probeScan = new PushScan(tid, fact.getId(), "f");
+        List<Tuple> joined = new Pipeline(probeScan).probe(build, 1).collect();
+        assertEquals(expected, joined.size());
+        assertTrue(probeScan.getDroppedCount() > 20000 * 9 / 10);
+
+        // the same through a SeqScan driven as a DbIterator
+        SeqScan seqScan = new SeqScan(tid, fact.getId(), "f");
+        joined = new Pipeline(seqScan).probe(build, 1).collect();
+        assertEquals(expected, joined.size());
+
+        ParallelHashJoin parallel = new ParallelHashJoin(tid,
+                new JoinPredicate(1, Predicate.Op.EQUALS, 0), fact.getId(), "f", dim.getId(), "d");
+        parallel.open();
+        int n = 0;
+        while (parallel.hasNext()) {
+            parallel.next();
+            n++;
+        }
+        parallel.close();
+        assertEquals(expected, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BloomFilterTest.class);
+    }
+}
@@ -0,0 +1,147 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class CatalogFileTest extends SimpleDbTestBase {
+
+    private File dir;
+    private File binary;
+    private TupleDesc peopleTd;
+
+    /**
+     * Loads a schema of two tables, one with a covering index, a bitmap
+     * index and Bloom filters, and writes it as a binary catalog.
+     */
+    @Before public void createCatalog() throws Exception {
+        dir = File.createTempFile("catalog", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 500; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 70, i % 4)));
+        HeapFileEncoder.convert(tuples, new File(dir, "people.dat"), BufferPool.PAGE_SIZE, 3);
+        new File(dir, "depts.dat").createNewFile();
+
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("people (id int pk, age int idx:id, dept int bitmap bloom)\n");
+        w.write("depts (id int pk, name string)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getPath());
+        Database.getBufferPool().flushAllPages();
+
+        binary = new File(dir, "catalog.bin");
+        Database.getCatalog().saveCatalog(binary.getPath());
+        peopleTd = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId("people"));
+        Database.getCatalog().clear();
+        for (File f : dir.listFiles())
+            f.deleteOnExit();
+    }
+
+    @Test public void roundTrip() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        catalog.loadCatalog(binary.getPath());
+
+        int people = catalog.getTableId("people");
+        TupleDesc td = catalog.getTupleDesc(people);
+        assertEquals(peopleTd, td);
+        assertEquals("age", td.getFieldName(1));
+        assertEquals("id", catalog.getPrimaryKey(people));
+        assertEquals(new File(dir, "people.dat").getAbsoluteFile(),
+                ((HeapFile) catalog.getDbFile(people)).getFile().getAbsoluteFile());
+
+        SecondaryIndex index = catalog.getIndex(people, 1);
+        assertNotNull(index);
+        assertArrayEquals(new int[] { 0 }, index.getIncludedFields());
+        assertEquals(4, catalog.getBitmapIndex(people, 2).numValues());
+        assertNotNull(((HeapFile) catalog.getDbFile(people)).getBloomFilter(2));
+
+        int depts = catalog.getTableId("depts");
+        assertEquals(Type.STRING_TYPE, catalog.getTupleDesc(depts).getFieldType(1));
+        assertTrue(catalog.getIndexes(depts).isEmpty());
+    }
+
+    /** Paths inside the catalog's directory survive moving the directory. */
+    @Test public void relativePaths() throws Exception {
+        File moved = new File(dir.getPath() + "-moved");
+        assertTrue(dir.renameTo(moved));
+        try {
+            Catalog catalog = Database.getCatalog();
+            catalog.loadCatalog(new File(moved, "catalog.bin").getPath());
+            int people = catalog.getTableId("people");
+            assertEquals(new File(moved, "people.dat").getAbsoluteFile(),
+                    ((HeapFile) catalog.getDbFile(people)).getFile().getAbsoluteFile());
+        } finally {
+            moved.renameTo(dir);
+        }
+    }
+
+    @Test public void corruptFileRejected() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(binary, "rw");
+        raf.seek(20);
+        int b = raf.read();
+        raf.seek(20);
+        raf.write(b ^ 0x10);
+        raf.close();
+        assertRejected();
+    }
+
+    @Test public void otherVersionRejected() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(binary, "rw");
+        raf.seek(4);
+        raf.writeInt(CatalogFile.VERSION + 1);
+        raf.close();
+        assertRejected();
+    }
+
+    @Test public void truncatedFileRejected() throws Exception {
+        RandomAccessFile raf = new RandomAccessFile(binary, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+        assertRejected();
+    }
+
+    private void assertRejected() throws Exception {
+        Catalog catalog = Database.getCatalog();
+        try {
+            catalog.loadCatalog(binary.getPath());
+            fail("loaded an invalid catalog file");
+        } catch (DbException e) {
+            // expected
+        }
+        assertFalse(catalog.tableIdIterator().hasNext());
+    }
+
+    /** A malformed text schema raises an exception instead of exiting. */
+    @Test public void badSchemaThrows() throws Exception {
+        File schema = new File(dir, "bad.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("t (a float)\n");
+        w.close();
+        try {
+            Database.getCatalog().loadSchema(schema.getPath());
+            fail("loaded a schema with an unknown type");
+        } catch (DbException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CatalogFileTest.class);
+    }
+}
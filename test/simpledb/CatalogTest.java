@@ -1,8 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
@@ -68,6 +72,90 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Adding a table under a taken name replaces the old table, and
+     * re-adding a table under a new name drops its old name.
+     */
+    @Test public void replaceByName() throws Exception {
+        Database.getCatalog().addTable(new SkeletonFile(-3, Utility.getTupleDesc(3)), name);
+        assertEquals(-3, Database.getCatalog().getTableId(name));
+        assertNull(Database.getCatalog().getTableName(-2));
+        try {
+            Database.getCatalog().getDbFile(-2);
+            Assert.fail("replaced table is still registered");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+
+        Database.getCatalog().addTable(Database.getCatalog().getDbFile(-3), "renamed");
+        assertEquals("renamed", Database.getCatalog().getTableName(-3));
+        assertSame(Database.getCatalog().getDbFile(-3), Database.getCatalog().getTableInfo("renamed").getFile());
+        try {
+            Database.getCatalog().getTableId(name);
+            Assert.fail("old name still resolves");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
+    /**
+     * Readers of an unchanged table are never disturbed by tables being
+     * added and replaced concurrently.
+     */
+    @Test public void concurrentReaders() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final TupleDesc expected = Utility.getTupleDesc(2);
+        Thread[] readers = new Thread[4];
+        for (int r = 0; r < readers.length; r++) {
+            readers[r] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < 20000; i++) {
+                            int id = Database.getCatalog().getTableId(name);
+                            assertEquals(-2, id);
+                            assertEquals(expected, Database.getCatalog().getTupleDesc(id));
+                            assertEquals(name, Database.getCatalog().getTableName(id));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            readers[r].start();
+        }
+        for (int i = 0; i < 2000; i++)
+            Database.getCatalog().addTable(new SkeletonFile(-10 - (i % 50), Utility.getTupleDesc(1)),
+                    "churn" + (i % 7));
+        for (Thread t : readers)
+            t.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
+    /** A table being replaced is found by concurrent lookups throughout. */
+    @Test public void replacedTableAlwaysFound() throws Exception {
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        Database.getCatalog().addTable(new SkeletonFile(-100, Utility.getTupleDesc(1)), "replaced");
+        Thread reader = new Thread() {
+            public void run() {
+                try {
+                    while (!done.get())
+                        assertEquals(1, Database.getCatalog().getTableInfo("replaced").getTupleDesc().numFields());
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        };
+        reader.start();
+        for (int i = 0; i < 50000 && failure.get() == null; i++)
+            Database.getCatalog().addTable(new SkeletonFile(-100 - (i % 2), Utility.getTupleDesc(1)), "replaced");
+        done.set(true);
+        reader.join();
+        if (failure.get() != null)
+            throw new AssertionError(failure.get());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,193 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+    /**
+     * MockScan that records when the exchange closes it.
+     */
+    private static class ClosingScan extends TestUtil.MockScan {
+        private static final long serialVersionUID = 1L;
+        final CountDownLatch closed = new CountDownLatch(1);
+
+        ClosingScan(int low, int high, int width) {
+            super(low, high, width);
+        }
+
+        public void close() {
+            closed.countDown();
+        }
+    }
+
+    /**
+     * MockScan that fails after returning a few tuples.
+     */
+    private static class FailingScan extends TestUtil.MockScan {
+        private static final long serialVersionUID = 1L;
+        private int returned = 0;
+
+        FailingScan() {
+            super(0, 1000, 1);
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (++returned > 10)
+                throw new DbException("disk on fire");
+            return super.next();
+        }
+    }
+
+    /**
+     * Drains every consumer of the exchange on its own thread and returns the
+     * first field of each tuple, grouped by consumer.
+     */
+    private static List<List<Integer>> drainAll(Exchange exchange) throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(exchange.getNumConsumers());
+        try {
+            List<Future<List<Integer>>> results = new ArrayList<Future<List<Integer>>>();
+            for (int i = 0; i < exchange.getNumConsumers(); i++) {
+                final DbIterator consumer = exchange.getConsumer(i);
+                results.add(threads.submit(new Callable<List<Integer>>() {
+                    public List<Integer> call() throws Exception {
+                        List<Integer> values = new ArrayList<Integer>();
+                        consumer.open();
+                        while (consumer.hasNext())
+                            values.add(((IntField) consumer.next().getField(0)).getValue());
+                        consumer.close();
+                        return values;
+                    }
+                }));
+            }
+
+            List<List<Integer>> out = new ArrayList<List<Integer>>();
+            for (Future<List<Integer>> f : results)
+                out.add(f.get(30, TimeUnit.SECONDS));
+            return out;
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    /**
+     * Gathering several producers returns every tuple exactly once.
+     */
+    @Test public void gather() throws Exception {
+        DbIterator[] producers = new DbIterator[] {
+                new TestUtil.MockScan(0, 1000, 2),
+                new TestUtil.MockScan(1000, 2000, 2),
+                new TestUtil.MockScan(2000, 3000, 2) };
+        DbIterator gathered = Exchange.gather(producers);
+        assertEquals(Utility.getTupleDesc(2), gathered.getTupleDesc());
+
+        boolean[] seen = new boolean[3000];
+        gathered.open();
+        int count = 0;
+        while (gathered.hasNext()) {
+            int v = ((IntField) gathered.next().getField(0)).getValue();
+            assertFalse(seen[v]);
+            seen[v] = true;
+            count++;
+        }
+        gathered.close();
+        assertEquals(3000, count);
+    }
+
+    /**
+     * Hash partitioning sends equal keys from different producers to the
+     * same consumer.
+     */
+    @Test public void hashPartition() throws Exception {
+        DbIterator[] producers = new DbIterator[] {
+                new TestUtil.MockScan(0, 5000, 1),
+                new TestUtil.MockScan(0, 5000, 1) };
+        Exchange exchange = new Exchange(producers, 4, 0);
+
+        List<List<Integer>> parts = drainAll(exchange);
+        int total = 0;
+        int[] owner = new int[5000];
+        Arrays.fill(owner, -1);
+        for (int p = 0; p < parts.size(); p++) {
+            assertFalse("consumer " + p + " received nothing", parts.get(p).isEmpty());
+            for (int v : parts.get(p)) {
+                assertTrue(owner[v] == -1 || owner[v] == p);
+                owner[v] = p;
+                total++;
+            }
+        }
+        assertEquals(10000, total);
+    }
+
+    /**
+     * Round-robin spreads tuples evenly, one batch at a time, through small
+     * queues that force producers to wait for the consumers.
+     */
+    @Test public void roundRobinWithBackpressure() throws Exception {
+        DbIterator[] producers = new DbIterator[] {
+                new TestUtil.MockScan(0, 20000, 1) };
+        Exchange exchange = new Exchange(producers, 2, Exchange.ROUND_ROBIN,
+                ForkJoinPool.commonPool(), 1);
+
+        List<List<Integer>> parts = drainAll(exchange);
+        assertEquals(10000, parts.get(0).size());
+        assertEquals(10000, parts.get(1).size());
+    }
+
+    /**
+     * Closing every consumer early stops producers blocked on full queues.
+     */
+    @Test public void closeCancelsProducers() throws Exception {
+        ClosingScan producer = new ClosingScan(0, 1000000, 1);
+        Exchange exchange = new Exchange(new DbIterator[] { producer }, 1,
+                Exchange.ROUND_ROBIN);
+        DbIterator consumer = exchange.getConsumer(0);
+
+        consumer.open();
+        for (int i = 0; i < 10; i++)
+            consumer.next();
+        consumer.close();
+
+        assertTrue(producer.closed.await(10, TimeUnit.SECONDS));
+    }
+
+    /**
+     * A failure in a producer surfaces in the consumers.
+     */
+    @Test public void producerFailure() throws Exception {
+        Exchange exchange = new Exchange(new DbIterator[] { new FailingScan() }, 1,
+                Exchange.ROUND_ROBIN);
+        DbIterator consumer = exchange.getConsumer(0);
+        consumer.open();
+        try {
+            while (consumer.hasNext())
+                consumer.next();
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        consumer.close();
+    }
+
+    @Test(expected = DbException.class) public void rewindUnsupported() throws Exception {
+        DbIterator consumer = Exchange.gather(new DbIterator[] {
+                new TestUtil.MockScan(0, 10, 1) });
+        consumer.open();
+        consumer.rewind();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ExchangeTest.class);
+    }
+}
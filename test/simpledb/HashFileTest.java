@@ -0,0 +1,169 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashFileTest extends SimpleDbTestBase {
+
+    private static final TupleDesc INT_TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+
+    private final TransactionId tid = new TransactionId();
+
+    private HashFile createHashFile() throws Exception {
+        File f = TestUtil.tempFile("hash", ".dat");
+        HashFile file = new HashFile(f, 0, INT_TD);
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        return file;
+    }
+
+    private static Tuple tuple(int key, int value) {
+        Tuple t = new Tuple(INT_TD);
+        t.setField(0, new IntField(key));
+        t.setField(1, new IntField(value));
+        return t;
+    }
+
+    private static ArrayList<Tuple> scan(DbFileIterator it) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next());
+        it.close();
+        return result;
+    }
+
+    private ArrayList<Tuple> lookup(HashFile file, int key) throws Exception {
+        return scan(file.indexIterator(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(key))));
+    }
+
+    private HashMetaPage meta(HashFile file) throws Exception {
+        return (HashMetaPage) Database.getBufferPool().getPage(tid, HashMetaPage.getId(file.getId()),
+                Permissions.READ_ONLY);
+    }
+
+    @Test public void emptyFile() throws Exception {
+        HashFile file = createHashFile();
+        assertTrue(scan(file.iterator(tid)).isEmpty());
+        assertTrue(lookup(file, 1).isEmpty());
+        assertEquals(2, file.numPages());
+        assertEquals(1, meta(file).getNumBuckets());
+    }
+
+    @Test public void bucketAddressing() {
+        // with 5 buckets, hashes use 3 bits unless that names a bucket
+        // that does not exist yet
+        assertEquals(4, HashMetaPage.bucketFor(12, 5));
+        assertEquals(1, HashMetaPage.bucketFor(13, 5));
+        assertEquals(3, HashMetaPage.bucketFor(7, 5));
+        assertEquals(0, HashMetaPage.bucketFor(-1, 1));
+        assertEquals(1, HashMetaPage.bucketFor(-1, 2));
+    }
+
+    /**
+     * Enough tuples to split many buckets, including duplicate keys that
+     * overflow a bucket; every key is found with a single bucket probe.
+     * The file is larger than the BufferPool, so pages are evicted and
+     * written back throughout.
+     */
+    @Test public void insertAndLookup() throws Exception {
+        HashFile file = createHashFile();
+        Random rand = new Random(41);
+        int[] counts = new int[3000];
+        for (int i = 0; i < 20000; i++) {
+            int k = i < 1000 ? 7 : rand.nextInt(3000);
+            counts[k]++;
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(k, i));
+        }
+        assertTrue(file.numPages() > BufferPool.DEFAULT_PAGES);
+        HashMetaPage meta = meta(file);
+        assertEquals(20000, meta.getNumTuples());
+        assertTrue(meta.getNumBuckets() > 1);
+        assertTrue(20000 <= HashFile.MAX_LOAD * HashBucketPage.maxTuples(INT_TD) * meta.getNumBuckets());
+
+        assertEquals(20000, scan(file.iterator(tid)).size());
+        for (int k = 0; k < 3000; k += 11) {
+            ArrayList<Tuple> found = lookup(file, k);
+            assertEquals(counts[k], found.size());
+            for (Tuple t : found)
+                assertEquals(new IntField(k), t.getField(0));
+        }
+        assertEquals(counts[7], lookup(file, 7).size());
+    }
+
+    /** Deletes unlink emptied overflow pages, which later inserts reuse. */
+    @Test public void deleteAndReuse() throws Exception {
+        HashFile file = createHashFile();
+        int perPage = HashBucketPage.maxTuples(INT_TD);
+        for (int i = 0; i < 3 * perPage; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(5, i));
+        for (int i = 0; i < 100; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(1000 + i, i));
+        int pages = file.numPages();
+
+        for (Tuple t : lookup(file, 5))
+            Database.getBufferPool().deleteTuple(tid, t);
+        assertTrue(lookup(file, 5).isEmpty());
+        assertEquals(100, scan(file.iterator(tid)).size());
+        assertEquals(100, meta(file).getNumTuples());
+        assertTrue(meta(file).getFreeHead() != 0);
+
+        for (int i = 0; i < 2 * perPage; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(6, i));
+        assertEquals(pages, file.numPages());
+        assertEquals(2 * perPage, lookup(file, 6).size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(1, lookup(file, 1000 + i).size());
+    }
+
+    /** Flushed pages are read back intact by a fresh BufferPool. */
+    @Test public void persistence() throws Exception {
+        HashFile file = createHashFile();
+        for (int i = 0; i < 5000; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i, -i));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        assertEquals(5000, scan(file.iterator(tid)).size());
+        for (int i = 0; i < 5000; i += 97) {
+            ArrayList<Tuple> found = lookup(file, i);
+            assertEquals(1, found.size());
+            assertEquals(new IntField(-i), found.get(0).getField(1));
+        }
+    }
+
+    @Test public void indexScan() throws Exception {
+        HashFile file = createHashFile();
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, file.getId(), tuple(i % 100, i));
+        IndexScan scan = new IndexScan(tid, file.getId(), "h", 0,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(42)));
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            assertEquals(new IntField(42), scan.next().getField(0));
+            n++;
+        }
+        assertEquals(10, n);
+        scan.close();
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void rangeLookup() throws Exception {
+        HashFile file = createHashFile();
+        file.indexIterator(tid, new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(1)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashFileTest.class);
+    }
+}
@@ -0,0 +1,117 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+    private static final TupleDesc INT_TD = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+
+    private final TransactionId tid = new TransactionId();
+    private ArrayList<ArrayList<Integer>> outerTuples;
+    private HeapFile outer;
+    private ArrayList<ArrayList<Integer>> innerTuples;
+
+    @Before public void createTables() throws Exception {
+        outerTuples = new ArrayList<ArrayList<Integer>>();
+        outer = SystemTestUtil.createRandomHeapFile(2, 100, 400, null, outerTuples);
+        innerTuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(41);
+        for (int i = 0; i < 600; i++)
+            innerTuples.add(new ArrayList<Integer>(Arrays.asList(rand.nextInt(400), i)));
+    }
+
+    private void fill(DbFile file) throws Exception {
+        Database.getCatalog().addTable(file, UUID.randomUUID().toString());
+        for (ArrayList<Integer> values : innerTuples) {
+            Tuple t = new Tuple(INT_TD);
+            t.setField(0, new IntField(values.get(0)));
+            t.setField(1, new IntField(values.get(1)));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        }
+    }
+
+    /** @return the join of outer field 1 and inner field 0 under op */
+    private ArrayList<ArrayList<Integer>> expected(Predicate.Op op) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> o : outerTuples) {
+            for (ArrayList<Integer> i : innerTuples) {
+                if (new IntField(o.get(1)).compare(op, new IntField(i.get(0)))) {
+                    ArrayList<Integer> joined = new ArrayList<Integer>(o);
+                    joined.addAll(i);
+                    result.add(joined);
+                }
+            }
+        }
+        return result;
+    }
+
+    private IndexNestedLoopJoin join(DbFile inner, Predicate.Op op) {
+        return new IndexNestedLoopJoin(tid, new JoinPredicate(1, op, 0), new SeqScan(tid, outer.getId(), "o"),
+                inner.getId(), "i");
+    }
+
+    @Test public void hashIndex() throws Exception {
+        HashFile inner = new HashFile(TestUtil.tempFile("inner", ".dat"), 0, INT_TD);
+        fill(inner);
+        IndexNestedLoopJoin op = join(inner, Predicate.Op.EQUALS);
+        assertEquals(4, op.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(op, expected(Predicate.Op.EQUALS));
+    }
+
+    @Test public void btreeRange() throws Exception {
+        BTreeFile inner = new BTreeFile(TestUtil.tempFile("inner", ".dat"), 0, INT_TD);
+        fill(inner);
+        SystemTestUtil.matchTuples(join(inner, Predicate.Op.EQUALS), expected(Predicate.Op.EQUALS));
+        SystemTestUtil.matchTuples(join(inner, Predicate.Op.GREATER_THAN), expected(Predicate.Op.GREATER_THAN));
+    }
+
+    @Test public void secondaryIndex() throws Exception {
+        HeapFile inner = new HeapFile(TestUtil.tempFile("inner", ".dat"), INT_TD);
+        fill(inner);
+        Database.getCatalog().addIndex(inner.getId(), 0, TestUtil.tempFile("inner", ".dat"));
+        IndexNestedLoopJoin op = join(inner, Predicate.Op.LESS_THAN_OR_EQ);
+        SystemTestUtil.matchTuples(op, expected(Predicate.Op.LESS_THAN_OR_EQ));
+        op.open();
+        int n = 0;
+        while (op.hasNext()) {
+            op.next();
+            n++;
+        }
+        op.rewind();
+        while (op.hasNext()) {
+            op.next();
+            n--;
+        }
+        op.close();
+        assertEquals(0, n);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void hashRange() throws Exception {
+        HashFile inner = new HashFile(TestUtil.tempFile("inner", ".dat"), 0, INT_TD);
+        fill(inner);
+        join(inner, Predicate.Op.LESS_THAN);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void unindexedField() throws Exception {
+        HeapFile inner = new HeapFile(TestUtil.tempFile("inner", ".dat"), INT_TD);
+        fill(inner);
+        join(inner, Predicate.Op.EQUALS);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class IndexOnlyScanTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private final TransactionId tid = new TransactionId();
+    private ArrayList<ArrayList<Integer>> tuples;
+    private CountingHeapFile file;
+
+    /** Creates a table of (id, mid, rating), with mid in [0, 300). */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(5);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, rand.nextInt(300), rand.nextInt(10))));
+        file = TestUtil.openCounting(TestUtil.writeTempHeapFile("covering", tuples, 3), 3, "casts");
+    }
+
+    private IndexPredicate pred(Predicate.Op op, int v) {
+        return new IndexPredicate(op, new IntField(v));
+    }
+
+    /** Counting the tuples in a key range reads no heap page. */
+    @Test public void countKeyRange() throws Exception {
+        Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("covering", ".idx"));
+        int expected = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) >= 100 && t.get(1) <= 120)
+                expected++;
+        }
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        IndexOnlyScan scan = new IndexOnlyScan(tid, file.getId(), "c", 1,
+                pred(Predicate.Op.GREATER_THAN_OR_EQ, 100), new int[] { 1 });
+        // entries come in key order, so the scan stops at the upper bound
+        scan.open();
+        int n = 0;
+        while (scan.hasNext() && ((IntField) scan.next().getField(0)).getValue() <= 120)
+            n++;
+        scan.close();
+        assertEquals(expected, n);
+        assertEquals(0, file.reads);
+        assertEquals("c." + file.getTupleDesc().getFieldName(1), scan.getTupleDesc().getFieldName(0));
+    }
+
+    /**
+     * Included fields are returned in the requested order, and stay in step
+     * with inserts and deletes.
+     */
+    @Test public void includedFields() throws Exception {
+        Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("covering", ".idx"), new int[] { 2 });
+        ArrayList<Integer> expected = new ArrayList<Integer>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(1) == 42)
+                expected.add(t.get(2));
+        }
+        assertEquals(expected.size(), ratingsOf(42).size());
+        assertEquals(sorted(expected), sorted(ratingsOf(42)));
+
+        Tuple t = new Tuple(file.getTupleDesc());
+        t.setField(0, new IntField(ROWS));
+        t.setField(1, new IntField(42));
+        t.setField(2, new IntField(77));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        expected.add(77);
+        assertEquals(sorted(expected), sorted(ratingsOf(42)));
+
+        Database.getBufferPool().deleteTuple(tid, t);
+        expected.remove(Integer.valueOf(77));
+        assertEquals(sorted(expected), sorted(ratingsOf(42)));
+    }
+
+    private ArrayList<Integer> ratingsOf(int mid) throws Exception {
+        IndexOnlyScan scan = new IndexOnlyScan(tid, file.getId(), "c", 1,
+                pred(Predicate.Op.EQUALS, mid), new int[] { 2, 1 });
+        ArrayList<Integer> ratings = new ArrayList<Integer>();
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(mid, ((IntField) t.getField(1)).getValue());
+            ratings.add(((IntField) t.getField(0)).getValue());
+        }
+        scan.close();
+        return ratings;
+    }
+
+    private static ArrayList<Integer> sorted(ArrayList<Integer> l) {
+        ArrayList<Integer> s = new ArrayList<Integer>(l);
+        Collections.sort(s);
+        return s;
+    }
+
+    /** An index that does not store a requested field cannot be used. */
+    @Test public void notCovered() throws Exception {
+        Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("covering", ".idx"));
+        assertFalse(IndexOnlyScan.isCovered(file.getId(), 1, new int[] { 1, 2 }));
+        assertTrue(IndexOnlyScan.isCovered(file.getId(), 1, new int[] { 1 }));
+        try {
+            new IndexOnlyScan(tid, file.getId(), "c", 1, null, new int[] { 1, 2 });
+            fail("scanned fields the index does not store");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** With no predicate, every entry is returned in key order. */
+    @Test public void fullScanInKeyOrder() throws Exception {
+        Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("covering", ".idx"), new int[] { 0 });
+        IndexOnlyScan scan = new IndexOnlyScan(tid, file.getId(), "c", 1, null, new int[] { 1, 0 });
+        scan.open();
+        int n = 0, last = Integer.MIN_VALUE;
+        while (scan.hasNext()) {
+            int mid = ((IntField) scan.next().getField(0)).getValue();
+            assertTrue(mid >= last);
+            last = mid;
+            n++;
+        }
+        scan.close();
+        assertEquals(ROWS, n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IndexOnlyScanTest.class);
+    }
+}
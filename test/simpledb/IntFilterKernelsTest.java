@@ -0,0 +1,168 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IntFilterKernelsTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = new Predicate.Op[] {
+            Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+            Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+
+    /**
+     * Reference implementation: evaluates the predicate one value at a time
+     * through IntField.compare.
+     */
+    private static int selectReference(Predicate.Op op, int[] values, int n, int c, int[] sel) {
+        IntField operand = new IntField(c);
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            if (new IntField(values[i]).compare(op, operand))
+                sel[k++] = i;
+        }
+        return k;
+    }
+
+    private static void assertSelection(String message, int[] expected, int e, int[] actual, int a) {
+        assertEquals(message, e, a);
+        assertArrayEquals(message, Arrays.copyOf(expected, e), Arrays.copyOf(actual, a));
+    }
+
+    /**
+     * select() agrees with IntField.compare for every operator, including
+     * at the extremes of the int range, with the kernels in use (the
+     * Vector API ones, when available) and with the scalar loops. The
+     * length is not a multiple of any vector size, so the tail is covered.
+     */
+    @Test public void select() {
+        Random r = new Random(42);
+        int n = 1003;
+        int[] values = new int[n];
+        for (int i = 0; i < n; i++)
+            values[i] = r.nextInt(20) - 10;
+        values[0] = Integer.MIN_VALUE;
+        values[1] = Integer.MAX_VALUE;
+        // a long run of one value, so whole vectors pass or fail together
+        Arrays.fill(values, 100, 300, 9);
+
+        int[] expected = new int[n];
+        int[] actual = new int[n];
+        for (Predicate.Op op : OPS) {
+            for (int c : new int[] { -3, 0, 9, Integer.MIN_VALUE, Integer.MAX_VALUE }) {
+                int e = selectReference(op, values, n, c, expected);
+                int a = IntFilterKernels.select(op, values, n, c, actual);
+                assertSelection(op + " " + c, expected, e, actual, a);
+                a = IntFilterKernels.selectFrom(op, values, 0, n, c, actual, 0);
+                assertSelection("scalar " + op + " " + c, expected, e, actual, a);
+            }
+        }
+    }
+
+    /**
+     * refine() keeps exactly the selected positions that also pass, in
+     * place.
+     */
+    @Test public void refine() {
+        int[] a = new int[] { 1, 5, 3, 7, 5, 2 };
+        int[] b = new int[] { 0, 1, 1, 0, 1, 1 };
+        int[] sel = new int[a.length];
+        int n = IntFilterKernels.select(Predicate.Op.GREATER_THAN_OR_EQ, a, a.length, 3, sel);
+        assertEquals(4, n);
+        n = IntFilterKernels.refine(Predicate.Op.EQUALS, b, 1, sel, n, sel);
+        assertArrayEquals(new int[] { 1, 2, 4 }, Arrays.copyOf(sel, n));
+
+        Random r = new Random(43);
+        int size = 2001;
+        int[] x = new int[size];
+        int[] y = new int[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = r.nextInt(10);
+            y[i] = i < 500 ? 4 : r.nextInt(10);
+        }
+        int[] expected = new int[size];
+        int[] vector = new int[size];
+        int[] scalar = new int[size];
+        for (Predicate.Op op : OPS) {
+            int m = IntFilterKernels.select(Predicate.Op.NOT_EQUALS, x, size, 3, vector);
+            System.arraycopy(vector, 0, scalar, 0, m);
+            int e = 0;
+            for (int j = 0; j < m; j++) {
+                if (new IntField(y[vector[j]]).compare(op, new IntField(4)))
+                    expected[e++] = vector[j];
+            }
+            assertSelection(op.toString(), expected, e, vector, IntFilterKernels.refine(op, y, 4, vector, m, vector));
+            assertSelection("scalar " + op, expected, e, scalar,
+                    IntFilterKernels.refineFrom(op, y, 4, scalar, 0, m, scalar, 0));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void noLikeKernel() {
+        assertFalse(IntFilterKernels.supports(Predicate.Op.LIKE));
+        IntFilterKernels.select(Predicate.Op.LIKE, new int[1], 1, 0, new int[1]);
+    }
+
+    /**
+     * SelectionScan returns the tuples that satisfy every predicate.
+     */
+    @Test public void selectionScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 50, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        for (Predicate.Op op : OPS) {
+            Predicate[] preds = new Predicate[] {
+                    new Predicate(0, op, new IntField(25)),
+                    new Predicate(2, Predicate.Op.LESS_THAN, new IntField(40)),
+                    new Predicate(1, Predicate.Op.LIKE, new IntField(7)) };
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : tuples) {
+                if (new IntField(t.get(0)).compare(op, new IntField(25)) && t.get(2) < 40 && t.get(1) == 7)
+                    expected.add(t);
+            }
+            SystemTestUtil.matchTuples(new SelectionScan(tid, f.getId(), "t", preds), expected);
+        }
+
+        SystemTestUtil.matchTuples(new SelectionScan(tid, f.getId(), "t", new Predicate[0]), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Predicates on INT_TYPE fields directly after a PushScan are evaluated
+     * inside the scan; the pipeline returns the same tuples either way.
+     */
+    @Test public void pushedIntoScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, 50, null, tuples);
+        TransactionId tid = new TransactionId();
+        PushScan scan = new PushScan(tid, f.getId(), "t");
+        Predicate like = new Predicate(1, Predicate.Op.LIKE, new IntField(7));
+        assertFalse(scan.canPushDown(like));
+        Pipeline pipeline = new Pipeline(scan)
+                .filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(10)))
+                .filter(new Predicate(2, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30)))
+                .filter(like);
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (t.get(0) > 10 && t.get(2) <= 30 && t.get(1) == 7)
+                expected.add(t);
+        }
+        SystemTestUtil.matchTuples(pipeline.iterator(), expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntFilterKernelsTest.class);
+    }
+}
@@ -0,0 +1,247 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class JoinOptimizerTest extends SimpleDbTestBase {
+
+    private final TransactionId tid = new TransactionId();
+
+    private static HeapFile heapTable(String name, ArrayList<ArrayList<Integer>> tuples, int numFields)
+            throws IOException {
+        return TestUtil.openCounting(TestUtil.writeTempHeapFile("joins", tuples, numFields), numFields, name);
+    }
+
+    private static ArrayList<Integer> row(int... values) {
+        ArrayList<Integer> r = new ArrayList<Integer>();
+        for (int v : values)
+            r.add(v);
+        return r;
+    }
+
+    private HashMap<String, DbIterator> scans(Map<String, Integer> tables) {
+        HashMap<String, DbIterator> inputs = new HashMap<String, DbIterator>();
+        for (Map.Entry<String, Integer> e : tables.entrySet())
+            inputs.put(e.getKey(), new SeqScan(tid, e.getValue(), e.getKey()));
+        return inputs;
+    }
+
+    private static ArrayList<Tuple> run(DbIterator it) throws Exception {
+        ArrayList<Tuple> out = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext())
+            out.add(it.next());
+        it.close();
+        return out;
+    }
+
+    private static int intAt(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    /** Creates actor(id, x), casts(aid, mid) and movie(id, y). */
+    private LinkedHashMap<String, Integer> actorsAndMovies() throws Exception {
+        ArrayList<ArrayList<Integer>> actors = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 2000; i++)
+            actors.add(row(i, i % 7));
+        ArrayList<ArrayList<Integer>> movies = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 500; i++)
+            movies.add(row(i, i % 3));
+        ArrayList<ArrayList<Integer>> casts = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(31);
+        for (int i = 0; i < 20000; i++)
+            casts.add(row(rand.nextInt(2000), rand.nextInt(500)));
+
+        LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        tables.put("a", heapTable("actor", actors, 2).getId());
+        tables.put("c", heapTable("casts", casts, 2).getId());
+        tables.put("m", heapTable("movie", movies, 2).getId());
+        return tables;
+    }
+
+    private static List<LogicalJoinNode> actorMovieJoins() {
+        return Arrays.asList(new LogicalJoinNode("a", 0, Predicate.Op.EQUALS, "c", 0),
+                new LogicalJoinNode("c", 1, Predicate.Op.EQUALS, "m", 0));
+    }
+
+    /**
+     * A selective filter on movie makes the optimizer join it with casts
+     * first, instead of producing every (actor, cast) pair.
+     */
+    @Test public void selectiveTableJoinedFirst() throws Exception {
+        LinkedHashMap<String, Integer> tables = actorsAndMovies();
+        JoinOptimizer opt = new JoinOptimizer(tables, actorMovieJoins());
+        HashMap<String, Double> filters = new HashMap<String, Double>();
+        filters.put("m", 0.01);
+        JoinOptimizer.Plan plan = opt.orderJoins(filters);
+
+        LogicalJoinNode first = plan.getJoinOrder().get(0);
+        assertTrue(plan.toString(), first.getTable1Alias().equals("m") || first.getTable2Alias().equals("m"));
+        assertEquals(200, plan.getCardinality(), 20);
+        assertEquals(JoinOptimizer.Method.HASH, plan.getMethod());
+
+        JoinOptimizer.Plan unfiltered = opt.orderJoins(new HashMap<String, Double>());
+        assertEquals(20000, unfiltered.getCardinality(), 1000);
+        assertTrue(unfiltered.getCost() > plan.getCost());
+    }
+
+    /** The operators built from a plan return the join's result. */
+    @Test public void builtPlanJoins() throws Exception {
+        LinkedHashMap<String, Integer> tables = actorsAndMovies();
+        for (boolean bushy : new boolean[] { false, true }) {
+            JoinOptimizer opt = new JoinOptimizer(tables, actorMovieJoins());
+            opt.setBushy(bushy);
+            JoinOptimizer.Plan plan = opt.orderJoins(new HashMap<String, Double>());
+            ArrayList<Tuple> result = run(JoinOptimizer.buildPlan(plan, scans(tables)));
+            assertEquals(20000, result.size());
+            int a = plan.fieldOffset("a"), c = plan.fieldOffset("c"), m = plan.fieldOffset("m");
+            for (Tuple t : result) {
+                assertEquals(intAt(t, a), intAt(t, c));
+                assertEquals(intAt(t, c + 1), intAt(t, m));
+            }
+        }
+    }
+
+    /** A non-equality join can only run as a nested-loop join. */
+    @Test public void rangeJoin() throws Exception {
+        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> s = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 60; i++) {
+            r.add(row(i));
+            s.add(row(i * 2));
+        }
+        LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        tables.put("r", heapTable("r", r, 1).getId());
+        tables.put("s", heapTable("s", s, 1).getId());
+        JoinOptimizer opt = new JoinOptimizer(tables,
+                Arrays.asList(new LogicalJoinNode("r", 0, Predicate.Op.LESS_THAN, "s", 0)));
+        JoinOptimizer.Plan plan = opt.orderJoins(new HashMap<String, Double>());
+        assertEquals(JoinOptimizer.Method.NESTED_LOOP, plan.getMethod());
+
+        int expected = 0;
+        for (ArrayList<Integer> x : r) {
+            for (ArrayList<Integer> y : s) {
+                if (x.get(0) < y.get(0))
+                    expected++;
+            }
+        }
+        ArrayList<Tuple> result = run(JoinOptimizer.buildPlan(plan, scans(tables)));
+        assertEquals(expected, result.size());
+        int rf = plan.fieldOffset("r"), sf = plan.fieldOffset("s");
+        for (Tuple t : result)
+            assertTrue(intAt(t, rf) < intAt(t, sf));
+    }
+
+    /** Inputs already in key order are merged without sorting. */
+    @Test public void sortedInputsMerged() throws Exception {
+        ArrayList<ArrayList<Integer>> r = new ArrayList<ArrayList<Integer>>();
+        ArrayList<ArrayList<Integer>> s = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            r.add(row(i, i % 10));
+            s.add(row(i / 2, i));
+        }
+        BTreeFile rf = BTreeFileEncoder.convert(r, TestUtil.tempFile("joins", ".dat"), 2, 0);
+        BTreeFile sf = BTreeFileEncoder.convert(s, TestUtil.tempFile("joins", ".dat"), 2, 0);
+        Database.getCatalog().addTable(rf, "r");
+        Database.getCatalog().addTable(sf, "s");
+        LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        tables.put("r", rf.getId());
+        tables.put("s", sf.getId());
+        JoinOptimizer opt = new JoinOptimizer(tables,
+                Arrays.asList(new LogicalJoinNode("r", 0, Predicate.Op.EQUALS, "s", 0)));
+        JoinOptimizer.Plan plan = opt.orderJoins(new HashMap<String, Double>());
+        assertEquals(JoinOptimizer.Method.SORT_MERGE, plan.getMethod());
+
+        DbIterator root = JoinOptimizer.buildPlan(plan, scans(tables));
+        assertTrue(root instanceof SortMergeJoin);
+        assertFalse(((Operator) root).getChildren()[0] instanceof OrderBy);
+        assertFalse(((Operator) root).getChildren()[1] instanceof OrderBy);
+        assertEquals(3000, run(root).size());
+    }
+
+    /** A cycle of predicates: the one not used to join filters the output. */
+    @Test public void cyclicPredicates() throws Exception {
+        Random rand = new Random(37);
+        ArrayList<ArrayList<ArrayList<Integer>>> data = new ArrayList<ArrayList<ArrayList<Integer>>>();
+        LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        String[] names = new String[] { "x", "y", "z" };
+        for (String name : names) {
+            ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < 200; i++)
+                rows.add(row(rand.nextInt(20), rand.nextInt(20)));
+            data.add(rows);
+            tables.put(name, heapTable(name, rows, 2).getId());
+        }
+        // x.1 = y.0, y.1 = z.0, z.1 = x.0
+        List<LogicalJoinNode> joins = Arrays.asList(new LogicalJoinNode("x", 1, Predicate.Op.EQUALS, "y", 0),
+                new LogicalJoinNode("y", 1, Predicate.Op.EQUALS, "z", 0),
+                new LogicalJoinNode("z", 1, Predicate.Op.EQUALS, "x", 0));
+        JoinOptimizer.Plan plan = new JoinOptimizer(tables, joins).orderJoins(new HashMap<String, Double>());
+        assertEquals(3, plan.getJoinOrder().size());
+
+        int expected = 0;
+        for (ArrayList<Integer> x : data.get(0)) {
+            for (ArrayList<Integer> y : data.get(1)) {
+                for (ArrayList<Integer> z : data.get(2)) {
+                    if (x.get(1).equals(y.get(0)) && y.get(1).equals(z.get(0)) && z.get(1).equals(x.get(0)))
+                        expected++;
+                }
+            }
+        }
+        assertEquals(expected, run(JoinOptimizer.buildPlan(plan, scans(tables))).size());
+    }
+
+    @Test public void disconnectedTables() throws Exception {
+        LinkedHashMap<String, Integer> tables = actorsAndMovies();
+        JoinOptimizer opt = new JoinOptimizer(tables,
+                Arrays.asList(new LogicalJoinNode("a", 0, Predicate.Op.EQUALS, "c", 0)));
+        try {
+            opt.orderJoins(new HashMap<String, Double>());
+            fail("planned a cross product");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /** A chain of twelve tables is planned in well under a second. */
+    @Test public void manyTables() throws Exception {
+        LinkedHashMap<String, Integer> tables = new LinkedHashMap<String, Integer>();
+        ArrayList<LogicalJoinNode> joins = new ArrayList<LogicalJoinNode>();
+        for (int t = 0; t < 12; t++) {
+            ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+            for (int i = 0; i < 50 * (t + 1); i++)
+                rows.add(row(i, i % (t + 2)));
+            tables.put("t" + t, heapTable("t" + t, rows, 2).getId());
+            if (t > 0)
+                joins.add(new LogicalJoinNode("t" + (t - 1), 1, Predicate.Op.EQUALS, "t" + t, 0));
+        }
+        // computes and registers the statistics of every table
+        new JoinOptimizer(tables, joins).orderJoins(new HashMap<String, Double>());
+
+        for (boolean bushy : new boolean[] { false, true }) {
+            JoinOptimizer opt = new JoinOptimizer(tables, joins);
+            opt.setBushy(bushy);
+            long start = System.nanoTime();
+            JoinOptimizer.Plan plan = opt.orderJoins(new HashMap<String, Double>());
+            long millis = (System.nanoTime() - start) / 1000000;
+            assertEquals(12, plan.getAliases().size());
+            assertEquals(11, plan.getJoinOrder().size());
+            assertTrue("took " + millis + " ms", millis < 1000);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(JoinOptimizerTest.class);
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class LimitTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for Limit.getNext()
+     */
+    @Test public void limit() throws Exception {
+        DbIterator child = TestUtil.createTupleList(1, new int[] { 1, 2, 3, 4, 5 });
+        Limit op = new Limit(child, 3);
+        op.open();
+        DbIterator expected = TestUtil.createTupleList(1, new int[] { 1, 2, 3 });
+        TestUtil.compareDbIterators(expected, op);
+        assertTrue(TestUtil.checkExhausted(op));
+    }
+
+    /**
+     * A limit larger than the child returns every tuple; zero returns none.
+     */
+    @Test public void limitBounds() throws Exception {
+        Limit all = new Limit(TestUtil.createTupleList(1, new int[] { 1, 2 }), 10);
+        all.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 1, 2 }), all);
+
+        Limit none = new Limit(TestUtil.createTupleList(1, new int[] { 1, 2 }), 0);
+        none.open();
+        assertTrue(TestUtil.checkExhausted(none));
+    }
+
+    /**
+     * Unit test for Limit.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        Limit op = new Limit(TestUtil.createTupleList(1, new int[] { 1, 2, 3, 4 }), 2);
+        op.open();
+        op.next();
+        op.next();
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 1, 2 }), op);
+    }
+
+    /**
+     * A Limit over a SeqScan only reads the pages needed to produce its
+     * tuples.
+     */
+    @Test public void stopsReadingPages() throws Exception {
+        /** Counts the number of readPage operations. */
+        class InstrumentedHeapFile extends HeapFile {
+            public InstrumentedHeapFile(File f, TupleDesc td) {
+                super(f, td);
+            }
+
+            @Override
+            public Page readPage(PageId pid) throws NoSuchElementException {
+                readCount += 1;
+                return super.readPage(pid);
+            }
+
+            public int readCount = 0;
+        }
+
+        final int PAGES = 20;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, tuples);
+        InstrumentedHeapFile table = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        Limit op = new Limit(new SeqScan(tid, table.getId(), ""), 50);
+        op.open();
+        int count = 0;
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        op.close();
+        assertEquals(50, count);
+        assertEquals(1, table.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LimitTest.class);
+    }
+}
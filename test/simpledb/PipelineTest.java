@@ -0,0 +1,167 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PipelineTest extends SimpleDbTestBase {
+
+    private static void assertTuples(DbIterator expected, List<Tuple> actual) throws Exception {
+        TupleIterator it = new TupleIterator(expected.getTupleDesc(), actual);
+        it.open();
+        TestUtil.compareDbIterators(expected, it);
+    }
+
+    /**
+     * Filter and project push tuples through in order.
+     */
+    @Test public void filterProject() throws Exception {
+        DbIterator input = TestUtil.createTupleList(3, new int[] {
+                1, 10, 100,
+                2, 20, 200,
+                3, 30, 300,
+                4, 40, 400 });
+        List<Tuple> out = new Pipeline(input)
+                .filter(new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2)))
+                .project(new int[] { 2, 0 })
+                .collect();
+        assertTuples(TestUtil.createTupleList(2, new int[] { 200, 2, 300, 3, 400, 4 }), out);
+    }
+
+    /**
+     * A pipeline probing the hash table built by another pipeline computes
+     * an equi-join, and its output can be aggregated in the same pipeline.
+     */
+    @Test public void probeAndAggregate() throws Exception {
+        DbIterator dim = TestUtil.createTupleList(2, new int[] {
+                1, 7,
+                2, 8,
+                2, 9 });
+        DbIterator fact = TestUtil.createTupleList(2, new int[] {
+                10, 1,
+                20, 2,
+                30, 3,
+                40, 1 });
+
+        PushHashBuild build = new Pipeline(dim).build(0);
+        assertTrue(build.isBuilt());
+
+        Pipeline join = new Pipeline(fact).probe(build, 1);
+        assertEquals(4, join.getTupleDesc().numFields());
+        assertTuples(TestUtil.createTupleList(4, new int[] {
+                10, 1, 1, 7,
+                20, 2, 2, 8,
+                20, 2, 2, 9,
+                40, 1, 1, 7 }), join.collect());
+
+        fact.rewind();
+        List<Tuple> sums = new Pipeline(fact).probe(build, 1)
+                .aggregate(0, 1, Aggregator.Op.SUM).collect();
+        Map<Integer, Integer> bySum = new HashMap<Integer, Integer>();
+        for (Tuple t : sums)
+            bySum.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        assertEquals(2, bySum.size());
+        assertEquals(50, (int) bySum.get(1));
+        assertEquals(40, (int) bySum.get(2));
+    }
+
+    /**
+     * The pull adapter returns the pipeline's output and supports rewind.
+     */
+    @Test public void iteratorAdapter() throws Exception {
+        DbIterator input = TestUtil.createTupleList(1, new int[] { 5, 6, 7, 8 });
+        DbIterator it = new Pipeline(input)
+                .filter(new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(6)))
+                .iterator();
+        it.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 5, 7, 8 }), it);
+        it.rewind();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 5, 7, 8 }), it);
+        it.close();
+
+        DbIterator count = new Pipeline(TestUtil.createTupleList(1, new int[] { 5, 6, 7 }))
+                .aggregate(0, Aggregator.NO_GROUPING, Aggregator.Op.COUNT).iterator();
+        count.open();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 3 }), count);
+        count.rewind();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 3 }), count);
+        count.close();
+    }
+
+    /**
+     * PushScan pushes every tuple of a HeapFile and stops as soon as the
+     * sink asks it to.
+     */
+    @Test public void pushScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 3000, null, tuples);
+        TransactionId tid = new TransactionId();
+
+        List<Tuple> all = new Pipeline(new PushScan(tid, f.getId(), "t")).collect();
+        assertEquals(3000, all.size());
+
+        final int[] seen = new int[1];
+        final boolean[] finished = new boolean[1];
+        new Pipeline(new PushScan(tid, f.getId(), "t")).run(new PushSink() {
+            public boolean push(Tuple t) {
+                return ++seen[0] < 10;
+            }
+
+            public void finish() {
+                finished[0] = true;
+            }
+        });
+        assertEquals(10, seen[0]);
+        assertTrue(finished[0]);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static PushHashBuild buildKeys(int from, int to) throws Exception {
+        int[] keys = new int[to - from];
+        for (int i = from; i < to; i++)
+            keys[i - from] = i;
+        return new Pipeline(TestUtil.createTupleList(1, keys)).build(0);
+    }
+
+    /**
+     * Predicates and runtime filters pushed into a scan apply only while the
+     * pipeline that pushed them runs, so the scan can be reused.
+     */
+    @Test public void reusedScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 100; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i)));
+        HeapFile f = TestUtil.openCounting(TestUtil.writeTempHeapFile("reused", tuples, 1), 1, "t");
+        TransactionId tid = new TransactionId();
+
+        SeqScan seqScan = new SeqScan(tid, f.getId(), "t");
+        assertEquals(10, new Pipeline(seqScan).probe(buildKeys(0, 10), 0).collect().size());
+        assertEquals(10, new Pipeline(seqScan).probe(buildKeys(50, 60), 0).collect().size());
+        assertEquals(100, new Pipeline(seqScan).collect().size());
+
+        PushScan pushScan = new PushScan(tid, f.getId(), "t");
+        Pipeline filtered = new Pipeline(pushScan)
+                .filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(20)))
+                .probe(buildKeys(10, 30), 0);
+        assertEquals(10, filtered.collect().size());
+        assertEquals(10, new Pipeline(pushScan).probe(buildKeys(50, 60), 0).collect().size());
+        assertEquals(100, new Pipeline(pushScan).collect().size());
+        // a pipeline can still be run again, with its filters
+        assertEquals(10, filtered.collect().size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PipelineTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryCompilerTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private static boolean matches(ArrayList<Integer> t, int field, Predicate.Op op, int v) {
+        return new IntField(t.get(field)).compare(op, new IntField(v));
+    }
+
+    /**
+     * Every comparison operator selects the same rows as Predicate.filter,
+     * and the projection keeps the requested fields in order.
+     */
+    @Test public void filterProject() throws Exception {
+        Predicate.Op[] ops = new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+                Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ,
+                Predicate.Op.LESS_THAN, Predicate.Op.LESS_THAN_OR_EQ };
+        for (Predicate.Op op : ops) {
+            Predicate[] preds = new Predicate[] {
+                    new Predicate(0, op, new IntField(50)),
+                    new Predicate(1, Predicate.Op.LESS_THAN, new IntField(80)) };
+            ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+            for (ArrayList<Integer> t : tuples) {
+                if (matches(t, 0, op, 50) && matches(t, 1, Predicate.Op.LESS_THAN, 80))
+                    expected.add(new ArrayList<Integer>(Arrays.asList(t.get(2), t.get(0))));
+            }
+
+            FusedScan scan = new FusedScan(tid, file.getId(), "t", preds, new int[] { 2, 0 });
+            assertEquals(2, scan.getTupleDesc().numFields());
+            scan.open();
+            assertTrue(scan.isCompiled());
+            scan.close();
+            SystemTestUtil.matchTuples(scan, expected);
+        }
+    }
+
+    /**
+     * Grouped and ungrouped aggregates match Aggregate over a filtered scan.
+     */
+    @Test public void aggregate() throws Exception {
+        Predicate[] preds = new Predicate[] { new Predicate(2, Predicate.Op.GREATER_THAN, new IntField(30)) };
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                FusedScan fused = new FusedScan(tid, file.getId(), "t", preds, 1, gfield, op);
+                fused.open();
+                assertTrue(fused.isCompiled());
+                ArrayList<ArrayList<Integer>> actual = new ArrayList<ArrayList<Integer>>();
+                while (fused.hasNext())
+                    actual.add(SystemTestUtil.tupleToList(fused.next()));
+                fused.close();
+
+                ArrayList<Tuple> filtered = new ArrayList<Tuple>();
+                SeqScan scan = new SeqScan(tid, file.getId(), "t");
+                scan.open();
+                while (scan.hasNext()) {
+                    Tuple t = scan.next();
+                    if (preds[0].filter(t))
+                        filtered.add(t);
+                }
+                scan.close();
+                TupleIterator input = new TupleIterator(file.getTupleDesc(), filtered);
+                SystemTestUtil.matchTuples(new Aggregate(input, 1, gfield, op), actual);
+            }
+        }
+    }
+
+    /**
+     * Plans of the same shape share one generated class, whatever their
+     * constants.
+     */
+    @Test public void cachedByShape() throws Exception {
+        int before = QueryCompiler.getCompilationCount();
+        for (int v = 0; v < 5; v++) {
+            FusedScan scan = new FusedScan(tid, file.getId(), "t",
+                    new Predicate[] { new Predicate(1, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(v * 7)) },
+                    new int[] { 0 });
+            scan.open();
+            int count = 0;
+            while (scan.hasNext()) {
+                scan.next();
+                count++;
+            }
+            scan.close();
+
+            int expected = 0;
+            for (ArrayList<Integer> t : tuples)
+                if (t.get(1) >= v * 7)
+                    expected++;
+            assertEquals(expected, count);
+        }
+        assertTrue(QueryCompiler.getCompilationCount() - before <= 1);
+    }
+
+    /**
+     * Plans that cannot be compiled run through the interpreted pipeline.
+     */
+    @Test public void fallback() throws Exception {
+        Predicate[] preds = new Predicate[] { new Predicate(0, Predicate.Op.LIKE, new IntField(7)) };
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples)
+            if (t.get(0) == 7)
+                expected.add(t);
+
+        FusedScan scan = new FusedScan(tid, file.getId(), "t", preds, null);
+        scan.open();
+        assertFalse(scan.isCompiled());
+        scan.close();
+        SystemTestUtil.matchTuples(scan, expected);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryCompilerTest.class);
+    }
+}
@@ -0,0 +1,251 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class QueryExecutorTest extends SimpleDbTestBase {
+
+    /** Counts readPage calls and makes each one slow. */
+    private static class SlowHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger(0);
+
+        SlowHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Runs many concurrent queries through the given executor and checks
+     * that no more than the limit run at once.
+     */
+    private void checkLimit(QueryExecutor executor, int limit) throws Exception {
+        final AtomicInteger active = new AtomicInteger(0);
+        final AtomicInteger peak = new AtomicInteger(0);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < 50; i++) {
+            final int n = i;
+            results.add(executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int now = active.incrementAndGet();
+                    while (true) {
+                        int p = peak.get();
+                        if (now <= p || peak.compareAndSet(p, now))
+                            break;
+                    }
+                    Thread.sleep(5);
+                    active.decrementAndGet();
+                    return n;
+                }
+            }));
+        }
+        for (int i = 0; i < results.size(); i++)
+            assertEquals(i, (int) results.get(i).get(30, TimeUnit.SECONDS));
+        assertTrue("peak " + peak.get() + " exceeds " + limit, peak.get() <= limit);
+        assertEquals(0, executor.getRunningQueries());
+        executor.shutdown();
+    }
+
+    /**
+     * The concurrency limit holds with a thread per query (the virtual
+     * thread configuration) and with the platform thread pool.
+     */
+    @Test public void concurrencyLimit() throws Exception {
+        checkLimit(new QueryExecutor(4, Executors.defaultThreadFactory()), 4);
+        checkLimit(new QueryExecutor(3, null), 3);
+        checkLimit(new QueryExecutor(2), 2);
+    }
+
+    /**
+     * Concurrent scans of the same table return every tuple, and each page
+     * is read from disk only once even though all queries miss on it at the
+     * same time.
+     */
+    @Test public void concurrentScans() throws Exception {
+        final int PAGES = 5;
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        SlowHeapFile table = new SlowHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(table, SystemTestUtil.getUUID());
+
+        QueryExecutor executor = new QueryExecutor(16);
+        TransactionId tid = new TransactionId();
+        List<Future<List<Tuple>>> results = new ArrayList<Future<List<Tuple>>>();
+        for (int i = 0; i < 32; i++)
+            results.add(executor.submit(new SeqScan(tid, table.getId(), "")));
+        for (Future<List<Tuple>> r : results)
+            assertEquals(992 * PAGES, r.get(30, TimeUnit.SECONDS).size());
+        assertEquals(PAGES, table.reads.get());
+
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A heap file whose page writes are slow and then fail. */
+    private static class FailingHeapFile extends HeapFile {
+        FailingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("disk full");
+        }
+    }
+
+    /**
+     * When the thread reading a page fails before the read, such as while
+     * evicting a page it cannot write back, the threads waiting for that
+     * read fail as well instead of waiting forever.
+     */
+    @Test public void failedLoadReleasesWaiters() throws Exception {
+        Database.resetBufferPool(1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 10, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        FailingHeapFile dirty = new FailingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(dirty, SystemTestUtil.getUUID());
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        final TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(dirty.getId(), 0), Permissions.READ_WRITE)
+                .markDirty(true, tid);
+
+        final HeapPageId pid = new HeapPageId(other.getId(), 0);
+        ExecutorService threads = Executors.newFixedThreadPool(8);
+        List<Future<Page>> results = new ArrayList<Future<Page>>();
+        for (int i = 0; i < 8; i++) {
+            results.add(threads.submit(new Callable<Page>() {
+                public Page call() throws Exception {
+                    return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                }
+            }));
+        }
+        for (Future<Page> r : results) {
+            try {
+                r.get(10, TimeUnit.SECONDS);
+                fail("expected the eviction to fail");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof DbException);
+            }
+        }
+        threads.shutdown();
+    }
+
+    /** A heap file whose page writes do not return until let through. */
+    private static class BlockingHeapFile extends HeapFile {
+        final CountDownLatch written = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+
+        BlockingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page page) throws IOException {
+            super.writePage(page);
+            written.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static int countTuples(HeapFile file) {
+        HeapPage page = (HeapPage) file.readPage(new HeapPageId(file.getId(), 0));
+        return page.getAllTuples().size();
+    }
+
+    /**
+     * A tuple inserted into a page after an eviction wrote the page back,
+     * but before the page was dropped, keeps the page dirty, so the tuple
+     * reaches disk.
+     */
+    @Test public void pageDirtiedDuringEviction() throws Exception {
+        Database.resetBufferPool(1);
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 10, 1000, null,
+                new ArrayList<ArrayList<Integer>>());
+        final BlockingHeapFile slow = new BlockingHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(slow, SystemTestUtil.getUUID());
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        final TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, new HeapPageId(slow.getId(), 0), Permissions.READ_WRITE)
+                .markDirty(true, tid);
+
+        final HeapPageId pid = new HeapPageId(other.getId(), 0);
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        Future<Page> evict = threads.submit(new Callable<Page>() {
+            public Page call() throws Exception {
+                return Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+        });
+        assertTrue(slow.written.await(10, TimeUnit.SECONDS));
+        Future<Object> insert = threads.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                Database.getBufferPool().insertTuple(tid, slow.getId(), Utility.getHeapTuple(new int[] { 42 }));
+                return null;
+            }
+        });
+        // give the insert time to dirty the page before the eviction ends
+        Thread.sleep(200);
+        slow.proceed.countDown();
+        evict.get(10, TimeUnit.SECONDS);
+        insert.get(10, TimeUnit.SECONDS);
+        threads.shutdown();
+
+        Database.getBufferPool().flushAllPages();
+        assertEquals(11, countTuples(slow));
+    }
+
+    /** Failures inside a query surface through its future. */
+    @Test public void failure() throws Exception {
+        QueryExecutor executor = new QueryExecutor(1);
+        Future<Object> r = executor.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+                throw new DbException("boom");
+            }
+        });
+        try {
+            r.get();
+            fail("expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof DbException);
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(QueryExecutorTest.class);
+    }
+}
@@ -0,0 +1,220 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SecondaryIndexTest extends SimpleDbTestBase {
+
+    private ArrayList<ArrayList<Integer>> tuples;
+    private HeapFile file;
+    private TransactionId tid;
+
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        file = SystemTestUtil.createRandomHeapFile(2, 3000, 200, null, tuples);
+        tid = new TransactionId();
+    }
+
+    private ArrayList<ArrayList<Integer>> expected(Predicate.Op op, int v) {
+        ArrayList<ArrayList<Integer>> result = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(1)).compare(op, new IntField(v)))
+                result.add(t);
+        }
+        return result;
+    }
+
+    /** Reads all tuples and checks they come back in heap page/slot order. */
+    private int countInHeapOrder(IndexScan scan) throws Exception {
+        scan.open();
+        RecordId last = null;
+        int n = 0;
+        while (scan.hasNext()) {
+            RecordId rid = scan.next().getRecordId();
+            if (last != null) {
+                int lastPage = last.getPageId().pageNumber();
+                int page = rid.getPageId().pageNumber();
+                assertTrue(lastPage < page || (lastPage == page && last.tupleno() < rid.tupleno()));
+            }
+            last = rid;
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    @Test public void buildAndLookup() throws Exception {
+        SecondaryIndex index = Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("index", ".idx"));
+        assertSame(index, Database.getCatalog().getIndex(file.getId(), 1));
+        assertNull(Database.getCatalog().getIndex(file.getId(), 0));
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.GREATER_THAN,
+                Predicate.Op.LESS_THAN_OR_EQ }) {
+            IndexPredicate ipred = new IndexPredicate(op, new IntField(150));
+            SystemTestUtil.matchTuples(new IndexScan(tid, file.getId(), "t", 1, ipred), expected(op, 150));
+            assertEquals(expected(op, 150).size(),
+                    countInHeapOrder(new IndexScan(tid, file.getId(), "t", 1, ipred)));
+        }
+    }
+
+    /**
+     * Adding an index over an indexed field replaces the old index, so
+     * inserts are not entered twice and scans return each tuple once.
+     */
+    @Test public void addedTwice() throws Exception {
+        File f = TestUtil.tempFile("index", ".idx");
+        Database.getCatalog().addIndex(file.getId(), 1, f);
+        SecondaryIndex index = Database.getCatalog().addIndex(file.getId(), 1, f);
+        assertEquals(Arrays.asList(index), Database.getCatalog().getIndexes(file.getId()));
+        SecondaryIndex other = Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("index", ".idx"));
+        assertEquals(Arrays.asList(other), Database.getCatalog().getIndexes(file.getId()));
+
+        Tuple t = new Tuple(file.getTupleDesc());
+        t.setField(0, new IntField(1));
+        t.setField(1, new IntField(500));
+        Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        tuples.add(new ArrayList<Integer>(Arrays.asList(1, 500)));
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(500));
+        SystemTestUtil.matchTuples(new IndexScan(tid, file.getId(), "t", 1, ipred),
+                expected(Predicate.Op.EQUALS, 500));
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void unindexedField() throws Exception {
+        new IndexScan(tid, file.getId(), "t", 0, new IndexPredicate(Predicate.Op.EQUALS, new IntField(1)));
+    }
+
+    /** Inserts and deletes through the BufferPool keep the index in step. */
+    @Test public void maintainedOnInsertAndDelete() throws Exception {
+        Database.getCatalog().addIndex(file.getId(), 1, TestUtil.tempFile("index", ".idx"));
+
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(file.getTupleDesc());
+            t.setField(0, new IntField(i));
+            t.setField(1, new IntField(500));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, 500)));
+        }
+
+        ArrayList<Tuple> doomed = new ArrayList<Tuple>();
+        SeqScan scan = new SeqScan(tid, file.getId(), "t");
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            if (((IntField) t.getField(1)).getValue() < 20)
+                doomed.add(t);
+        }
+        scan.close();
+        assertFalse(doomed.isEmpty());
+        for (Tuple t : doomed)
+            Database.getBufferPool().deleteTuple(tid, t);
+        Iterator<ArrayList<Integer>> it = tuples.iterator();
+        while (it.hasNext()) {
+            if (it.next().get(1) < 20)
+                it.remove();
+        }
+
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+                Predicate.Op.GREATER_THAN_OR_EQ }) {
+            for (int v : new int[] { 10, 100, 500 }) {
+                IndexPredicate ipred = new IndexPredicate(op, new IntField(v));
+                SystemTestUtil.matchTuples(new IndexScan(tid, file.getId(), "t", 1, ipred), expected(op, v));
+            }
+        }
+    }
+
+    /**
+     * An index file written with other included fields, or before the
+     * table last changed, is rebuilt instead of being read with the wrong
+     * entry layout.
+     */
+    @Test public void rebuiltWhenOutOfDate() throws Exception {
+        File f = TestUtil.tempFile("index", ".idx");
+        SecondaryIndex plain = Database.getCatalog().addIndex(file.getId(), 1, f);
+        assertTrue(plain.isUpToDate());
+        assertEquals(expected(Predicate.Op.EQUALS, 7).size(),
+                plain.lookup(tid, new IndexPredicate(Predicate.Op.EQUALS, new IntField(7))).size());
+
+        Database.getCatalog().clear();
+        Database.getCatalog().addTable(file, "t");
+        SecondaryIndex covering = new SecondaryIndex(file.getId(), 1, f, new int[] { 0 });
+        assertFalse(covering.isUpToDate());
+        covering = Database.getCatalog().addIndex(file.getId(), 1, f, new int[] { 0 });
+        assertTrue(covering.isUpToDate());
+        DbFileIterator it = covering.getFile().iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            RecordId rid = new RecordId(new HeapPageId(file.getId(), ((IntField) e.getField(1)).getValue()),
+                    ((IntField) e.getField(2)).getValue());
+            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_ONLY);
+            Tuple t = page.getTuple(rid.tupleno());
+            assertEquals(t.getField(1), e.getField(0));
+            assertEquals(t.getField(0), e.getField(3));
+            n++;
+        }
+        it.close();
+        assertEquals(tuples.size(), n);
+
+        f.setLastModified(file.getFile().lastModified() - 10000);
+        assertFalse(covering.isUpToDate());
+    }
+
+    @Test public void loadSchemaDeclaresIndexes() throws Exception {
+        File dir = TestUtil.tempFile("index", ".idx");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        File schema = new File(dir, "catalog.txt");
+        FileWriter w = new FileWriter(schema);
+        w.write("people (id int pk, lname string idx, age int idx)\n");
+        w.close();
+        new File(dir, "people.dat").createNewFile();
+
+        Database.getCatalog().loadSchema(schema.getPath());
+        int tableid = Database.getCatalog().getTableId("people");
+        assertEquals(2, Database.getCatalog().getIndexes(tableid).size());
+        assertNull(Database.getCatalog().getIndex(tableid, 0));
+        SecondaryIndex byName = Database.getCatalog().getIndex(tableid, 1);
+        assertNotNull(byName);
+
+        String[] names = new String[] { "smith", "jones", "smith", "brown" };
+        for (int i = 0; i < names.length; i++) {
+            Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableid));
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField(names[i], Type.STRING_LEN));
+            t.setField(2, new IntField(30 + i));
+            Database.getBufferPool().insertTuple(tid, tableid, t);
+        }
+        IndexScan scan = new IndexScan(tid, tableid, "p", 1,
+                new IndexPredicate(Predicate.Op.EQUALS, new StringField("smith", Type.STRING_LEN)));
+        scan.open();
+        HashSet<Integer> ids = new HashSet<Integer>();
+        while (scan.hasNext())
+            ids.add(((IntField) scan.next().getField(0)).getValue());
+        scan.close();
+        assertEquals(new HashSet<Integer>(Arrays.asList(0, 2)), ids);
+        assertEquals(0, byName.lookup(tid, new IndexPredicate(Predicate.Op.EQUALS,
+                new StringField("white", Type.STRING_LEN))).size());
+
+        for (File f : dir.listFiles())
+            f.deleteOnExit();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SecondaryIndexTest.class);
+    }
+}
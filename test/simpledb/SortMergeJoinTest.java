@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    int width1 = 2;
+    int width2 = 3;
+    DbIterator scan1;
+    DbIterator scan2;
+    DbIterator eqJoin;
+
+    /**
+     * Initialize each unit test. Both inputs are sorted on field 0 and contain
+     * duplicate keys on both sides.
+     */
+    @Before public void createTupleLists() throws Exception {
+        this.scan1 = TestUtil.createTupleList(width1,
+                new int[] { 1, 10,
+                            1, 11,
+                            2, 20,
+                            4, 40,
+                            4, 41,
+                            6, 60 });
+        this.scan2 = TestUtil.createTupleList(width2,
+                new int[] { 0, 0, 0,
+                            1, 100, 100,
+                            3, 300, 300,
+                            4, 400, 400,
+                            4, 401, 401,
+                            4, 402, 402,
+                            5, 500, 500,
+                            6, 600, 600 });
+        this.eqJoin = TestUtil.createTupleList(width1 + width2,
+                new int[] { 1, 10, 1, 100, 100,
+                            1, 11, 1, 100, 100,
+                            4, 40, 4, 400, 400,
+                            4, 40, 4, 401, 401,
+                            4, 40, 4, 402, 402,
+                            4, 41, 4, 400, 400,
+                            4, 41, 4, 401, 401,
+                            4, 41, 4, 402, 402,
+                            6, 60, 6, 600, 600 });
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getTupleDesc()
+     */
+    @Test public void getTupleDesc() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+        assertEquals(expected, op.getTupleDesc());
+    }
+
+    /**
+     * Unit test for SortMergeJoin.getNext() with duplicate keys on both sides
+     */
+    @Test public void eqJoin() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * Unit test for SortMergeJoin.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+        op.open();
+        while (op.hasNext()) {
+            assertNotNull(op.next());
+        }
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+
+        eqJoin.open();
+        TestUtil.compareDbIterators(eqJoin, op);
+    }
+
+    /**
+     * Unsorted inputs can be joined once they are ordered by OrderBy.
+     */
+    @Test public void joinOrderedInputs() throws Exception {
+        DbIterator left = new OrderBy(0, true, TestUtil.createTupleList(width1,
+                new int[] { 6, 60, 4, 41, 1, 10, 4, 40, 2, 20, 1, 11 }));
+        DbIterator right = new OrderBy(0, true, TestUtil.createTupleList(width2,
+                new int[] { 4, 402, 402, 6, 600, 600, 1, 100, 100, 4, 400, 400,
+                            0, 0, 0, 5, 500, 500, 4, 401, 401, 3, 300, 300 }));
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        SortMergeJoin op = new SortMergeJoin(pred, left, right);
+        op.open();
+        eqJoin.open();
+        TestUtil.matchAllTuples(eqJoin, op);
+
+        int count = 0;
+        op.rewind();
+        while (op.hasNext()) {
+            op.next();
+            count++;
+        }
+        assertEquals(9, count);
+    }
+
+    /**
+     * SortMergeJoin only handles equality predicates.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsNonEquiPredicate() {
+        JoinPredicate pred = new JoinPredicate(0, Predicate.Op.LESS_THAN, 0);
+        new SortMergeJoin(pred, scan1, scan2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TableStatsTest extends SimpleDbTestBase {
+
+    private static void assertClose(double expected, double actual, double relative) {
+        assertEquals(expected, actual, Math.max(1e-4, expected * relative));
+    }
+
+    /**
+     * Estimates over a table larger than the sample: a uniform field and a
+     * field where one value holds 40% of the rows.
+     */
+    @Test public void intFields() throws Exception {
+        final int rows = 100000;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(17);
+        int sevens = 0;
+        for (int i = 0; i < rows; i++) {
+            int skew = rand.nextInt(10) < 4 ? 7 : rand.nextInt(1000);
+            if (skew == 7)
+                sevens++;
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, skew)));
+        }
+        HeapFile file = TestUtil.openCounting(TestUtil.writeTempHeapFile("stats", tuples, 2), 2, "t");
+
+        TableStats stats = new TableStats(file.getId(), TableStats.IOCOSTPERPAGE);
+        assertEquals(rows, stats.totalTuples());
+        assertEquals(file.numPages() * (double) TableStats.IOCOSTPERPAGE, stats.estimateScanCost(), 0);
+        assertClose(rows, stats.numDistinct(0), 0.05);
+        assertClose(1000, stats.numDistinct(1), 0.05);
+
+        IntField quarter = new IntField(rows / 4);
+        assertClose(0.25, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, quarter), 0.05);
+        assertClose(0.75, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ, quarter), 0.05);
+        assertEquals(0, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(0)), 0);
+        assertEquals(1, stats.estimateSelectivity(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(rows)), 0);
+        assertEquals(0, stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(-5)), 0);
+
+        assertClose((double) sevens / rows, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(7)), 0.05);
+        assertClose(0.6 / 1000, stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(500)), 0.5);
+        assertEquals(stats.totalTuples() / 10, stats.estimateTableCardinality(0.1), 1);
+    }
+
+    /** Most common strings are found and counted; others share the rest. */
+    @Test public void stringFields() throws Exception {
+        final int rows = 20000;
+        File text = TestUtil.tempFile("stats", ".txt");
+        PrintWriter w = new PrintWriter(new FileWriter(text));
+        Random rand = new Random(23);
+        int alices = 0;
+        for (int i = 0; i < rows; i++) {
+            int r = rand.nextInt(10);
+            String name = r < 3 ? "alice" : r < 4 ? "bob" : "x" + rand.nextInt(2000);
+            if (name.equals("alice"))
+                alices++;
+            w.println(i + "," + name);
+        }
+        w.close();
+        File data = TestUtil.tempFile("stats", ".dat");
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2, types);
+        HeapFile file = new HeapFile(data, new TupleDesc(types, new String[] { "id", "name" }));
+        Database.getCatalog().addTable(file, "people");
+
+        TableStats stats = new TableStats(file.getId(), TableStats.IOCOSTPERPAGE);
+        assertNull(stats.getHistogram(1));
+        Field[] mcvs = stats.getMostCommonValues(1);
+        assertEquals(new StringField("alice", Type.STRING_LEN), mcvs[0]);
+        assertEquals(new StringField("bob", Type.STRING_LEN), mcvs[1]);
+        assertClose((double) alices / rows,
+                stats.estimateSelectivity(1, Predicate.Op.EQUALS, new StringField("alice", Type.STRING_LEN)), 0.01);
+        assertClose(2002, stats.numDistinct(1), 0.05);
+        assertClose(0.6 / 2000,
+                stats.estimateSelectivity(1, Predicate.Op.EQUALS, new StringField("x17", Type.STRING_LEN)), 0.5);
+    }
+
+    /** Statistics are saved with the catalog, and dropped once out of date. */
+    @Test public void persisted() throws Exception {
+        File dir = File.createTempFile("stats", "");
+        dir.delete();
+        dir.mkdir();
+        dir.deleteOnExit();
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        File data = new File(dir, "t.dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(tuples, data, BufferPool.PAGE_SIZE, 2);
+        HeapFile file = new HeapFile(data, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(file, "t");
+        TableStats stats = new TableStats(file.getId(), TableStats.IOCOSTPERPAGE);
+        Database.getCatalog().setTableStats(file.getId(), stats);
+
+        File binary = new File(dir, "catalog.bin");
+        binary.deleteOnExit();
+        Database.getCatalog().saveCatalog(binary.getPath());
+        Database.getCatalog().clear();
+        Database.getCatalog().loadCatalog(binary.getPath());
+        TableStats read = Database.getCatalog().getTableStats(file.getId());
+        assertNotNull(read);
+        assertEquals(5000, read.totalTuples());
+        assertEquals(stats.numDistinct(1), read.numDistinct(1));
+        IntField v = new IntField(1234);
+        assertEquals(stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN, v),
+                read.estimateSelectivity(0, Predicate.Op.GREATER_THAN, v), 0);
+
+        for (int i = 0; i < 5000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 10)));
+        HeapFileEncoder.convert(tuples, data, BufferPool.PAGE_SIZE, 2);
+        Database.getCatalog().clear();
+        Database.getCatalog().loadCatalog(binary.getPath());
+        assertNull(Database.getCatalog().getTableStats(file.getId()));
+    }
+
+    /**
+     * Inserts and deletes through the BufferPool keep the statistics in
+     * step, and enough of them recompute the statistics.
+     */
+    @Test public void maintained() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 5000; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 100)));
+        HeapFile file = TestUtil.openCounting(TestUtil.writeTempHeapFile("stats", tuples, 2), 2, "t");
+        TableStats stats = new TableStats(file.getId(), TableStats.IOCOSTPERPAGE);
+        Database.getCatalog().setTableStats(file.getId(), stats);
+        final ArrayList<Runnable> refreshes = new ArrayList<Runnable>();
+        TableStats.setRefreshExecutor(new java.util.concurrent.Executor() {
+            public void execute(Runnable task) {
+                refreshes.add(task);
+            }
+        });
+
+        try {
+            TransactionId tid = new TransactionId();
+            IntField five = new IntField(5);
+            assertClose(0.01, stats.estimateSelectivity(1, Predicate.Op.EQUALS, five), 0.05);
+            IntHistogram before = stats.getHistogram(1);
+            long count = before.totalCount();
+            ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+            for (int i = 0; i < 400; i++) {
+                Tuple t = new Tuple(file.getTupleDesc());
+                t.setField(0, new IntField(5000 + i));
+                t.setField(1, five);
+                Database.getBufferPool().insertTuple(tid, file.getId(), t);
+                inserted.add(t);
+            }
+            assertEquals(5400, stats.totalTuples());
+            assertClose(450.0 / 5400, stats.estimateSelectivity(1, Predicate.Op.EQUALS, five), 0.05);
+            assertClose(400.0 / 5400, stats.estimateSelectivity(0, Predicate.Op.GREATER_THAN_OR_EQ,
+                    new IntField(5000)), 0.05);
+            assertEquals(file.numPages(), stats.numPages());
+            // the histogram handed out earlier is a snapshot
+            assertEquals(count, before.totalCount());
+            assertEquals(count + 400, stats.getHistogram(1).totalCount());
+
+            for (int i = 0; i < 300; i++)
+                Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+            assertEquals(5100, stats.totalTuples());
+            assertClose(150.0 / 5100, stats.estimateSelectivity(1, Predicate.Op.EQUALS, five), 0.05);
+            assertFalse(stats.isStale());
+            assertTrue(refreshes.isEmpty());
+
+            for (int i = 300; i < 400; i++)
+                Database.getBufferPool().deleteTuple(tid, inserted.get(i));
+            for (int i = 0; i < 200; i++) {
+                Tuple t = new Tuple(file.getTupleDesc());
+                t.setField(0, new IntField(-i));
+                t.setField(1, new IntField(1000));
+                Database.getBufferPool().insertTuple(tid, file.getId(), t);
+            }
+            assertTrue(stats.isStale());
+            assertEquals(1, refreshes.size());
+            refreshes.get(0).run();
+            TableStats fresh = Database.getCatalog().getTableStats(file.getId());
+            assertNotSame(stats, fresh);
+            assertEquals(5200, fresh.totalTuples());
+            assertEquals(0, fresh.getModifications());
+            assertClose(200.0 / 5200, fresh.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(1000)), 0.05);
+        } finally {
+            TableStats.setRefreshExecutor(null);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TableStatsTest.class);
+    }
+}
@@ -219,7 +219,7 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
-        public Page deleteTuple(TransactionId tid, Tuple t)
+        public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
             throws DbException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
         }
@@ -241,6 +241,54 @@ public class TestUtil {
 		}
     }
 
+    /**
+     * A HeapFile that counts the pages it reads from disk.
+     */
+    public static class CountingHeapFile extends HeapFile {
+        public int reads = 0;
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /**
+     * Creates an empty temporary file, which is deleted on exit along with
+     * the zone map sidecar a HeapFile over it may write.
+     */
+    public static File tempFile(String prefix, String suffix) throws IOException {
+        File f = File.createTempFile(prefix, suffix);
+        f.deleteOnExit();
+        ZoneMap.sidecarFile(f).deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Writes rows of INT_TYPE values to a temporary heap file, which is
+     * deleted on exit along with its zone map sidecar.
+     */
+    public static File writeTempHeapFile(String prefix, ArrayList<ArrayList<Integer>> tuples, int columns)
+            throws IOException {
+        File f = tempFile(prefix, ".dat");
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, columns);
+        return f;
+    }
+
+    /**
+     * Opens a heap file of INT_TYPE columns as a CountingHeapFile and adds
+     * it to the catalog under the given name.
+     */
+    public static CountingHeapFile openCounting(File f, int columns, String name) {
+        CountingHeapFile file = new CountingHeapFile(f, Utility.getTupleDesc(columns));
+        Database.getCatalog().addTable(file, name);
+        return file;
+    }
+
     /**
      * Mock SeqScan class for unit testing.
      */
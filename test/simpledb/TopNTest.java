@@ -0,0 +1,78 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+    /**
+     * Unit test for TopN.getNext() in ascending order
+     */
+    @Test public void ascending() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2,
+                new int[] { 5, 50, 1, 10, 4, 40, 2, 20, 3, 30 });
+        TopN op = new TopN(0, true, 3, child);
+        op.open();
+        DbIterator expected = TestUtil.createTupleList(2,
+                new int[] { 1, 10, 2, 20, 3, 30 });
+        TestUtil.compareDbIterators(expected, op);
+    }
+
+    /**
+     * Unit test for TopN.getNext() in descending order
+     */
+    @Test public void descending() throws Exception {
+        DbIterator child = TestUtil.createTupleList(2,
+                new int[] { 5, 50, 1, 10, 4, 40, 2, 20, 3, 30 });
+        TopN op = new TopN(1, false, 2, child);
+        op.open();
+        DbIterator expected = TestUtil.createTupleList(2,
+                new int[] { 5, 50, 4, 40 });
+        TestUtil.compareDbIterators(expected, op);
+    }
+
+    /**
+     * TopN agrees with OrderBy followed by Limit on random input.
+     */
+    @Test public void matchesOrderByLimit() throws Exception {
+        Random r = new Random(42);
+        int[] data = new int[2000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = r.nextInt(500);
+
+        for (int n : new int[] { 0, 1, 17, 2000, 5000 }) {
+            TopN top = new TopN(0, true, n, TestUtil.createTupleList(1, data));
+            Limit limit = new Limit(new OrderBy(0, true, TestUtil.createTupleList(1, data)), n);
+            top.open();
+            limit.open();
+            TestUtil.compareDbIterators(limit, top);
+        }
+    }
+
+    /**
+     * Unit test for TopN.rewind()
+     */
+    @Test public void rewind() throws Exception {
+        TopN op = new TopN(0, false, 2, TestUtil.createTupleList(1, new int[] { 3, 9, 1, 7 }));
+        op.open();
+        op.next();
+        op.next();
+        assertTrue(TestUtil.checkExhausted(op));
+        op.rewind();
+        TestUtil.compareDbIterators(TestUtil.createTupleList(1, new int[] { 9, 7 }), op);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TopNTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.CountingHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 5000;
+
+    private final TransactionId tid = new TransactionId();
+    private File dataFile;
+    private ArrayList<ArrayList<Integer>> tuples;
+
+    /** Writes a table whose field 0 is an id that follows insertion order. */
+    @Before public void createTable() throws Exception {
+        tuples = new ArrayList<ArrayList<Integer>>();
+        Random rand = new Random(42);
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, rand.nextInt(100))));
+        dataFile = TestUtil.writeTempHeapFile("zonemap", tuples, 2);
+    }
+
+    private CountingHeapFile open() {
+        return TestUtil.openCounting(dataFile, 2, "t");
+    }
+
+    private int count(CountingHeapFile file, Predicate... predicates) throws Exception {
+        SelectionScan scan = new SelectionScan(tid, file.getId(), "t", predicates);
+        scan.open();
+        int n = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            n++;
+        }
+        scan.close();
+        return n;
+    }
+
+    private int expected(int field, Predicate.Op op, int c) {
+        int n = 0;
+        for (ArrayList<Integer> t : tuples) {
+            if (new IntField(t.get(field)).compare(op, new IntField(c)))
+                n++;
+        }
+        return n;
+    }
+
+    /**
+     * The first filtered scan reads every page and records their ranges;
+     * later range scans on the clustered id read only the matching pages,
+     * and predicates on the unclustered field still read them all.
+     */
+    @Test public void skipsPages() throws Exception {
+        CountingHeapFile file = open();
+        Predicate low = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(100));
+        assertEquals(100, count(file, low));
+        assertEquals(file.numPages(), file.reads);
+        assertTrue(file.numPages() > 5);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        assertEquals(100, count(file, low));
+        assertEquals(1, file.reads);
+
+        file.reads = 0;
+        Predicate high = new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(ROWS - 10));
+        assertEquals(10, count(file, high, new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000))));
+        assertEquals(1, file.reads);
+
+        file.reads = 0;
+        assertEquals(0, count(file, new Predicate(0, Predicate.Op.EQUALS, new IntField(-5))));
+        assertEquals(0, file.reads);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        assertEquals(expected(1, Predicate.Op.EQUALS, 7),
+                count(file, new Predicate(1, Predicate.Op.EQUALS, new IntField(7))));
+        assertEquals(file.numPages(), file.reads);
+    }
+
+    /** The zone map is reloaded from the sidecar by a new HeapFile. */
+    @Test public void persistence() throws Exception {
+        CountingHeapFile file = open();
+        count(file, new Predicate(0, Predicate.Op.EQUALS, new IntField(0)));
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = open();
+        assertEquals(1, count(file, new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS / 2))));
+        assertEquals(1, file.reads);
+    }
+
+    /** Inserts widen the ranges, and written pages get exact ranges. */
+    @Test public void maintainedOnInsert() throws Exception {
+        CountingHeapFile file = open();
+        Predicate big = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(1000000));
+        assertEquals(0, count(file, big));
+
+        for (int i = 0; i < 600; i++) {
+            Tuple t = new Tuple(file.getTupleDesc());
+            t.setField(0, new IntField(2000000 + i));
+            t.setField(1, new IntField(0));
+            Database.getBufferPool().insertTuple(tid, file.getId(), t);
+        }
+        assertEquals(600, count(file, big));
+
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file.reads = 0;
+        assertEquals(600, count(file, big));
+        assertTrue(file.reads <= 3);
+    }
+
+    /** A sidecar older than a rewritten heap file is discarded. */
+    @Test public void staleSidecar() throws Exception {
+        CountingHeapFile file = open();
+        count(file, new Predicate(0, Predicate.Op.EQUALS, new IntField(0)));
+        assertTrue(ZoneMap.sidecarFile(dataFile).exists());
+
+        for (ArrayList<Integer> t : tuples)
+            t.set(0, ROWS - 1 - t.get(0));
+        HeapFileEncoder.convert(tuples, dataFile, BufferPool.PAGE_SIZE, 2);
+        dataFile.setLastModified(ZoneMap.sidecarFile(dataFile).lastModified() + 1000);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = open();
+        assertEquals(1, count(file, new Predicate(0, Predicate.Op.EQUALS, new IntField(0))));
+        assertEquals(file.numPages(), file.reads);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb.systemtest;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks ParallelAggregate against aggregates computed directly from the
+ * generated tuples.
+ */
+public class ParallelAggregateTest extends SimpleDbTestBase {
+
+    private static ArrayList<ArrayList<Integer>> expected(ArrayList<ArrayList<Integer>> tuples,
+            int afield, int gfield, Aggregator.Op op) {
+        // group key -> {min, max, sum, count}
+        TreeMap<Integer, long[]> groups = new TreeMap<Integer, long[]>();
+        for (ArrayList<Integer> t : tuples) {
+            int key = gfield == Aggregator.NO_GROUPING ? 0 : t.get(gfield);
+            int v = t.get(afield);
+            long[] s = groups.get(key);
+            if (s == null) {
+                s = new long[] { v, v, 0, 0 };
+                groups.put(key, s);
+            }
+            s[0] = Math.min(s[0], v);
+            s[1] = Math.max(s[1], v);
+            s[2] += v;
+            s[3]++;
+        }
+
+        ArrayList<ArrayList<Integer>> out = new ArrayList<ArrayList<Integer>>();
+        for (Map.Entry<Integer, long[]> e : groups.entrySet()) {
+            long[] s = e.getValue();
+            long value;
+            switch (op) {
+            case MIN: value = s[0]; break;
+            case MAX: value = s[1]; break;
+            case SUM: value = s[2]; break;
+            case AVG: value = s[2] / s[3]; break;
+            default: value = s[3]; break;
+            }
+            ArrayList<Integer> row = new ArrayList<Integer>();
+            if (gfield != Aggregator.NO_GROUPING)
+                row.add(e.getKey());
+            row.add((int) value);
+            out.add(row);
+        }
+        return out;
+    }
+
+    private void validate(HeapFile f, ArrayList<ArrayList<Integer>> tuples, ForkJoinPool pool,
+            int morselPages) throws IOException, DbException, TransactionAbortedException {
+        for (Aggregator.Op op : Aggregator.Op.values()) {
+            for (int gfield : new int[] { Aggregator.NO_GROUPING, 0 }) {
+                TransactionId tid = new TransactionId();
+                ParallelAggregate agg = new ParallelAggregate(tid, f.getId(), "t", 1, gfield, op,
+                        pool, morselPages);
+                SystemTestUtil.matchTuples(agg, expected(tuples, 1, gfield, op));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
+    @Test public void testAggregate() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10000, 300, null, tuples);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            validate(f, tuples, pool, 1);
+            validate(f, tuples, pool, ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+        } finally {
+            pool.shutdown();
+        }
+        validate(f, tuples, new ForkJoinPool(1), 1);
+    }
+
+    /** An empty table yields no groups. */
+    @Test public void testEmpty() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ParallelAggregate(tid, f.getId(), "t", 1, 0,
+                Aggregator.Op.SUM), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelAggregateTest.class);
+    }
+}
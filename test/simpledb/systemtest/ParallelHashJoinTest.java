@@ -0,0 +1,101 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that ParallelHashJoin returns exactly the tuples of a nested-loop
+ * equi-join, whatever the number of workers and the morsel size.
+ */
+public class ParallelHashJoinTest extends SimpleDbTestBase {
+
+    private static final int MAX_VALUE = 1000;
+
+    private void validateJoin(int rows1, int rows2, ForkJoinPool pool, int morselPages)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> t1 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(3, rows1, MAX_VALUE, null, t1);
+        ArrayList<ArrayList<Integer>> t2 = new ArrayList<ArrayList<Integer>>();
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, rows2, MAX_VALUE, null, t2);
+
+        // join t1.field1 = t2.field0
+        ArrayList<ArrayList<Integer>> expected = new ArrayList<ArrayList<Integer>>();
+        for (ArrayList<Integer> a : t1) {
+            for (ArrayList<Integer> b : t2) {
+                if (a.get(1).equals(b.get(0))) {
+                    ArrayList<Integer> joined = new ArrayList<Integer>(a);
+                    joined.addAll(b);
+                    expected.add(joined);
+                }
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 0);
+        ParallelHashJoin join = new ParallelHashJoin(tid, p, f1.getId(), "a", f2.getId(), "b",
+                pool, morselPages);
+        assertEquals(5, join.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(join, expected);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @Test public void testJoin() throws IOException, DbException, TransactionAbortedException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            validateJoin(0, 100, pool, 1);
+            validateJoin(100, 0, pool, 1);
+            validateJoin(2000, 1000, pool, 1);
+            validateJoin(3000, 500, pool, ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+        } finally {
+            pool.shutdown();
+        }
+        validateJoin(1000, 1000, new ForkJoinPool(1), 2);
+    }
+
+    /** Rewinding reruns the probe against the same build table. */
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(1, 2000, 10, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(1, 20, 10, null, null);
+        TransactionId tid = new TransactionId();
+        ParallelHashJoin join = new ParallelHashJoin(tid, new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                f1.getId(), "a", f2.getId(), "b");
+        join.open();
+        int first = 0;
+        while (join.hasNext()) {
+            join.next();
+            first++;
+        }
+        join.rewind();
+        for (int i = 0; i < 10 && join.hasNext(); i++)
+            join.next();
+        join.rewind();
+        int second = 0;
+        while (join.hasNext()) {
+            join.next();
+            second++;
+        }
+        assertEquals(first, second);
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test(expected = IllegalArgumentException.class) public void testNonEquality()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        new ParallelHashJoin(new TransactionId(), new JoinPredicate(0, Predicate.Op.LESS_THAN, 0),
+                f.getId(), "a", f.getId(), "b");
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelHashJoinTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+import simpledb.*;
+
+/**
+ * Checks that ParallelSeqScan returns exactly the tuples of the table,
+ * whatever the morsel size and the number of workers.
+ */
+public class ParallelScanTest extends SimpleDbTestBase {
+
+    private void validateScan(int columns, int rows, ForkJoinPool pool, int morselPages)
+            throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(columns, rows, null, tuples);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", pool, morselPages);
+        SystemTestUtil.matchTuples(scan, tuples);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /** Scan tables of several sizes with different morsel sizes. */
+    @Test public void testScan() throws IOException, DbException, TransactionAbortedException {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            int[] rowSizes = new int[] { 0, 1, 511, 512, 513, 4096, 10000 };
+            for (int rows : rowSizes) {
+                validateScan(2, rows, pool, 1);
+                validateScan(3, rows, pool, ParallelSeqScan.DEFAULT_MORSEL_PAGES);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Rewinding restarts the scan from the beginning. */
+    @Test public void testRewind() throws IOException, DbException, TransactionAbortedException {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t");
+        scan.open();
+        for (int i = 0; i < 100; ++i)
+            assertNotNull(scan.next());
+
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        assertEquals(5000, count);
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Closing a scan early stops the workers without hanging. */
+    @Test(timeout = 10000) public void testEarlyClose()
+            throws IOException, DbException, TransactionAbortedException {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(1, 992 * 40, null, null);
+        TransactionId tid = new TransactionId();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                ParallelSeqScan scan = new ParallelSeqScan(tid, f.getId(), "t", pool, 1);
+                scan.open();
+                assertTrue(scan.hasNext());
+                scan.next();
+                scan.close();
+            }
+        } finally {
+            pool.shutdown();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelScanTest.class);
+    }
+}